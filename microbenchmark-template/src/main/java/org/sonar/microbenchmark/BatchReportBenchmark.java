@@ -0,0 +1,148 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.microbenchmark;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.batch.protocol.Constants;
+import org.sonar.batch.protocol.output.BatchReport;
+import org.sonar.batch.protocol.output.BatchReportReader;
+import org.sonar.batch.protocol.output.BatchReportWriter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the default layout of batch report (one file per component and per domain) with the segmented
+ * layout (one segment file and one index per domain)
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+public class BatchReportBenchmark {
+
+  @Param({"1000", "10000"})
+  public int componentsNumber;
+
+  @Param({"false", "true"})
+  public boolean segmented;
+
+  File writeDir;
+  File readDir;
+  List<BatchReport.Issue> issues;
+  List<BatchReport.Measure> measures;
+
+  @Setup
+  public void setup() throws Exception {
+    issues = Arrays.asList(
+      BatchReport.Issue.newBuilder().setUuid("ISSUE_A").setLine(10).setMsg("the message").setRuleRepository("squid").setRuleKey("S123")
+        .setSeverity(Constants.Severity.BLOCKER).build(),
+      BatchReport.Issue.newBuilder().setUuid("ISSUE_B").setLine(20).setMsg("another message").setRuleRepository("squid").setRuleKey("S456")
+        .setSeverity(Constants.Severity.MAJOR).build());
+    measures = Arrays.asList(
+      BatchReport.Measure.newBuilder().setMetricKey("ncloc").setValueType(Constants.MeasureValueType.INT).setIntValue(150).build(),
+      BatchReport.Measure.newBuilder().setMetricKey("complexity").setValueType(Constants.MeasureValueType.INT).setIntValue(12).build());
+
+    readDir = Files.createTempDirectory("batch-report-read").toFile();
+    write(readDir);
+  }
+
+  @Setup(Level.Invocation)
+  public void setupWriteDir() throws Exception {
+    writeDir = Files.createTempDirectory("batch-report-write").toFile();
+  }
+
+  @TearDown(Level.Invocation)
+  public void cleanWriteDir() {
+    FileUtils.deleteQuietly(writeDir);
+  }
+
+  @TearDown
+  public void cleanReadDir() {
+    FileUtils.deleteQuietly(readDir);
+  }
+
+  @Benchmark
+  public void write_report() {
+    write(writeDir);
+  }
+
+  @Benchmark
+  public int read_report() {
+    int count = 0;
+    try (BatchReportReader reader = new BatchReportReader(readDir)) {
+      for (int ref = 1; ref <= componentsNumber; ref++) {
+        count += reader.readComponent(ref).getChildRefCount();
+        count += reader.readComponentIssues(ref).size();
+        count += reader.readComponentMeasures(ref).size();
+      }
+    }
+    return count;
+  }
+
+  private void write(File dir) {
+    try (BatchReportWriter writer = new BatchReportWriter(dir, segmented)) {
+      for (int ref = 1; ref <= componentsNumber; ref++) {
+        writer.writeComponent(BatchReport.Component.newBuilder()
+          .setRef(ref)
+          .setType(Constants.ComponentType.FILE)
+          .setPath("src/main/java/Foo" + ref + ".java")
+          .setLanguage("java")
+          .setUuid("UUID_" + ref)
+          .build());
+        writer.writeComponentIssues(ref, issues);
+        writer.writeComponentMeasures(ref, measures);
+      }
+    }
+  }
+
+  /**
+   * You can this benchmark with maven command-line (see run.sh) or by executing this method
+   * in IDE
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(BatchReportBenchmark.class.getSimpleName())
+      .build();
+    new Runner(opt).run();
+  }
+}
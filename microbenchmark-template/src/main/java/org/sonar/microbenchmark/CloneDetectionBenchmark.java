@@ -0,0 +1,137 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.microbenchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
+import org.sonar.duplications.detector.hashjoin.HashJoinCloneDetectionAlgorithm;
+import org.sonar.duplications.detector.suffixtree.SuffixTreeCloneDetectionAlgorithm;
+import org.sonar.duplications.index.CloneGroup;
+import org.sonar.duplications.index.CloneIndex;
+import org.sonar.duplications.index.HashTableCloneIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the algorithms detecting the duplications of a file on synthetic inputs:
+ * <ul>
+ *   <li>random: the file shares some blocks with the files of the index, as most of real files</li>
+ *   <li>periodic: the file repeats a short sequence of blocks, as some generated files</li>
+ *   <li>identical: all the blocks of the file are the same (see SONAR-3060)</li>
+ * </ul>
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+public class CloneDetectionBenchmark {
+
+  static final int FILES_IN_INDEX = 300;
+  static final int BLOCKS_PER_INDEXED_FILE = 2000;
+
+  @Param({"random", "periodic", "identical"})
+  String input;
+
+  @Param({"5000"})
+  int blocks;
+
+  CloneIndex index;
+  List<Block> fileBlocks;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    index = new HashTableCloneIndex();
+    fileBlocks = new ArrayList<>();
+    long[] fileHashes = new long[blocks];
+    for (int i = 0; i < blocks; i++) {
+      long hash;
+      if ("random".equals(input)) {
+        hash = random.nextInt(blocks);
+      } else if ("periodic".equals(input)) {
+        hash = i % 3;
+      } else {
+        hash = 0;
+      }
+      fileHashes[i] = hash;
+      fileBlocks.add(newBlock("File.java", hash, i));
+    }
+    if ("random".equals(input)) {
+      for (int f = 0; f < FILES_IN_INDEX; f++) {
+        for (int i = 0; i < BLOCKS_PER_INDEXED_FILE; i++) {
+          // one block out of five is the one of the file at the same index, so that files share sequences of blocks
+          long hash = random.nextInt(5) == 0 ? fileHashes[i % blocks] : (blocks + random.nextInt(Integer.MAX_VALUE - blocks));
+          index.insert(newBlock("Indexed" + f + ".java", hash, i));
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public List<CloneGroup> suffix_tree() {
+    return SuffixTreeCloneDetectionAlgorithm.detect(index, fileBlocks);
+  }
+
+  @Benchmark
+  public List<CloneGroup> hash_join() {
+    return HashJoinCloneDetectionAlgorithm.detect(index, fileBlocks);
+  }
+
+  private static Block newBlock(String resourceId, long hash, int indexInFile) {
+    return Block.builder()
+      .setResourceId(resourceId)
+      .setBlockHash(new ByteArray(hash))
+      .setIndexInFile(indexInFile)
+      .setLines(indexInFile, indexInFile + 10)
+      .setUnit(indexInFile, indexInFile + 50)
+      .build();
+  }
+
+  /**
+   * You can this benchmark with maven command-line (see run.sh) or by executing this method
+   * in IDE
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(CloneDetectionBenchmark.class.getSimpleName())
+      .build();
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.microbenchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
+import org.sonar.duplications.index.CloneIndex;
+import org.sonar.duplications.index.HashTableCloneIndex;
+import org.sonar.duplications.index.PackedMemoryCloneIndex;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the indexes of blocks used by the detection of duplications. The default number of blocks is about the
+ * number of blocks of the JDK sources. Each lookup benchmark queries the hashes of all the blocks of
+ * {@link #FILES_PER_OPERATION} files, as done by the detection of duplications of these files.
+ */
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+public class CloneIndexBenchmark {
+
+  static final int BLOCKS_PER_FILE = 200;
+  static final int FILES_PER_OPERATION = 100;
+
+  @Param({"100000", "1500000"})
+  int blocks;
+
+  /**
+   * Ratio of distinct hashes. The lower, the more duplications.
+   */
+  @Param({"0.9"})
+  double distinctHashes;
+
+  Block[] allBlocks;
+  ByteArray[] queriedHashes;
+  String[] queriedResources;
+  PackedMemoryCloneIndex packedIndex;
+  HashTableCloneIndex hashTableIndex;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    int files = Math.max(1, blocks / BLOCKS_PER_FILE);
+    int hashes = (int) (blocks * distinctHashes);
+    allBlocks = new Block[blocks];
+    for (int i = 0; i < blocks; i++) {
+      allBlocks[i] = Block.builder()
+        .setResourceId("org.sonar:project:src/main/java/File" + (i / BLOCKS_PER_FILE) + ".java")
+        .setBlockHash(new ByteArray(random.nextInt(hashes) * 0x5DEECE66DL))
+        .setIndexInFile(i % BLOCKS_PER_FILE)
+        .setLines(i % BLOCKS_PER_FILE, i % BLOCKS_PER_FILE + 10)
+        .setUnit(i % BLOCKS_PER_FILE, i % BLOCKS_PER_FILE + 50)
+        .build();
+    }
+    queriedHashes = new ByteArray[FILES_PER_OPERATION * BLOCKS_PER_FILE];
+    queriedResources = new String[FILES_PER_OPERATION];
+    for (int i = 0; i < FILES_PER_OPERATION; i++) {
+      int file = random.nextInt(files);
+      queriedResources[i] = "org.sonar:project:src/main/java/File" + file + ".java";
+      for (int j = 0; j < BLOCKS_PER_FILE; j++) {
+        queriedHashes[i * BLOCKS_PER_FILE + j] = allBlocks[Math.min(blocks - 1, file * BLOCKS_PER_FILE + j)].getBlockHash();
+      }
+    }
+    packedIndex = (PackedMemoryCloneIndex) fill(new PackedMemoryCloneIndex());
+    hashTableIndex = (HashTableCloneIndex) fill(new HashTableCloneIndex());
+    // sorts the packed index
+    packedIndex.getByResourceId(queriedResources[0]);
+  }
+
+  @Benchmark
+  public void build_packed(Blackhole blackhole) {
+    CloneIndex index = fill(new PackedMemoryCloneIndex());
+    // the packed index is sorted by the first query
+    blackhole.consume(index.getByResourceId(queriedResources[0]));
+  }
+
+  @Benchmark
+  public void build_hash_table(Blackhole blackhole) {
+    CloneIndex index = fill(new HashTableCloneIndex());
+    blackhole.consume(index.getByResourceId(queriedResources[0]));
+  }
+
+  @Benchmark
+  public void lookup_by_hash_packed(Blackhole blackhole) {
+    for (ByteArray hash : queriedHashes) {
+      blackhole.consume(packedIndex.getBySequenceHash(hash));
+    }
+  }
+
+  @Benchmark
+  public void lookup_by_hash_hash_table(Blackhole blackhole) {
+    for (ByteArray hash : queriedHashes) {
+      blackhole.consume(hashTableIndex.getBySequenceHash(hash));
+    }
+  }
+
+  @Benchmark
+  public int visit_by_hash_hash_table() {
+    Counter counter = new Counter();
+    for (ByteArray hash : queriedHashes) {
+      hashTableIndex.visitBySequenceHash(hash, counter);
+    }
+    return counter.sum;
+  }
+
+  @Benchmark
+  public void lookup_by_resource_packed(Blackhole blackhole) {
+    for (String resourceId : queriedResources) {
+      blackhole.consume(packedIndex.getByResourceId(resourceId));
+    }
+  }
+
+  @Benchmark
+  public void lookup_by_resource_hash_table(Blackhole blackhole) {
+    for (String resourceId : queriedResources) {
+      blackhole.consume(hashTableIndex.getByResourceId(resourceId));
+    }
+  }
+
+  private CloneIndex fill(CloneIndex index) {
+    for (Block block : allBlocks) {
+      index.insert(block);
+    }
+    return index;
+  }
+
+  private static class Counter implements HashTableCloneIndex.BlockVisitor {
+    int sum;
+
+    @Override
+    public void visit(long hash, String resourceId, int indexInFile, int startLine, int endLine, int startUnit, int endUnit) {
+      sum += indexInFile + startLine;
+    }
+  }
+
+  /**
+   * You can this benchmark with maven command-line (see run.sh) or by executing this method
+   * in IDE
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(CloneIndexBenchmark.class.getSimpleName())
+      .build();
+    new Runner(opt).run();
+  }
+}
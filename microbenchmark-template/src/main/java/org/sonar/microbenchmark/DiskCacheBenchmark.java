@@ -0,0 +1,162 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.microbenchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.api.issue.internal.IssueChangeContext;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.utils.Duration;
+import org.sonar.api.utils.System2;
+import org.sonar.server.computation.issue.DefaultIssueCodec;
+import org.sonar.server.util.CloseableIterator;
+import org.sonar.server.util.cache.DiskCache;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the formats of {@link DiskCache} for the issues of the compute engine. The throughput is
+ * expressed in batches of {@link #ISSUES} issues. The number of bytes per issue is printed at the end of
+ * each trial.
+ */
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+public class DiskCacheBenchmark {
+
+  static final int ISSUES = 10000;
+
+  @Param({"serialization", "codec", "codec_lz4"})
+  String format;
+
+  File file;
+  DiskCache<DefaultIssue> cache;
+  DefaultIssue[] issues;
+
+  @Setup
+  public void setup() throws Exception {
+    file = File.createTempFile("microbenchmark", ".cache");
+    issues = new DefaultIssue[ISSUES];
+    Date now = new Date();
+    for (int i = 0; i < ISSUES; i++) {
+      issues[i] = newIssue(i, now);
+    }
+    cache = newCache();
+    write();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    System.out.printf("%n%s: %d bytes/issue%n", format, file.length() / ISSUES);
+    file.delete();
+  }
+
+  @Benchmark
+  public void write() throws Exception {
+    // the cache is re-created so that the file is truncated
+    cache = newCache();
+    try (DiskCache<DefaultIssue>.DiskAppender appender = cache.newAppender()) {
+      for (DefaultIssue issue : issues) {
+        appender.append(issue);
+      }
+    }
+  }
+
+  @Benchmark
+  public void read(Blackhole blackhole) throws Exception {
+    try (CloseableIterator<DefaultIssue> it = cache.traverse()) {
+      while (it.hasNext()) {
+        blackhole.consume(it.next());
+      }
+    }
+  }
+
+  private DiskCache<DefaultIssue> newCache() {
+    switch (format) {
+      case "codec":
+        return new DiskCache<>(file, System2.INSTANCE, new DefaultIssueCodec(), false);
+      case "codec_lz4":
+        return new DiskCache<>(file, System2.INSTANCE, new DefaultIssueCodec(), true);
+      default:
+        return new DiskCache<>(file, System2.INSTANCE);
+    }
+  }
+
+  private static DefaultIssue newIssue(int i, Date date) {
+    DefaultIssue issue = new DefaultIssue()
+      .setKey("AU-TpxcA-iU5OvuD2FL" + i)
+      .setComponentUuid("AU-TpxcA-iU5OvuD2FLz")
+      .setComponentKey("org.codehaus.sonar:sonar-server:src/main/java/org/sonar/server/Foo.java")
+      .setModuleUuid("AU-TpxcA-iU5OvuD2FLy")
+      .setModuleUuidPath(".AU-TpxcA-iU5OvuD2FLx.AU-TpxcA-iU5OvuD2FLy.")
+      .setProjectUuid("AU-TpxcA-iU5OvuD2FLx")
+      .setProjectKey("org.codehaus.sonar:sonar")
+      .setRuleKey(RuleKey.of("squid", "S00" + (i % 100)))
+      .setLanguage("java")
+      .setSeverity(Severity.MAJOR)
+      .setMessage("this is the message of issue " + i)
+      .setLine(i)
+      .setDebt(Duration.create(10L))
+      .setStatus(Issue.STATUS_OPEN)
+      .setChecksum("a227e508d6646b55a086ee11d63b21e9" + i)
+      .setAuthorLogin("someone")
+      .setTags(Arrays.asList("tag" + i, "othertag" + i))
+      .setCreationDate(date)
+      .setUpdateDate(date);
+    issue.setFieldChange(IssueChangeContext.createScan(date), "severity", Severity.MINOR, Severity.MAJOR);
+    return issue;
+  }
+
+  /**
+   * You can this benchmark with maven command-line (see run.sh) or by executing this method
+   * in IDE
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(DiskCacheBenchmark.class.getSimpleName())
+      .build();
+    new Runner(opt).run();
+  }
+}
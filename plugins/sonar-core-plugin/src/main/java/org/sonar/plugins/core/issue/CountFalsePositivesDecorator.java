@@ -35,6 +35,7 @@ import org.sonar.api.resources.Resource;
  * @since 3.6
  */
 @DependsUpon(DecoratorBarriers.END_OF_VIOLATION_TRACKING)
+@SequentialDecorator
 public class CountFalsePositivesDecorator implements Decorator {
 
   private final ResourcePerspectives perspectives;
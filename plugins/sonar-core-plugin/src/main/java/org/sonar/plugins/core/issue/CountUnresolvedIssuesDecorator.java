@@ -46,6 +46,7 @@ import java.util.*;
  */
 @DependsUpon(DecoratorBarriers.ISSUES_TRACKED)
 @RequiresDB
+@SequentialDecorator
 public class CountUnresolvedIssuesDecorator implements Decorator {
 
   private final ResourcePerspectives perspectives;
@@ -23,6 +23,7 @@ import org.sonar.api.batch.Decorator;
 import org.sonar.api.batch.DecoratorContext;
 import org.sonar.api.batch.Phase;
 import org.sonar.api.batch.RequiresDB;
+import org.sonar.api.batch.SequentialDecorator;
 import org.sonar.api.database.DatabaseSession;
 import org.sonar.api.measures.Measure;
 import org.sonar.api.measures.Metric;
@@ -37,6 +38,7 @@ import static com.google.common.base.Preconditions.checkState;
 
 @Phase(name = Phase.Name.PRE)
 @RequiresDB
+@SequentialDecorator
 public class ManualMeasureDecorator implements Decorator {
 
   private DatabaseSession session;
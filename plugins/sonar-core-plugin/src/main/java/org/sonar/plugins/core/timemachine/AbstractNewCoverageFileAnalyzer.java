@@ -28,6 +28,7 @@ import org.sonar.api.batch.DecoratorContext;
 import org.sonar.api.batch.DependedUpon;
 import org.sonar.api.batch.DependsUpon;
 import org.sonar.api.batch.RequiresDB;
+import org.sonar.api.batch.SequentialDecorator;
 import org.sonar.api.measures.Measure;
 import org.sonar.api.measures.Metric;
 import org.sonar.api.resources.Project;
@@ -55,6 +56,7 @@ import java.util.Map;
  */
 @RequiresDB
 @DependedUpon(DecoratorBarriers.END_OF_TIME_MACHINE)
+@SequentialDecorator
 public abstract class AbstractNewCoverageFileAnalyzer implements Decorator {
 
   private final List<PeriodStruct> structs;
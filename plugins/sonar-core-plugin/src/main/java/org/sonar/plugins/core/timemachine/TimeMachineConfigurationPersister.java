@@ -35,6 +35,7 @@ import static org.sonar.api.utils.DateUtils.dateToLong;
 
 @DependedUpon(DecoratorBarriers.END_OF_TIME_MACHINE)
 @RequiresDB
+@SequentialDecorator
 public final class TimeMachineConfigurationPersister implements Decorator {
 
   private final TimeMachineConfiguration timeMachineConfiguration;
@@ -42,6 +42,7 @@ import java.util.Map;
 
 @DependedUpon(DecoratorBarriers.END_OF_TIME_MACHINE)
 @RequiresDB
+@SequentialDecorator
 public class VariationDecorator implements Decorator {
 
   private List<PastSnapshot> projectPastSnapshots;
@@ -26,7 +26,9 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.utils.internal.Uuids;
+import org.sonar.core.persistence.DbSession;
 import org.sonar.core.persistence.DbTester;
+import org.sonar.core.persistence.MyBatis;
 import org.sonar.core.source.db.FileSourceDto;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.source.db.FileSourceDao;
@@ -50,6 +52,7 @@ public class SourceDbBenchmarkTest {
   public static final int NUMBER_OF_FILES = 1000;
   public static final int NUMBER_OF_LINES = 3220;
   public static final String PROJECT_UUID = Uuids.create();
+  public static final long MAX_BATCH_BYTES = 20L * 1024 * 1024;
 
   @Rule
   public DbTester dbTester = new DbTester();
@@ -96,14 +99,44 @@ public class SourceDbBenchmarkTest {
   private void prepareTable() throws IOException {
     LOGGER.info("Populate table FILE_SOURCES");
     FileSourceDao dao = new FileSourceDao(dbTester.myBatis());
-    for (int i = 0; i < NUMBER_OF_FILES; i++) {
-      dao.insert(generateDto());
+    byte[] data = generateData();
+    String lineHashes = IOUtils.toString(getClass().getResourceAsStream("SourceDbBenchmarkTest/line_hashes.txt"));
+    int rowsPerMode = NUMBER_OF_FILES / 2;
+
+    // one commit per row
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < rowsPerMode; i++) {
+      dao.insert(generateDto(data, lineHashes));
+    }
+    logInsertThroughput("commit per row", rowsPerMode, System.currentTimeMillis() - start);
+
+    // batch session committed when the pending rows hold too many bytes, as done by PersistFileSourcesStep
+    start = System.currentTimeMillis();
+    DbSession session = dbTester.myBatis().openSession(true);
+    try {
+      long batchBytes = 0L;
+      for (int i = rowsPerMode; i < NUMBER_OF_FILES; i++) {
+        dao.insert(session, generateDto(data, lineHashes));
+        batchBytes += data.length;
+        if (batchBytes >= MAX_BATCH_BYTES) {
+          session.commit();
+          batchBytes = 0L;
+        }
+      }
+      session.commit();
+    } finally {
+      MyBatis.closeQuietly(session);
     }
+    logInsertThroughput("batch", NUMBER_OF_FILES - rowsPerMode, System.currentTimeMillis() - start);
   }
 
-  private FileSourceDto generateDto() throws IOException {
+  private void logInsertThroughput(String mode, int rows, long period) {
+    long throughputPerSecond = 1000L * rows / Math.max(1L, period);
+    LOGGER.info(String.format("%d FILE_SOURCES rows inserted (%s) in %d ms (%d rows/second)", rows, mode, period, throughputPerSecond));
+  }
+
+  private FileSourceDto generateDto(byte[] data, String lineHashes) {
     long now = System.currentTimeMillis();
-    byte[] data = generateData();
     FileSourceDto dto = new FileSourceDto();
     dto.setCreatedAt(now);
     dto.setUpdatedAt(now);
@@ -111,7 +144,7 @@ public class SourceDbBenchmarkTest {
     dto.setDataHash("49d7230271f2bd24c759e54bcd66547d");
     dto.setProjectUuid(PROJECT_UUID);
     dto.setFileUuid(Uuids.create());
-    dto.setLineHashes(IOUtils.toString(getClass().getResourceAsStream("SourceDbBenchmarkTest/line_hashes.txt")));
+    dto.setLineHashes(lineHashes);
     dto.setDataType(FileSourceDto.Type.SOURCE);
     return dto;
   }
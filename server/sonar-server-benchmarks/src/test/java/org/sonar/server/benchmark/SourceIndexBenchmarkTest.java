@@ -41,6 +41,7 @@ import static org.assertj.core.api.Assertions.assertThat;
  *   <li>throughput of indexing of documents</li>
  *   <li>size of ES data directory</li>
  *   <li>time to request index</li>
+ *   <li>throughput of re-indexing of files that lost some lines</li>
  * </ul>
  */
 public class SourceIndexBenchmarkTest {
@@ -48,6 +49,7 @@ public class SourceIndexBenchmarkTest {
   private static final Logger LOGGER = LoggerFactory.getLogger("benchmarkSourceIndexing");
   private static final long FILES = 1000L;
   private static final int LINES_PER_FILE = 3220;
+  private static final int REMOVED_LINES_PER_FILE = 20;
 
   @Rule
   public ServerTester tester = new ServerTester();
@@ -62,6 +64,9 @@ public class SourceIndexBenchmarkTest {
 
     // execute some queries
     benchmarkQueries();
+
+    // index again the files, without their last lines
+    benchmarkReindexing();
   }
 
   private void benchmarkIndexing() {
@@ -102,6 +107,29 @@ public class SourceIndexBenchmarkTest {
     // TODO assertions
   }
 
+  private void benchmarkReindexing() {
+    LOGGER.info("Re-indexing source lines");
+
+    int nbLinesPerFile = LINES_PER_FILE - REMOVED_LINES_PER_FILE;
+    SourceIterator files = new SourceIterator(FILES, nbLinesPerFile);
+    ProgressTask progressTask = new ProgressTask(LOGGER, "files of " + nbLinesPerFile + " lines", files.count());
+    Timer timer = new Timer("SourceReindexer");
+    timer.schedule(progressTask, ProgressTask.PERIOD_MS, ProgressTask.PERIOD_MS);
+
+    long start = System.currentTimeMillis();
+    tester.get(SourceLineIndexer.class).index(files);
+    long end = System.currentTimeMillis();
+
+    timer.cancel();
+    long period = end - start;
+    long nbLines = files.count.get() * nbLinesPerFile;
+    long throughputPerSecond = 1000L * nbLines / period;
+    LOGGER.info(String.format("%d lines re-indexed in %d ms (%d docs/second)", nbLines, period, throughputPerSecond));
+
+    tester.get(EsClient.class).prepareRefresh(SourceLineIndexDefinition.INDEX).get();
+    assertThat(tester.get(SourceLineIndex.class).getLines("FILE1", 1, LINES_PER_FILE)).hasSize(nbLinesPerFile);
+  }
+
   private static class SourceIterator implements Iterator<FileSourcesUpdaterHelper.Row> {
     private final long nbFiles;
     private final int nbLinesPerFile;
@@ -71,10 +71,9 @@ public class ComputationContainer {
     try {
       child.getComponentByType(ComputationService.class).process(item);
     } finally {
+      // the child container is detached from the platform container, without impacting
+      // the children of the other computation workers
       child.stopComponents();
-      // TODO not possible to have multiple children -> will be
-      // a problem when we will have multiple concurrent computation workers
-      container.removeChild();
     }
   }
 }
@@ -24,6 +24,7 @@ import org.sonar.api.config.Settings;
 import org.sonar.batch.protocol.output.BatchReport;
 import org.sonar.batch.protocol.output.BatchReportReader;
 import org.sonar.core.component.ComponentDto;
+import org.sonar.server.computation.component.ComponentTree;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -34,6 +35,7 @@ public class ComputationContext {
   // cache of metadata as it's frequently accessed
   private final BatchReport.Metadata reportMetadata;
   private Settings projectSettings;
+  private ComponentTree componentTree;
 
   public ComputationContext(BatchReportReader reportReader, ComponentDto project) {
     this.reportReader = reportReader;
@@ -53,6 +55,21 @@ public class ComputationContext {
     return reportReader;
   }
 
+  /**
+   * Components of the report, loaded on first call. Steps must use it instead
+   * of {@link BatchReportReader#readComponent(int)}.
+   */
+  public synchronized ComponentTree getComponentTree() {
+    if (componentTree == null) {
+      componentTree = new ComponentTree(reportReader, reportMetadata.getRootComponentRef());
+    }
+    return componentTree;
+  }
+
+  synchronized boolean isComponentTreeLoaded() {
+    return componentTree != null;
+  }
+
   public Settings getProjectSettings() {
     return projectSettings;
   }
@@ -20,13 +20,15 @@
 
 package org.sonar.server.computation;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ArrayUtils;
 import org.sonar.api.server.ServerSide;
 import org.sonar.api.utils.System2;
 import org.sonar.api.utils.TempFolder;
-import org.sonar.api.utils.ZipUtils;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.api.utils.log.Profiler;
@@ -47,6 +49,10 @@ import javax.annotation.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipFile;
 
 import static org.sonar.api.utils.DateUtils.formatDateTimeNullSafe;
 import static org.sonar.api.utils.DateUtils.longToDate;
@@ -81,47 +87,68 @@ public class ComputationService {
       "Analysis of project %s (report %d)", item.dto.getProjectKey(), item.dto.getId()));
 
     ComponentDto project = null;
+    BatchReportReader reader = null;
+    File workDir = null;
+    Map<ComputationStep, Long> stepDurations = Collections.emptyMap();
 
     try {
       project = loadProject(item);
-      File reportDir = extractReportInDir(item);
-      BatchReportReader reader = new BatchReportReader(reportDir);
+      workDir = tempFolder.newDir();
+      reader = openReport(item, workDir);
       if (isSnapshotMissing(item, reader.readMetadata().getSnapshotId())) {
         return;
       }
       ComputationContext context = new ComputationContext(reader, project);
       context.setProjectSettings(projectSettingsFactory.newProjectSettings(project.getId()));
+      List<ComputationStep> stepsToExecute = Lists.newArrayList();
       for (ComputationStep step : steps.orderedSteps()) {
         if (ArrayUtils.contains(step.supportedProjectQualifiers(), context.getProject().qualifier())) {
-          Profiler stepProfiler = Profiler.createIfDebug(LOG).startDebug(step.getDescription());
-          step.execute(context);
-          stepProfiler.stopDebug();
+          stepsToExecute.add(step);
         }
       }
+      stepDurations = new ComputationStepsExecutor(steps, system).execute(stepsToExecute, context);
+      if (LOG.isDebugEnabled() && context.isComponentTreeLoaded()) {
+        LOG.debug(context.getComponentTree().profilingMessage());
+      }
       item.dto.setStatus(SUCCESS);
     } catch (Throwable e) {
       item.dto.setStatus(FAILED);
       throw Throwables.propagate(e);
     } finally {
+      IOUtils.closeQuietly(reader);
+      FileUtils.deleteQuietly(workDir);
       item.dto.setFinishedAt(system.now());
-      saveActivity(item.dto, project);
+      saveActivity(item.dto, project, stepDurations);
       profiler.stopInfo();
     }
   }
 
-  private File extractReportInDir(ReportQueue.Item item) {
-    File dir = tempFolder.newDir();
+  /**
+   * The report is read directly from the zip file. It is not extracted on disk, except the segments
+   * that are extracted into the given working directory.
+   */
+  private BatchReportReader openReport(ReportQueue.Item item, File workDir) {
     try {
       Profiler profiler = Profiler.createIfDebug(LOG).start();
-      ZipUtils.unzip(item.zipFile, dir);
-      if (profiler.isDebugEnabled()) {
-        String message = String.format("Report extracted | size=%s | project=%s",
-          FileUtils.byteCountToDisplaySize(FileUtils.sizeOf(dir)), item.dto.getProjectKey());
-        profiler.stopDebug(message);
+      ZipFile zipFile = new ZipFile(item.zipFile);
+      boolean opened = false;
+      try {
+        if (profiler.isDebugEnabled()) {
+          String message = String.format("Report opened | size=%s | entries=%d | project=%s",
+            FileUtils.byteCountToDisplaySize(item.zipFile.length()), zipFile.size(), item.dto.getProjectKey());
+          profiler.stopDebug(message);
+        }
+        BatchReportReader reader = new BatchReportReader(zipFile, workDir);
+        opened = true;
+        return reader;
+      } finally {
+        // from now on the zip file is closed by the reader
+        if (!opened) {
+          IOUtils.closeQuietly(zipFile);
+        }
       }
-      return dir;
     } catch (IOException e) {
-      throw new IllegalStateException(String.format("Fail to unzip %s into %s", item.zipFile, dir), e);
+      throw new IllegalStateException(String.format("Fail to open zip file %s", item.zipFile), e);
     }
   }
 
@@ -150,7 +177,7 @@ public class ComputationService {
 
   }
 
-  private void saveActivity(AnalysisReportDto report, @Nullable ComponentDto project) {
+  private void saveActivity(AnalysisReportDto report, @Nullable ComponentDto project, Map<ComputationStep, Long> stepDurations) {
     Activity activity = new Activity();
     activity.setType(Activity.Type.ANALYSIS_REPORT);
     activity.setAction("LOG_ANALYSIS_REPORT");
@@ -166,6 +193,20 @@ public class ComputationService {
         .setData("projectName", project.name())
         .setData("projectUuid", project.uuid());
     }
+    if (!stepDurations.isEmpty()) {
+      activity.setData("stepDurations", formatStepDurations(stepDurations));
+    }
     activityService.save(activity);
   }
+
+  /**
+   * Durations in milliseconds, for example "ParseReportStep:120,PersistMeasuresStep:35"
+   */
+  private static String formatStepDurations(Map<ComputationStep, Long> stepDurations) {
+    List<String> durations = Lists.newArrayList();
+    for (Map.Entry<ComputationStep, Long> entry : stepDurations.entrySet()) {
+      durations.add(entry.getKey().getClass().getSimpleName() + ":" + entry.getValue());
+    }
+    return Joiner.on(",").join(durations);
+  }
 }
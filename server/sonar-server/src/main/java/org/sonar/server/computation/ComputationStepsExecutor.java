@@ -0,0 +1,147 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.api.utils.log.Profiler;
+import org.sonar.server.computation.step.ComputationStep;
+import org.sonar.server.computation.step.ComputationSteps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Executes the steps of a report as soon as the steps they depend on are completed, so that
+ * independent steps are executed concurrently. See {@link ComputationSteps#dependencies(ComputationStep)}.
+ * <p/>
+ * When a step fails, no other step is started. The steps that are already running are completed
+ * before the failure is propagated.
+ */
+class ComputationStepsExecutor {
+
+  private static final Logger LOG = Loggers.get(ComputationStepsExecutor.class);
+
+  private final ComputationSteps steps;
+  private final System2 system;
+
+  ComputationStepsExecutor(ComputationSteps steps, System2 system) {
+    this.steps = steps;
+    this.system = system;
+  }
+
+  /**
+   * @return the duration in milliseconds of each executed step, in order of completion
+   */
+  Map<ComputationStep, Long> execute(List<ComputationStep> stepsToExecute, ComputationContext context) {
+    ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+      .setNameFormat("ce-step-%d")
+      .setDaemon(true)
+      .build());
+    CompletionService<Long> completionService = new ExecutorCompletionService<>(executor);
+    List<ComputationStep> pendingSteps = new ArrayList<>(stepsToExecute);
+    Map<Future<Long>, ComputationStep> runningSteps = new HashMap<>();
+    Map<ComputationStep, Long> durations = new LinkedHashMap<>();
+    Throwable failure = null;
+    try {
+      while (failure == null && (!pendingSteps.isEmpty() || !runningSteps.isEmpty())) {
+        startReadySteps(stepsToExecute, pendingSteps, runningSteps, durations, completionService, context);
+        if (runningSteps.isEmpty()) {
+          throw new IllegalStateException("Steps can not be started because of cyclic dependencies: " + pendingSteps);
+        }
+        Future<Long> completed = completionService.take();
+        ComputationStep step = runningSteps.remove(completed);
+        try {
+          durations.put(step, completed.get());
+        } catch (ExecutionException e) {
+          failure = e.getCause();
+        }
+      }
+      // steps started before the failure have to be completed before the report is closed
+      while (!runningSteps.isEmpty()) {
+        runningSteps.remove(completionService.take());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while executing computation steps", e);
+    } finally {
+      executor.shutdownNow();
+    }
+    if (failure != null) {
+      throw Throwables.propagate(failure);
+    }
+    return durations;
+  }
+
+  private void startReadySteps(List<ComputationStep> stepsToExecute, List<ComputationStep> pendingSteps, Map<Future<Long>, ComputationStep> runningSteps,
+    Map<ComputationStep, Long> completedSteps, CompletionService<Long> completionService, ComputationContext context) {
+    Iterator<ComputationStep> it = pendingSteps.iterator();
+    while (it.hasNext()) {
+      ComputationStep step = it.next();
+      if (isReady(step, stepsToExecute, completedSteps)) {
+        it.remove();
+        runningSteps.put(completionService.submit(new StepTask(step, context)), step);
+      }
+    }
+  }
+
+  private boolean isReady(ComputationStep step, List<ComputationStep> stepsToExecute, Map<ComputationStep, Long> completedSteps) {
+    for (ComputationStep dependency : steps.dependencies(step)) {
+      // dependencies that do not support the project qualifier are ignored
+      if (stepsToExecute.contains(dependency) && !completedSteps.containsKey(dependency)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private class StepTask implements Callable<Long> {
+    private final ComputationStep step;
+    private final ComputationContext context;
+
+    private StepTask(ComputationStep step, ComputationContext context) {
+      this.step = step;
+      this.context = context;
+    }
+
+    @Override
+    public Long call() {
+      Profiler stepProfiler = Profiler.createIfDebug(LOG).startDebug(step.getDescription());
+      long start = system.now();
+      step.execute(context);
+      stepProfiler.stopDebug();
+      return system.now() - start;
+    }
+  }
+}
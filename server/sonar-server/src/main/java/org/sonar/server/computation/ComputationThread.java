@@ -24,8 +24,10 @@ import com.google.common.annotations.VisibleForTesting;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 
+import javax.annotation.CheckForNull;
+
 /**
- * This thread pops a report from the queue and integrate it.
+ * This thread pops the reports from the queue and integrate them, until the queue is empty.
  */
 public class ComputationThread implements Runnable {
 
@@ -47,13 +49,8 @@ public class ComputationThread implements Runnable {
 
   @Override
   public void run() {
-    ReportQueue.Item item = null;
-    try {
-      item = queue.pop();
-    } catch (Exception e) {
-      LOG.error("Failed to pop the queue of analysis reports", e);
-    }
-    if (item != null) {
+    ReportQueue.Item item = popSilently();
+    while (item != null) {
       try {
         container.execute(item);
       } catch (Throwable e) {
@@ -62,6 +59,18 @@ public class ComputationThread implements Runnable {
       } finally {
         removeSilentlyFromQueue(item);
       }
+      // do not wait for the next wake-up if other reports are pending
+      item = popSilently();
+    }
+  }
+
+  @CheckForNull
+  private ReportQueue.Item popSilently() {
+    try {
+      return queue.pop();
+    } catch (Exception e) {
+      LOG.error("Failed to pop the queue of analysis reports", e);
+      return null;
     }
   }
 
@@ -23,6 +23,9 @@ package org.sonar.server.computation;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.picocontainer.Startable;
+import org.sonar.api.Properties;
+import org.sonar.api.Property;
+import org.sonar.api.config.Settings;
 import org.sonar.api.platform.Server;
 import org.sonar.api.platform.ServerStartHandler;
 
@@ -30,31 +33,41 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Properties({
+  @Property(
+    key = ComputationThreadLauncher.PROPERTY_WORKERS,
+    defaultValue = "1",
+    name = "Number of analysis reports processed concurrently",
+    project = false,
+    global = false)
+})
 public class ComputationThreadLauncher implements Startable, ServerStartHandler {
 
   public static final String THREAD_NAME_PREFIX = "computation-";
+  public static final String PROPERTY_WORKERS = "sonar.computation.workers";
 
   private final ReportQueue queue;
   private final ScheduledExecutorService executorService;
+  private final AtomicInteger pendingWakeUps = new AtomicInteger(0);
 
+  private final int workers;
   private final long delayBetweenTasks;
   private final long delayForFirstStart;
   private final TimeUnit timeUnit;
 
-  public ComputationThreadLauncher(ReportQueue queue) {
-    this.queue = queue;
-    this.executorService = Executors.newSingleThreadScheduledExecutor(newThreadFactory());
-
-    this.delayBetweenTasks = 10;
-    this.delayForFirstStart = 0;
-    this.timeUnit = TimeUnit.SECONDS;
+  public ComputationThreadLauncher(ReportQueue queue, Settings settings) {
+    // workers are woken up as soon as a report is submitted (see {@link #startAnalysisTaskNow()}), so
+    // polling the queue is only a fallback, for example for the reports left by a previous server execution
+    this(queue, settings, 0, 60, TimeUnit.SECONDS);
   }
 
   @VisibleForTesting
-  ComputationThreadLauncher(ReportQueue queue, long delayForFirstStart, long delayBetweenTasks, TimeUnit timeUnit) {
+  ComputationThreadLauncher(ReportQueue queue, Settings settings, long delayForFirstStart, long delayBetweenTasks, TimeUnit timeUnit) {
     this.queue = queue;
-    this.executorService = Executors.newSingleThreadScheduledExecutor(newThreadFactory());
+    this.workers = numberOfWorkers(settings);
+    this.executorService = Executors.newScheduledThreadPool(workers, newThreadFactory());
 
     this.delayBetweenTasks = delayBetweenTasks;
     this.delayForFirstStart = delayForFirstStart;
@@ -71,13 +84,44 @@ public class ComputationThreadLauncher implements Startable, ServerStartHandler
     executorService.shutdown();
   }
 
+  /**
+   * Wakes up a worker to process the queue. No more wake-ups than workers are queued, as
+   * a worker does not stop before the queue is empty.
+   */
   public void startAnalysisTaskNow() {
-    executorService.execute(new ComputationThread(queue));
+    if (pendingWakeUps.incrementAndGet() > workers) {
+      pendingWakeUps.decrementAndGet();
+      return;
+    }
+    final ComputationThread thread = new ComputationThread(queue);
+    executorService.execute(new Runnable() {
+      @Override
+      public void run() {
+        pendingWakeUps.decrementAndGet();
+        thread.run();
+      }
+    });
   }
 
   @Override
   public void onServerStart(Server server) {
-    executorService.scheduleAtFixedRate(new ComputationThread(queue), delayForFirstStart, delayBetweenTasks, timeUnit);
+    // each worker pops the queue independently. Reports of the same project are never processed concurrently.
+    for (int i = 0; i < workers; i++) {
+      executorService.scheduleAtFixedRate(new ComputationThread(queue), delayForFirstStart, delayBetweenTasks, timeUnit);
+    }
+  }
+
+  @VisibleForTesting
+  int getWorkers() {
+    return workers;
+  }
+
+  public static int numberOfWorkers(Settings settings) {
+    int result = settings.getInt(PROPERTY_WORKERS);
+    if (result < 0) {
+      throw new IllegalArgumentException(String.format("Bad value of %s: %d", PROPERTY_WORKERS, result));
+    }
+    return result == 0 ? 1 : result;
   }
 
   private ThreadFactory newThreadFactory() {
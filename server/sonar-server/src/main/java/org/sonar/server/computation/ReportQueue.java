@@ -37,7 +37,10 @@ import javax.annotation.CheckForNull;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.sonar.core.computation.db.AnalysisReportDto.Status.PENDING;
 
@@ -46,6 +49,13 @@ public class ReportQueue {
   private final DbClient dbClient;
   private final Settings settings;
 
+  /**
+   * Keys of the projects whose report is being processed by a computation worker. It guarantees
+   * that two reports of the same project are never processed concurrently, even if they have been
+   * booked at the same time by two workers (see {@link AnalysisReportDao#pop(DbSession)}).
+   */
+  private final Set<String> projectsInProgress = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
   public ReportQueue(DbClient dbClient, Settings settings) {
     this.dbClient = dbClient;
     this.settings = settings;
@@ -101,6 +111,7 @@ public class ReportQueue {
       session.commit();
     } finally {
       MyBatis.closeQuietly(session);
+      projectsInProgress.remove(item.dto.getProjectKey());
     }
   }
 
@@ -110,6 +121,13 @@ public class ReportQueue {
     try {
       AnalysisReportDto dto = dao().pop(session);
       if (dto != null) {
+        if (!projectsInProgress.add(dto.getProjectKey())) {
+          // another report of the same project is already being processed. This one
+          // is released and will be popped again later.
+          dao().resetToPendingStatus(session, dto.getId());
+          session.commit();
+          return null;
+        }
         File file = reportFileForUuid(dto.getUuid());
         if (file.exists()) {
           return new Item(dto, file);
@@ -117,6 +135,7 @@ public class ReportQueue {
         Loggers.get(getClass()).error("Analysis report not found: " + file.getAbsolutePath());
         dao().delete(session, dto.getId());
         session.commit();
+        projectsInProgress.remove(dto.getProjectKey());
       }
       return null;
     } finally {
@@ -158,6 +177,7 @@ public class ReportQueue {
     try {
       dao().resetAllToPendingStatus(session);
       session.commit();
+      projectsInProgress.clear();
     } finally {
       MyBatis.closeQuietly(session);
     }
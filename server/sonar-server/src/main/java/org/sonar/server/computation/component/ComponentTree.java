@@ -0,0 +1,155 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.component;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.api.utils.log.Profiler;
+import org.sonar.batch.protocol.Constants;
+import org.sonar.batch.protocol.output.BatchReport;
+import org.sonar.batch.protocol.output.BatchReportReader;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Components of the report, loaded once so that computation steps do not parse
+ * the same component-*.pb files again and again. It is shared by the steps of a report
+ * and it can be accessed concurrently.
+ */
+public class ComponentTree {
+
+  private static final Logger LOG = Loggers.get(ComponentTree.class);
+
+  private final BatchReportReader reader;
+  private final int rootRef;
+  private final Map<Integer, BatchReport.Component> componentsByRef = new ConcurrentHashMap<>();
+  // not modified after loading
+  private final Map<Integer, Integer> parentModuleRefs = new HashMap<>();
+  private final long loadDuration;
+
+  private final AtomicLong parses = new AtomicLong();
+  private final AtomicLong lookups = new AtomicLong();
+
+  public ComponentTree(BatchReportReader reader, int rootRef) {
+    this.reader = reader;
+    this.rootRef = rootRef;
+    Profiler profiler = Profiler.createIfDebug(LOG).startDebug("Load component tree");
+    long start = System.currentTimeMillis();
+    load(rootRef, rootRef);
+    this.loadDuration = System.currentTimeMillis() - start;
+    profiler.stopDebug(String.format("Component tree loaded | components=%d", componentsByRef.size()));
+  }
+
+  private void load(int parentModuleRef, int componentRef) {
+    BatchReport.Component component = parse(componentRef);
+    parentModuleRefs.put(componentRef, parentModuleRef);
+    // children of folders and files are attached to the enclosing module
+    int childrenParentModuleRef = isModule(component) ? componentRef : parentModuleRef;
+    for (Integer childRef : component.getChildRefList()) {
+      load(childrenParentModuleRef, childRef);
+    }
+  }
+
+  private BatchReport.Component parse(int componentRef) {
+    BatchReport.Component component = reader.readComponent(componentRef);
+    parses.incrementAndGet();
+    componentsByRef.put(componentRef, component);
+    return component;
+  }
+
+  public BatchReport.Component getRoot() {
+    return get(rootRef);
+  }
+
+  /**
+   * Components that are not attached to the tree, for example the files referenced
+   * by duplications, are parsed on first access.
+   */
+  public BatchReport.Component get(int componentRef) {
+    lookups.incrementAndGet();
+    BatchReport.Component component = componentsByRef.get(componentRef);
+    if (component == null) {
+      component = parse(componentRef);
+    }
+    return component;
+  }
+
+  /**
+   * The project or the module that contains the given component. The root component
+   * is its own parent.
+   */
+  public BatchReport.Component getParentModule(int componentRef) {
+    Integer parentModuleRef = parentModuleRefs.get(componentRef);
+    if (parentModuleRef == null) {
+      throw new IllegalArgumentException(String.format("Component %d is not attached to the tree", componentRef));
+    }
+    return get(parentModuleRef);
+  }
+
+  /**
+   * Depth-first traversal of the tree in a single pass. Each component is passed to all the visitors
+   * before visiting its children.
+   */
+  public void visit(ComponentVisitor... visitors) {
+    visit(rootRef, visitors);
+  }
+
+  private void visit(int componentRef, ComponentVisitor... visitors) {
+    BatchReport.Component component = get(componentRef);
+    for (ComponentVisitor visitor : visitors) {
+      visitor.visit(component);
+    }
+    for (Integer childRef : component.getChildRefList()) {
+      visit(childRef, visitors);
+    }
+  }
+
+  /**
+   * Number of components parsed from the report
+   */
+  public long getParses() {
+    return parses.get();
+  }
+
+  /**
+   * Number of accesses to components, including visits. Without the tree, each of them
+   * would parse a file of the report.
+   */
+  public long getLookups() {
+    return lookups.get();
+  }
+
+  /**
+   * Summary of parses saved by the tree, logged in debug mode at the end of the processing of report
+   */
+  public String profilingMessage() {
+    long parsesSaved = Math.max(0L, lookups.get() - parses.get());
+    long timeSaved = componentsByRef.isEmpty() ? 0L : (parsesSaved * loadDuration / componentsByRef.size());
+    return String.format("Component tree | components=%d | parses=%d | parsesSaved=%d | loadTime=%dms | estimatedTimeSaved=%dms",
+      componentsByRef.size(), parses.get(), parsesSaved, loadDuration, timeSaved);
+  }
+
+  private static boolean isModule(BatchReport.Component component) {
+    return component.getType().equals(Constants.ComponentType.PROJECT) || component.getType().equals(Constants.ComponentType.MODULE);
+  }
+}
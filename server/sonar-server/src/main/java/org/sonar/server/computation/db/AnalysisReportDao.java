@@ -49,6 +49,13 @@ public class AnalysisReportDao implements DaoComponent {
     mapper(session).resetAllToPendingStatus(system2.now());
   }
 
+  /**
+   * Update the row with: STATUS='PENDING', STARTED_AT=NULL, UPDATED_AT={now}
+   */
+  public void resetToPendingStatus(DbSession session, long id) {
+    mapper(session).resetToPendingStatus(id, system2.now());
+  }
+
   public void truncate(DbSession session) {
     mapper(session).truncate();
   }
@@ -0,0 +1,406 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.issue;
+
+import org.sonar.api.issue.IssueComment;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.api.issue.internal.DefaultIssueComment;
+import org.sonar.api.issue.internal.FieldDiffs;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.utils.Duration;
+import org.sonar.server.util.cache.DiskCacheCodec;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Binary format of issues stored in {@link IssueCache}. All the fields are written, including
+ * the changes and the comments, so that decoded issues are equivalent to the issues written by
+ * Java serialization.
+ */
+public class DefaultIssueCodec implements DiskCacheCodec<DefaultIssue> {
+
+  // types of the values of field diffs
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte LONG = 2;
+  private static final byte INTEGER = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte DATE = 5;
+  private static final byte SERIALIZED = 6;
+
+  @Override
+  public void write(DataOutput output, DefaultIssue issue) throws IOException {
+    writeString(output, issue.key());
+    writeString(output, issue.componentUuid());
+    writeString(output, issue.componentKey());
+    writeString(output, issue.moduleUuid());
+    writeString(output, issue.moduleUuidPath());
+    writeString(output, issue.projectUuid());
+    writeString(output, issue.projectKey());
+    writeString(output, issue.ruleKey() == null ? null : issue.ruleKey().toString());
+    writeString(output, issue.language());
+    writeString(output, issue.severity());
+    output.writeBoolean(issue.manualSeverity());
+    writeString(output, issue.message());
+    writeLong(output, issue.line() == null ? null : issue.line().longValue());
+    writeDouble(output, issue.effortToFix());
+    writeLong(output, issue.debtInMinutes());
+    writeString(output, issue.status());
+    writeString(output, issue.resolution());
+    writeString(output, issue.reporter());
+    writeString(output, issue.assignee());
+    writeString(output, issue.checksum());
+    writeStrings(output, issue.attributes());
+    writeString(output, issue.authorLogin());
+    writeString(output, issue.actionPlanKey());
+    writeStrings(output, issue.tags());
+    writeDate(output, issue.creationDate());
+    writeDate(output, issue.updateDate());
+    writeDate(output, issue.closeDate());
+    output.writeBoolean(issue.isNew());
+    output.writeBoolean(issue.isEndOfLife());
+    output.writeBoolean(issue.isOnDisabledRule());
+    output.writeBoolean(issue.isChanged());
+    output.writeBoolean(issue.mustSendNotifications());
+    writeLong(output, issue.selectedAt());
+    writeChanges(output, issue);
+    writeComments(output, issue.comments());
+  }
+
+  @Override
+  public DefaultIssue read(DataInput input) throws IOException {
+    DefaultIssue issue = new DefaultIssue();
+    issue.setKey(readString(input));
+    issue.setComponentUuid(readString(input));
+    issue.setComponentKey(readString(input));
+    issue.setModuleUuid(readString(input));
+    issue.setModuleUuidPath(readString(input));
+    issue.setProjectUuid(readString(input));
+    issue.setProjectKey(readString(input));
+    String ruleKey = readString(input);
+    issue.setRuleKey(ruleKey == null ? null : RuleKey.parse(ruleKey));
+    issue.setLanguage(readString(input));
+    issue.setSeverity(readString(input));
+    issue.setManualSeverity(input.readBoolean());
+    issue.setMessage(readString(input));
+    Long line = readLong(input);
+    issue.setLine(line == null ? null : line.intValue());
+    issue.setEffortToFix(readDouble(input));
+    Long debt = readLong(input);
+    issue.setDebt(debt == null ? null : Duration.create(debt));
+    String status = readString(input);
+    if (status != null) {
+      issue.setStatus(status);
+    }
+    issue.setResolution(readString(input));
+    issue.setReporter(readString(input));
+    issue.setAssignee(readString(input));
+    issue.setChecksum(readString(input));
+    issue.setAttributes(readStringMap(input));
+    issue.setAuthorLogin(readString(input));
+    issue.setActionPlanKey(readString(input));
+    List<String> tags = readStringList(input);
+    if (!tags.isEmpty()) {
+      issue.setTags(tags);
+    }
+    issue.setCreationDate(readDate(input));
+    issue.setUpdateDate(readDate(input));
+    issue.setCloseDate(readDate(input));
+    issue.setNew(input.readBoolean());
+    issue.setEndOfLife(input.readBoolean());
+    issue.setOnDisabledRule(input.readBoolean());
+    issue.setChanged(input.readBoolean());
+    issue.setSendNotifications(input.readBoolean());
+    issue.setSelectedAt(readLong(input));
+    readChanges(input, issue);
+    readComments(input, issue);
+    return issue;
+  }
+
+  /**
+   * The current change is usually one of the changes. The reference is kept when decoding.
+   */
+  private static void writeChanges(DataOutput output, DefaultIssue issue) throws IOException {
+    FieldDiffs currentChange = issue.currentChange();
+    writeFieldDiffs(output, currentChange);
+    List<FieldDiffs> changes = issue.changes();
+    output.writeInt(changes.size());
+    for (FieldDiffs change : changes) {
+      boolean isCurrentChange = currentChange != null && change == currentChange;
+      output.writeBoolean(isCurrentChange);
+      if (!isCurrentChange) {
+        writeFieldDiffs(output, change);
+      }
+    }
+  }
+
+  private static void readChanges(DataInput input, DefaultIssue issue) throws IOException {
+    FieldDiffs currentChange = readFieldDiffs(input);
+    if (currentChange != null) {
+      issue.setCurrentChange(currentChange);
+    }
+    int size = input.readInt();
+    if (size > 0) {
+      List<FieldDiffs> changes = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        changes.add(input.readBoolean() ? currentChange : readFieldDiffs(input));
+      }
+      issue.setChanges(changes);
+    } else {
+      // setCurrentChange() adds the change
+      issue.setChanges(null);
+    }
+  }
+
+  private static void writeFieldDiffs(DataOutput output, @Nullable FieldDiffs diffs) throws IOException {
+    output.writeBoolean(diffs != null);
+    if (diffs != null) {
+      writeString(output, diffs.issueKey());
+      writeString(output, diffs.userLogin());
+      writeDate(output, diffs.creationDate());
+      output.writeInt(diffs.diffs().size());
+      for (Map.Entry<String, FieldDiffs.Diff> entry : diffs.diffs().entrySet()) {
+        writeString(output, entry.getKey());
+        writeValue(output, entry.getValue().oldValue());
+        writeValue(output, entry.getValue().newValue());
+      }
+    }
+  }
+
+  @CheckForNull
+  private static FieldDiffs readFieldDiffs(DataInput input) throws IOException {
+    if (!input.readBoolean()) {
+      return null;
+    }
+    FieldDiffs diffs = new FieldDiffs()
+      .setIssueKey(readString(input))
+      .setUserLogin(readString(input))
+      .setCreationDate(readDate(input));
+    int size = input.readInt();
+    for (int i = 0; i < size; i++) {
+      String field = readString(input);
+      Serializable oldValue = readValue(input);
+      Serializable newValue = readValue(input);
+      diffs.setDiff(field, oldValue, newValue);
+    }
+    return diffs;
+  }
+
+  private static void writeComments(DataOutput output, List<IssueComment> comments) throws IOException {
+    output.writeInt(comments.size());
+    for (IssueComment comment : comments) {
+      writeString(output, comment.issueKey());
+      writeString(output, comment.userLogin());
+      writeDate(output, comment.createdAt());
+      writeDate(output, comment.updatedAt());
+      writeString(output, comment.key());
+      writeString(output, comment.markdownText());
+      output.writeBoolean(((DefaultIssueComment) comment).isNew());
+    }
+  }
+
+  private static void readComments(DataInput input, DefaultIssue issue) throws IOException {
+    int size = input.readInt();
+    for (int i = 0; i < size; i++) {
+      issue.addComment(new DefaultIssueComment()
+        .setIssueKey(readString(input))
+        .setUserLogin(readString(input))
+        .setCreatedAt(readDate(input))
+        .setUpdatedAt(readDate(input))
+        .setKey(readString(input))
+        .setMarkdownText(readString(input))
+        .setNew(input.readBoolean()));
+    }
+  }
+
+  /**
+   * Values of field diffs are usually strings or numbers. Other types fall back to Java serialization.
+   */
+  private static void writeValue(DataOutput output, @Nullable Serializable value) throws IOException {
+    if (value == null) {
+      output.writeByte(NULL);
+    } else if (value instanceof String) {
+      output.writeByte(STRING);
+      writeString(output, (String) value);
+    } else if (value instanceof Long) {
+      output.writeByte(LONG);
+      output.writeLong((Long) value);
+    } else if (value instanceof Integer) {
+      output.writeByte(INTEGER);
+      output.writeInt((Integer) value);
+    } else if (value instanceof Double) {
+      output.writeByte(DOUBLE);
+      output.writeDouble((Double) value);
+    } else if (value instanceof Date) {
+      output.writeByte(DATE);
+      output.writeLong(((Date) value).getTime());
+    } else {
+      output.writeByte(SERIALIZED);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream objectOutput = new ObjectOutputStream(bytes)) {
+        objectOutput.writeObject(value);
+      }
+      output.writeInt(bytes.size());
+      output.write(bytes.toByteArray());
+    }
+  }
+
+  @CheckForNull
+  private static Serializable readValue(DataInput input) throws IOException {
+    byte type = input.readByte();
+    switch (type) {
+      case NULL:
+        return null;
+      case STRING:
+        return readString(input);
+      case LONG:
+        return input.readLong();
+      case INTEGER:
+        return input.readInt();
+      case DOUBLE:
+        return input.readDouble();
+      case DATE:
+        return new Date(input.readLong());
+      case SERIALIZED:
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        try (ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+          return (Serializable) objectInput.readObject();
+        } catch (ClassNotFoundException e) {
+          throw new IllegalStateException("Fail to deserialize value of field diff", e);
+        }
+      default:
+        throw new IllegalStateException("Unsupported type of value: " + type);
+    }
+  }
+
+  /**
+   * {@link DataOutput#writeUTF(String)} is not used as it's limited to 64Kb
+   */
+  private static void writeString(DataOutput output, @Nullable String s) throws IOException {
+    if (s == null) {
+      output.writeInt(-1);
+    } else {
+      byte[] bytes = s.getBytes(UTF_8);
+      output.writeInt(bytes.length);
+      output.write(bytes);
+    }
+  }
+
+  @CheckForNull
+  private static String readString(DataInput input) throws IOException {
+    int length = input.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private static void writeStrings(DataOutput output, Collection<String> strings) throws IOException {
+    output.writeInt(strings.size());
+    for (String s : strings) {
+      writeString(output, s);
+    }
+  }
+
+  private static void writeStrings(DataOutput output, Map<String, String> strings) throws IOException {
+    output.writeInt(strings.size());
+    for (Map.Entry<String, String> entry : strings.entrySet()) {
+      writeString(output, entry.getKey());
+      writeString(output, entry.getValue());
+    }
+  }
+
+  private static List<String> readStringList(DataInput input) throws IOException {
+    int size = input.readInt();
+    List<String> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      result.add(readString(input));
+    }
+    return result;
+  }
+
+  @CheckForNull
+  private static Map<String, String> readStringMap(DataInput input) throws IOException {
+    int size = input.readInt();
+    if (size == 0) {
+      return null;
+    }
+    Map<String, String> result = new LinkedHashMap<>(size);
+    for (int i = 0; i < size; i++) {
+      result.put(readString(input), readString(input));
+    }
+    return result;
+  }
+
+  private static void writeLong(DataOutput output, @Nullable Long l) throws IOException {
+    output.writeBoolean(l != null);
+    if (l != null) {
+      output.writeLong(l);
+    }
+  }
+
+  @CheckForNull
+  private static Long readLong(DataInput input) throws IOException {
+    return input.readBoolean() ? input.readLong() : null;
+  }
+
+  private static void writeDouble(DataOutput output, @Nullable Double d) throws IOException {
+    output.writeBoolean(d != null);
+    if (d != null) {
+      output.writeDouble(d);
+    }
+  }
+
+  @CheckForNull
+  private static Double readDouble(DataInput input) throws IOException {
+    return input.readBoolean() ? input.readDouble() : null;
+  }
+
+  private static void writeDate(DataOutput output, @Nullable Date date) throws IOException {
+    writeLong(output, date == null ? null : date.getTime());
+  }
+
+  @CheckForNull
+  private static Date readDate(DataInput input) throws IOException {
+    Long time = readLong(input);
+    return time == null ? null : new Date(time);
+  }
+}
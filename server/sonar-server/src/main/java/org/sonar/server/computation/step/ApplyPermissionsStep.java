@@ -24,6 +24,10 @@ import org.sonar.api.resources.Qualifiers;
 import org.sonar.server.computation.ComputationContext;
 import org.sonar.server.issue.index.IssueAuthorizationIndexer;
 
+/**
+ * Indexes the authorizations of the project. They must be indexed before its issues.
+ * Authorizations of other projects are indexed on their own changes.
+ */
 public class ApplyPermissionsStep implements ComputationStep {
 
   private final IssueAuthorizationIndexer indexer;
@@ -39,7 +43,7 @@ public class ApplyPermissionsStep implements ComputationStep {
 
   @Override
   public void execute(ComputationContext context) {
-    indexer.index();
+    indexer.index(context.getProject().uuid());
   }
 
   @Override
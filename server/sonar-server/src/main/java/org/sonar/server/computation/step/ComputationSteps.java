@@ -21,13 +21,18 @@
 package org.sonar.server.computation.step;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.sonar.server.computation.ComputationContainer;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Ordered list of steps to be executed
+ * Ordered list of steps to be executed, with the dependencies between them.
  */
 public class ComputationSteps {
 
@@ -69,16 +74,80 @@ public class ComputationSteps {
       SendIssueNotificationsStep.class);
   }
 
+  /**
+   * Steps that do not have to wait for the completion of all the steps declared before them
+   * in {@link #orderedStepClasses()}. Each of them lists the steps it directly depends on. A step
+   * that is not listed here depends on all the steps declared before it.
+   */
+  static Map<Class<? extends ComputationStep>, List<Class<? extends ComputationStep>>> declaredDependencies() {
+    Map<Class<? extends ComputationStep>, List<Class<? extends ComputationStep>>> dependencies = Maps.newHashMap();
+
+    // these steps write distinct rows: duplications are stored in PROJECT_MEASURES, sources and tests
+    // in FILE_SOURCES but with distinct data types. Each of them selects only the rows of its own data type.
+    dependencies.put(PersistDuplicationsStep.class, classes(PersistEventsStep.class));
+    dependencies.put(PersistFileSourcesStep.class, classes(PersistEventsStep.class));
+    dependencies.put(PersistTestsStep.class, classes(PersistEventsStep.class));
+
+    // indices are independent
+    dependencies.put(IndexIssuesStep.class, classes(ApplyPermissionsStep.class));
+    dependencies.put(IndexSourceLinesStep.class, classes(PurgeDatastoresStep.class));
+    dependencies.put(IndexTestsStep.class, classes(PurgeDatastoresStep.class));
+    return dependencies;
+  }
+
   private final List<ComputationStep> orderedSteps;
+  private final Map<ComputationStep, Set<ComputationStep>> dependencies;
 
   public ComputationSteps(ComputationStep... s) {
     this.orderedSteps = order(s);
+    this.dependencies = resolveDependencies(orderedSteps);
   }
 
   public List<ComputationStep> orderedSteps() {
     return orderedSteps;
   }
 
+  /**
+   * All the steps that must be completed before starting the given step, including
+   * the indirect dependencies.
+   */
+  public Set<ComputationStep> dependencies(ComputationStep step) {
+    Set<ComputationStep> result = dependencies.get(step);
+    return result == null ? Collections.<ComputationStep>emptySet() : result;
+  }
+
+  private static Map<ComputationStep, Set<ComputationStep>> resolveDependencies(List<ComputationStep> orderedSteps) {
+    Map<Class<? extends ComputationStep>, List<Class<? extends ComputationStep>>> declaredDependencies = declaredDependencies();
+    Map<Class<? extends ComputationStep>, ComputationStep> stepsByClass = Maps.newHashMap();
+    Map<ComputationStep, Set<ComputationStep>> result = Maps.newHashMap();
+    List<Class<? extends ComputationStep>> classes = orderedStepClasses();
+    for (int i = 0; i < classes.size(); i++) {
+      Class<? extends ComputationStep> clazz = classes.get(i);
+      List<Class<? extends ComputationStep>> directDependencies = declaredDependencies.get(clazz);
+      if (directDependencies == null) {
+        directDependencies = classes.subList(0, i);
+      }
+      Set<ComputationStep> stepDependencies = Sets.newHashSet();
+      for (Class<? extends ComputationStep> dependencyClass : directDependencies) {
+        ComputationStep dependency = stepsByClass.get(dependencyClass);
+        if (dependency == null) {
+          throw new IllegalStateException(String.format("Step %s must be declared after its dependency %s", clazz, dependencyClass));
+        }
+        stepDependencies.add(dependency);
+        stepDependencies.addAll(result.get(dependency));
+      }
+      ComputationStep step = orderedSteps.get(i);
+      stepsByClass.put(clazz, step);
+      result.put(step, Collections.unmodifiableSet(stepDependencies));
+    }
+    return result;
+  }
+
+  @SafeVarargs
+  private static List<Class<? extends ComputationStep>> classes(Class<? extends ComputationStep>... classes) {
+    return Arrays.asList(classes);
+  }
+
   private static List<ComputationStep> order(ComputationStep[] steps) {
     List<ComputationStep> result = Lists.newArrayList();
     for (Class<? extends ComputationStep> clazz : orderedStepClasses()) {
@@ -20,19 +20,29 @@
 
 package org.sonar.server.computation.step;
 
+import com.google.common.collect.Lists;
+import org.sonar.api.issue.internal.DefaultIssue;
 import org.sonar.api.resources.Qualifiers;
 import org.sonar.server.computation.ComputationContext;
-import org.sonar.server.issue.index.IssueAuthorizationIndexer;
+import org.sonar.server.computation.issue.IssueCache;
 import org.sonar.server.issue.index.IssueIndexer;
+import org.sonar.server.util.CloseableIterator;
 
+import java.util.List;
+
+/**
+ * Indexes only the issues persisted by {@link PersistIssuesStep}, so that the issues of
+ * other projects are not read again. Authorizations of the project are indexed
+ * by {@link ApplyPermissionsStep}.
+ */
 public class IndexIssuesStep implements ComputationStep {
 
-  private final IssueAuthorizationIndexer authorizationIndexer;
   private final IssueIndexer indexer;
+  private final IssueCache issueCache;
 
-  public IndexIssuesStep(IssueAuthorizationIndexer authorizationIndexer, IssueIndexer indexer) {
-    this.authorizationIndexer = authorizationIndexer;
+  public IndexIssuesStep(IssueIndexer indexer, IssueCache issueCache) {
     this.indexer = indexer;
+    this.issueCache = issueCache;
   }
 
   @Override
@@ -42,8 +52,26 @@ public class IndexIssuesStep implements ComputationStep {
 
   @Override
   public void execute(ComputationContext context) {
-    authorizationIndexer.index();
-    indexer.index();
+    List<String> keys = changedIssueKeys();
+    if (!keys.isEmpty()) {
+      indexer.index(context.getProject().uuid(), keys);
+    }
+  }
+
+  private List<String> changedIssueKeys() {
+    List<String> keys = Lists.newArrayList();
+    CloseableIterator<DefaultIssue> issues = issueCache.traverse();
+    try {
+      while (issues.hasNext()) {
+        DefaultIssue issue = issues.next();
+        if (issue.isNew() || issue.isChanged()) {
+          keys.add(issue.key());
+        }
+      }
+    } finally {
+      issues.close();
+    }
+    return keys;
   }
 
   @Override
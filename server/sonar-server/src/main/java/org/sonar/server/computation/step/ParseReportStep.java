@@ -22,8 +22,8 @@ package org.sonar.server.computation.step;
 
 import org.sonar.api.resources.Qualifiers;
 import org.sonar.batch.protocol.output.BatchReport;
-import org.sonar.batch.protocol.output.BatchReportReader;
 import org.sonar.server.computation.ComputationContext;
+import org.sonar.server.computation.component.ComponentVisitor;
 import org.sonar.server.computation.issue.IssueComputation;
 
 import java.util.List;
@@ -42,23 +42,18 @@ public class ParseReportStep implements ComputationStep {
   }
 
   @Override
-  public void execute(ComputationContext context) {
-    int rootComponentRef = context.getReportMetadata().getRootComponentRef();
-    recursivelyProcessComponent(context, rootComponentRef);
+  public void execute(final ComputationContext context) {
+    context.getComponentTree().visit(new ComponentVisitor() {
+      @Override
+      public void visit(BatchReport.Component component) {
+        List<BatchReport.Issue> issues = context.getReportReader().readComponentIssues(component.getRef());
+        issueComputation.processComponentIssues(context, issues, component.getUuid(), component.getRef());
+      }
+    });
     processDeletedComponents(context);
     issueComputation.afterReportProcessing();
   }
 
-  private void recursivelyProcessComponent(ComputationContext context, int componentRef) {
-    BatchReportReader reportReader = context.getReportReader();
-    BatchReport.Component component = reportReader.readComponent(componentRef);
-    List<BatchReport.Issue> issues = reportReader.readComponentIssues(componentRef);
-    issueComputation.processComponentIssues(context, issues, component.getUuid(), componentRef);
-    for (Integer childRef : component.getChildRefList()) {
-      recursivelyProcessComponent(context, childRef);
-    }
-  }
-
   private void processDeletedComponents(ComputationContext context) {
     int deletedComponentsCount = context.getReportMetadata().getDeletedComponentsCount();
     for (int componentRef = 1; componentRef <= deletedComponentsCount; componentRef++) {
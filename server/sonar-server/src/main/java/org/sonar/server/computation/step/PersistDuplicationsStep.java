@@ -23,16 +23,16 @@ package org.sonar.server.computation.step;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.resources.Qualifiers;
-import org.sonar.batch.protocol.Constants;
 import org.sonar.batch.protocol.output.BatchReport;
 import org.sonar.batch.protocol.output.BatchReport.Range;
-import org.sonar.batch.protocol.output.BatchReportReader;
 import org.sonar.core.component.ComponentKeys;
 import org.sonar.core.measure.db.MeasureDto;
 import org.sonar.core.measure.db.MetricDto;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.core.persistence.MyBatis;
 import org.sonar.server.computation.ComputationContext;
+import org.sonar.server.computation.component.ComponentTree;
+import org.sonar.server.computation.component.ComponentVisitor;
 import org.sonar.server.db.DbClient;
 
 import java.util.List;
@@ -58,28 +58,24 @@ public class PersistDuplicationsStep implements ComputationStep {
     DbSession session = dbClient.openSession(true);
     try {
       MetricDto duplicationMetric = dbClient.metricDao().selectByKey(session, CoreMetrics.DUPLICATIONS_DATA_KEY);
-      DuplicationContext duplicationContext = new DuplicationContext(context, duplicationMetric, session);
-      int rootComponentRef = context.getReportMetadata().getRootComponentRef();
-      recursivelyProcessComponent(duplicationContext, rootComponentRef, rootComponentRef);
+      final DuplicationContext duplicationContext = new DuplicationContext(context, duplicationMetric, session);
+      context.getComponentTree().visit(new ComponentVisitor() {
+        @Override
+        public void visit(BatchReport.Component component) {
+          processComponent(duplicationContext, component);
+        }
+      });
       session.commit();
     } finally {
       MyBatis.closeQuietly(session);
     }
   }
 
-  private void recursivelyProcessComponent(DuplicationContext duplicationContext, int parentModuleRef, int componentRef) {
-    BatchReportReader reportReader = duplicationContext.context().getReportReader();
-    BatchReport.Component component = reportReader.readComponent(componentRef);
-    List<BatchReport.Duplication> duplications = reportReader.readComponentDuplications(componentRef);
+  private void processComponent(DuplicationContext duplicationContext, BatchReport.Component component) {
+    List<BatchReport.Duplication> duplications = duplicationContext.context().getReportReader().readComponentDuplications(component.getRef());
     if (!duplications.isEmpty()) {
-      saveDuplications(duplicationContext, reportReader.readComponent(parentModuleRef), component, duplications);
-    }
-
-    for (Integer childRef : component.getChildRefList()) {
-      // If current component is a folder, we need to keep the parent reference to module parent
-      int nextParent = !component.getType().equals(Constants.ComponentType.PROJECT) && !component.getType().equals(Constants.ComponentType.MODULE) ?
-        parentModuleRef : componentRef;
-      recursivelyProcessComponent(duplicationContext, nextParent, childRef);
+      ComponentTree componentTree = duplicationContext.context().getComponentTree();
+      saveDuplications(duplicationContext, componentTree.getParentModule(component.getRef()), component, duplications);
     }
   }
 
@@ -124,7 +120,7 @@ public class PersistDuplicationsStep implements ComputationStep {
       String branch = duplicationContext.context().getReportMetadata().getBranch();
       if (duplicate.hasOtherFileRef()) {
         // Duplication is on a different file
-        BatchReport.Component duplicationComponent = duplicationContext.context().getReportReader().readComponent(duplicate.getOtherFileRef());
+        BatchReport.Component duplicationComponent = duplicationContext.context().getComponentTree().get(duplicate.getOtherFileRef());
         appendDuplication(xml, ComponentKeys.createKey(parentComponentKey, duplicationComponent.getPath(), branch), duplicate);
       } else {
         // Duplication is on a the same file
@@ -24,11 +24,11 @@ import org.sonar.api.resources.Qualifiers;
 import org.sonar.api.utils.System2;
 import org.sonar.batch.protocol.Constants;
 import org.sonar.batch.protocol.output.BatchReport;
-import org.sonar.batch.protocol.output.BatchReportReader;
 import org.sonar.core.event.EventDto;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.core.persistence.MyBatis;
 import org.sonar.server.computation.ComputationContext;
+import org.sonar.server.computation.component.ComponentVisitor;
 import org.sonar.server.db.DbClient;
 
 import java.util.List;
@@ -50,27 +50,22 @@ public class PersistEventsStep implements ComputationStep {
 
   @Override
   public void execute(ComputationContext context) {
-    DbSession session = dbClient.openSession(false);
+    final DbSession session = dbClient.openSession(false);
     try {
-      int rootComponentRef = context.getReportMetadata().getRootComponentRef();
-      recursivelyProcessComponent(session, context, rootComponentRef);
+      final long analysisDate = context.getReportMetadata().getAnalysisDate();
+      context.getComponentTree().visit(new ComponentVisitor() {
+        @Override
+        public void visit(BatchReport.Component component) {
+          processEvents(session, component, analysisDate);
+          saveVersionEvent(session, component, analysisDate);
+        }
+      });
       session.commit();
     } finally {
       MyBatis.closeQuietly(session);
     }
   }
 
-  private void recursivelyProcessComponent(DbSession session, ComputationContext context, int componentRef) {
-    BatchReportReader reportReader = context.getReportReader();
-    BatchReport.Component component = reportReader.readComponent(componentRef);
-    processEvents(session, component, context.getReportMetadata().getAnalysisDate());
-    saveVersionEvent(session, component, context.getReportMetadata().getAnalysisDate());
-
-    for (Integer childRef : component.getChildRefList()) {
-      recursivelyProcessComponent(session, context, childRef);
-    }
-  }
-
   private void processEvents(DbSession session, BatchReport.Component component, Long analysisDate) {
     List<BatchReport.Event> events = component.getEventList();
     if (!events.isEmpty()) {
@@ -20,13 +20,16 @@
 
 package org.sonar.server.computation.step;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.LineIterator;
 import org.apache.ibatis.session.ResultContext;
 import org.apache.ibatis.session.ResultHandler;
+import org.sonar.api.config.Settings;
 import org.sonar.api.resources.Qualifiers;
 import org.sonar.api.utils.System2;
 import org.sonar.batch.protocol.Constants;
@@ -37,6 +40,8 @@ import org.sonar.core.persistence.MyBatis;
 import org.sonar.core.source.db.FileSourceDto;
 import org.sonar.core.source.db.FileSourceDto.Type;
 import org.sonar.server.computation.ComputationContext;
+import org.sonar.server.computation.ComputationThreadLauncher;
+import org.sonar.server.computation.component.ComponentVisitor;
 import org.sonar.server.computation.source.ComputeFileSourceData;
 import org.sonar.server.computation.source.CoverageLineReader;
 import org.sonar.server.computation.source.DuplicationLineReader;
@@ -46,24 +51,68 @@ import org.sonar.server.computation.source.ReportIterator;
 import org.sonar.server.computation.source.ScmLineReader;
 import org.sonar.server.computation.source.SymbolsLineReader;
 import org.sonar.server.db.DbClient;
-import org.sonar.server.source.db.FileSourceDb;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class PersistFileSourcesStep implements ComputationStep {
 
+  /**
+   * Number of threads computing the data of files of a report. By default the available processors
+   * are shared between the computation workers (see {@link ComputationThreadLauncher#PROPERTY_WORKERS}),
+   * so that the total number of threads does not grow with the number of workers.
+   */
+  public static final String THREADS_PROPERTY = "sonar.computation.fileSources.threads";
+
+  /**
+   * Maximum size of the binary data kept in memory by the pending inserts and updates
+   */
+  private static final long DEFAULT_MAX_BATCH_BYTES = 20L * 1024 * 1024;
+
+  /**
+   * Lower than {@link org.sonar.core.persistence.BatchSession#MAX_BATCH_SIZE} so that
+   * the session does not flush by itself
+   */
+  private static final int DEFAULT_MAX_BATCH_ROWS = 100;
+
   private final DbClient dbClient;
   private final System2 system2;
+  private final long maxBatchBytes;
+  private final int maxBatchRows;
+  private final int threads;
 
-  public PersistFileSourcesStep(DbClient dbClient, System2 system2) {
+  public PersistFileSourcesStep(DbClient dbClient, System2 system2, Settings settings) {
+    this(dbClient, system2, DEFAULT_MAX_BATCH_BYTES, DEFAULT_MAX_BATCH_ROWS, threads(settings));
+  }
+
+  @VisibleForTesting
+  PersistFileSourcesStep(DbClient dbClient, System2 system2, long maxBatchBytes, int maxBatchRows, int threads) {
     this.dbClient = dbClient;
     this.system2 = system2;
+    this.maxBatchBytes = maxBatchBytes;
+    this.maxBatchRows = maxBatchRows;
+    this.threads = threads;
+  }
+
+  @VisibleForTesting
+  static int threads(Settings settings) {
+    int threads = settings.getInt(THREADS_PROPERTY);
+    if (threads > 0) {
+      return threads;
+    }
+    return Math.max(1, Runtime.getRuntime().availableProcessors() / ComputationThreadLauncher.numberOfWorkers(settings));
   }
 
   @Override
@@ -73,9 +122,8 @@ public class PersistFileSourcesStep implements ComputationStep {
 
   @Override
   public void execute(ComputationContext context) {
-    int rootComponentRef = context.getReportMetadata().getRootComponentRef();
-    // Don't use batch insert for file_sources since keeping all data in memory can produce OOM for big files
-    DbSession session = dbClient.openSession(false);
+    // Data of big files can produce OOM, so the batch is flushed as soon as it holds too many bytes
+    DbSession session = dbClient.openSession(true);
     try {
       final Map<String, FileSourceDto> previousFileSourcesByUuid = new HashMap<>();
       session.select("org.sonar.core.source.db.FileSourceMapper.selectHashesForProject", ImmutableMap.of("projectUuid", context.getProject().uuid(), "dataType", Type.SOURCE),
@@ -87,50 +135,100 @@ public class PersistFileSourcesStep implements ComputationStep {
           }
         });
 
-      recursivelyProcessComponent(new FileSourcesContext(session, context, previousFileSourcesByUuid), rootComponentRef);
+      final List<BatchReport.Component> files = new ArrayList<>();
+      context.getComponentTree().visit(new ComponentVisitor() {
+        @Override
+        public void visit(BatchReport.Component component) {
+          if (component.getType().equals(Constants.ComponentType.FILE)) {
+            files.add(component);
+          }
+        }
+      });
+      FileSourcesContext fileSourcesContext = new FileSourcesContext(session, context, previousFileSourcesByUuid);
+      persistSources(fileSourcesContext, files);
+      fileSourcesContext.flush();
     } finally {
       MyBatis.closeQuietly(session);
     }
   }
 
-  private void recursivelyProcessComponent(FileSourcesContext fileSourcesContext, int componentRef) {
-    BatchReportReader reportReader = fileSourcesContext.context.getReportReader();
-    BatchReport.Component component = reportReader.readComponent(componentRef);
-    if (component.getType().equals(Constants.ComponentType.FILE)) {
-      LineIterator linesIterator = sourceLinesIterator(reportReader.readFileSource(componentRef));
-      LineReaders lineReaders = new LineReaders(reportReader, componentRef);
-      try {
-        ComputeFileSourceData computeFileSourceData = new ComputeFileSourceData(linesIterator, lineReaders.readers(), component.getLines());
-        ComputeFileSourceData.Data fileSourceData = computeFileSourceData.compute();
-        persistSource(fileSourcesContext, fileSourceData, component);
-      } catch (Exception e) {
-        throw new IllegalStateException(String.format("Cannot persist sources of %s", component.getPath()), e);
-      } finally {
-        linesIterator.close();
-        lineReaders.close();
+  /**
+   * Data of files are computed and encoded by a pool of threads, but they are persisted by the current
+   * thread in the order of files. The number of computed files waiting to be persisted is bounded,
+   * so memory does not grow with the size of the project.
+   */
+  private void persistSources(final FileSourcesContext fileSourcesContext, List<BatchReport.Component> files) {
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+      .setNameFormat("ce-file-sources-%d")
+      .setDaemon(true)
+      .build());
+    int maxPendingFiles = 2 * threads;
+    Deque<Future<FileSourceData>> pendingFiles = new ArrayDeque<>();
+    try {
+      for (final BatchReport.Component file : files) {
+        pendingFiles.add(executor.submit(new Callable<FileSourceData>() {
+          @Override
+          public FileSourceData call() {
+            return computeSourceData(fileSourcesContext.context.getReportReader(), file);
+          }
+        }));
+        if (pendingFiles.size() >= maxPendingFiles) {
+          persistSource(fileSourcesContext, waitFor(pendingFiles.poll()));
+        }
       }
+      while (!pendingFiles.isEmpty()) {
+        persistSource(fileSourcesContext, waitFor(pendingFiles.poll()));
+      }
+    } finally {
+      executor.shutdownNow();
     }
+  }
 
-    for (Integer childRef : component.getChildRefList()) {
-      recursivelyProcessComponent(fileSourcesContext, childRef);
+  private static FileSourceData waitFor(Future<FileSourceData> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while computing file sources", e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
     }
   }
 
-  private static LineIterator sourceLinesIterator(File file) {
+  private static FileSourceData computeSourceData(BatchReportReader reportReader, BatchReport.Component component) {
+    int componentRef = component.getRef();
+    LineIterator linesIterator = sourceLinesIterator(reportReader, componentRef);
+    LineReaders lineReaders = null;
     try {
-      return IOUtils.lineIterator(FileUtils.openInputStream(file), StandardCharsets.UTF_8);
-    } catch (IOException e) {
-      throw new IllegalStateException("Fail to traverse file: " + file, e);
+      lineReaders = new LineReaders(reportReader, componentRef);
+      ComputeFileSourceData computeFileSourceData = new ComputeFileSourceData(linesIterator, lineReaders.readers(), component.getLines());
+      return new FileSourceData(component, computeFileSourceData.compute());
+    } catch (Exception e) {
+      throw new IllegalStateException(String.format("Cannot persist sources of %s", component.getPath()), e);
+    } finally {
+      linesIterator.close();
+      if (lineReaders != null) {
+        lineReaders.close();
+      }
     }
   }
 
-  private void persistSource(FileSourcesContext fileSourcesContext, ComputeFileSourceData.Data fileSourceData, BatchReport.Component component) {
-    FileSourceDb.Data fileData = fileSourceData.getFileSourceData();
+  private static LineIterator sourceLinesIterator(BatchReportReader reportReader, int fileRef) {
+    InputStream input = reportReader.openFileSource(fileRef);
+    try {
+      return IOUtils.lineIterator(input, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      IOUtils.closeQuietly(input);
+      throw new IllegalStateException("Fail to traverse source of file #" + fileRef, e);
+    }
+  }
 
-    byte[] data = FileSourceDto.encodeSourceData(fileData);
-    String dataHash = DigestUtils.md5Hex(data);
-    String srcHash = fileSourceData.getSrcHash();
-    String lineHashes = fileSourceData.getLineHashes();
+  private void persistSource(FileSourcesContext fileSourcesContext, FileSourceData fileSourceData) {
+    BatchReport.Component component = fileSourceData.component;
+    byte[] data = fileSourceData.data;
+    String dataHash = fileSourceData.dataHash;
+    String srcHash = fileSourceData.srcHash;
+    String lineHashes = fileSourceData.lineHashes;
     FileSourceDto previousDto = fileSourcesContext.previousFileSourcesByUuid.get(component.getUuid());
 
     if (previousDto == null) {
@@ -145,7 +243,7 @@ public class PersistFileSourcesStep implements ComputationStep {
         .setCreatedAt(system2.now())
         .setUpdatedAt(system2.now());
       dbClient.fileSourceDao().insert(fileSourcesContext.session, dto);
-      fileSourcesContext.session.commit();
+      fileSourcesContext.addToBatch(data);
     } else {
       // Update only if data_hash has changed or if src_hash is missing (progressive migration)
       boolean binaryDataUpdated = !dataHash.equals(previousDto.getDataHash());
@@ -160,22 +258,57 @@ public class PersistFileSourcesStep implements ComputationStep {
         if (binaryDataUpdated) {
           previousDto.setUpdatedAt(system2.now());
         }
-        dbClient.fileSourceDao().update(previousDto);
-        fileSourcesContext.session.commit();
+        dbClient.fileSourceDao().update(fileSourcesContext.session, previousDto);
+        fileSourcesContext.addToBatch(data);
       }
     }
   }
 
-  private static class FileSourcesContext {
+  /**
+   * Encoded data of a file, ready to be persisted
+   */
+  private static class FileSourceData {
+    final BatchReport.Component component;
+    final byte[] data;
+    final String dataHash;
+    final String srcHash;
+    final String lineHashes;
+
+    FileSourceData(BatchReport.Component component, ComputeFileSourceData.Data fileSourceData) {
+      this.component = component;
+      this.data = FileSourceDto.encodeSourceData(fileSourceData.getFileSourceData());
+      this.dataHash = DigestUtils.md5Hex(data);
+      this.srcHash = fileSourceData.getSrcHash();
+      this.lineHashes = fileSourceData.getLineHashes();
+    }
+  }
+
+  private class FileSourcesContext {
     DbSession session;
     ComputationContext context;
     Map<String, FileSourceDto> previousFileSourcesByUuid;
+    long batchBytes = 0L;
+    int batchRows = 0;
 
     public FileSourcesContext(DbSession session, ComputationContext context, Map<String, FileSourceDto> previousFileSourcesByUuid) {
       this.context = context;
       this.previousFileSourcesByUuid = previousFileSourcesByUuid;
       this.session = session;
     }
+
+    void addToBatch(byte[] binaryData) {
+      batchBytes += binaryData.length;
+      batchRows++;
+      if (batchBytes >= maxBatchBytes || batchRows >= maxBatchRows) {
+        flush();
+      }
+    }
+
+    void flush() {
+      session.commit();
+      batchBytes = 0L;
+      batchRows = 0;
+    }
   }
 
   private static class LineReaders {
@@ -183,23 +316,36 @@ public class PersistFileSourcesStep implements ComputationStep {
     private final List<ReportIterator> iterators = new ArrayList<>();
 
     LineReaders(BatchReportReader reportReader, int componentRef) {
-      File coverageFile = reportReader.readComponentCoverage(componentRef);
       BatchReport.Changesets scmReport = reportReader.readChangesets(componentRef);
-      File highlightingFile = reportReader.readComponentSyntaxHighlighting(componentRef);
       List<BatchReport.Symbols.Symbol> symbols = reportReader.readComponentSymbols(componentRef);
       List<BatchReport.Duplication> duplications = reportReader.readComponentDuplications(componentRef);
 
-      if (coverageFile != null) {
-        ReportIterator<BatchReport.Coverage> coverageReportIterator = new ReportIterator<>(coverageFile, BatchReport.Coverage.PARSER);
-        iterators.add(coverageReportIterator);
+      // streams are opened last, and closed if one of them can not be opened
+      ReportIterator<BatchReport.Coverage> coverageReportIterator = null;
+      ReportIterator<BatchReport.SyntaxHighlighting> syntaxHighlightingReportIterator = null;
+      try {
+        InputStream coverageStream = reportReader.openComponentCoverage(componentRef);
+        if (coverageStream != null) {
+          coverageReportIterator = new ReportIterator<>(coverageStream, BatchReport.Coverage.PARSER);
+          iterators.add(coverageReportIterator);
+        }
+        InputStream highlightingStream = reportReader.openComponentSyntaxHighlighting(componentRef);
+        if (highlightingStream != null) {
+          syntaxHighlightingReportIterator = new ReportIterator<>(highlightingStream, BatchReport.SyntaxHighlighting.PARSER);
+          iterators.add(syntaxHighlightingReportIterator);
+        }
+      } catch (RuntimeException e) {
+        close();
+        throw e;
+      }
+
+      if (coverageReportIterator != null) {
         readers.add(new CoverageLineReader(coverageReportIterator));
       }
       if (scmReport != null) {
         readers.add(new ScmLineReader(scmReport));
       }
-      if (highlightingFile != null) {
-        ReportIterator<BatchReport.SyntaxHighlighting> syntaxHighlightingReportIterator = new ReportIterator<>(highlightingFile, BatchReport.SyntaxHighlighting.PARSER);
-        iterators.add(syntaxHighlightingReportIterator);
+      if (syntaxHighlightingReportIterator != null) {
         readers.add(new HighlightingLineReader(syntaxHighlightingReportIterator));
       }
       if (!duplications.isEmpty()) {
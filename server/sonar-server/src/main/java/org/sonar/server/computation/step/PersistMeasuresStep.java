@@ -29,6 +29,7 @@ import org.sonar.batch.protocol.output.BatchReportReader;
 import org.sonar.core.measure.db.MeasureDto;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.server.computation.ComputationContext;
+import org.sonar.server.computation.component.ComponentVisitor;
 import org.sonar.server.computation.issue.RuleCache;
 import org.sonar.server.computation.measure.MetricCache;
 import org.sonar.server.db.DbClient;
@@ -68,23 +69,19 @@ public class PersistMeasuresStep implements ComputationStep {
 
   @Override
   public void execute(ComputationContext context) {
-    int rootComponentRef = context.getReportMetadata().getRootComponentRef();
-    try (DbSession dbSession = dbClient.openSession(true)) {
-      recursivelyProcessComponent(dbSession, context, rootComponentRef);
+    final BatchReportReader reportReader = context.getReportReader();
+    try (final DbSession dbSession = dbClient.openSession(true)) {
+      context.getComponentTree().visit(new ComponentVisitor() {
+        @Override
+        public void visit(BatchReport.Component component) {
+          List<BatchReport.Measure> measures = reportReader.readComponentMeasures(component.getRef());
+          persistMeasures(dbSession, measures, component);
+        }
+      });
       dbSession.commit();
     }
   }
 
-  private void recursivelyProcessComponent(DbSession dbSession, ComputationContext context, int componentRef) {
-    BatchReportReader reportReader = context.getReportReader();
-    BatchReport.Component component = reportReader.readComponent(componentRef);
-    List<BatchReport.Measure> measures = reportReader.readComponentMeasures(componentRef);
-    persistMeasures(dbSession, measures, component);
-    for (Integer childRef : component.getChildRefList()) {
-      recursivelyProcessComponent(dbSession, context, childRef);
-    }
-  }
-
   private void persistMeasures(DbSession dbSession, List<BatchReport.Measure> batchReportMeasures, final BatchReport.Component component) {
     for (BatchReport.Measure measure : batchReportMeasures) {
       if (FORBIDDEN_METRIC_KEYS.contains(measure.getMetricKey())) {
@@ -29,6 +29,7 @@ import org.sonar.core.measure.db.MeasureDto;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.core.persistence.MyBatis;
 import org.sonar.server.computation.ComputationContext;
+import org.sonar.server.computation.component.ComponentVisitor;
 import org.sonar.server.computation.measure.MetricCache;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.source.index.SourceLineIndex;
@@ -71,8 +72,13 @@ public class PersistNumberOfDaysSinceLastCommitStep implements ComputationStep {
 
   @Override
   public void execute(ComputationContext context) {
-    int rootComponentRef = context.getReportMetadata().getRootComponentRef();
-    recursivelyProcessComponent(context, rootComponentRef);
+    final BatchReportReader reportReader = context.getReportReader();
+    context.getComponentTree().visit(new ComponentVisitor() {
+      @Override
+      public void visit(BatchReport.Component component) {
+        processScm(reportReader.readChangesets(component.getRef()));
+      }
+    });
 
     if (!commitFound()) {
       Long lastCommitFromIndex = lastCommitFromIndex(context.getProject().uuid());
@@ -84,17 +90,6 @@ public class PersistNumberOfDaysSinceLastCommitStep implements ComputationStep {
     }
   }
 
-  private void recursivelyProcessComponent(ComputationContext context, int componentRef) {
-    BatchReportReader reportReader = context.getReportReader();
-    BatchReport.Component component = reportReader.readComponent(componentRef);
-    BatchReport.Changesets scm = reportReader.readChangesets(componentRef);
-    processScm(scm);
-
-    for (Integer childRef : component.getChildRefList()) {
-      recursivelyProcessComponent(context, childRef);
-    }
-  }
-
   private void processScm(@Nullable BatchReport.Changesets scm) {
     if (scm == null) {
       return;
@@ -40,12 +40,14 @@ import org.sonar.core.persistence.MyBatis;
 import org.sonar.core.source.db.FileSourceDto;
 import org.sonar.core.source.db.FileSourceDto.Type;
 import org.sonar.server.computation.ComputationContext;
+import org.sonar.server.computation.component.ComponentTree;
+import org.sonar.server.computation.component.ComponentVisitor;
 import org.sonar.server.computation.source.ReportIterator;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.source.db.FileSourceDb;
 import org.sonar.server.source.db.FileSourceDb.Test.TestStatus;
 
-import java.io.File;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -75,10 +77,16 @@ public class PersistTestsStep implements ComputationStep {
   public void execute(ComputationContext computationContext) {
     DbSession session = dbClient.openSession(true);
     try {
-      int rootComponentRef = computationContext.getReportMetadata().getRootComponentRef();
-      TestContext context = new TestContext(computationContext, session);
+      final TestContext context = new TestContext(computationContext, session);
 
-      recursivelyProcessComponent(context, rootComponentRef);
+      computationContext.getComponentTree().visit(new ComponentVisitor() {
+        @Override
+        public void visit(BatchReport.Component component) {
+          if (component.getIsTest()) {
+            persistTestResults(component, context);
+          }
+        }
+      });
       session.commit();
       if (context.hasUnprocessedCoverageDetails) {
         LOG.warn("Some coverage tests are not taken into account during analysis of project '{}'", computationContext.getProject().getKey());
@@ -88,18 +96,6 @@ public class PersistTestsStep implements ComputationStep {
     }
   }
 
-  private void recursivelyProcessComponent(TestContext context, int componentRef) {
-    BatchReportReader reportReader = context.reader;
-    BatchReport.Component component = reportReader.readComponent(componentRef);
-    if (component.getIsTest()) {
-      persistTestResults(component, context);
-    }
-
-    for (Integer childRef : component.getChildRefList()) {
-      recursivelyProcessComponent(context, childRef);
-    }
-  }
-
   private void persistTestResults(BatchReport.Component component, TestContext context) {
     Multimap<String, FileSourceDb.Test.Builder> testsByName = buildDbTests(context, component);
     Table<String, String, FileSourceDb.Test.CoveredFile.Builder> coveredFilesByName = loadCoverageDetails(component.getRef(), context);
@@ -163,11 +159,11 @@ public class PersistTestsStep implements ComputationStep {
 
   private Multimap<String, FileSourceDb.Test.Builder> buildDbTests(TestContext context, BatchReport.Component component) {
     Multimap<String, FileSourceDb.Test.Builder> tests = ArrayListMultimap.create();
-    File testsFile = context.reader.readTests(component.getRef());
-    if (testsFile == null) {
+    InputStream testsStream = context.reader.openTests(component.getRef());
+    if (testsStream == null) {
       return tests;
     }
-    ReportIterator<BatchReport.Test> testIterator = new ReportIterator<>(testsFile, BatchReport.Test.PARSER);
+    ReportIterator<BatchReport.Test> testIterator = new ReportIterator<>(testsStream, BatchReport.Test.PARSER);
     try {
       while (testIterator.hasNext()) {
         BatchReport.Test batchTest = testIterator.next();
@@ -201,12 +197,12 @@ public class PersistTestsStep implements ComputationStep {
    */
   private Table<String, String, FileSourceDb.Test.CoveredFile.Builder> loadCoverageDetails(int testFileRef, TestContext context) {
     Table<String, String, FileSourceDb.Test.CoveredFile.Builder> nameToCoveredFiles = HashBasedTable.create();
-    File coverageDetailsFile = context.reader.readCoverageDetails(testFileRef);
-    if (coverageDetailsFile == null) {
+    InputStream coverageDetailsStream = context.reader.openCoverageDetails(testFileRef);
+    if (coverageDetailsStream == null) {
       return nameToCoveredFiles;
     }
 
-    ReportIterator<BatchReport.CoverageDetail> coverageIterator = new ReportIterator<>(coverageDetailsFile, BatchReport.CoverageDetail.PARSER);
+    ReportIterator<BatchReport.CoverageDetail> coverageIterator = new ReportIterator<>(coverageDetailsStream, BatchReport.CoverageDetail.PARSER);
     try {
       while (coverageIterator.hasNext()) {
         BatchReport.CoverageDetail batchCoverageDetail = coverageIterator.next();
@@ -242,7 +238,7 @@ public class PersistTestsStep implements ComputationStep {
     final DbSession session;
     final ComputationContext context;
     final BatchReportReader reader;
-    final ComponentUuidsCache componentRefToUuidCache;
+    final ComponentTree componentTree;
     final Map<String, FileSourceDto> existingFileSourcesByUuid;
     boolean hasUnprocessedCoverageDetails = false;
 
@@ -250,7 +246,7 @@ public class PersistTestsStep implements ComputationStep {
       this.session = session;
       this.context = context;
       this.reader = context.getReportReader();
-      this.componentRefToUuidCache = new ComponentUuidsCache(context.getReportReader());
+      this.componentTree = context.getComponentTree();
       this.existingFileSourcesByUuid = new HashMap<>();
       session.select("org.sonar.core.source.db.FileSourceMapper.selectHashesForProject",
         ImmutableMap.of("projectUuid", context.getProject().uuid(), "dataType", Type.TEST),
@@ -264,7 +260,7 @@ public class PersistTestsStep implements ComputationStep {
     }
 
     public String getUuid(int fileRef) {
-      return componentRefToUuidCache.getUuidFromRef(fileRef);
+      return componentTree.get(fileRef).getUuid();
     }
   }
 }
@@ -0,0 +1,191 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.db;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.dbutils.DbUtils;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.core.persistence.DbSession;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a large table over several DB connections. Rows are split into ranges of ids (primary key), each
+ * range being read by one of the threads. Ranges are smaller than what each thread would get from an
+ * equal split, so that a thread reading a dense range does not delay the end of the whole table.
+ */
+public class PartitionedTableReader {
+
+  private static final Logger LOG = Loggers.get(PartitionedTableReader.class);
+  private static final int PARTITIONS_PER_THREAD = 8;
+  private static final long PROGRESS_PERIOD_MS = 60000L;
+
+  /**
+   * Reads the rows whose id is in the range [fromId, toId[
+   */
+  public interface PartitionReader {
+    /**
+     * @return any value, for example the max date of update of the rows, to be aggregated by max.
+     */
+    long read(Connection connection, long fromId, long toId);
+  }
+
+  private final DbClient dbClient;
+  private final String table;
+  private final int threads;
+
+  public PartitionedTableReader(DbClient dbClient, String table, int threads) {
+    this.dbClient = dbClient;
+    this.table = table;
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * @return the max of the values returned by {@code reader}, 0 if the table is empty.
+   */
+  public long read(final PartitionReader reader) {
+    final List<long[]> ranges = split(selectIdBounds(), threads * PARTITIONS_PER_THREAD);
+    if (ranges.isEmpty()) {
+      return 0L;
+    }
+    final Progress progress = new Progress(ranges.size());
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, ranges.size()),
+      new ThreadFactoryBuilder().setNameFormat(table + "-reader-%d").setDaemon(true).build());
+    try {
+      List<Future<Long>> futures = Lists.newArrayList();
+      for (final long[] range : ranges) {
+        futures.add(executor.submit(new Callable<Long>() {
+          @Override
+          public Long call() {
+            long result = readPartition(reader, range[0], range[1]);
+            progress.partitionDone();
+            return result;
+          }
+        }));
+      }
+      long max = 0L;
+      for (Future<Long> future : futures) {
+        max = Math.max(max, future.get());
+      }
+      return max;
+
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while reading table " + table, e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private long readPartition(PartitionReader reader, long fromId, long toId) {
+    DbSession dbSession = dbClient.openSession(false);
+    Connection connection = dbSession.getConnection();
+    try {
+      return reader.read(connection, fromId, toId);
+    } finally {
+      DbUtils.closeQuietly(connection);
+      dbSession.close();
+    }
+  }
+
+  /**
+   * @return min and max ids, or null if table is empty
+   */
+  private long[] selectIdBounds() {
+    DbSession dbSession = dbClient.openSession(false);
+    Connection connection = dbSession.getConnection();
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    try {
+      stmt = connection.prepareStatement("SELECT MIN(id), MAX(id) FROM " + table);
+      rs = stmt.executeQuery();
+      rs.next();
+      long min = rs.getLong(1);
+      if (rs.wasNull()) {
+        return null;
+      }
+      return new long[] {min, rs.getLong(2)};
+    } catch (SQLException e) {
+      throw new IllegalStateException("Fail to select bounds of ids of table " + table, e);
+    } finally {
+      DbUtils.closeQuietly(connection, stmt, rs);
+      dbSession.close();
+    }
+  }
+
+  /**
+   * Splits [min, max] into contiguous ranges [from, to[
+   */
+  @VisibleForTesting
+  static List<long[]> split(long[] idBounds, int partitions) {
+    List<long[]> ranges = Lists.newArrayList();
+    if (idBounds != null) {
+      long min = idBounds[0];
+      long end = idBounds[1] + 1;
+      long size = Math.max(1L, (end - min + partitions - 1) / partitions);
+      for (long from = min; from < end; from += size) {
+        ranges.add(new long[] {from, Math.min(end, from + size)});
+      }
+    }
+    return ranges;
+  }
+
+  private class Progress {
+    private final int partitions;
+    private final AtomicInteger done = new AtomicInteger(0);
+    private final long startedAt = System.currentTimeMillis();
+    private long loggedAt = startedAt;
+
+    Progress(int partitions) {
+      this.partitions = partitions;
+    }
+
+    void partitionDone() {
+      int count = done.incrementAndGet();
+      long now = System.currentTimeMillis();
+      synchronized (this) {
+        if (count < partitions && now - loggedAt < PROGRESS_PERIOD_MS) {
+          return;
+        }
+        loggedAt = now;
+      }
+      long elapsed = now - startedAt;
+      long remainingSeconds = elapsed * (partitions - count) / count / 1000L;
+      LOG.info(String.format("Table %s: %d/%d partitions read (%d%%) in %d seconds, ETA %d seconds",
+        table, count, partitions, 100 * count / partitions, elapsed / 1000L, remainingSeconds));
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.es;
+
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+/**
+ * Adapts the size and the number of concurrent bulk requests of {@link BulkIndexer} to the responses of Elasticsearch:
+ * <ul>
+ *   <li>requests answered faster than half of the target latency increase the flush size by 50% and allow one more
+ *   concurrent request</li>
+ *   <li>requests answered slower than the target latency halve the flush size</li>
+ *   <li>rejected requests halve the flush size and allow one less concurrent request</li>
+ * </ul>
+ * The flush size stays between 256Kb and 8Mb (1Mb when starting) and the number of concurrent requests between 1 and
+ * the given max.
+ */
+class BulkFlowControl {
+
+  static final long FLUSH_BYTE_SIZE = new ByteSizeValue(1, ByteSizeUnit.MB).bytes();
+  static final long MIN_FLUSH_BYTE_SIZE = new ByteSizeValue(256, ByteSizeUnit.KB).bytes();
+  static final long MAX_FLUSH_BYTE_SIZE = new ByteSizeValue(8, ByteSizeUnit.MB).bytes();
+  static final long TARGET_LATENCY_MS = 1000L;
+
+  private final int maxConcurrentRequests;
+  private volatile long flushByteSize = FLUSH_BYTE_SIZE;
+  private boolean adaptiveFlushByteSize = true;
+  private int limit;
+  private int running = 0;
+
+  BulkFlowControl(int maxConcurrentRequests) {
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    this.limit = maxConcurrentRequests;
+  }
+
+  synchronized void setFixedFlushByteSize(long size) {
+    this.flushByteSize = size;
+    this.adaptiveFlushByteSize = false;
+  }
+
+  long getFlushByteSize() {
+    return flushByteSize;
+  }
+
+  synchronized int getConcurrencyLimit() {
+    return limit;
+  }
+
+  /**
+   * Waits until a request can be sent
+   */
+  synchronized void acquire() throws InterruptedException {
+    while (running >= limit) {
+      wait();
+    }
+    running++;
+  }
+
+  /**
+   * Adapts the flush size and the number of concurrent requests to the response of a request, then releases
+   * its slot.
+   */
+  synchronized void release(long latencyMs, boolean rejected) {
+    running--;
+    if (rejected) {
+      resizeFlush(0.5);
+      resizeLimit(-1);
+    } else if (latencyMs < TARGET_LATENCY_MS / 2) {
+      resizeFlush(1.5);
+      resizeLimit(1);
+    } else if (latencyMs > TARGET_LATENCY_MS) {
+      resizeFlush(0.5);
+    }
+    notifyAll();
+  }
+
+  /**
+   * @return false if some requests are still running after the timeout
+   */
+  synchronized boolean awaitIdle(long timeoutMs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (running > 0) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0L) {
+        return false;
+      }
+      wait(remaining);
+    }
+    return true;
+  }
+
+  private void resizeFlush(double ratio) {
+    if (adaptiveFlushByteSize) {
+      long size = (long) (flushByteSize * ratio);
+      flushByteSize = Math.min(MAX_FLUSH_BYTE_SIZE, Math.max(MIN_FLUSH_BYTE_SIZE, size));
+    }
+  }
+
+  private void resizeLimit(int delta) {
+    limit = Math.min(maxConcurrentRequests, Math.max(1, limit + delta));
+  }
+}
@@ -19,10 +19,13 @@
  */
 package org.sonar.server.es;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
 import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequestBuilder;
 import org.elasticsearch.action.bulk.BulkItemResponse;
@@ -30,57 +33,76 @@ import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequestBuilder;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
-import org.elasticsearch.common.unit.ByteSizeUnit;
-import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.picocontainer.Startable;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.server.util.ProgressLogger;
 
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Helper to bulk requests in an efficient way :
  * <ul>
- *   <li>bulk request is sent on the wire when its size is higher than 5Mb</li>
+ *   <li>bulk request is sent on the wire when its size is higher than a threshold, which is adapted
+ *   to the latency of the previous bulk requests, see {@link BulkFlowControl}</li>
+ *   <li>the number of concurrent bulk requests decreases when Elasticsearch rejects requests because its
+ *   queues are full. Rejected requests are sent again.</li>
  *   <li>on large table indexing, replicas and automatic refresh can be temporarily disabled</li>
  *   <li>index refresh is optional (enabled by default)</li>
  * </ul>
+ * Requests can be added concurrently by several threads.
+ * <p/>
+ * A rejected request is sent again before the requests added after its rejection. Requests on the same document
+ * that are added while it is being sent can however be applied before it. Requests on a document should then be
+ * complete (for example upserts of the whole document) rather than partial updates, so that only the
+ * order of the last requests matters.
  */
 public class BulkIndexer implements Startable {
 
   private static final Logger LOGGER = Loggers.get(BulkIndexer.class);
-  private static final long FLUSH_BYTE_SIZE = new ByteSizeValue(1, ByteSizeUnit.MB).bytes();
+  private static final int MAX_RETRY_ROUNDS = 5;
+  private static final long RETRY_BACKOFF_MS = 100L;
+
   private static final String REFRESH_INTERVAL_SETTING = "index.refresh_interval";
   private static final String ALREADY_STARTED_MESSAGE = "Bulk indexing is already started";
 
   private final EsClient client;
   private final String indexName;
   private boolean large = false;
-  private long flushByteSize = FLUSH_BYTE_SIZE;
   private boolean disableRefresh = false;
   private BulkRequestBuilder bulkRequest = null;
   private Map<String, Object> largeInitialSettings = null;
   private final AtomicLong counter = new AtomicLong(0L);
-  private final int concurrentRequests;
-  private final Semaphore semaphore;
+  private final BulkFlowControl flowControl;
   private final ProgressLogger progress;
 
+  // requests rejected by Elasticsearch, to be sent again
+  private final Queue<ActionRequest> rejectedRequests = new ConcurrentLinkedQueue<>();
+
+  // metrics, reset when starting
+  private final AtomicLong sentBytes = new AtomicLong(0L);
+  private final AtomicLong retries = new AtomicLong(0L);
+  private long startedAt = 0L;
+
   public BulkIndexer(EsClient client, String indexName) {
     this.client = client;
     this.indexName = indexName;
     this.progress = new ProgressLogger(String.format("Progress[BulkIndexer[%s]]", indexName), counter, LOGGER)
       .setPluralLabel("requests");
 
-    this.concurrentRequests = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
-    this.semaphore = new Semaphore(concurrentRequests);
+    this.flowControl = new BulkFlowControl(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
   }
 
   /**
@@ -93,8 +115,11 @@ public class BulkIndexer implements Startable {
     return this;
   }
 
+  /**
+   * Sets a fixed flush size. By default the size is adapted to the latency of bulk requests.
+   */
   public BulkIndexer setFlushByteSize(long flushByteSize) {
-    this.flushByteSize = flushByteSize;
+    flowControl.setFixedFlushByteSize(flushByteSize);
     return this;
   }
 
@@ -131,12 +156,17 @@ public class BulkIndexer implements Startable {
     }
     bulkRequest = client.prepareBulk().setRefresh(false);
     counter.set(0L);
+    sentBytes.set(0L);
+    retries.set(0L);
+    startedAt = System.currentTimeMillis();
     progress.start();
   }
 
-  public void add(ActionRequest request) {
+  public synchronized void add(ActionRequest request) {
+    // rejected requests are added before the new one, which may be a more recent request on the same document
+    addRejectedRequests(bulkRequest);
     bulkRequest.request().add(request);
-    if (bulkRequest.request().estimatedSizeInBytes() >= flushByteSize) {
+    if (bulkRequest.request().estimatedSizeInBytes() >= flowControl.getFlushByteSize()) {
       executeBulk();
     }
   }
@@ -149,23 +179,19 @@ public class BulkIndexer implements Startable {
       // load only doc ids, not _source fields
       .setFetchSource(false);
 
-    // this search is synchronous. An optimization would be to be non-blocking,
-    // but it requires to tracking pending requests in close().
-    // Same semaphore can't be reused because of potential deadlock (requires to acquire
-    // two locks)
     SearchResponse searchResponse = searchRequest.get();
-
+    ListenableActionFuture<SearchResponse> nextPage = scroll(searchResponse.getScrollId());
     while (true) {
-      searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
-        .setScroll(TimeValue.timeValueMinutes(5))
-        .get();
+      searchResponse = nextPage.actionGet();
       SearchHit[] hits = searchResponse.getHits().getHits();
-      for (SearchHit hit : hits) {
-        add(client.prepareDelete(hit.index(), hit.type(), hit.getId()).request());
-      }
       if (hits.length == 0) {
         break;
       }
+      // next page is loaded while the deletions of the current page are being added
+      nextPage = scroll(searchResponse.getScrollId());
+      for (SearchHit hit : hits) {
+        add(client.prepareDelete(hit.index(), hit.type(), hit.getId()).request());
+      }
     }
   }
 
@@ -185,14 +211,20 @@ public class BulkIndexer implements Startable {
     if (bulkRequest.numberOfActions() > 0) {
       executeBulk();
     }
-    try {
-      if (semaphore.tryAcquire(concurrentRequests, 10, TimeUnit.MINUTES)) {
-        semaphore.release(concurrentRequests);
-      }
-    } catch (InterruptedException e) {
-      throw new IllegalStateException("Elasticsearch bulk requests still being executed after 10 minutes", e);
+    awaitPendingRequests();
+    for (int round = 1; !rejectedRequests.isEmpty() && round <= MAX_RETRY_ROUNDS; round++) {
+      // let Elasticsearch empty its queues
+      sleep(RETRY_BACKOFF_MS << round);
+      executeBulk();
+      awaitPendingRequests();
+    }
+    if (!rejectedRequests.isEmpty()) {
+      LOGGER.error(String.format("%d requests on index [%s] have been rejected by Elasticsearch %d times and are ignored",
+        rejectedRequests.size(), indexName, MAX_RETRY_ROUNDS + 1));
+      rejectedRequests.clear();
     }
     progress.stop();
+    logMetrics();
 
     if (!disableRefresh) {
       client.prepareRefresh(indexName).get();
@@ -208,6 +240,61 @@ public class BulkIndexer implements Startable {
     bulkRequest = null;
   }
 
+  @VisibleForTesting
+  long getFlushByteSize() {
+    return flowControl.getFlushByteSize();
+  }
+
+  @VisibleForTesting
+  int getConcurrentRequests() {
+    return flowControl.getConcurrencyLimit();
+  }
+
+  @VisibleForTesting
+  long getRetries() {
+    return retries.get();
+  }
+
+  private ListenableActionFuture<SearchResponse> scroll(String scrollId) {
+    // proxies of EsClient do not support asynchronous requests, including the one returned by
+    // the native client when it is the SearchClient of the server, so the builder is created directly
+    return new SearchScrollRequestBuilder(client.nativeClient(), scrollId)
+      .setScroll(TimeValue.timeValueMinutes(5))
+      .execute();
+  }
+
+  private void awaitPendingRequests() {
+    try {
+      if (!flowControl.awaitIdle(TimeUnit.MINUTES.toMillis(10))) {
+        throw new IllegalStateException("Elasticsearch bulk requests still being executed after 10 minutes");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for Elasticsearch bulk requests", e);
+    }
+  }
+
+  private static void sleep(long ms) {
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for Elasticsearch bulk requests", e);
+    }
+  }
+
+  private void logMetrics() {
+    long durationMs = Math.max(1L, System.currentTimeMillis() - startedAt);
+    String message = String.format("Bulk indexing of [%s]: %d docs in %d ms (%d docs/second, %d Kb/second, %d retries)",
+      indexName, counter.get(), durationMs, 1000L * counter.get() / durationMs,
+      sentBytes.get() / durationMs, retries.get());
+    if (large) {
+      LOGGER.info(message);
+    } else {
+      LOGGER.debug(message);
+    }
+  }
+
   private void updateSettings(Map<String, Object> settings) {
     UpdateSettingsRequestBuilder req = client.nativeClient().admin().indices().prepareUpdateSettings(indexName);
     req.setSettings(settings);
@@ -217,12 +304,35 @@ public class BulkIndexer implements Startable {
   private void executeBulk() {
     final BulkRequestBuilder req = this.bulkRequest;
     this.bulkRequest = client.prepareBulk().setRefresh(false);
-    semaphore.acquireUninterruptibly();
+    try {
+      flowControl.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for Elasticsearch bulk requests", e);
+    }
+    // requests rejected meanwhile are sent again, as soon as a slot is available
+    addRejectedRequests(req);
+    sentBytes.addAndGet(req.request().estimatedSizeInBytes());
     req.execute(new BulkResponseActionListener(req));
   }
 
+  private void addRejectedRequests(BulkRequestBuilder req) {
+    ActionRequest rejected;
+    while ((rejected = rejectedRequests.poll()) != null) {
+      req.request().add(rejected);
+      retries.incrementAndGet();
+    }
+  }
+
+  private static boolean isRejection(BulkItemResponse.Failure failure) {
+    String message = failure.getMessage();
+    return failure.getStatus() == RestStatus.TOO_MANY_REQUESTS
+      || (message != null && message.contains(EsRejectedExecutionException.class.getSimpleName()));
+  }
+
   private class BulkResponseActionListener implements ActionListener<BulkResponse> {
     private final BulkRequestBuilder req;
+    private final long startedAt = System.currentTimeMillis();
 
     public BulkResponseActionListener(BulkRequestBuilder req) {
       this.req = req;
@@ -230,11 +340,15 @@ public class BulkIndexer implements Startable {
 
     @Override
     public void onResponse(BulkResponse response) {
-      semaphore.release();
-      counter.addAndGet(response.getItems().length);
-
+      boolean rejected = false;
+      List<ActionRequest> requests = req.request().requests();
       for (BulkItemResponse item : response.getItems()) {
-        if (item.isFailed()) {
+        if (!item.isFailed()) {
+          counter.incrementAndGet();
+        } else if (isRejection(item.getFailure())) {
+          rejected = true;
+          rejectedRequests.add(requests.get(item.getItemId()));
+        } else {
           StringBuilder sb = new StringBuilder();
           String msg = sb
             .append("index [").append(item.getIndex()).append("], type [").append(item.getType()).append("], id [").append(item.getId())
@@ -242,12 +356,18 @@ public class BulkIndexer implements Startable {
           LOGGER.error(msg);
         }
       }
+      flowControl.release(System.currentTimeMillis() - startedAt, rejected);
     }
 
     @Override
     public void onFailure(Throwable e) {
-      semaphore.release();
-      LOGGER.error("Fail to execute bulk index request: " + req, e);
+      if (ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException) {
+        rejectedRequests.addAll(req.request().requests());
+        flowControl.release(System.currentTimeMillis() - startedAt, true);
+      } else {
+        flowControl.release(System.currentTimeMillis() - startedAt, false);
+        LOGGER.error("Fail to execute bulk index request: " + req, e);
+      }
     }
   }
 }
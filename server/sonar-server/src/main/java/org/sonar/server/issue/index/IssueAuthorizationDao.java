@@ -148,25 +148,46 @@ public class IssueAuthorizationDao {
 
   Collection<Dto> selectAfterDate(DbClient dbClient, Connection connection, long afterDate) {
     try {
-      Map<String, Dto> dtosByProjectUuid = Maps.newHashMap();
-      PreparedStatement stmt = null;
-      ResultSet rs = null;
-      try {
-        stmt = createStatement(dbClient, connection, afterDate);
-        rs = stmt.executeQuery();
-        while (rs.next()) {
-          processRow(rs, dtosByProjectUuid);
-        }
-        return dtosByProjectUuid.values();
-      } finally {
-        DbUtils.closeQuietly(rs);
-        DbUtils.closeQuietly(stmt);
-      }
+      return select(createStatement(dbClient, connection, afterDate));
     } catch (SQLException e) {
       throw new IllegalStateException("Fail to select issue authorizations after date: " + afterDate, e);
     }
   }
 
+  /**
+   * Authorizations of a single project, whatever the date of last change
+   */
+  Collection<Dto> selectByProject(DbClient dbClient, Connection connection, String projectUuid) {
+    PreparedStatement stmt = null;
+    try {
+      stmt = dbClient.newScrollingSelectStatement(connection,
+        StringUtils.replace(SQL_TEMPLATE, "{dateCondition}", " AND projects.uuid=? "));
+      for (int i = 1; i <= 4; i++) {
+        stmt.setString(i, projectUuid);
+      }
+      return select(stmt);
+    } catch (SQLException e) {
+      throw new IllegalStateException("Fail to select issue authorizations of project: " + projectUuid, e);
+    } finally {
+      DbUtils.closeQuietly(stmt);
+    }
+  }
+
+  private Collection<Dto> select(PreparedStatement stmt) throws SQLException {
+    Map<String, Dto> dtosByProjectUuid = Maps.newHashMap();
+    ResultSet rs = null;
+    try {
+      rs = stmt.executeQuery();
+      while (rs.next()) {
+        processRow(rs, dtosByProjectUuid);
+      }
+      return dtosByProjectUuid.values();
+    } finally {
+      DbUtils.closeQuietly(rs);
+      DbUtils.closeQuietly(stmt);
+    }
+  }
+
   private PreparedStatement createStatement(DbClient dbClient, Connection connection, long afterDate) throws SQLException {
     String sql;
     if (afterDate > 0L) {
@@ -70,6 +70,29 @@ public class IssueAuthorizationIndexer extends BaseIndexer {
     }
   }
 
+  /**
+   * Indexes the authorizations of a single project, for example when its analysis report is processed.
+   */
+  public void index(final String projectUuid) {
+    index(new IndexerTask() {
+      @Override
+      public long index(long lastUpdatedAt) {
+        DbSession dbSession = dbClient.openSession(false);
+        Connection dbConnection = dbSession.getConnection();
+        try {
+          Collection<IssueAuthorizationDao.Dto> authorizations = new IssueAuthorizationDao().selectByProject(dbClient, dbConnection, projectUuid);
+          doIndex(new BulkIndexer(esClient, IssueIndexDefinition.INDEX), authorizations);
+          // other projects may have been changed meanwhile, so the date of last indexing must not be moved
+          return 0L;
+
+        } finally {
+          DbUtils.closeQuietly(dbConnection);
+          dbSession.close();
+        }
+      }
+    });
+  }
+
   @VisibleForTesting
   public void index(Collection<IssueAuthorizationDao.Dto> authorizations) {
     final BulkIndexer bulk = new BulkIndexer(esClient, IssueIndexDefinition.INDEX);
@@ -19,22 +19,40 @@
  */
 package org.sonar.server.issue.index;
 
+import com.google.common.collect.Iterables;
 import org.apache.commons.dbutils.DbUtils;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.server.db.DbClient;
+import org.sonar.server.db.PartitionedTableReader;
 import org.sonar.server.es.BaseIndexer;
 import org.sonar.server.es.BulkIndexer;
 import org.sonar.server.es.EsClient;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 public class IssueIndexer extends BaseIndexer {
 
+  private static final Logger LOGGER = Loggers.get(IssueIndexer.class);
+
+  /**
+   * Max number of issue keys in the IN clause of SQL requests
+   */
+  private static final int KEYS_PARTITION_SIZE = 1000;
+
+  private static final String SQL_COUNT_UPDATED_AFTER = "select count(1) from issues i where i.updated_at>?";
+
   private final DbClient dbClient;
 
   public IssueIndexer(DbClient dbClient, EsClient esClient) {
@@ -51,6 +69,39 @@ public class IssueIndexer extends BaseIndexer {
     doIndex(createBulkIndexer(true), 0L);
   }
 
+  /**
+   * Same as {@link #index()}, except that when the index is empty, the table ISSUES is read
+   * by several threads, each one over its own DB connection.
+   */
+  public void indexConcurrently(final int threads) {
+    index(new IndexerTask() {
+      @Override
+      public long index(long lastUpdatedAt) {
+        if (lastUpdatedAt > 0L || threads <= 1) {
+          return doIndex(lastUpdatedAt);
+        }
+        return doIndexConcurrently(threads);
+      }
+    });
+  }
+
+  /**
+   * Indexes only the given issues of a project, for example the issues changed by an analysis report.
+   * Contrary to {@link #index()}, the issues updated meanwhile in other projects are not indexed.
+   * The date of last indexing is moved only if no other issues have been updated since the last indexing.
+   */
+  public void index(final String projectUuid, final Collection<String> issueKeys) {
+    if (issueKeys.isEmpty()) {
+      return;
+    }
+    index(new IndexerTask() {
+      @Override
+      public long index(long lastUpdatedAt) {
+        return doIndex(createBulkIndexer(false), projectUuid, issueKeys, lastUpdatedAt);
+      }
+    });
+  }
+
   /**
    * For benchmarks
    */
@@ -74,8 +125,94 @@ public class IssueIndexer extends BaseIndexer {
     }
   }
 
+  /**
+   * @return the max technical date of the indexed issues if they are all the issues updated after {@code lastUpdatedAt},
+   * else 0
+   */
+  private long doIndex(BulkIndexer bulk, String projectUuid, Collection<String> issueKeys, long lastUpdatedAt) {
+    DbSession dbSession = dbClient.openSession(false);
+    Connection dbConnection = dbSession.getConnection();
+    long docs = 0L;
+    long docsUpdatedAfter = 0L;
+    long maxDate = 0L;
+    try {
+      bulk.start();
+      for (List<String> partition : Iterables.partition(issueKeys, KEYS_PARTITION_SIZE)) {
+        IssueResultSetIterator rowIt = IssueResultSetIterator.create(dbClient, dbConnection, projectUuid, partition);
+        try {
+          while (rowIt.hasNext()) {
+            IssueDoc issue = rowIt.next();
+            bulk.add(newUpsertRequest(issue));
+            docs++;
+            long date = issue.getTechnicalUpdateDate().getTime();
+            if (date > lastUpdatedAt) {
+              docsUpdatedAfter++;
+            }
+            maxDate = Math.max(maxDate, date);
+          }
+        } finally {
+          rowIt.close();
+        }
+      }
+      bulk.stop();
+      LOGGER.debug("{} issues of project {} requested, {} rows read and sent to index", issueKeys.size(), projectUuid, docs);
+
+      // issues of other projects may have been changed meanwhile. They would not be indexed by the
+      // next call to index() if the date of last indexing was moved.
+      if (docsUpdatedAfter > 0L && countIssuesUpdatedAfter(dbConnection, lastUpdatedAt) == docsUpdatedAfter) {
+        return maxDate;
+      }
+      return 0L;
+
+    } finally {
+      DbUtils.closeQuietly(dbConnection);
+      dbSession.close();
+    }
+  }
+
+  private static long countIssuesUpdatedAfter(Connection connection, long date) {
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    try {
+      stmt = connection.prepareStatement(SQL_COUNT_UPDATED_AFTER);
+      stmt.setLong(1, date);
+      rs = stmt.executeQuery();
+      rs.next();
+      return rs.getLong(1);
+    } catch (SQLException e) {
+      throw new IllegalStateException("Fail to count the issues updated after " + date, e);
+    } finally {
+      DbUtils.closeQuietly(rs);
+      DbUtils.closeQuietly(stmt);
+    }
+  }
+
+  private long doIndexConcurrently(int threads) {
+    final BulkIndexer bulk = createBulkIndexer(true);
+    bulk.start();
+    long maxDate = new PartitionedTableReader(dbClient, "issues", threads).read(new PartitionedTableReader.PartitionReader() {
+      @Override
+      public long read(Connection connection, long fromId, long toId) {
+        IssueResultSetIterator rowIt = IssueResultSetIterator.createForIds(dbClient, connection, fromId, toId);
+        try {
+          return addAll(bulk, rowIt);
+        } finally {
+          rowIt.close();
+        }
+      }
+    });
+    bulk.stop();
+    return maxDate;
+  }
+
   private long doIndex(BulkIndexer bulk, Iterator<IssueDoc> issues) {
     bulk.start();
+    long maxDate = addAll(bulk, issues);
+    bulk.stop();
+    return maxDate;
+  }
+
+  private long addAll(BulkIndexer bulk, Iterator<IssueDoc> issues) {
     long maxDate = 0L;
     while (issues.hasNext()) {
       IssueDoc issue = issues.next();
@@ -84,7 +221,6 @@ public class IssueIndexer extends BaseIndexer {
       // it's more efficient to sort programmatically than in SQL on some databases (MySQL for instance)
       maxDate = Math.max(maxDate, issue.getTechnicalUpdateDate().getTime());
     }
-    bulk.stop();
     return maxDate;
   }
 
@@ -39,6 +39,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Date;
+import java.util.List;
 
 import static org.sonar.api.utils.DateUtils.longToDate;
 import static org.sonar.server.db.migrations.SqlUtil.getLong;
@@ -92,6 +93,10 @@ class IssueResultSetIterator extends ResultSetIterator<IssueDoc> {
 
   private static final String SQL_AFTER_DATE = SQL_ALL + " where i.updated_at>?";
 
+  private static final String SQL_ID_RANGE = SQL_ALL + " where i.id>=? and i.id<?";
+
+  private static final String SQL_PROJECT_KEYS = SQL_ALL + " where i.project_uuid=? and i.kee in ";
+
   private static final Splitter TAGS_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
 
   private static final Splitter MODULE_PATH_SPLITTER = Splitter.on('.').trimResults().omitEmptyStrings();
@@ -113,6 +118,38 @@ class IssueResultSetIterator extends ResultSetIterator<IssueDoc> {
     }
   }
 
+  /**
+   * Selects the issues whose id is in the range [fromId, toId[
+   */
+  static IssueResultSetIterator createForIds(DbClient dbClient, Connection connection, long fromId, long toId) {
+    try {
+      PreparedStatement stmt = dbClient.newScrollingSelectStatement(connection, SQL_ID_RANGE);
+      stmt.setLong(1, fromId);
+      stmt.setLong(2, toId);
+      return new IssueResultSetIterator(stmt);
+    } catch (SQLException e) {
+      throw new IllegalStateException("Fail to prepare SQL request to select issues from id " + fromId + " to id " + toId, e);
+    }
+  }
+
+  /**
+   * Selects the issues of a project with the given keys. The number of keys must be limited by caller,
+   * as some databases do not support large IN clauses.
+   */
+  static IssueResultSetIterator create(DbClient dbClient, Connection connection, String projectUuid, List<String> issueKeys) {
+    try {
+      String sql = SQL_PROJECT_KEYS + "(" + StringUtils.repeat("?", ",", issueKeys.size()) + ")";
+      PreparedStatement stmt = dbClient.newScrollingSelectStatement(connection, sql);
+      stmt.setString(1, projectUuid);
+      for (int i = 0; i < issueKeys.size(); i++) {
+        stmt.setString(i + 2, issueKeys.get(i));
+      }
+      return new IssueResultSetIterator(stmt);
+    } catch (SQLException e) {
+      throw new IllegalStateException("Fail to prepare SQL request to select issues of project " + projectUuid, e);
+    }
+  }
+
   @CheckForNull
   private static String extractDirPath(@Nullable String filePath, String scope) {
     if (filePath != null) {
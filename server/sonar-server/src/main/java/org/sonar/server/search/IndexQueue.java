@@ -19,6 +19,9 @@
  */
 package org.sonar.server.search;
 
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequestBuilder;
@@ -28,6 +31,9 @@ import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.picocontainer.Startable;
 import org.sonar.api.server.ServerSide;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
@@ -35,6 +41,8 @@ import org.sonar.core.cluster.WorkQueue;
 import org.sonar.core.platform.ComponentContainer;
 import org.sonar.server.search.action.IndexAction;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -43,21 +51,51 @@ import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Actions are normalized concurrently by a pool of threads shared by all the calls to {@link #enqueue(List)}.
+ * Normalized requests are sent in bulks of limited size. A bulk is sent as soon as it is full, while the
+ * next one is being filled. Bulks are executed one after the other, so that requests on the same document
+ * are applied in order.
+ * <p/>
+ * As bulks are sent before all the actions are normalized, the application of a stack is not all-or-nothing:
+ * <ul>
+ *   <li>if the normalization of an action fails, the remaining normalizations are cancelled and the pending requests
+ *   are dropped, but the bulks already sent are applied</li>
+ *   <li>if a bulk fails, the next bulks are still sent. All the failures are reported at the end.</li>
+ * </ul>
+ */
 @ServerSide
-public class IndexQueue implements WorkQueue<IndexAction<?>> {
+public class IndexQueue implements WorkQueue<IndexAction<?>>, Startable {
 
   private final SearchClient searchClient;
   private final ComponentContainer container;
+  private final ExecutorService normalizers;
 
   private static final Logger LOGGER = Loggers.get(IndexQueue.class);
 
-  private static final Integer CONCURRENT_NORMALIZATION_FACTOR = 1;
+  private static final long FLUSH_BYTE_SIZE = new ByteSizeValue(5, ByteSizeUnit.MB).bytes();
+  private static final long NORMALIZATION_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(20);
 
   public IndexQueue(SearchClient searchClient, ComponentContainer container) {
     this.searchClient = searchClient;
     this.container = container;
+    this.normalizers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactoryBuilder()
+      .setNameFormat("index-queue-%d")
+      .setDaemon(true)
+      .build());
+  }
+
+  @Override
+  public void start() {
+    // nothing to do
+  }
+
+  @Override
+  public void stop() {
+    normalizers.shutdownNow();
   }
 
   @Override
@@ -69,30 +107,32 @@ public class IndexQueue implements WorkQueue<IndexAction<?>> {
 
     Map<String, Index> indexes = getIndexMap();
     Set<String> indices = new HashSet<>();
+    Set<String> actionIndices = new HashSet<>();
     for (IndexAction action : actions) {
       Index index = indexes.get(action.getIndexType());
       action.setIndex(index);
+      actionIndices.add(index.getIndexName());
       if (action.needsRefresh()) {
         refreshRequired = true;
         indices.add(index.getIndexName());
       }
     }
 
-    BulkRequestBuilder bulkRequestBuilder = searchClient.prepareBulk();
-
-    processActionsIntoQueries(bulkRequestBuilder, actions);
-
-    if (bulkRequestBuilder.numberOfActions() > 0) {
-      // execute the request
-      BulkResponse response = bulkRequestBuilder.setRefresh(false).get();
+    PipelinedBulk bulk = new PipelinedBulk();
+    boolean hasInlineRefreshRequest = processActionsIntoQueries(bulk, actions);
+    bulk.stop();
+    if (hasInlineRefreshRequest) {
+      // previously done by the bulk request itself, which is now split
+      refreshRequired = true;
+      indices.addAll(actionIndices);
+    }
 
-      if (refreshRequired) {
-        this.refreshRequiredIndex(indices);
-      }
+    if (bulk.hasSentRequests() && refreshRequired) {
+      this.refreshRequiredIndex(indices);
+    }
 
-      if (response.hasFailures()) {
-        throw new IllegalStateException("Errors while indexing stack: " + response.buildFailureMessage());
-      }
+    if (!bulk.failures.isEmpty()) {
+      throw new IllegalStateException("Errors while indexing stack: " + Joiner.on(", ").join(bulk.failures));
     }
   }
 
@@ -109,21 +149,25 @@ public class IndexQueue implements WorkQueue<IndexAction<?>> {
     }
   }
 
-  private void processActionsIntoQueries(BulkRequestBuilder bulkRequestBuilder, List<IndexAction<?>> actions) {
+  /**
+   * @return true if one of the actions requested a refresh
+   */
+  private boolean processActionsIntoQueries(PipelinedBulk bulk, List<IndexAction<?>> actions) {
+    List<Future<? extends List<? extends ActionRequest>>> normalizations = new ArrayList<>(actions.size());
     try {
       boolean hasInlineRefreshRequest = false;
-      ExecutorService executorService = Executors.newFixedThreadPool(CONCURRENT_NORMALIZATION_FACTOR);
-      // invokeAll() blocks until ALL tasks submitted to executor complete
-      List<Future<List<? extends ActionRequest>>> requests = (List) executorService.invokeAll(actions, 20, TimeUnit.MINUTES);
-      for (Future<List<? extends ActionRequest>> updates : requests) {
-        for (ActionRequest update : updates.get()) {
-
-          if (IndexRequest.class.isAssignableFrom(update.getClass())) {
-            bulkRequestBuilder.add((IndexRequest) update);
-          } else if (UpdateRequest.class.isAssignableFrom(update.getClass())) {
-            bulkRequestBuilder.add((UpdateRequest) update);
-          } else if (DeleteRequest.class.isAssignableFrom(update.getClass())) {
-            bulkRequestBuilder.add((DeleteRequest) update);
+      for (IndexAction<?> action : actions) {
+        normalizations.add(normalizers.submit(action));
+      }
+      long deadline = System.currentTimeMillis() + NORMALIZATION_TIMEOUT_MS;
+      // requests are added in the order of actions, as soon as they are normalized
+      for (Future<? extends List<? extends ActionRequest>> updates : normalizations) {
+        for (ActionRequest update : updates.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+
+          if (IndexRequest.class.isAssignableFrom(update.getClass())
+            || UpdateRequest.class.isAssignableFrom(update.getClass())
+            || DeleteRequest.class.isAssignableFrom(update.getClass())) {
+            bulk.add(update);
           } else if (RefreshRequest.class.isAssignableFrom(update.getClass())) {
             hasInlineRefreshRequest = true;
           } else {
@@ -131,10 +175,18 @@ public class IndexQueue implements WorkQueue<IndexAction<?>> {
           }
         }
       }
-      executorService.shutdown();
-      bulkRequestBuilder.setRefresh(hasInlineRefreshRequest);
+      return hasInlineRefreshRequest;
     } catch (Exception e) {
-      throw new IllegalStateException("Could not execute normalization for stack", e);
+      for (Future<?> normalization : normalizations) {
+        normalization.cancel(true);
+      }
+      // pending requests are not sent. Bulks already sent are not rolled back.
+      bulk.awaitSentRequests();
+      String message = "Could not execute normalization for stack";
+      if (!bulk.failures.isEmpty()) {
+        message += ". Errors while indexing stack: " + Joiner.on(", ").join(bulk.failures);
+      }
+      throw new IllegalStateException(message, e);
     }
   }
 
@@ -145,4 +197,76 @@ public class IndexQueue implements WorkQueue<IndexAction<?>> {
     }
     return indexes;
   }
+
+  /**
+   * Sends a bulk request when it is full, while the next one is being filled. Only one bulk
+   * request is executed at a time.
+   */
+  private class PipelinedBulk {
+    private final Semaphore executing = new Semaphore(1);
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+    private BulkRequestBuilder current = searchClient.prepareBulk().setRefresh(false);
+    private boolean sentRequests = false;
+
+    void add(ActionRequest request) {
+      current.request().add(request);
+      if (current.request().estimatedSizeInBytes() >= FLUSH_BYTE_SIZE) {
+        flush();
+      }
+    }
+
+    /**
+     * Sends the pending requests, then waits for the execution of all bulk requests
+     */
+    void stop() {
+      flush();
+      awaitSentRequests();
+    }
+
+    void awaitSentRequests() {
+      executing.acquireUninterruptibly();
+      executing.release();
+    }
+
+    boolean hasSentRequests() {
+      return sentRequests;
+    }
+
+    private void flush() {
+      if (current.numberOfActions() == 0) {
+        return;
+      }
+      final BulkRequestBuilder request = current;
+      current = searchClient.prepareBulk().setRefresh(false);
+      executing.acquireUninterruptibly();
+      try {
+        execute(request);
+        sentRequests = true;
+      } catch (RuntimeException e) {
+        // for example no node is available. The listener is not called.
+        LOGGER.error("Fail to execute bulk request: " + request, e);
+        failures.add(e.getMessage());
+        executing.release();
+      }
+    }
+
+    private void execute(final BulkRequestBuilder request) {
+      request.execute(new ActionListener<BulkResponse>() {
+        @Override
+        public void onResponse(BulkResponse response) {
+          if (response.hasFailures()) {
+            failures.add(response.buildFailureMessage());
+          }
+          executing.release();
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+          LOGGER.error("Fail to execute bulk request: " + request, e);
+          failures.add(e.getMessage());
+          executing.release();
+        }
+      });
+    }
+  }
 }
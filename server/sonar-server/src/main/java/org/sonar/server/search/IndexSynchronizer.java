@@ -19,10 +19,15 @@
  */
 package org.sonar.server.search;
 
-
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.sonar.api.config.Settings;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.core.persistence.DbSession;
+import org.sonar.process.ProcessProperties;
 import org.sonar.server.activity.index.ActivityIndexer;
 import org.sonar.server.db.Dao;
 import org.sonar.server.db.DbClient;
@@ -36,11 +41,29 @@ import org.sonar.server.user.index.UserIndexer;
 import org.sonar.server.view.index.ViewIndexer;
 
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class IndexSynchronizer {
 
+  /**
+   * Number of threads used to populate the indices at startup. Indices are populated concurrently, and the
+   * large tables ISSUES and FILE_SOURCES are read by as many threads, each one over its own DB connection.
+   * Value 1 populates indices sequentially. By default the number of available processors is used. In any case
+   * the value is capped to a quarter of the JDBC connection pool ({@code sonar.jdbc.maxActive}), so that the
+   * connections opened concurrently by the readers of both tables do not exhaust the pool.
+   */
+  public static final String THREADS_PROPERTY = "sonar.search.synchronizer.threads";
+
+  private static final int DEFAULT_JDBC_MAX_ACTIVE = 50;
+
   private static final Logger LOG = Loggers.get(IndexSynchronizer.class);
 
+  private final Settings settings;
   private final DbClient db;
   private final IndexClient index;
   private final SourceLineIndexer sourceLineIndexer;
@@ -56,9 +79,10 @@ public class IndexSynchronizer {
    * because we need {@link org.sonar.server.issue.index.IssueAuthorizationIndexer} to be executed before
    * {@link org.sonar.server.issue.index.IssueIndexer}
    */
-  public IndexSynchronizer(DbClient db, IndexClient index, SourceLineIndexer sourceLineIndexer,
+  public IndexSynchronizer(Settings settings, DbClient db, IndexClient index, SourceLineIndexer sourceLineIndexer,
                            TestIndexer testIndexer, IssueAuthorizationIndexer issueAuthorizationIndexer, IssueIndexer issueIndexer,
                            UserIndexer userIndexer, ViewIndexer viewIndexer, ActivityIndexer activityIndexer) {
+    this.settings = settings;
     this.db = db;
     this.index = index;
     this.sourceLineIndexer = sourceLineIndexer;
@@ -82,24 +106,128 @@ public class IndexSynchronizer {
   }
 
   public void execute() {
-    LOG.info("Index activities");
-    activityIndexer.setEnabled(true).index();
+    final int threads = threads();
+    List<IndexTask> tasks = Lists.<IndexTask>newArrayList(
+      new IndexTask("activities") {
+        @Override
+        void index() {
+          activityIndexer.setEnabled(true).index();
+        }
+      },
+      new IndexTask("issues") {
+        @Override
+        void index() {
+          issueAuthorizationIndexer.setEnabled(true).index();
+          issueIndexer.setEnabled(true);
+          issueIndexer.indexConcurrently(threads);
+        }
+      },
+      new IndexTask("source lines") {
+        @Override
+        void index() {
+          sourceLineIndexer.setEnabled(true);
+          sourceLineIndexer.indexConcurrently(threads);
+        }
+      },
+      new IndexTask("tests") {
+        @Override
+        void index() {
+          testIndexer.setEnabled(true).index();
+        }
+      },
+      new IndexTask("users") {
+        @Override
+        void index() {
+          userIndexer.setEnabled(true).index();
+        }
+      },
+      new IndexTask("views") {
+        @Override
+        void index() {
+          viewIndexer.setEnabled(true).index();
+        }
+      });
+
+    if (threads <= 1) {
+      for (IndexTask task : tasks) {
+        task.run();
+      }
+    } else {
+      executeConcurrently(tasks, threads);
+    }
+  }
+
+  private static void executeConcurrently(List<IndexTask> tasks, int threads) {
+    long startedAt = System.currentTimeMillis();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()),
+      new ThreadFactoryBuilder().setNameFormat("index-synchronizer-%d").setDaemon(true).build());
+    AtomicInteger completed = new AtomicInteger(0);
+    try {
+      List<Future<?>> futures = Lists.newArrayList();
+      for (IndexTask task : tasks) {
+        futures.add(executor.submit(new ReportingTask(task, completed, tasks.size())));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      LOG.info("All indices populated in {} ms", System.currentTimeMillis() - startedAt);
+
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while populating indices", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 
-    LOG.info("Index issues");
-    issueAuthorizationIndexer.setEnabled(true).index();
-    issueIndexer.setEnabled(true).index();
+  @VisibleForTesting
+  int threads() {
+    int threads = settings.getInt(THREADS_PROPERTY);
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    int maxActive = settings.hasKey(ProcessProperties.JDBC_MAX_ACTIVE) ? settings.getInt(ProcessProperties.JDBC_MAX_ACTIVE) : DEFAULT_JDBC_MAX_ACTIVE;
+    if (maxActive > 0) {
+      threads = Math.min(threads, Math.max(1, maxActive / 4));
+    }
+    return threads;
+  }
 
-    LOG.info("Index source lines");
-    sourceLineIndexer.setEnabled(true).index();
+  private abstract static class IndexTask implements Runnable {
+    private final String label;
 
-    LOG.info("Index tests");
-    testIndexer.setEnabled(true).index();
+    IndexTask(String label) {
+      this.label = label;
+    }
 
-    LOG.info("Index users");
-    userIndexer.setEnabled(true).index();
+    abstract void index();
 
-    LOG.info("Index views");
-    viewIndexer.setEnabled(true).index();
+    @Override
+    public void run() {
+      LOG.info("Index {}", label);
+      index();
+    }
+  }
+
+  private static class ReportingTask implements Runnable {
+    private final IndexTask task;
+    private final AtomicInteger completed;
+    private final int total;
+
+    ReportingTask(IndexTask task, AtomicInteger completed, int total) {
+      this.task = task;
+      this.completed = completed;
+      this.total = total;
+    }
+
+    @Override
+    public void run() {
+      long startedAt = System.currentTimeMillis();
+      task.run();
+      LOG.info("Index {} populated in {} ms ({}/{} indices)", task.label, System.currentTimeMillis() - startedAt, completed.incrementAndGet(), total);
+    }
   }
 
   void synchronize(DbSession session, Dao dao, Index index) {
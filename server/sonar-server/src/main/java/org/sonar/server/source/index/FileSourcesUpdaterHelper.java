@@ -37,6 +37,7 @@ public class FileSourcesUpdaterHelper {
   private static final String SQL_ALL = "SELECT %s FROM file_sources WHERE data_type='%s' ";
   private static final String AFTER_DATE_FILTER = " AND updated_at>?";
   private static final String PROJECT_FILTER = " AND project_uuid=?";
+  private static final String ID_RANGE_FILTER = " AND id>=? AND id<?";
 
   private static final String[] FIELDS = {
     "project_uuid",
@@ -66,6 +67,18 @@ public class FileSourcesUpdaterHelper {
     return stmt;
   }
 
+  /**
+   * Selects the rows whose id is in the range [fromId, toId[
+   */
+  public static PreparedStatement preparedStatementToSelectFileSourcesByIds(DbClient dbClient, Connection connection, String dataType, long fromId, long toId)
+    throws SQLException {
+    String sql = String.format(SQL_ALL, FIELDS_ONE_LINE, dataType) + ID_RANGE_FILTER;
+    PreparedStatement stmt = dbClient.newScrollingSingleRowSelectStatement(connection, sql);
+    stmt.setLong(1, fromId);
+    stmt.setLong(2, toId);
+    return stmt;
+  }
+
   private static String createSQL(String dataType, long afterDate, @Nullable String projectUuid) {
     StringBuilder sql = new StringBuilder(String.format(SQL_ALL, FIELDS_ONE_LINE, dataType));
     if (afterDate > 0L || projectUuid != null) {
@@ -19,12 +19,20 @@
  */
 package org.sonar.server.source.index;
 
+import com.google.common.collect.Maps;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.max.Max;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.server.db.DbClient;
+import org.sonar.server.db.PartitionedTableReader;
 import org.sonar.server.es.BaseIndexer;
 import org.sonar.server.es.BulkIndexer;
 import org.sonar.server.es.EsClient;
@@ -33,8 +41,11 @@ import javax.annotation.Nullable;
 
 import java.sql.Connection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static org.sonar.server.source.index.SourceLineIndexDefinition.FIELD_FILE_UUID;
+import static org.sonar.server.source.index.SourceLineIndexDefinition.FIELD_LINE;
 import static org.sonar.server.source.index.SourceLineIndexDefinition.FIELD_PROJECT_UUID;
 
 /**
@@ -43,6 +54,11 @@ import static org.sonar.server.source.index.SourceLineIndexDefinition.FIELD_PROJ
  */
 public class SourceLineIndexer extends BaseIndexer {
 
+  /**
+   * Max number of projects whose indexed lines are kept in memory while indexing
+   */
+  private static final int MAX_CACHED_PROJECTS = 10;
+
   private final DbClient dbClient;
 
   public SourceLineIndexer(DbClient dbClient, EsClient esClient) {
@@ -59,11 +75,47 @@ public class SourceLineIndexer extends BaseIndexer {
     });
   }
 
+  /**
+   * Same as {@link #index()}, except that when the index is empty, the table FILE_SOURCES is read
+   * by several threads, each one over its own DB connection.
+   */
+  public void indexConcurrently(final int threads) {
+    super.index(new IndexerTask() {
+      @Override
+      public long index(long lastUpdatedAt) {
+        if (lastUpdatedAt > 0L || threads <= 1) {
+          return doIndex(lastUpdatedAt, null);
+        }
+        return doIndexConcurrently(threads);
+      }
+    });
+  }
+
   @Override
   protected long doIndex(long lastUpdatedAt) {
     return doIndex(lastUpdatedAt, null);
   }
 
+  private long doIndexConcurrently(int threads) {
+    final BulkIndexer bulk = new BulkIndexer(esClient, SourceLineIndexDefinition.INDEX);
+    bulk.setLarge(true);
+    bulk.start();
+    long maxUpdatedAt = new PartitionedTableReader(dbClient, "file_sources", threads).read(new PartitionedTableReader.PartitionReader() {
+      @Override
+      public long read(Connection connection, long fromId, long toId) {
+        SourceLineResultSetIterator rowIt = SourceLineResultSetIterator.createForIds(dbClient, connection, fromId, toId);
+        try {
+          // index is empty, so there are no lines to be removed
+          return addAll(bulk, rowIt, false);
+        } finally {
+          rowIt.close();
+        }
+      }
+    });
+    bulk.stop();
+    return maxUpdatedAt;
+  }
+
   private long doIndex(long lastUpdatedAt, @Nullable String projectUuid) {
     final BulkIndexer bulk = new BulkIndexer(esClient, SourceLineIndexDefinition.INDEX);
     bulk.setLarge(lastUpdatedAt == 0L);
@@ -87,17 +139,25 @@ public class SourceLineIndexer extends BaseIndexer {
   }
 
   private long doIndex(BulkIndexer bulk, Iterator<FileSourcesUpdaterHelper.Row> dbRows) {
-    long maxUpdatedAt = 0L;
     bulk.start();
+    long maxUpdatedAt = addAll(bulk, dbRows, true);
+    bulk.stop();
+    return maxUpdatedAt;
+  }
+
+  private long addAll(BulkIndexer bulk, Iterator<FileSourcesUpdaterHelper.Row> dbRows, boolean deleteRemovedLines) {
+    long maxUpdatedAt = 0L;
+    IndexedLines indexedLines = deleteRemovedLines ? new IndexedLines() : null;
     while (dbRows.hasNext()) {
       FileSourcesUpdaterHelper.Row row = dbRows.next();
-      addDeleteRequestsForLinesGreaterThan(bulk, row);
+      if (indexedLines != null) {
+        addDeleteRequestsForRemovedLines(bulk, row, indexedLines.get(row.getProjectUuid(), row.getFileUuid()));
+      }
       for (UpdateRequest updateRequest : row.getUpdateRequests()) {
         bulk.add(updateRequest);
       }
       maxUpdatedAt = Math.max(maxUpdatedAt, row.getUpdatedAt());
     }
-    bulk.stop();
     return maxUpdatedAt;
   }
 
@@ -105,21 +165,63 @@ public class SourceLineIndexer extends BaseIndexer {
    * Use-case:
    * - file had 10 lines in previous analysis
    * - same file has now 5 lines
-   * Lines 6 to 10 must be removed from index.
+   * Lines 6 to 10 must be removed from index. Their ids are known, so they are deleted without being searched.
    */
-  private void addDeleteRequestsForLinesGreaterThan(BulkIndexer bulk, FileSourcesUpdaterHelper.Row fileRow) {
-    int numberOfLines = fileRow.getUpdateRequests().size();
-    SearchRequestBuilder searchRequest = esClient.prepareSearch(SourceLineIndexDefinition.INDEX)
+  private static void addDeleteRequestsForRemovedLines(BulkIndexer bulk, FileSourcesUpdaterHelper.Row fileRow, int indexedLines) {
+    for (int line = fileRow.getUpdateRequests().size() + 1; line <= indexedLines; line++) {
+      bulk.add(new DeleteRequest(SourceLineIndexDefinition.INDEX, SourceLineIndexDefinition.TYPE, SourceLineIndexDefinition.docKey(fileRow.getFileUuid(), line))
+        .routing(fileRow.getProjectUuid()));
+    }
+  }
+
+  /**
+   * Number of lines of each file of a project in index
+   */
+  private Map<String, Integer> selectIndexedLinesByFile(String projectUuid) {
+    SearchResponse response = esClient.prepareSearch(SourceLineIndexDefinition.INDEX)
       .setTypes(SourceLineIndexDefinition.TYPE)
-      .setRouting(fileRow.getProjectUuid())
+      .setRouting(projectUuid)
+      .setSearchType(SearchType.COUNT)
       .setQuery(QueryBuilders.filteredQuery(
         QueryBuilders.matchAllQuery(),
-        FilterBuilders.boolFilter()
-          .must(FilterBuilders.termFilter(FIELD_FILE_UUID, fileRow.getFileUuid()).cache(false))
-          .must(FilterBuilders.rangeFilter(SourceLineIndexDefinition.FIELD_LINE).gt(numberOfLines).cache(false))
-          .cache(false)
-      ));
-    bulk.addDeletion(searchRequest);
+        FilterBuilders.termFilter(FIELD_PROJECT_UUID, projectUuid).cache(false)))
+      .addAggregation(AggregationBuilders.terms(FIELD_FILE_UUID).field(FIELD_FILE_UUID)
+        // all the files
+        .size(0)
+        .subAggregation(AggregationBuilders.max(FIELD_LINE).field(FIELD_LINE)))
+      .get();
+    Map<String, Integer> result = Maps.newHashMap();
+    Terms files = response.getAggregations().get(FIELD_FILE_UUID);
+    for (Terms.Bucket file : files.getBuckets()) {
+      Max maxLine = file.getAggregations().get(FIELD_LINE);
+      result.put(file.getKey(), (int) maxLine.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * Lines in index of the files of the projects being indexed. They are loaded with a single
+   * request per project. Rows are generally grouped by project, but the incremental indexing
+   * may interleave projects, so the last used projects are kept.
+   */
+  private class IndexedLines {
+    // access-order, so that the first entry is the least recently used project
+    private final Map<String, Map<String, Integer>> linesByFileByProject = new LinkedHashMap<>(16, 0.75f, true);
+
+    int get(String projectUuid, String fileUuid) {
+      Map<String, Integer> linesByFile = linesByFileByProject.get(projectUuid);
+      if (linesByFile == null) {
+        linesByFile = selectIndexedLinesByFile(projectUuid);
+        linesByFileByProject.put(projectUuid, linesByFile);
+        if (linesByFileByProject.size() > MAX_CACHED_PROJECTS) {
+          Iterator<String> eldest = linesByFileByProject.keySet().iterator();
+          eldest.next();
+          eldest.remove();
+        }
+      }
+      Integer lines = linesByFile.get(fileUuid);
+      return lines == null ? 0 : lines;
+    }
   }
 
   public void deleteByFile(String fileUuid) {
@@ -55,6 +55,18 @@ public class SourceLineResultSetIterator extends ResultSetIterator<FileSourcesUp
     }
   }
 
+  /**
+   * Selects the rows whose id is in the range [fromId, toId[
+   */
+  public static SourceLineResultSetIterator createForIds(DbClient dbClient, Connection connection, long fromId, long toId) {
+    try {
+      return new SourceLineResultSetIterator(FileSourcesUpdaterHelper.preparedStatementToSelectFileSourcesByIds(dbClient, connection, FileSourceDto.Type.SOURCE,
+        fromId, toId));
+    } catch (SQLException e) {
+      throw new IllegalStateException("Fail to prepare SQL request to select file sources from id " + fromId + " to id " + toId, e);
+    }
+  }
+
   private SourceLineResultSetIterator(PreparedStatement stmt) throws SQLException {
     super(stmt);
   }
@@ -19,25 +19,41 @@
  */
 package org.sonar.server.util.cache;
 
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.sonar.api.utils.System2;
 import org.sonar.server.util.CloseableIterator;
 import org.sonar.server.util.ObjectInputStreamIterator;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
 import java.io.*;
 
 /**
  * Serialize and deserialize objects on disk. No search capabilities, only traversal (full scan).
+ * <p/>
+ * Objects are stored with Java serialization, except if a {@link DiskCacheCodec} is provided. In this case
+ * objects are encoded in chunks of about {@link #CHUNK_SIZE} bytes, which can be compressed with LZ4.
  */
 public class DiskCache<O extends Serializable> {
 
+  static final int CHUNK_SIZE = 64 * 1024;
+
   private final File file;
   private final System2 system2;
+  @CheckForNull
+  private final DiskCacheCodec<O> codec;
+  private final boolean compressed;
 
   public DiskCache(File file, System2 system2) {
     this.system2 = system2;
     this.file = file;
+    this.codec = null;
+    this.compressed = false;
     OutputStream output = null;
     try {
       // writes the serialization stream header required when calling "traverse()"
@@ -54,22 +70,56 @@ public class DiskCache<O extends Serializable> {
     }
   }
 
+  public DiskCache(File file, System2 system2, DiskCacheCodec<O> codec, boolean compressed) {
+    this.system2 = system2;
+    this.file = file;
+    this.codec = codec;
+    this.compressed = compressed;
+    OutputStream output = null;
+    try {
+      // empty file, as chunks are appended
+      output = new FileOutputStream(file);
+      system2.close(output);
+    } catch (IOException e) {
+      IOUtils.closeQuietly(output);
+      throw new IllegalStateException("Fail to write into file: " + file, e);
+    }
+  }
+
   public DiskAppender newAppender() {
-    return new DiskAppender();
+    if (codec == null) {
+      return new SerializationAppender();
+    }
+    return new CodecAppender(codec);
   }
 
   public CloseableIterator<O> traverse() {
     try {
-      return new ObjectInputStreamIterator<>(FileUtils.openInputStream(file));
+      if (codec == null) {
+        return new ObjectInputStreamIterator<>(FileUtils.openInputStream(file));
+      }
+      return new CodecIterator(codec, new DataInputStream(new BufferedInputStream(FileUtils.openInputStream(file))));
     } catch (IOException e) {
       throw new IllegalStateException("Fail to traverse file: " + file, e);
     }
   }
 
-  public class DiskAppender implements AutoCloseable {
-    private final ObjectOutputStream output;
+  public abstract class DiskAppender implements AutoCloseable {
 
     private DiskAppender() {
+      // only the implementations of this class
+    }
+
+    public abstract DiskAppender append(O object);
+
+    @Override
+    public abstract void close();
+  }
+
+  private class SerializationAppender extends DiskAppender {
+    private final ObjectOutputStream output;
+
+    private SerializationAppender() {
       try {
         this.output = new ObjectOutputStream(new FileOutputStream(file, true)) {
           @Override
@@ -82,6 +132,7 @@ public class DiskCache<O extends Serializable> {
       }
     }
 
+    @Override
     public DiskAppender append(O object) {
       try {
         output.writeObject(object);
@@ -97,4 +148,118 @@ public class DiskCache<O extends Serializable> {
       system2.close(output);
     }
   }
+
+  /**
+   * Each chunk is written as: size of encoded objects (int), size of stored bytes (int), stored bytes
+   */
+  private class CodecAppender extends DiskAppender {
+    private final DiskCacheCodec<O> codec;
+    private final DataOutputStream output;
+    private final ByteArrayOutputStream chunk = new ByteArrayOutputStream(CHUNK_SIZE + CHUNK_SIZE / 4);
+    private final DataOutputStream chunkOutput = new DataOutputStream(chunk);
+    @Nullable
+    private final LZ4Compressor compressor;
+
+    private CodecAppender(DiskCacheCodec<O> codec) {
+      this.codec = codec;
+      this.compressor = compressed ? LZ4Factory.fastestInstance().fastCompressor() : null;
+      try {
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to open file " + file, e);
+      }
+    }
+
+    @Override
+    public DiskAppender append(O object) {
+      try {
+        codec.write(chunkOutput, object);
+        if (chunk.size() >= CHUNK_SIZE) {
+          writeChunk();
+        }
+        return this;
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to write into file " + file, e);
+      }
+    }
+
+    private void writeChunk() throws IOException {
+      chunkOutput.flush();
+      byte[] bytes = chunk.toByteArray();
+      chunk.reset();
+      output.writeInt(bytes.length);
+      if (compressor == null) {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+      } else {
+        byte[] compressedBytes = new byte[compressor.maxCompressedLength(bytes.length)];
+        int compressedLength = compressor.compress(bytes, 0, bytes.length, compressedBytes, 0, compressedBytes.length);
+        output.writeInt(compressedLength);
+        output.write(compressedBytes, 0, compressedLength);
+      }
+    }
+
+    @Override
+    public void close() {
+      try {
+        if (chunk.size() > 0) {
+          writeChunk();
+        }
+      } catch (IOException e) {
+        IOUtils.closeQuietly(output);
+        throw new IllegalStateException("Fail to write into file " + file, e);
+      }
+      system2.close(output);
+    }
+  }
+
+  private class CodecIterator extends CloseableIterator<O> {
+    private final DiskCacheCodec<O> codec;
+    private final DataInputStream input;
+    @Nullable
+    private final LZ4FastDecompressor decompressor;
+    private DataInputStream chunkInput = null;
+
+    private CodecIterator(DiskCacheCodec<O> codec, DataInputStream input) {
+      this.codec = codec;
+      this.input = input;
+      this.decompressor = compressed ? LZ4Factory.fastestInstance().fastDecompressor() : null;
+    }
+
+    @Override
+    @CheckForNull
+    protected O doNext() {
+      try {
+        if ((chunkInput == null || chunkInput.available() == 0) && !readChunk()) {
+          return null;
+        }
+        return codec.read(chunkInput);
+      } catch (IOException e) {
+        throw new IllegalStateException("Fail to read file " + file, e);
+      }
+    }
+
+    private boolean readChunk() throws IOException {
+      int length;
+      try {
+        length = input.readInt();
+      } catch (EOFException e) {
+        return false;
+      }
+      byte[] storedBytes = new byte[input.readInt()];
+      input.readFully(storedBytes);
+      byte[] bytes = storedBytes;
+      if (decompressor != null) {
+        bytes = new byte[length];
+        decompressor.decompress(storedBytes, 0, bytes, 0, length);
+      }
+      chunkInput = new DataInputStream(new ByteArrayInputStream(bytes));
+      return true;
+    }
+
+    @Override
+    protected void doClose() {
+      IOUtils.closeQuietly(input);
+    }
+  }
 }
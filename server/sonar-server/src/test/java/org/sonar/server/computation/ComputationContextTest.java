@@ -22,10 +22,15 @@ package org.sonar.server.computation;
 
 import org.junit.Test;
 import org.sonar.api.config.Settings;
+import org.sonar.batch.protocol.output.BatchReport;
 import org.sonar.batch.protocol.output.BatchReportReader;
 import org.sonar.core.component.ComponentDto;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class ComputationContextTest {
 
@@ -36,4 +41,17 @@ public class ComputationContextTest {
     sut.setProjectSettings(mock(Settings.class));
     sut.setProjectSettings(mock(Settings.class));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void load_component_tree_once() {
+    BatchReportReader reader = mock(BatchReportReader.class);
+    when(reader.readMetadata()).thenReturn(BatchReport.Metadata.newBuilder().setRootComponentRef(1).build());
+    when(reader.readComponent(1)).thenReturn(BatchReport.Component.newBuilder().setRef(1).build());
+    ComputationContext context = new ComputationContext(reader, mock(ComponentDto.class));
+
+    assertThat(context.isComponentTreeLoaded()).isFalse();
+    assertThat(context.getComponentTree()).isSameAs(context.getComponentTree());
+    assertThat(context.isComponentTreeLoaded()).isTrue();
+    verify(reader, times(1)).readComponent(1);
+  }
+}
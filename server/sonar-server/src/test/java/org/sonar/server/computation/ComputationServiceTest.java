@@ -25,6 +25,7 @@ import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.sonar.api.resources.Qualifiers;
 import org.sonar.api.utils.System2;
@@ -109,7 +110,12 @@ public class ComputationServiceTest {
     verify(projectStep1).execute(any(ComputationContext.class));
     verify(projectStep2).execute(any(ComputationContext.class));
     verify(viewStep, never()).execute(any(ComputationContext.class));
-    verify(activityService).save(any(Activity.class));
+
+    // durations of executed steps are logged in activity
+    ArgumentCaptor<Activity> activity = ArgumentCaptor.forClass(Activity.class);
+    verify(activityService).save(activity.capture());
+    assertThat(activity.getValue().getData()).containsKey("stepDurations");
+    assertThat((String) activity.getValue().getData().get("stepDurations")).contains(projectStep1.getClass().getSimpleName() + ":");
   }
 
   private AnalysisReportDto newDefaultReport() {
@@ -137,7 +143,7 @@ public class ComputationServiceTest {
       sut.process(new ReportQueue.Item(dto, zip));
       fail();
     } catch (IllegalStateException e) {
-      assertThat(e.getMessage()).startsWith("Fail to unzip " + zip.getAbsolutePath() + " into ");
+      assertThat(e.getMessage()).isEqualTo("Fail to open zip file " + zip.getAbsolutePath());
       assertThat(dto.getStatus()).isEqualTo(Status.FAILED);
       assertThat(dto.getFinishedAt()).isNotNull();
     }
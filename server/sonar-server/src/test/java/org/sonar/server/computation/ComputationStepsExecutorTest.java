@@ -0,0 +1,150 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.utils.System2;
+import org.sonar.server.computation.step.ComputationStep;
+import org.sonar.server.computation.step.ComputationSteps;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ComputationStepsExecutorTest {
+
+  ComputationSteps steps = mock(ComputationSteps.class);
+  ComputationContext context = mock(ComputationContext.class);
+  ComputationStepsExecutor sut = new ComputationStepsExecutor(steps, System2.INSTANCE);
+
+  @Test
+  public void execute_independent_steps_concurrently() throws Exception {
+    // each step waits for the other one to be started
+    final CountDownLatch started = new CountDownLatch(2);
+    ComputationStep step1 = mock(ComputationStep.class);
+    ComputationStep step2 = mock(ComputationStep.class);
+    doAnswer(awaitOtherStep(started)).when(step1).execute(context);
+    doAnswer(awaitOtherStep(started)).when(step2).execute(context);
+
+    Map<ComputationStep, Long> durations = sut.execute(Arrays.asList(step1, step2), context);
+
+    assertThat(started.getCount()).isEqualTo(0);
+    assertThat(durations).hasSize(2).containsKey(step1).containsKey(step2);
+  }
+
+  @Test
+  public void execute_step_after_its_dependencies() throws Exception {
+    final List<ComputationStep> executedSteps = new CopyOnWriteArrayList<>();
+    ComputationStep step1 = mockStep(executedSteps);
+    ComputationStep step2 = mockStep(executedSteps);
+    ComputationStep step3 = mockStep(executedSteps);
+    when(steps.dependencies(step3)).thenReturn(ImmutableSet.of(step1, step2));
+
+    sut.execute(Arrays.asList(step3, step1, step2), context);
+
+    assertThat(executedSteps).hasSize(3);
+    assertThat(executedSteps.get(2)).isSameAs(step3);
+  }
+
+  @Test
+  public void ignore_dependency_that_is_not_executed() throws Exception {
+    ComputationStep step1 = mock(ComputationStep.class);
+    ComputationStep step2 = mock(ComputationStep.class);
+    when(steps.dependencies(step2)).thenReturn(Collections.singleton(step1));
+
+    Map<ComputationStep, Long> durations = sut.execute(Arrays.asList(step2), context);
+
+    assertThat(durations).containsOnlyKeys(step2);
+    verify(step1, never()).execute(any(ComputationContext.class));
+  }
+
+  @Test
+  public void do_not_start_steps_after_failure() throws Exception {
+    ComputationStep step1 = mock(ComputationStep.class);
+    ComputationStep step2 = mock(ComputationStep.class);
+    doThrow(new IllegalStateException("pb")).when(step1).execute(context);
+    when(steps.dependencies(step2)).thenReturn(Collections.singleton(step1));
+
+    try {
+      sut.execute(Arrays.asList(step1, step2), context);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("pb");
+      verify(step2, never()).execute(any(ComputationContext.class));
+    }
+  }
+
+  @Test
+  public void fail_if_cyclic_dependencies() throws Exception {
+    ComputationStep step1 = mock(ComputationStep.class);
+    ComputationStep step2 = mock(ComputationStep.class);
+    when(steps.dependencies(step1)).thenReturn(Collections.singleton(step2));
+    when(steps.dependencies(step2)).thenReturn(Collections.singleton(step1));
+
+    try {
+      sut.execute(Arrays.asList(step1, step2), context);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage()).startsWith("Steps can not be started because of cyclic dependencies");
+    }
+  }
+
+  private ComputationStep mockStep(final List<ComputationStep> executedSteps) {
+    final ComputationStep step = mock(ComputationStep.class);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        executedSteps.add(step);
+        return null;
+      }
+    }).when(step).execute(context);
+    return step;
+  }
+
+  private static Answer<Void> awaitOtherStep(final CountDownLatch started) {
+    return new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        started.countDown();
+        if (!started.await(10, TimeUnit.SECONDS)) {
+          throw new IllegalStateException("Steps are not executed concurrently");
+        }
+        return null;
+      }
+    };
+  }
+}
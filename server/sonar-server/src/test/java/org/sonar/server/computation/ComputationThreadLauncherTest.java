@@ -27,10 +27,15 @@ import org.junit.Test;
 import org.junit.rules.DisableOnDebug;
 import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.config.Settings;
 import org.sonar.api.platform.Server;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
 public class ComputationThreadLauncherTest {
@@ -40,6 +45,7 @@ public class ComputationThreadLauncherTest {
 
   ComputationThreadLauncher sut;
   ReportQueue queue;
+  Settings settings = new Settings();
 
   @Before
   public void before() {
@@ -48,12 +54,14 @@ public class ComputationThreadLauncherTest {
 
   @After
   public void after() {
-    sut.stop();
+    if (sut != null) {
+      sut.stop();
+    }
   }
 
   @Test
   public void call_findAndBook_when_launching_a_recurrent_task() throws Exception {
-    sut = new ComputationThreadLauncher(queue, 0, 1, TimeUnit.MILLISECONDS);
+    sut = new ComputationThreadLauncher(queue, settings, 0, 1, TimeUnit.MILLISECONDS);
 
     sut.onServerStart(mock(Server.class));
 
@@ -64,7 +72,7 @@ public class ComputationThreadLauncherTest {
 
   @Test
   public void call_findAndBook_when_executing_task_immediately() throws Exception {
-    sut = new ComputationThreadLauncher(queue, 1, 1, TimeUnit.HOURS);
+    sut = new ComputationThreadLauncher(queue, settings, 1, 1, TimeUnit.HOURS);
     sut.start();
 
     sut.startAnalysisTaskNow();
@@ -74,9 +82,60 @@ public class ComputationThreadLauncherTest {
     verify(queue, atLeastOnce()).pop();
   }
 
+  @Test
+  public void do_not_queue_more_wake_ups_than_workers() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    when(queue.pop()).thenAnswer(new Answer<ReportQueue.Item>() {
+      @Override
+      public ReportQueue.Item answer(InvocationOnMock invocation) throws Throwable {
+        latch.await();
+        return null;
+      }
+    });
+    sut = new ComputationThreadLauncher(queue, settings, 1, 1, TimeUnit.HOURS);
+
+    // first wake-up is blocked by the worker, second one waits in queue, others are ignored
+    sut.startAnalysisTaskNow();
+    sleep();
+    for (int i = 0; i < 10; i++) {
+      sut.startAnalysisTaskNow();
+    }
+    latch.countDown();
+    sleep();
+
+    verify(queue, times(2)).pop();
+  }
+
+  @Test
+  public void call_findAndBook_from_several_workers() throws Exception {
+    settings.setProperty(ComputationThreadLauncher.PROPERTY_WORKERS, 3);
+    sut = new ComputationThreadLauncher(queue, settings, 0, 1, TimeUnit.MILLISECONDS);
+
+    sut.onServerStart(mock(Server.class));
+
+    sleep();
+
+    assertThat(sut.getWorkers()).isEqualTo(3);
+    verify(queue, atLeast(3)).pop();
+  }
+
+  @Test
+  public void one_worker_by_default() throws Exception {
+    sut = new ComputationThreadLauncher(queue, settings);
+
+    assertThat(sut.getWorkers()).isEqualTo(1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fail_if_negative_number_of_workers() throws Exception {
+    settings.setProperty(ComputationThreadLauncher.PROPERTY_WORKERS, -1);
+
+    sut = new ComputationThreadLauncher(queue, settings);
+  }
+
   @Test
   public void test_real_constructor() throws Exception {
-    sut = new ComputationThreadLauncher(queue);
+    sut = new ComputationThreadLauncher(queue, settings);
     sut.start();
   }
 
@@ -57,14 +57,29 @@ public class ComputationThreadTest {
   public void pop_queue_and_integrate_report() throws IOException {
     AnalysisReportDto report = AnalysisReportDto.newForTests(1L);
     ReportQueue.Item item = new ReportQueue.Item(report, temp.newFile());
-    when(queue.pop()).thenReturn(item);
+    when(queue.pop()).thenReturn(item, null);
 
     sut.run();
 
-    verify(queue).pop();
+    verify(queue, times(2)).pop();
     verify(container).execute(item);
   }
 
+  @Test
+  public void pop_queue_until_empty() throws IOException {
+    ReportQueue.Item item1 = new ReportQueue.Item(AnalysisReportDto.newForTests(1L), temp.newFile());
+    ReportQueue.Item item2 = new ReportQueue.Item(AnalysisReportDto.newForTests(2L), temp.newFile());
+    when(queue.pop()).thenReturn(item1, item2, null);
+
+    sut.run();
+
+    verify(queue, times(3)).pop();
+    verify(container).execute(item1);
+    verify(container).execute(item2);
+    verify(queue).remove(item1);
+    verify(queue).remove(item2);
+  }
+
   @Test
   public void handle_error_during_queue_pop() {
     when(queue.pop()).thenThrow(new IllegalStateException());
@@ -78,7 +93,7 @@ public class ComputationThreadTest {
   public void handle_error_during_integration() throws Exception {
     AnalysisReportDto report = AnalysisReportDto.newForTests(1L).setProjectKey("P1");
     ReportQueue.Item item = new ReportQueue.Item(report, temp.newFile());
-    when(queue.pop()).thenReturn(item);
+    when(queue.pop()).thenReturn(item, null);
     doThrow(new IllegalStateException("pb")).when(container).execute(item);
 
     sut.run();
@@ -90,7 +105,7 @@ public class ComputationThreadTest {
   public void handle_error_during_removal_from_queue() throws Exception {
     AnalysisReportDto report = AnalysisReportDto.newForTests(1L).setProjectKey("P1");
     ReportQueue.Item item = new ReportQueue.Item(report, temp.newFile());
-    when(queue.pop()).thenReturn(item);
+    when(queue.pop()).thenReturn(item, null);
     doThrow(new IllegalStateException("pb")).when(queue).remove(item);
 
     sut.run();
@@ -143,6 +143,27 @@ public class ReportQueueTest {
     assertThat(reports).extracting("status").containsOnly(WORKING);
   }
 
+  @Test
+  public void do_not_pop_report_of_project_being_processed() {
+    sut.add("P1", generateData());
+    sut.add("P1", generateData());
+
+    ReportQueue.Item item = sut.pop();
+    assertThat(item.dto.getProjectKey()).isEqualTo("P1");
+
+    // emulate the concurrent booking of the same project by another worker
+    try (DbSession session = db.myBatis().openSession(false)) {
+      new AnalysisReportDao(system).resetToPendingStatus(session, item.dto.getId());
+      session.commit();
+    }
+    assertThat(sut.pop()).isNull();
+    assertThat(sut.all()).extracting("status").containsOnly(PENDING);
+
+    // lock is released when report is removed from queue
+    sut.remove(item);
+    assertThat(sut.pop().dto.getProjectKey()).isEqualTo("P1");
+  }
+
   @Test
   public void remove() {
     ReportQueue.Item item = sut.add("P1", generateData());
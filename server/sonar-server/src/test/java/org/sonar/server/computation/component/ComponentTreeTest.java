@@ -0,0 +1,139 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.component;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.batch.protocol.Constants;
+import org.sonar.batch.protocol.output.BatchReport;
+import org.sonar.batch.protocol.output.BatchReportReader;
+import org.sonar.batch.protocol.output.BatchReportWriter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ComponentTreeTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  BatchReportReader reader;
+
+  @Before
+  public void setUp() throws Exception {
+    File dir = temp.newFolder();
+    BatchReportWriter writer = new BatchReportWriter(dir);
+    writer.writeComponent(component(1, Constants.ComponentType.PROJECT, 2));
+    writer.writeComponent(component(2, Constants.ComponentType.MODULE, 3));
+    writer.writeComponent(component(3, Constants.ComponentType.DIRECTORY, 4, 5));
+    writer.writeComponent(component(4, Constants.ComponentType.FILE));
+    writer.writeComponent(component(5, Constants.ComponentType.FILE));
+    // not attached to the tree
+    writer.writeComponent(component(6, Constants.ComponentType.FILE));
+    reader = spy(new BatchReportReader(dir));
+  }
+
+  @Test
+  public void parse_components_once() {
+    ComponentTree tree = new ComponentTree(reader, 1);
+
+    tree.visit(new RefCollector());
+    tree.visit(new RefCollector());
+    assertThat(tree.get(4).getRef()).isEqualTo(4);
+    assertThat(tree.getRoot().getRef()).isEqualTo(1);
+
+    verify(reader, times(1)).readComponent(4);
+    assertThat(tree.getParses()).isEqualTo(5);
+    assertThat(tree.getLookups()).isEqualTo(12);
+    assertThat(tree.profilingMessage()).startsWith("Component tree | components=5 | parses=5 | parsesSaved=7");
+  }
+
+  @Test
+  public void visit_parents_before_children() {
+    ComponentTree tree = new ComponentTree(reader, 1);
+    RefCollector visitor1 = new RefCollector();
+    RefCollector visitor2 = new RefCollector();
+
+    tree.visit(visitor1, visitor2);
+
+    assertThat(visitor1.refs).containsExactly(1, 2, 3, 4, 5);
+    assertThat(visitor2.refs).containsExactly(1, 2, 3, 4, 5);
+  }
+
+  @Test
+  public void parse_component_not_attached_to_tree_on_first_access() {
+    ComponentTree tree = new ComponentTree(reader, 1);
+
+    assertThat(tree.get(6).getRef()).isEqualTo(6);
+    assertThat(tree.get(6).getRef()).isEqualTo(6);
+
+    verify(reader, times(1)).readComponent(6);
+  }
+
+  @Test
+  public void parent_module() {
+    ComponentTree tree = new ComponentTree(reader, 1);
+
+    assertThat(tree.getParentModule(1).getRef()).isEqualTo(1);
+    assertThat(tree.getParentModule(2).getRef()).isEqualTo(1);
+    assertThat(tree.getParentModule(3).getRef()).isEqualTo(2);
+    assertThat(tree.getParentModule(5).getRef()).isEqualTo(2);
+  }
+
+  @Test
+  public void fail_to_get_parent_module_of_component_not_attached_to_tree() {
+    ComponentTree tree = new ComponentTree(reader, 1);
+
+    try {
+      tree.getParentModule(6);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Component 6 is not attached to the tree");
+    }
+  }
+
+  private static BatchReport.Component component(int ref, Constants.ComponentType type, Integer... childRefs) {
+    BatchReport.Component.Builder builder = BatchReport.Component.newBuilder()
+      .setRef(ref)
+      .setType(type);
+    for (Integer childRef : childRefs) {
+      builder.addChildRef(childRef);
+    }
+    return builder.build();
+  }
+
+  private static class RefCollector implements ComponentVisitor {
+    private final List<Integer> refs = new ArrayList<>();
+
+    @Override
+    public void visit(BatchReport.Component component) {
+      refs.add(component.getRef());
+    }
+  }
+}
@@ -95,6 +95,16 @@ public class AnalysisReportDaoTest {
     db.assertDbUnit(getClass(), "update-all-to-status-pending-result.xml", "analysis_reports");
   }
 
+  @Test
+  public void resetToPendingStatus() {
+    db.prepareDbUnit(getClass(), "update-all-to-status-pending.xml");
+
+    sut.resetToPendingStatus(session, 2L);
+    session.commit();
+
+    db.assertDbUnit(getClass(), "reset_to_pending_status-result.xml", "analysis_reports");
+  }
+
   @Test
   public void truncate() {
     db.prepareDbUnit(getClass(), "any-analysis-reports.xml");
@@ -0,0 +1,175 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.computation.issue;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.api.issue.internal.DefaultIssueComment;
+import org.sonar.api.issue.internal.FieldDiffs;
+import org.sonar.api.issue.internal.IssueChangeContext;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.utils.Duration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DefaultIssueCodecTest {
+
+  DefaultIssueCodec codec = new DefaultIssueCodec();
+
+  @Test
+  public void encode_and_decode_all_fields() throws Exception {
+    Date date = new Date(1_400_000_000_000L);
+    DefaultIssue issue = new DefaultIssue()
+      .setKey("ABCD")
+      .setComponentUuid("COMPONENT_UUID")
+      .setComponentKey("COMPONENT_KEY")
+      .setModuleUuid("MODULE_UUID")
+      .setModuleUuidPath(".MODULE_UUID.")
+      .setProjectUuid("PROJECT_UUID")
+      .setProjectKey("PROJECT_KEY")
+      .setRuleKey(RuleKey.of("squid", "S001"))
+      .setLanguage("java")
+      .setSeverity(Severity.BLOCKER)
+      .setManualSeverity(true)
+      .setMessage("the message")
+      .setLine(12)
+      .setEffortToFix(2.5)
+      .setDebt(Duration.create(30L))
+      .setStatus(Issue.STATUS_RESOLVED)
+      .setResolution(Issue.RESOLUTION_FIXED)
+      .setReporter("reporter")
+      .setAssignee("assignee")
+      .setChecksum("checksum")
+      .setAttributes(ImmutableMap.of("JIRA", "FOO-123"))
+      .setAuthorLogin("author")
+      .setActionPlanKey("PLAN")
+      .setTags(Arrays.asList("bug", "performance"))
+      .setCreationDate(date)
+      .setUpdateDate(date)
+      .setCloseDate(date)
+      .setNew(false)
+      .setEndOfLife(true)
+      .setOnDisabledRule(true)
+      .setChanged(true)
+      .setSendNotifications(true)
+      .setSelectedAt(1_500_000_000_000L)
+      .addChange(new FieldDiffs().setIssueKey("ABCD").setUserLogin("former").setCreationDate(date).setDiff("status", "OPEN", "CONFIRMED"))
+      .addComment(DefaultIssueComment.create("ABCD", "commenter", "the comment").setKey("COMMENT").setCreatedAt(date).setUpdatedAt(date));
+    issue.setFieldChange(IssueChangeContext.createUser(date, "user"), "severity", "MINOR", Severity.BLOCKER);
+    issue.setFieldChange(IssueChangeContext.createUser(date, "user"), "debt", 10L, 30L);
+
+    DefaultIssue decoded = encodeAndDecode(issue);
+
+    assertThat(decoded.key()).isEqualTo("ABCD");
+    assertThat(decoded.componentUuid()).isEqualTo("COMPONENT_UUID");
+    assertThat(decoded.componentKey()).isEqualTo("COMPONENT_KEY");
+    assertThat(decoded.moduleUuid()).isEqualTo("MODULE_UUID");
+    assertThat(decoded.moduleUuidPath()).isEqualTo(".MODULE_UUID.");
+    assertThat(decoded.projectUuid()).isEqualTo("PROJECT_UUID");
+    assertThat(decoded.projectKey()).isEqualTo("PROJECT_KEY");
+    assertThat(decoded.ruleKey()).isEqualTo(RuleKey.of("squid", "S001"));
+    assertThat(decoded.language()).isEqualTo("java");
+    assertThat(decoded.severity()).isEqualTo(Severity.BLOCKER);
+    assertThat(decoded.manualSeverity()).isTrue();
+    assertThat(decoded.message()).isEqualTo("the message");
+    assertThat(decoded.line()).isEqualTo(12);
+    assertThat(decoded.effortToFix()).isEqualTo(2.5);
+    assertThat(decoded.debtInMinutes()).isEqualTo(30L);
+    assertThat(decoded.status()).isEqualTo(Issue.STATUS_RESOLVED);
+    assertThat(decoded.resolution()).isEqualTo(Issue.RESOLUTION_FIXED);
+    assertThat(decoded.reporter()).isEqualTo("reporter");
+    assertThat(decoded.assignee()).isEqualTo("assignee");
+    assertThat(decoded.checksum()).isEqualTo("checksum");
+    assertThat(decoded.attributes()).containsEntry("JIRA", "FOO-123").hasSize(1);
+    assertThat(decoded.authorLogin()).isEqualTo("author");
+    assertThat(decoded.actionPlanKey()).isEqualTo("PLAN");
+    assertThat(decoded.tags()).containsExactly("bug", "performance");
+    assertThat(decoded.creationDate()).isEqualTo(date);
+    assertThat(decoded.updateDate()).isEqualTo(date);
+    assertThat(decoded.closeDate()).isEqualTo(date);
+    assertThat(decoded.isNew()).isFalse();
+    assertThat(decoded.isEndOfLife()).isTrue();
+    assertThat(decoded.isOnDisabledRule()).isTrue();
+    assertThat(decoded.isChanged()).isTrue();
+    assertThat(decoded.mustSendNotifications()).isTrue();
+    assertThat(decoded.selectedAt()).isEqualTo(1_500_000_000_000L);
+
+    // the current change is added twice to changes by setFieldChange()
+    assertThat(decoded.changes()).hasSize(3);
+    assertThat(decoded.changes().get(0).toString()).isEqualTo("status=OPEN|CONFIRMED");
+    assertThat(decoded.changes().get(1)).isSameAs(decoded.currentChange());
+    assertThat(decoded.changes().get(2)).isSameAs(decoded.currentChange());
+    FieldDiffs currentChange = decoded.currentChange();
+    assertThat(currentChange.userLogin()).isEqualTo("user");
+    assertThat(currentChange.creationDate()).isEqualTo(date);
+    assertThat(currentChange.get("severity").oldValue()).isEqualTo("MINOR");
+    assertThat(currentChange.get("debt").oldValue()).isEqualTo(10L);
+    assertThat(currentChange.get("debt").newValueLong()).isEqualTo(30L);
+
+    assertThat(decoded.comments()).hasSize(1);
+    DefaultIssueComment comment = (DefaultIssueComment) decoded.comments().get(0);
+    assertThat(comment.key()).isEqualTo("COMMENT");
+    assertThat(comment.issueKey()).isEqualTo("ABCD");
+    assertThat(comment.userLogin()).isEqualTo("commenter");
+    assertThat(comment.markdownText()).isEqualTo("the comment");
+    assertThat(comment.createdAt()).isEqualTo(date);
+    assertThat(comment.isNew()).isTrue();
+  }
+
+  @Test
+  public void encode_and_decode_issue_without_optional_fields() throws Exception {
+    DefaultIssue issue = new DefaultIssue().setKey("ABCD");
+
+    DefaultIssue decoded = encodeAndDecode(issue);
+
+    assertThat(decoded.key()).isEqualTo("ABCD");
+    assertThat(decoded.ruleKey()).isNull();
+    assertThat(decoded.line()).isNull();
+    assertThat(decoded.debt()).isNull();
+    assertThat(decoded.status()).isNull();
+    assertThat(decoded.creationDate()).isNull();
+    assertThat(decoded.attributes()).isEmpty();
+    assertThat(decoded.tags()).isEmpty();
+    assertThat(decoded.currentChange()).isNull();
+    assertThat(decoded.changes()).isEmpty();
+    assertThat(decoded.comments()).isEmpty();
+    assertThat(decoded.isNew()).isTrue();
+  }
+
+  private DefaultIssue encodeAndDecode(DefaultIssue issue) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(bytes)) {
+      codec.write(output, issue);
+    }
+    try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      return codec.read(input);
+    }
+  }
+}
@@ -20,11 +20,13 @@
 package org.sonar.server.computation.step;
 
 import org.junit.Test;
+import org.mockito.Mockito;
 import org.sonar.server.computation.ComputationContext;
 import org.sonar.server.issue.index.IssueAuthorizationIndexer;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class ApplyPermissionsStepTest extends BaseStepTest {
 
@@ -33,8 +35,12 @@ public class ApplyPermissionsStepTest extends BaseStepTest {
 
   @Test
   public void index_issue_permissions() {
-    step.execute(mock(ComputationContext.class));
-    verify(indexer).index();
+    ComputationContext context = mock(ComputationContext.class, Mockito.RETURNS_DEEP_STUBS);
+    when(context.getProject().uuid()).thenReturn("PROJECT_UUID");
+
+    step.execute(context);
+
+    verify(indexer).index("PROJECT_UUID");
   }
 
   @Override
@@ -58,6 +58,45 @@ public class ComputationStepsTest {
     assertThat(registry.orderedSteps().get(18)).isInstanceOf(SendIssueNotificationsStep.class);
   }
 
+  @Test
+  public void dependencies() {
+    PersistEventsStep persistEvents = mock(PersistEventsStep.class);
+    PersistFileSourcesStep persistFileSources = mock(PersistFileSourcesStep.class);
+    PersistTestsStep persistTests = mock(PersistTestsStep.class);
+    ParseReportStep parseReport = mock(ParseReportStep.class);
+    SwitchSnapshotStep switchSnapshot = mock(SwitchSnapshotStep.class);
+    ComputationSteps registry = new ComputationSteps(
+      mock(ApplyPermissionsStep.class),
+      parseReport,
+      mock(IndexSourceLinesStep.class),
+      mock(IndexViewsStep.class),
+      mock(PurgeRemovedViewsStep.class),
+      mock(PersistIssuesStep.class),
+      mock(IndexIssuesStep.class),
+      switchSnapshot,
+      mock(PurgeDatastoresStep.class),
+      mock(SendIssueNotificationsStep.class),
+      mock(IndexComponentsStep.class),
+      mock(PersistProjectLinksStep.class),
+      mock(PersistMeasuresStep.class),
+      persistEvents,
+      mock(PersistDuplicationsStep.class),
+      mock(PersistNumberOfDaysSinceLastCommitStep.class),
+      persistFileSources,
+      persistTests,
+      mock(IndexTestsStep.class)
+      );
+
+    assertThat(registry.dependencies(parseReport)).isEmpty();
+
+    // declared dependency and its own dependencies
+    assertThat(registry.dependencies(persistFileSources)).hasSize(6).contains(persistEvents, parseReport).doesNotContain(persistTests);
+    assertThat(registry.dependencies(persistTests)).hasSize(6).contains(persistEvents, parseReport).doesNotContain(persistFileSources);
+
+    // implicit dependencies on all the previous steps
+    assertThat(registry.dependencies(switchSnapshot)).hasSize(9).contains(persistFileSources, persistTests);
+  }
+
   @Test
   public void fail_if_a_step_is_not_registered_in_picocontainer() {
     try {
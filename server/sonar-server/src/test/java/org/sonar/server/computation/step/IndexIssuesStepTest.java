@@ -20,27 +20,69 @@
 
 package org.sonar.server.computation.step;
 
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.sonar.api.issue.internal.DefaultIssue;
+import org.sonar.api.utils.System2;
 import org.sonar.server.computation.ComputationContext;
-import org.sonar.server.issue.index.IssueAuthorizationIndexer;
+import org.sonar.server.computation.issue.IssueCache;
 import org.sonar.server.issue.index.IssueIndexer;
 
+import java.util.Arrays;
+
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 
 public class IndexIssuesStepTest {
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  IssueIndexer issueIndexer = mock(IssueIndexer.class);
+  ComputationContext context = mock(ComputationContext.class, Mockito.RETURNS_DEEP_STUBS);
+  IssueCache issueCache;
   IndexIssuesStep sut;
 
+  @Before
+  public void setUp() throws Exception {
+    issueCache = new IssueCache(temp.newFile(), System2.INSTANCE);
+    sut = new IndexIssuesStep(issueIndexer, issueCache);
+    when(context.getProject().uuid()).thenReturn("PROJECT_UUID");
+  }
+
   @Test
-  public void call_indexers() {
-    IssueAuthorizationIndexer authorizationIndexer = mock(IssueAuthorizationIndexer.class);
-    IssueIndexer issueIndexer = mock(IssueIndexer.class);
-    sut = new IndexIssuesStep(authorizationIndexer, issueIndexer);
+  public void index_only_issues_changed_by_report() {
+    issueCache.newAppender()
+      .append(new DefaultIssue().setKey("NEW").setNew(true))
+      .append(new DefaultIssue().setKey("CHANGED").setNew(false).setChanged(true))
+      .append(new DefaultIssue().setKey("UNCHANGED").setNew(false).setChanged(false))
+      .close();
+
+    sut.execute(context);
+
+    verify(issueIndexer).index("PROJECT_UUID", Arrays.asList("NEW", "CHANGED"));
+  }
 
-    sut.execute(mock(ComputationContext.class));
+  @Test
+  public void do_not_index_issues_if_none_changed() {
+    issueCache.newAppender()
+      .append(new DefaultIssue().setKey("UNCHANGED").setNew(false).setChanged(false))
+      .close();
+
+    sut.execute(context);
+
+    verifyZeroInteractions(issueIndexer);
+  }
+
+  @Test
+  public void do_not_index_issues_if_cache_is_empty() {
+    sut.execute(context);
 
-    verify(authorizationIndexer).index();
-    verify(issueIndexer).index();
+    verifyZeroInteractions(issueIndexer);
   }
 }
@@ -29,6 +29,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.Settings;
 import org.sonar.api.utils.System2;
 import org.sonar.batch.protocol.Constants;
 import org.sonar.batch.protocol.output.BatchReport;
@@ -41,19 +42,26 @@ import org.sonar.core.source.db.FileSourceDto;
 import org.sonar.core.source.db.FileSourceDto.Type;
 import org.sonar.server.component.ComponentTesting;
 import org.sonar.server.computation.ComputationContext;
+import org.sonar.server.computation.ComputationThreadLauncher;
 import org.sonar.server.db.DbClient;
 import org.sonar.server.source.db.FileSourceDao;
 import org.sonar.server.source.db.FileSourceDb;
 import org.sonar.test.DbTests;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 import static com.google.common.collect.Lists.newArrayList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @Category(DbTests.class)
@@ -92,7 +100,7 @@ public class PersistFileSourcesStepTest extends BaseStepTest {
 
     system2 = mock(System2.class);
     when(system2.now()).thenReturn(now);
-    sut = new PersistFileSourcesStep(dbClient, system2);
+    sut = new PersistFileSourcesStep(dbClient, system2, new Settings());
   }
 
   @Override
@@ -129,6 +137,51 @@ public class PersistFileSourcesStepTest extends BaseStepTest {
     assertThat(data.getLines(1).getSource()).isEqualTo("line2");
   }
 
+  @Test
+  public void persist_sources_of_several_files() throws Exception {
+    BatchReportWriter writer = new BatchReportWriter(reportDir);
+    writer.writeMetadata(BatchReport.Metadata.newBuilder()
+      .setRootComponentRef(1)
+      .setProjectKey("PROJECT_KEY")
+      .build());
+    BatchReport.Component.Builder project = BatchReport.Component.newBuilder()
+      .setRef(1)
+      .setType(Constants.ComponentType.PROJECT)
+      .setUuid(PROJECT_UUID);
+    for (int fileRef = 2; fileRef <= 6; fileRef++) {
+      project.addChildRef(fileRef);
+      writer.writeComponent(BatchReport.Component.newBuilder()
+        .setRef(fileRef)
+        .setType(Constants.ComponentType.FILE)
+        .setUuid("FILE_" + fileRef)
+        .setPath("src/Foo" + fileRef + ".java")
+        .setLines(1)
+        .build());
+      FileUtils.writeLines(writer.getSourceFile(fileRef), newArrayList("line1"));
+    }
+    writer.writeComponent(project.build());
+
+    // flush every two rows, data of files being computed by three threads
+    sut = new PersistFileSourcesStep(dbClient, system2, Long.MAX_VALUE, 2, 3);
+    sut.execute(new ComputationContext(new BatchReportReader(reportDir), ComponentTesting.newProjectDto(PROJECT_UUID)));
+
+    assertThat(dbTester.countRowsOfTable("file_sources")).isEqualTo(5);
+    assertThat(dbClient.fileSourceDao().selectSource("FILE_6").getBinaryData()).isNotEmpty();
+  }
+
+  @Test
+  public void share_processors_between_computation_workers() {
+    Settings settings = new Settings();
+    int processors = Runtime.getRuntime().availableProcessors();
+    assertThat(PersistFileSourcesStep.threads(settings)).isEqualTo(processors);
+
+    settings.setProperty(ComputationThreadLauncher.PROPERTY_WORKERS, 2 * processors);
+    assertThat(PersistFileSourcesStep.threads(settings)).isEqualTo(1);
+
+    settings.setProperty(PersistFileSourcesStep.THREADS_PROPERTY, 3);
+    assertThat(PersistFileSourcesStep.threads(settings)).isEqualTo(3);
+  }
+
   @Test
   public void persist_last_line() throws Exception {
     BatchReportWriter writer = new BatchReportWriter(reportDir);
@@ -439,6 +492,23 @@ public class PersistFileSourcesStepTest extends BaseStepTest {
     }
   }
 
+  @Test
+  public void close_opened_streams_when_report_can_not_be_read() throws Exception {
+    initBasicReport(1);
+    BatchReportReader reportReader = spy(new BatchReportReader(reportDir));
+    InputStream coverageStream = spy(new ByteArrayInputStream(new byte[0]));
+    doReturn(coverageStream).when(reportReader).openComponentCoverage(FILE_REF);
+    doThrow(new IllegalStateException("Fail to read syntax highlighting")).when(reportReader).openComponentSyntaxHighlighting(FILE_REF);
+
+    try {
+      sut.execute(new ComputationContext(reportReader, ComponentTesting.newProjectDto(PROJECT_UUID)));
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Cannot persist sources of src/Foo.java").hasCauseInstanceOf(IllegalStateException.class);
+    }
+    verify(coverageStream).close();
+  }
+
   private BatchReportWriter initBasicReport(int numberOfLines) throws IOException {
     BatchReportWriter writer = new BatchReportWriter(reportDir);
     writer.writeMetadata(BatchReport.Metadata.newBuilder()
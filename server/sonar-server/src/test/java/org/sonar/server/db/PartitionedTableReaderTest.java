@@ -17,44 +17,39 @@
  * along with this program; if not, write to the Free Software Foundation,
  * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
  */
+package org.sonar.server.db;
 
-package org.sonar.server.computation.step;
-
-import org.junit.Before;
-import org.junit.Rule;
 import org.junit.Test;
-import org.junit.rules.TemporaryFolder;
-import org.sonar.batch.protocol.Constants;
-import org.sonar.batch.protocol.output.BatchReport;
-import org.sonar.batch.protocol.output.BatchReportReader;
-import org.sonar.batch.protocol.output.BatchReportWriter;
 
-import java.io.File;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
-public class ComponentUuidsCacheTest {
-
-  @Rule
-  public TemporaryFolder temp = new TemporaryFolder();
+public class PartitionedTableReaderTest {
 
-  File reportDir;
+  @Test
+  public void split_empty_table() {
+    assertThat(PartitionedTableReader.split(null, 4)).isEmpty();
+  }
 
-  @Before
-  public void setUp() throws Exception {
-    reportDir = temp.newFolder();
+  @Test
+  public void split_ids_in_contiguous_ranges() {
+    List<long[]> ranges = PartitionedTableReader.split(new long[] {1L, 10L}, 4);
+
+    assertThat(ranges).hasSize(4);
+    assertThat(ranges.get(0)).containsOnly(1L, 4L);
+    assertThat(ranges.get(1)).containsOnly(4L, 7L);
+    assertThat(ranges.get(2)).containsOnly(7L, 10L);
+    // max id is included
+    assertThat(ranges.get(3)).containsOnly(10L, 11L);
   }
 
   @Test
-  public void get_uuid_from_ref() {
-    BatchReportWriter writer = new BatchReportWriter(reportDir);
-    writer.writeComponent(BatchReport.Component.newBuilder()
-      .setRef(1)
-      .setType(Constants.ComponentType.PROJECT)
-      .setUuid("ABCD")
-      .build());
-
-    ComponentUuidsCache cache = new ComponentUuidsCache(new BatchReportReader(reportDir));
-    assertThat(cache.getUuidFromRef(1)).isEqualTo("ABCD");
+  public void do_not_split_more_than_number_of_ids() {
+    List<long[]> ranges = PartitionedTableReader.split(new long[] {5L, 6L}, 8);
+
+    assertThat(ranges).hasSize(2);
+    assertThat(ranges.get(0)).containsOnly(5L, 6L);
+    assertThat(ranges.get(1)).containsOnly(6L, 7L);
   }
 }
@@ -0,0 +1,135 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.es;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BulkFlowControlTest {
+
+  static final long FAST = 10L;
+  static final long SLOW = 2 * BulkFlowControl.TARGET_LATENCY_MS;
+  static final long NORMAL = (3 * BulkFlowControl.TARGET_LATENCY_MS) / 4;
+
+  BulkFlowControl underTest = new BulkFlowControl(3);
+
+  @Test
+  public void initial_values() {
+    assertThat(underTest.getFlushByteSize()).isEqualTo(BulkFlowControl.FLUSH_BYTE_SIZE);
+    assertThat(underTest.getConcurrencyLimit()).isEqualTo(3);
+  }
+
+  @Test
+  public void fast_responses_increase_flush_size_up_to_max() throws Exception {
+    long previous = underTest.getFlushByteSize();
+    for (int i = 0; i < 20; i++) {
+      respond(FAST, false);
+      assertThat(underTest.getFlushByteSize()).isGreaterThanOrEqualTo(previous);
+      previous = underTest.getFlushByteSize();
+    }
+    assertThat(underTest.getFlushByteSize()).isEqualTo(BulkFlowControl.MAX_FLUSH_BYTE_SIZE);
+    assertThat(underTest.getConcurrencyLimit()).isEqualTo(3);
+  }
+
+  @Test
+  public void slow_responses_decrease_flush_size_down_to_min() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      respond(SLOW, false);
+    }
+    assertThat(underTest.getFlushByteSize()).isEqualTo(BulkFlowControl.MIN_FLUSH_BYTE_SIZE);
+    // latency does not change the number of concurrent requests
+    assertThat(underTest.getConcurrencyLimit()).isEqualTo(3);
+  }
+
+  @Test
+  public void responses_close_to_target_latency_do_not_change_anything() throws Exception {
+    respond(NORMAL, false);
+
+    assertThat(underTest.getFlushByteSize()).isEqualTo(BulkFlowControl.FLUSH_BYTE_SIZE);
+    assertThat(underTest.getConcurrencyLimit()).isEqualTo(3);
+  }
+
+  @Test
+  public void rejections_decrease_flush_size_and_concurrency_then_fast_responses_increase_them() throws Exception {
+    respond(FAST, true);
+    assertThat(underTest.getFlushByteSize()).isEqualTo(BulkFlowControl.FLUSH_BYTE_SIZE / 2);
+    assertThat(underTest.getConcurrencyLimit()).isEqualTo(2);
+
+    for (int i = 0; i < 5; i++) {
+      respond(FAST, true);
+    }
+    assertThat(underTest.getFlushByteSize()).isEqualTo(BulkFlowControl.MIN_FLUSH_BYTE_SIZE);
+    assertThat(underTest.getConcurrencyLimit()).isEqualTo(1);
+
+    respond(FAST, false);
+    assertThat(underTest.getFlushByteSize()).isEqualTo(BulkFlowControl.MIN_FLUSH_BYTE_SIZE * 3 / 2);
+    assertThat(underTest.getConcurrencyLimit()).isEqualTo(2);
+  }
+
+  @Test
+  public void fixed_flush_size_is_not_adapted() throws Exception {
+    underTest.setFixedFlushByteSize(500L);
+
+    respond(FAST, false);
+    respond(SLOW, true);
+
+    assertThat(underTest.getFlushByteSize()).isEqualTo(500L);
+    // but concurrency is
+    assertThat(underTest.getConcurrencyLimit()).isEqualTo(2);
+  }
+
+  @Test
+  public void acquire_waits_for_a_slot() throws Exception {
+    underTest = new BulkFlowControl(1);
+    underTest.acquire();
+    assertThat(underTest.awaitIdle(10L)).isFalse();
+
+    final CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          underTest.acquire();
+          acquired.countDown();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    thread.start();
+    assertThat(acquired.await(50L, TimeUnit.MILLISECONDS)).isFalse();
+
+    underTest.release(NORMAL, false);
+    assertThat(acquired.await(10L, TimeUnit.SECONDS)).isTrue();
+    thread.join();
+
+    underTest.release(NORMAL, false);
+    assertThat(underTest.awaitIdle(10L)).isTrue();
+  }
+
+  private void respond(long latencyMs, boolean rejected) throws InterruptedException {
+    underTest.acquire();
+    underTest.release(latencyMs, rejected);
+  }
+}
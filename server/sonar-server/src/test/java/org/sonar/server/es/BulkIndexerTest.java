@@ -20,18 +20,26 @@
 package org.sonar.server.es;
 
 import com.google.common.collect.ImmutableMap;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
 
 public class BulkIndexerTest {
 
@@ -88,6 +96,56 @@ public class BulkIndexerTest {
     assertThat(replicas()).isEqualTo(1);
   }
 
+  @Test
+  public void fixed_flush_size_is_not_adapted() {
+    BulkIndexer indexer = new BulkIndexer(esTester.client(), FakeIndexDefinition.INDEX)
+      .setFlushByteSize(500);
+    indexer.start();
+    for (int i = 0; i < 10; i++) {
+      indexer.add(newIndexRequest(i));
+    }
+    indexer.stop();
+
+    assertThat(count()).isEqualTo(10);
+    assertThat(indexer.getFlushByteSize()).isEqualTo(500L);
+    assertThat(indexer.getRetries()).isZero();
+    assertThat(indexer.getConcurrentRequests()).isGreaterThanOrEqualTo(1);
+  }
+
+  @Test
+  public void rejected_requests_are_sent_again() {
+    EsClient client = spy(esTester.client());
+    // first bulk request is rejected
+    doReturn(new RejectingBulkRequestBuilder(esTester.client().nativeClient())).doCallRealMethod().when(client).prepareBulk();
+
+    BulkIndexer indexer = new BulkIndexer(client, FakeIndexDefinition.INDEX);
+    indexer.start();
+    indexer.add(newIndexRequest(42));
+    indexer.add(newIndexRequest(78));
+    indexer.stop();
+
+    assertThat(count()).isEqualTo(2);
+    assertThat(indexer.getRetries()).isEqualTo(2);
+  }
+
+  @Test
+  public void rejected_requests_are_sent_before_next_requests() {
+    EsClient client = spy(esTester.client());
+    doReturn(new RejectingBulkRequestBuilder(esTester.client().nativeClient())).doCallRealMethod().when(client).prepareBulk();
+
+    // each request is sent in its own bulk
+    BulkIndexer indexer = new BulkIndexer(client, FakeIndexDefinition.INDEX).setFlushByteSize(1L);
+    indexer.start();
+    indexer.add(newIndexRequest(42).id("ID"));
+    indexer.add(newIndexRequest(78).id("ID"));
+    indexer.stop();
+
+    assertThat(indexer.getRetries()).isEqualTo(1);
+    // the rejected request does not overwrite the most recent one
+    List<Integer> values = esTester.getDocumentFieldValues(FakeIndexDefinition.INDEX, FakeIndexDefinition.TYPE, FakeIndexDefinition.INT_FIELD);
+    assertThat(values).containsExactly(78);
+  }
+
   @Test
   public void bulk_delete() throws Exception {
     int max = 500;
@@ -135,6 +193,20 @@ public class BulkIndexerTest {
     return Integer.parseInt(settingsResp.getSetting(FakeIndexDefinition.INDEX, IndexMetaData.SETTING_NUMBER_OF_REPLICAS));
   }
 
+  /**
+   * Simulates the rejection of bulk requests by Elasticsearch when its queues are full
+   */
+  private static class RejectingBulkRequestBuilder extends BulkRequestBuilder {
+    RejectingBulkRequestBuilder(Client client) {
+      super(client);
+    }
+
+    @Override
+    public void execute(ActionListener<BulkResponse> listener) {
+      listener.onFailure(new EsRejectedExecutionException("rejected execution"));
+    }
+  }
+
   private IndexRequest newIndexRequest(int intField) {
     return new IndexRequest(FakeIndexDefinition.INDEX, FakeIndexDefinition.TYPE)
       .source(ImmutableMap.of(FakeIndexDefinition.INT_FIELD, intField));
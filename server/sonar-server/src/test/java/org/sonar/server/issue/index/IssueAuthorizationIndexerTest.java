@@ -79,6 +79,22 @@ public class IssueAuthorizationIndexerTest {
     assertThat(esTester.countDocuments("issues", "issueAuthorization")).isZero();
   }
 
+  @Test
+  public void index_project() {
+    dbTester.prepareDbUnit(getClass(), "index.xml");
+
+    IssueAuthorizationIndexer indexer = createIndexer();
+    indexer.setEnabled(true);
+    indexer.index("UNKNOWN");
+    assertThat(esTester.countDocuments("issues", "authorization")).isZero();
+
+    indexer.index("ABC");
+    List<SearchHit> docs = esTester.getDocuments("issues", "authorization");
+    assertThat(docs).hasSize(1);
+    assertThat((Collection) docs.get(0).getSource().get("groups")).containsOnly("devs", "Anyone");
+    assertThat((Collection) docs.get(0).getSource().get("users")).containsOnly("user1");
+  }
+
   @Test
   public void do_not_fail_when_deleting_unindexed_project() {
     IssueAuthorizationIndexer indexer = createIndexer();
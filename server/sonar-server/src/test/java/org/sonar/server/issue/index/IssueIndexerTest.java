@@ -31,6 +31,7 @@ import org.sonar.server.db.DbClient;
 import org.sonar.server.es.EsTester;
 import org.sonar.test.DbTests;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -96,6 +97,54 @@ public class IssueIndexerTest {
     assertThat(esTester.countDocuments("issues", "issue")).isZero();
   }
 
+  @Test
+  public void index_concurrently() {
+    dbTester.prepareDbUnit(getClass(), "index_project_issues.xml");
+
+    createIndexer().indexConcurrently(2);
+
+    assertThat(esTester.countDocuments("issues", "issue")).isEqualTo(3);
+  }
+
+  @Test
+  public void index_issues_of_project() {
+    dbTester.prepareDbUnit(getClass(), "index_project_issues.xml");
+
+    // FGHIJ is not requested, KLMNO belongs to another project
+    createIndexer().index("THE_PROJECT", Arrays.asList("ABCDE", "KLMNO", "UNKNOWN"));
+
+    List<IssueDoc> docs = esTester.getDocuments("issues", "issue", IssueDoc.class);
+    assertThat(docs).hasSize(1);
+    assertThat(docs.get(0).key()).isEqualTo("ABCDE");
+    assertThat(docs.get(0).projectUuid()).isEqualTo("THE_PROJECT");
+  }
+
+  @Test
+  public void move_date_of_last_indexing_if_all_updated_issues_are_indexed() {
+    dbTester.prepareDbUnit(getClass(), "index.xml");
+    IssueIndexer indexer = createIndexer();
+    indexer.index("THE_PROJECT", Arrays.asList("ABCDE"));
+    esTester.truncateIndices();
+
+    // issue has already been indexed
+    indexer.index();
+
+    assertThat(esTester.countDocuments("issues", "issue")).isZero();
+  }
+
+  @Test
+  public void do_not_move_date_of_last_indexing_if_other_issues_are_updated() {
+    dbTester.prepareDbUnit(getClass(), "index_project_issues.xml");
+    IssueIndexer indexer = createIndexer();
+    indexer.index("THE_PROJECT", Arrays.asList("ABCDE", "FGHIJ"));
+    esTester.truncateIndices();
+
+    // KLMNO of the other project is not indexed yet
+    indexer.index();
+
+    assertThat(esTester.countDocuments("issues", "issue")).isEqualTo(3);
+  }
+
   private IssueIndexer createIndexer() {
     IssueIndexer indexer = new IssueIndexer(new DbClient(dbTester.database(), dbTester.myBatis()), esTester.client());
     indexer.setEnabled(true);
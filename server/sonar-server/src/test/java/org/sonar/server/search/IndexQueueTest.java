@@ -0,0 +1,321 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.search;
+
+import com.google.common.collect.Lists;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequestBuilder;
+import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.core.platform.ComponentContainer;
+import org.sonar.server.search.action.IndexAction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IndexQueueTest {
+
+  static final String INDEX_TYPE = "fake";
+  static final String INDEX_NAME = "fakes";
+
+  // 5 requests of 1Mb fill a bulk
+  static final int BIG_SOURCE_SIZE = (int) new ByteSizeValue(1, ByteSizeUnit.MB).bytes();
+
+  SearchClient searchClient = mock(SearchClient.class);
+  ComponentContainer container = mock(ComponentContainer.class);
+
+  // ids of the requests of each executed bulk
+  List<List<String>> bulks = Collections.synchronizedList(new ArrayList<List<String>>());
+  List<Throwable> bulkFailures = new ArrayList<>();
+  // exception thrown synchronously when executing bulks, for example when no node is available
+  RuntimeException bulkException = null;
+
+  IndexQueue queue;
+
+  @Before
+  public void setUp() {
+    Index index = mock(Index.class);
+    when(index.getIndexType()).thenReturn(INDEX_TYPE);
+    when(index.getIndexName()).thenReturn(INDEX_NAME);
+    when(container.getComponentsByType(Index.class)).thenReturn(Arrays.asList(index));
+
+    RefreshRequestBuilder refresh = mock(RefreshRequestBuilder.class);
+    when(refresh.setForce(false)).thenReturn(refresh);
+    when(refresh.get()).thenReturn(mock(RefreshResponse.class));
+    when(searchClient.prepareRefresh(Mockito.<String>anyVararg())).thenReturn(refresh);
+
+    when(searchClient.prepareBulk()).thenAnswer(new Answer<BulkRequestBuilder>() {
+      @Override
+      public BulkRequestBuilder answer(InvocationOnMock invocation) {
+        return new BulkRequestBuilder(searchClient);
+      }
+    });
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        if (bulkException != null) {
+          throw bulkException;
+        }
+        BulkRequest request = (BulkRequest) invocation.getArguments()[0];
+        ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) invocation.getArguments()[1];
+        List<String> ids = new ArrayList<>();
+        for (ActionRequest action : request.requests()) {
+          ids.add(((IndexRequest) action).id());
+        }
+        int bulkIndex = bulks.size();
+        bulks.add(ids);
+        if (bulkIndex < bulkFailures.size() && bulkFailures.get(bulkIndex) != null) {
+          listener.onFailure(bulkFailures.get(bulkIndex));
+        } else {
+          listener.onResponse(mock(BulkResponse.class));
+        }
+        return null;
+      }
+    }).when(searchClient).bulk(any(BulkRequest.class), any(ActionListener.class));
+
+    queue = new IndexQueue(searchClient, container);
+    queue.start();
+  }
+
+  @After
+  public void tearDown() {
+    queue.stop();
+  }
+
+  @Test
+  public void do_nothing_if_no_actions() {
+    queue.enqueue(Collections.<IndexAction<?>>emptyList());
+
+    assertThat(bulks).isEmpty();
+  }
+
+  @Test
+  public void send_requests_in_order_of_actions_in_several_bulks() {
+    List<IndexAction<?>> actions = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      // first actions are the slowest to be normalized
+      actions.add(new FakeAction(String.valueOf(i), BIG_SOURCE_SIZE, 12 - i));
+    }
+
+    queue.enqueue(actions);
+
+    assertThat(bulks).hasSize(3);
+    List<String> ids = new ArrayList<>();
+    for (List<String> bulk : bulks) {
+      ids.addAll(bulk);
+    }
+    assertThat(ids).containsExactly("0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11");
+  }
+
+  @Test
+  public void refresh_indices_of_actions_requiring_refresh() {
+    queue.enqueue(Lists.<IndexAction<?>>newArrayList(new FakeAction("1", 10, 0).setRefresh(true)));
+
+    assertThat(bulks).hasSize(1);
+    verify(searchClient).prepareRefresh(INDEX_NAME);
+  }
+
+  @Test
+  public void report_failures_of_all_bulks() {
+    bulkFailures.add(new IllegalStateException("first bulk failed"));
+    List<IndexAction<?>> actions = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      actions.add(new FakeAction(String.valueOf(i), BIG_SOURCE_SIZE, 0));
+    }
+
+    try {
+      queue.enqueue(actions);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Errors while indexing stack: first bulk failed");
+    }
+    // next bulks are sent anyway
+    assertThat(bulks).hasSize(3);
+  }
+
+  @Test
+  public void report_bulks_failing_synchronously() {
+    bulkException = new IllegalStateException("No node available");
+    List<IndexAction<?>> actions = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      actions.add(new FakeAction(String.valueOf(i), BIG_SOURCE_SIZE, 0).setRefresh(true));
+    }
+
+    try {
+      queue.enqueue(actions);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Errors while indexing stack: No node available, No node available, No node available");
+    }
+    // nothing to refresh
+    verify(searchClient, never()).prepareRefresh(Mockito.<String>anyVararg());
+  }
+
+  @Test
+  public void report_failures_of_sent_bulks_if_normalization_fails() {
+    bulkFailures.add(new IllegalStateException("first bulk failed"));
+    List<IndexAction<?>> actions = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      actions.add(new FakeAction(String.valueOf(i), BIG_SOURCE_SIZE, 0));
+    }
+    actions.add(new FailingAction("5"));
+
+    try {
+      queue.enqueue(actions);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Could not execute normalization for stack. Errors while indexing stack: first bulk failed");
+    }
+    assertThat(bulks).hasSize(1);
+  }
+
+  @Test
+  public void cancel_remaining_work_if_normalization_fails() throws Exception {
+    BlockedAction blocked = new BlockedAction("3");
+    List<IndexAction<?>> actions = Lists.<IndexAction<?>>newArrayList(
+      new FakeAction("1", 10, 0),
+      new FailingAction("2"),
+      blocked);
+
+    try {
+      queue.enqueue(actions);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Could not execute normalization for stack");
+    }
+
+    // pending requests are not sent
+    assertThat(bulks).isEmpty();
+    verify(searchClient, never()).bulk(any(BulkRequest.class), any(ActionListener.class));
+    // the blocked action is either not started or interrupted
+    if (blocked.started.getCount() == 0) {
+      assertThat(blocked.interrupted.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+  }
+
+  @Test
+  public void stop_shuts_down_the_pool_of_normalizers() {
+    queue.stop();
+
+    try {
+      queue.enqueue(Lists.<IndexAction<?>>newArrayList(new FakeAction("1", 10, 0)));
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e.getCause()).isInstanceOf(RejectedExecutionException.class);
+    }
+    assertThat(bulks).isEmpty();
+  }
+
+  private static class FakeAction extends IndexAction<IndexRequest> {
+    private final String id;
+    private final int sourceSize;
+    private final long normalizationMs;
+    private boolean refresh = false;
+
+    FakeAction(String id, int sourceSize, long normalizationMs) {
+      super(INDEX_TYPE);
+      this.id = id;
+      this.sourceSize = sourceSize;
+      this.normalizationMs = normalizationMs;
+    }
+
+    FakeAction setRefresh(boolean refresh) {
+      this.refresh = refresh;
+      return this;
+    }
+
+    @Override
+    public String getKey() {
+      return id;
+    }
+
+    @Override
+    public boolean needsRefresh() {
+      return refresh;
+    }
+
+    @Override
+    public List<IndexRequest> doCall(Index index) {
+      try {
+        Thread.sleep(normalizationMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return Arrays.asList(new IndexRequest(index.getIndexName(), INDEX_TYPE, id).source(new byte[sourceSize]));
+    }
+  }
+
+  private static class FailingAction extends FakeAction {
+    FailingAction(String id) {
+      super(id, 0, 0);
+    }
+
+    @Override
+    public List<IndexRequest> doCall(Index index) {
+      throw new IllegalStateException("Fail to normalize " + getKey());
+    }
+  }
+
+  private static class BlockedAction extends FakeAction {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+
+    BlockedAction(String id) {
+      super(id, 0, 0);
+    }
+
+    @Override
+    public List<IndexRequest> doCall(Index index) {
+      started.countDown();
+      try {
+        new CountDownLatch(1).await();
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+      }
+      return Collections.emptyList();
+    }
+  }
+}
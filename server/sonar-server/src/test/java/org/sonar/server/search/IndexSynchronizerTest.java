@@ -0,0 +1,66 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.server.search;
+
+import org.junit.Test;
+import org.sonar.api.config.Settings;
+import org.sonar.process.ProcessProperties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IndexSynchronizerTest {
+
+  Settings settings = new Settings();
+  IndexSynchronizer synchronizer = new IndexSynchronizer(settings, null, null, null, null, null, null, null, null, null);
+
+  @Test
+  public void use_configured_number_of_threads() {
+    settings.setProperty(IndexSynchronizer.THREADS_PROPERTY, 3);
+
+    assertThat(synchronizer.threads()).isEqualTo(3);
+  }
+
+  @Test
+  public void cap_number_of_threads_to_a_quarter_of_the_connection_pool() {
+    settings.setProperty(IndexSynchronizer.THREADS_PROPERTY, 24);
+
+    // default pool of 50 connections
+    assertThat(synchronizer.threads()).isEqualTo(12);
+
+    settings.setProperty(ProcessProperties.JDBC_MAX_ACTIVE, 20);
+    assertThat(synchronizer.threads()).isEqualTo(5);
+
+    settings.setProperty(ProcessProperties.JDBC_MAX_ACTIVE, 2);
+    assertThat(synchronizer.threads()).isEqualTo(1);
+  }
+
+  @Test
+  public void do_not_cap_number_of_threads_if_connection_pool_is_unlimited() {
+    settings.setProperty(IndexSynchronizer.THREADS_PROPERTY, 24);
+    settings.setProperty(ProcessProperties.JDBC_MAX_ACTIVE, -1);
+
+    assertThat(synchronizer.threads()).isEqualTo(24);
+  }
+
+  @Test
+  public void default_number_of_threads_is_positive() {
+    assertThat(synchronizer.threads()).isGreaterThan(0).isLessThanOrEqualTo(12);
+  }
+}
@@ -34,6 +34,7 @@ import org.sonar.api.config.Settings;
 import org.sonar.api.utils.DateUtils;
 import org.sonar.core.persistence.DbTester;
 import org.sonar.server.db.DbClient;
+import org.sonar.server.es.EsClient;
 import org.sonar.server.es.EsTester;
 import org.sonar.server.source.db.FileSourceDb;
 import org.sonar.server.source.db.FileSourceTesting;
@@ -48,6 +49,9 @@ import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.sonar.server.source.index.SourceLineIndexDefinition.FIELD_DUPLICATIONS;
 import static org.sonar.server.source.index.SourceLineIndexDefinition.FIELD_FILE_UUID;
 import static org.sonar.server.source.index.SourceLineIndexDefinition.FIELD_IT_CONDITIONS;
@@ -98,6 +102,18 @@ public class SourceLineIndexerTest {
     assertThat(countDocuments()).isEqualTo(3);
   }
 
+  @Test
+  public void index_source_lines_concurrently() throws Exception {
+    db.prepareDbUnit(getClass(), "db.xml");
+
+    Connection connection = db.openConnection();
+    FileSourceTesting.updateDataColumn(connection, "FILE_UUID", FileSourceTesting.newRandomData(3).build());
+    connection.close();
+
+    indexer.indexConcurrently(4);
+    assertThat(countDocuments()).isEqualTo(3);
+  }
+
   @Test
   public void index_source_lines_from_project() throws Exception {
     db.prepareDbUnit(getClass(), "db.xml");
@@ -161,6 +177,62 @@ public class SourceLineIndexerTest {
       );
   }
 
+  /**
+   * File F1 in project P1 had two lines, it has now one line -> line 2 is removed
+   * File F2 in project P1 has one line -> untouched
+   */
+  @Test
+  public void delete_removed_lines() throws Exception {
+    indexLine("P1", "F1", 1);
+    indexLine("P1", "F1", 2);
+    indexLine("P1", "F2", 1);
+
+    FileSourceDb.Data.Builder dataBuilder = FileSourceDb.Data.newBuilder();
+    dataBuilder.addLinesBuilder()
+      .setLine(1)
+      .setSource("new source")
+      .build();
+    FileSourcesUpdaterHelper.Row dbRow = SourceLineResultSetIterator.toRow("P1", "F1", new Date(), dataBuilder.build());
+    indexer.index(Iterators.singletonIterator(dbRow));
+
+    List<SearchHit> hits = getDocuments();
+    assertThat(hits).hasSize(2);
+    for (SearchHit hit : hits) {
+      assertThat(hit.getSource().get(FIELD_LINE)).isEqualTo(1);
+    }
+  }
+
+  /**
+   * Rows of projects P1 and P2 are interleaved. Indexed lines of each project are loaded only once.
+   */
+  @Test
+  public void delete_removed_lines_of_interleaved_projects() throws Exception {
+    indexLine("P1", "F1", 1);
+    indexLine("P1", "F1", 2);
+    indexLine("P1", "F2", 1);
+    indexLine("P2", "F3", 1);
+    EsClient client = spy(es.client());
+    indexer = new SourceLineIndexer(new DbClient(db.database(), db.myBatis()), client);
+
+    FileSourceDb.Data.Builder dataBuilder = FileSourceDb.Data.newBuilder();
+    dataBuilder.addLinesBuilder()
+      .setLine(1)
+      .setSource("new source")
+      .build();
+    FileSourceDb.Data data = dataBuilder.build();
+    indexer.index(Iterators.forArray(
+      SourceLineResultSetIterator.toRow("P1", "F1", new Date(), data),
+      SourceLineResultSetIterator.toRow("P2", "F3", new Date(), data),
+      SourceLineResultSetIterator.toRow("P1", "F2", new Date(), data)));
+
+    List<SearchHit> hits = getDocuments();
+    assertThat(hits).hasSize(3);
+    for (SearchHit hit : hits) {
+      assertThat(hit.getSource().get(FIELD_LINE)).isEqualTo(1);
+    }
+    verify(client, times(2)).prepareSearch(INDEX);
+  }
+
   @Test
   public void delete_file_uuid() throws Exception {
     indexLine("P1", "F1", 1);
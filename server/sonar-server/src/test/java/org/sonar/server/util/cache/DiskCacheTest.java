@@ -19,14 +19,20 @@
  */
 package org.sonar.server.util.cache;
 
+import com.google.common.collect.Lists;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.sonar.api.utils.System2;
 import org.sonar.server.util.CloseableIterator;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
@@ -77,4 +83,54 @@ public class DiskCacheTest {
       assertThat(e).hasMessage("expected error");
     }
   }
+
+  @Test
+  public void write_and_read_with_codec() throws Exception {
+    DiskCache<String> cache = new DiskCache<>(temp.newFile(), System2.INSTANCE, new StringCodec(), false);
+    try (CloseableIterator<String> traverse = cache.traverse()) {
+      assertThat(traverse).isEmpty();
+    }
+
+    cache.newAppender()
+      .append("foo")
+      .append("bar")
+      .close();
+    cache.newAppender()
+      .append("baz")
+      .close();
+    try (CloseableIterator<String> traverse = cache.traverse()) {
+      assertThat(traverse).containsExactly("foo", "bar", "baz");
+    }
+  }
+
+  @Test
+  public void write_and_read_compressed_chunks() throws Exception {
+    DiskCache<String> cache = new DiskCache<>(temp.newFile(), System2.INSTANCE, new StringCodec(), true);
+
+    // more than one chunk
+    List<String> values = new ArrayList<>();
+    DiskCache<String>.DiskAppender appender = cache.newAppender();
+    for (int i = 0; i < 20_000; i++) {
+      String value = "value of a string that can be compressed " + i;
+      values.add(value);
+      appender.append(value);
+    }
+    appender.close();
+
+    try (CloseableIterator<String> traverse = cache.traverse()) {
+      assertThat(Lists.newArrayList(traverse)).isEqualTo(values);
+    }
+  }
+
+  private static class StringCodec implements DiskCacheCodec<String> {
+    @Override
+    public void write(DataOutput output, String s) throws IOException {
+      output.writeUTF(s);
+    }
+
+    @Override
+    public String read(DataInput input) throws IOException {
+      return input.readUTF();
+    }
+  }
 }
@@ -19,36 +19,77 @@
  */
 package org.sonar.batch.protocol.output;
 
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.sonar.batch.protocol.ProtobufUtil;
 import org.sonar.batch.protocol.output.BatchReport.Issues;
 
 import javax.annotation.CheckForNull;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
-public class BatchReportReader {
+/**
+ * Reads a report, either extracted in a directory or directly from the zip file.
+ * <p/>
+ * In the latter case, the entries are located through the central directory of the zip, so the report
+ * does not need to be written on disk another time, except the segments of the segmented layout, which are
+ * extracted into the given working directory. Only the methods opening streams are supported, the methods
+ * returning {@link File} fail. The zip file is closed by {@link #close()}.
+ * <p/>
+ * Both layouts of {@link FileStructure} are supported. The layout is detected for each domain, depending on the
+ * presence of the segment index. In the segmented layout, the methods returning {@link File} fail too.
+ */
+public class BatchReportReader implements Closeable {
 
   private final FileStructure fileStructure;
+  private final ZipFile zipFile;
+  private final File workDir;
+  // null values are the domains that are not segmented
+  private final Map<FileStructure.Domain, SegmentReader> segments = new EnumMap<>(FileStructure.Domain.class);
 
   public BatchReportReader(File dir) {
     this.fileStructure = new FileStructure(dir);
+    this.zipFile = null;
+    this.workDir = null;
+  }
+
+  /**
+   * @param workDir existing directory into which the segments are extracted. They are deleted by {@link #close()}.
+   */
+  public BatchReportReader(ZipFile zipFile, File workDir) {
+    this.fileStructure = null;
+    this.zipFile = zipFile;
+    this.workDir = workDir;
   }
 
   public BatchReport.Metadata readMetadata() {
-    File file = fileStructure.metadataFile();
-    if (!doesFileExists(file)) {
-      throw new IllegalStateException("Metadata file is missing in analysis report: " + file);
+    if (!exists(FileStructure.METADATA_FILENAME)) {
+      throw new IllegalStateException("Metadata file is missing in analysis report: " + FileStructure.METADATA_FILENAME);
     }
-    return ProtobufUtil.readFile(file, BatchReport.Metadata.PARSER);
+    if (zipFile == null) {
+      return ProtobufUtil.readFile(fileStructure.metadataFile(), BatchReport.Metadata.PARSER);
+    }
+    return parse(openIfExists(FileStructure.METADATA_FILENAME), BatchReport.Metadata.PARSER, FileStructure.METADATA_FILENAME);
   }
 
   public List<BatchReport.Measure> readComponentMeasures(int componentRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.MEASURES, componentRef);
-    if (doesFileExists(file)) {
+    if (exists(FileStructure.Domain.MEASURES, componentRef)) {
       // all the measures are loaded in memory
-      BatchReport.Measures measures = ProtobufUtil.readFile(file, BatchReport.Measures.PARSER);
+      BatchReport.Measures measures = readMessage(FileStructure.Domain.MEASURES, componentRef, BatchReport.Measures.PARSER);
       return measures.getMeasureList();
     }
     return Collections.emptyList();
@@ -56,112 +97,273 @@ public class BatchReportReader {
 
   @CheckForNull
   public BatchReport.Changesets readChangesets(int componentRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.CHANGESETS, componentRef);
-    if (doesFileExists(file)) {
-      return ProtobufUtil.readFile(file, BatchReport.Changesets.PARSER);
+    if (exists(FileStructure.Domain.CHANGESETS, componentRef)) {
+      return readMessage(FileStructure.Domain.CHANGESETS, componentRef, BatchReport.Changesets.PARSER);
     }
     return null;
   }
 
   public BatchReport.Component readComponent(int componentRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.COMPONENT, componentRef);
-    if (!doesFileExists(file)) {
-      throw new IllegalStateException("Unable to find report for component #" + componentRef + ". File does not exist: " + file);
+    if (!exists(FileStructure.Domain.COMPONENT, componentRef)) {
+      throw new IllegalStateException("Unable to find report for component #" + componentRef + ". File does not exist: "
+        + FileStructure.filenameFor(FileStructure.Domain.COMPONENT, componentRef));
     }
-    return ProtobufUtil.readFile(file, BatchReport.Component.PARSER);
+    return readMessage(FileStructure.Domain.COMPONENT, componentRef, BatchReport.Component.PARSER);
   }
 
   public List<BatchReport.Issue> readComponentIssues(int componentRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.ISSUES, componentRef);
-    if (doesFileExists(file)) {
+    if (exists(FileStructure.Domain.ISSUES, componentRef)) {
       // all the issues are loaded in memory
-      BatchReport.Issues issues = ProtobufUtil.readFile(file, BatchReport.Issues.PARSER);
+      BatchReport.Issues issues = readMessage(FileStructure.Domain.ISSUES, componentRef, BatchReport.Issues.PARSER);
       return issues.getIssueList();
     }
     return Collections.emptyList();
   }
 
   public Issues readDeletedComponentIssues(int deletedComponentRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.ISSUES_ON_DELETED, deletedComponentRef);
-    if (!doesFileExists(file)) {
+    if (!exists(FileStructure.Domain.ISSUES_ON_DELETED, deletedComponentRef)) {
       throw new IllegalStateException("Unable to find report for deleted component #" + deletedComponentRef);
     }
     // all the issues are loaded in memory
-    return ProtobufUtil.readFile(file, Issues.PARSER);
+    return readMessage(FileStructure.Domain.ISSUES_ON_DELETED, deletedComponentRef, Issues.PARSER);
   }
 
   public List<BatchReport.Duplication> readComponentDuplications(int componentRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.DUPLICATIONS, componentRef);
-    if (doesFileExists(file)) {
+    if (exists(FileStructure.Domain.DUPLICATIONS, componentRef)) {
       // all the duplications are loaded in memory
-      BatchReport.Duplications duplications = ProtobufUtil.readFile(file, BatchReport.Duplications.PARSER);
+      BatchReport.Duplications duplications = readMessage(FileStructure.Domain.DUPLICATIONS, componentRef, BatchReport.Duplications.PARSER);
       return duplications.getDuplicationList();
     }
     return Collections.emptyList();
   }
 
   public List<BatchReport.Symbols.Symbol> readComponentSymbols(int componentRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.SYMBOLS, componentRef);
-    if (doesFileExists(file)) {
+    if (exists(FileStructure.Domain.SYMBOLS, componentRef)) {
       // all the symbols are loaded in memory
-      BatchReport.Symbols symbols = ProtobufUtil.readFile(file, BatchReport.Symbols.PARSER);
+      BatchReport.Symbols symbols = readMessage(FileStructure.Domain.SYMBOLS, componentRef, BatchReport.Symbols.PARSER);
       return symbols.getSymbolList();
     }
     return Collections.emptyList();
   }
 
   public boolean hasSyntaxHighlighting(int componentRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.SYNTAX_HIGHLIGHTINGS, componentRef);
-    return file.exists();
+    return exists(FileStructure.Domain.SYNTAX_HIGHLIGHTINGS, componentRef);
   }
 
   @CheckForNull
   public File readComponentSyntaxHighlighting(int fileRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.SYNTAX_HIGHLIGHTINGS, fileRef);
-    if (doesFileExists(file)) {
-      return file;
-    }
-    return null;
+    return fileIfExists(FileStructure.Domain.SYNTAX_HIGHLIGHTINGS, fileRef);
+  }
+
+  /**
+   * Stream of delimited {@link BatchReport.SyntaxHighlighting}, or {@code null} if the file has no highlighting.
+   * The stream must be closed by caller.
+   */
+  @CheckForNull
+  public InputStream openComponentSyntaxHighlighting(int fileRef) {
+    return openIfExists(FileStructure.Domain.SYNTAX_HIGHLIGHTINGS, fileRef);
   }
 
   @CheckForNull
   public File readComponentCoverage(int fileRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.COVERAGES, fileRef);
-    if (doesFileExists(file)) {
-      return file;
-    }
-    return null;
+    return fileIfExists(FileStructure.Domain.COVERAGES, fileRef);
+  }
+
+  /**
+   * Stream of delimited {@link BatchReport.Coverage}, or {@code null} if the file has no coverage.
+   * The stream must be closed by caller.
+   */
+  @CheckForNull
+  public InputStream openComponentCoverage(int fileRef) {
+    return openIfExists(FileStructure.Domain.COVERAGES, fileRef);
   }
 
   public File readFileSource(int fileRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.SOURCE, fileRef);
-    if (!doesFileExists(file)) {
-      throw new IllegalStateException("Unable to find source for file #" + fileRef + ". File does not exist: " + file);
+    File file = fileIfExists(FileStructure.Domain.SOURCE, fileRef);
+    if (file == null) {
+      throw new IllegalStateException("Unable to find source for file #" + fileRef + ". File does not exist: "
+        + fileStructure.fileFor(FileStructure.Domain.SOURCE, fileRef));
     }
     return file;
   }
 
+  /**
+   * Stream of the UTF-8 source code of the file. The stream must be closed by caller.
+   */
+  public InputStream openFileSource(int fileRef) {
+    InputStream input = openIfExists(FileStructure.Domain.SOURCE, fileRef);
+    if (input == null) {
+      throw new IllegalStateException("Unable to find source for file #" + fileRef + ". File does not exist: "
+        + FileStructure.filenameFor(FileStructure.Domain.SOURCE, fileRef));
+    }
+    return input;
+  }
+
   @CheckForNull
   public File readTests(int testFileRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.TESTS, testFileRef);
-    if (doesFileExists(file)) {
-      return file;
-    }
+    return fileIfExists(FileStructure.Domain.TESTS, testFileRef);
+  }
 
-    return null;
+  /**
+   * Stream of delimited {@link BatchReport.Test}, or {@code null} if the file has no tests.
+   * The stream must be closed by caller.
+   */
+  @CheckForNull
+  public InputStream openTests(int testFileRef) {
+    return openIfExists(FileStructure.Domain.TESTS, testFileRef);
   }
 
   @CheckForNull
   public File readCoverageDetails(int testFileRef) {
-    File file = fileStructure.fileFor(FileStructure.Domain.COVERAGE_DETAILS, testFileRef);
+    return fileIfExists(FileStructure.Domain.COVERAGE_DETAILS, testFileRef);
+  }
+
+  /**
+   * Stream of delimited {@link BatchReport.CoverageDetail}, or {@code null} if the file has no coverage details.
+   * The stream must be closed by caller.
+   */
+  @CheckForNull
+  public InputStream openCoverageDetails(int testFileRef) {
+    return openIfExists(FileStructure.Domain.COVERAGE_DETAILS, testFileRef);
+  }
+
+  /**
+   * Closes the segments and the zip file, if any.
+   */
+  @Override
+  public synchronized void close() {
+    for (SegmentReader segment : segments.values()) {
+      if (segment != null) {
+        segment.close();
+      }
+    }
+    segments.clear();
+    IOUtils.closeQuietly(zipFile);
+  }
+
+  private boolean exists(FileStructure.Domain domain, int componentRef) {
+    SegmentReader segment = segment(domain);
+    if (segment != null) {
+      return segment.contains(componentRef);
+    }
+    return exists(FileStructure.filenameFor(domain, componentRef));
+  }
+
+  @CheckForNull
+  private InputStream openIfExists(FileStructure.Domain domain, int componentRef) {
+    SegmentReader segment = segment(domain);
+    if (segment != null) {
+      return segment.open(componentRef);
+    }
+    return openIfExists(FileStructure.filenameFor(domain, componentRef));
+  }
+
+  private <T extends Message> T readMessage(FileStructure.Domain domain, int componentRef, Parser<T> parser) {
+    SegmentReader segment = segment(domain);
+    String filename = FileStructure.filenameFor(domain, componentRef);
+    if (segment != null) {
+      try {
+        return parser.parseFrom(segment.read(componentRef));
+      } catch (InvalidProtocolBufferException e) {
+        throw new IllegalStateException("Failed to read " + filename + " in segment of analysis report", e);
+      }
+    }
+    if (zipFile == null) {
+      return ProtobufUtil.readFile(fileStructure.file(filename), parser);
+    }
+    return parse(openIfExists(filename), parser, filename);
+  }
+
+  @CheckForNull
+  private File fileIfExists(FileStructure.Domain domain, int componentRef) {
+    if (zipFile != null) {
+      throw new IllegalStateException("Files are not available when reading the zipped report " + zipFile.getName() + ". Streams must be used instead.");
+    }
+    if (segment(domain) != null) {
+      throw new IllegalStateException("Files are not available when reading the segmented domain " + domain + ". Streams must be used instead.");
+    }
+    File file = fileStructure.fileFor(domain, componentRef);
     if (doesFileExists(file)) {
       return file;
     }
-
     return null;
   }
 
-  private boolean doesFileExists(File file) {
+  /**
+   * Returns null if the domain is not segmented. The segment is loaded on first call.
+   */
+  @CheckForNull
+  private synchronized SegmentReader segment(FileStructure.Domain domain) {
+    if (domain == FileStructure.Domain.SOURCE) {
+      return null;
+    }
+    if (!segments.containsKey(domain)) {
+      segments.put(domain, loadSegment(domain));
+    }
+    return segments.get(domain);
+  }
+
+  @CheckForNull
+  private SegmentReader loadSegment(FileStructure.Domain domain) {
+    String indexFilename = FileStructure.segmentIndexFilename(domain);
+    String segmentFilename = FileStructure.segmentFilename(domain);
+    InputStream index = openIfExists(indexFilename);
+    if (index == null) {
+      return null;
+    }
+    if (zipFile == null) {
+      return new SegmentReader(index, fileStructure.file(segmentFilename), false);
+    }
+    // random access is not possible on compressed entries, so the segment is extracted
+    InputStream segmentInput = openIfExists(segmentFilename);
+    File segmentFile = null;
+    try {
+      segmentFile = File.createTempFile(domain.name().toLowerCase(), ".segment", workDir);
+      FileUtils.copyInputStreamToFile(segmentInput, segmentFile);
+      return new SegmentReader(index, segmentFile, true);
+    } catch (IOException e) {
+      IOUtils.closeQuietly(index);
+      FileUtils.deleteQuietly(segmentFile);
+      throw new IllegalStateException("Fail to extract " + segmentFilename + " from analysis report", e);
+    } finally {
+      IOUtils.closeQuietly(segmentInput);
+    }
+  }
+
+  private boolean exists(String filename) {
+    if (zipFile == null) {
+      return doesFileExists(fileStructure.file(filename));
+    }
+    ZipEntry entry = zipFile.getEntry(filename);
+    return entry != null && !entry.isDirectory();
+  }
+
+  @CheckForNull
+  private InputStream openIfExists(String filename) {
+    if (!exists(filename)) {
+      return null;
+    }
+    try {
+      if (zipFile == null) {
+        return new BufferedInputStream(new FileInputStream(fileStructure.file(filename)));
+      }
+      return new BufferedInputStream(zipFile.getInputStream(zipFile.getEntry(filename)));
+    } catch (IOException e) {
+      throw new IllegalStateException("Fail to open " + filename + " in analysis report", e);
+    }
+  }
+
+  private static <T extends Message> T parse(InputStream input, Parser<T> parser, String filename) {
+    try {
+      return parser.parseFrom(input);
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException("Failed to read " + filename + " in analysis report", e);
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  private static boolean doesFileExists(File file) {
     return file.exists() && file.isFile();
   }
 }
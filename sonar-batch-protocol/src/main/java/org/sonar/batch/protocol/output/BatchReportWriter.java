@@ -19,19 +19,34 @@
  */
 package org.sonar.batch.protocol.output;
 
+import com.google.protobuf.Message;
 import org.sonar.batch.protocol.ProtobufUtil;
 
+import java.io.Closeable;
 import java.io.File;
+import java.util.EnumMap;
+import java.util.Map;
 
-public class BatchReportWriter {
+public class BatchReportWriter implements Closeable {
 
   private final FileStructure fileStructure;
+  private final boolean segmented;
+  private final Map<FileStructure.Domain, SegmentWriter> segments = new EnumMap<>(FileStructure.Domain.class);
 
   public BatchReportWriter(File dir) {
+    this(dir, false);
+  }
+
+  /**
+   * @param segmented if true, the data of each domain is appended to a single segment file. See {@link FileStructure}.
+   *                  {@link #close()} must be called when all data is written.
+   */
+  public BatchReportWriter(File dir, boolean segmented) {
     if (!dir.exists() && !dir.mkdirs()) {
       throw new IllegalStateException("Unable to create directory: " + dir);
     }
     this.fileStructure = new FileStructure(dir);
+    this.segmented = segmented;
   }
 
   public FileStructure getFileStructure() {
@@ -39,6 +54,12 @@ public class BatchReportWriter {
   }
 
   public boolean hasComponentData(FileStructure.Domain domain, int componentRef) {
+    if (segmented && domain != FileStructure.Domain.SOURCE) {
+      synchronized (segments) {
+        SegmentWriter segment = segments.get(domain);
+        return segment != null && segment.contains(componentRef);
+      }
+    }
     File file = fileStructure.fileFor(domain, componentRef);
     return file.exists() && file.isFile();
   }
@@ -51,29 +72,25 @@ public class BatchReportWriter {
   }
 
   public void writeComponent(BatchReport.Component component) {
-    File file = fileStructure.fileFor(FileStructure.Domain.COMPONENT, component.getRef());
-    ProtobufUtil.writeToFile(component, file);
+    write(FileStructure.Domain.COMPONENT, component.getRef(), component);
   }
 
   public void writeComponentIssues(int componentRef, Iterable<BatchReport.Issue> issues) {
     BatchReport.Issues.Builder issuesBuilder = BatchReport.Issues.newBuilder();
     issuesBuilder.setComponentRef(componentRef);
     issuesBuilder.addAllIssue(issues);
-    File file = fileStructure.fileFor(FileStructure.Domain.ISSUES, componentRef);
-    ProtobufUtil.writeToFile(issuesBuilder.build(), file);
+    write(FileStructure.Domain.ISSUES, componentRef, issuesBuilder.build());
   }
 
   public void writeComponentMeasures(int componentRef, Iterable<BatchReport.Measure> measures) {
     BatchReport.Measures.Builder measuresBuilder = BatchReport.Measures.newBuilder();
     measuresBuilder.setComponentRef(componentRef);
     measuresBuilder.addAllMeasure(measures);
-    File file = fileStructure.fileFor(FileStructure.Domain.MEASURES, componentRef);
-    ProtobufUtil.writeToFile(measuresBuilder.build(), file);
+    write(FileStructure.Domain.MEASURES, componentRef, measuresBuilder.build());
   }
 
   public void writeComponentChangesets(BatchReport.Changesets changesets) {
-    File file = fileStructure.fileFor(FileStructure.Domain.CHANGESETS, changesets.getComponentRef());
-    ProtobufUtil.writeToFile(changesets, file);
+    write(FileStructure.Domain.CHANGESETS, changesets.getComponentRef(), changesets);
   }
 
   /**
@@ -85,48 +102,84 @@ public class BatchReportWriter {
     issuesBuilder.setComponentRef(componentRef);
     issuesBuilder.setComponentUuid(componentUuid);
     issuesBuilder.addAllIssue(issues);
-    File file = fileStructure.fileFor(FileStructure.Domain.ISSUES_ON_DELETED, componentRef);
-    ProtobufUtil.writeToFile(issuesBuilder.build(), file);
+    write(FileStructure.Domain.ISSUES_ON_DELETED, componentRef, issuesBuilder.build());
   }
 
   public void writeComponentDuplications(int componentRef, Iterable<BatchReport.Duplication> duplications) {
     BatchReport.Duplications.Builder builder = BatchReport.Duplications.newBuilder();
     builder.setComponentRef(componentRef);
     builder.addAllDuplication(duplications);
-    File file = fileStructure.fileFor(FileStructure.Domain.DUPLICATIONS, componentRef);
-    ProtobufUtil.writeToFile(builder.build(), file);
+    write(FileStructure.Domain.DUPLICATIONS, componentRef, builder.build());
   }
 
   public void writeComponentSymbols(int componentRef, Iterable<BatchReport.Symbols.Symbol> symbols) {
     BatchReport.Symbols.Builder builder = BatchReport.Symbols.newBuilder();
     builder.setFileRef(componentRef);
     builder.addAllSymbol(symbols);
-    File file = fileStructure.fileFor(FileStructure.Domain.SYMBOLS, componentRef);
-    ProtobufUtil.writeToFile(builder.build(), file);
+    write(FileStructure.Domain.SYMBOLS, componentRef, builder.build());
   }
 
   public void writeComponentSyntaxHighlighting(int componentRef, Iterable<BatchReport.SyntaxHighlighting> syntaxHighlightingRules) {
-    File file = fileStructure.fileFor(FileStructure.Domain.SYNTAX_HIGHLIGHTINGS, componentRef);
-    ProtobufUtil.writeMessagesToFile(syntaxHighlightingRules, file);
+    writeDelimited(FileStructure.Domain.SYNTAX_HIGHLIGHTINGS, componentRef, syntaxHighlightingRules);
   }
 
   public void writeComponentCoverage(int componentRef, Iterable<BatchReport.Coverage> coverageList) {
-    File file = fileStructure.fileFor(FileStructure.Domain.COVERAGES, componentRef);
-    ProtobufUtil.writeMessagesToFile(coverageList, file);
+    writeDelimited(FileStructure.Domain.COVERAGES, componentRef, coverageList);
   }
 
   public void writeTests(int componentRef, Iterable<BatchReport.Test> tests) {
-    File file = fileStructure.fileFor(FileStructure.Domain.TESTS, componentRef);
-    ProtobufUtil.writeMessagesToFile(tests, file);
+    writeDelimited(FileStructure.Domain.TESTS, componentRef, tests);
   }
 
   public void writeCoverageDetails(int componentRef, Iterable<BatchReport.CoverageDetail> tests) {
-    File file = fileStructure.fileFor(FileStructure.Domain.COVERAGE_DETAILS, componentRef);
-    ProtobufUtil.writeMessagesToFile(tests, file);
+    writeDelimited(FileStructure.Domain.COVERAGE_DETAILS, componentRef, tests);
   }
 
+  /**
+   * Sources are stored in a dedicated file per component, whatever the layout.
+   */
   public File getSourceFile(int componentRef) {
     return fileStructure.fileFor(FileStructure.Domain.SOURCE, componentRef);
   }
 
+  /**
+   * Flushes and closes the segment files. Does nothing if the report is not segmented.
+   */
+  @Override
+  public void close() {
+    for (SegmentWriter segment : segments.values()) {
+      segment.close();
+    }
+  }
+
+  private void write(FileStructure.Domain domain, int componentRef, Message message) {
+    if (segmented) {
+      // segments are shared by the sensors executed concurrently
+      synchronized (segments) {
+        segment(domain).append(componentRef, message);
+      }
+    } else {
+      ProtobufUtil.writeToFile(message, fileStructure.fileFor(domain, componentRef));
+    }
+  }
+
+  private void writeDelimited(FileStructure.Domain domain, int componentRef, Iterable<? extends Message> messages) {
+    if (segmented) {
+      synchronized (segments) {
+        segment(domain).appendDelimited(componentRef, messages);
+      }
+    } else {
+      ProtobufUtil.writeMessagesToFile(messages, fileStructure.fileFor(domain, componentRef));
+    }
+  }
+
+  private SegmentWriter segment(FileStructure.Domain domain) {
+    SegmentWriter segment = segments.get(domain);
+    if (segment == null) {
+      segment = new SegmentWriter(fileStructure.segmentFile(domain), fileStructure.segmentIndexFile(domain));
+      segments.put(domain, segment);
+    }
+    return segment;
+  }
+
 }
@@ -22,7 +22,12 @@ package org.sonar.batch.protocol.output;
 import java.io.File;
 
 /**
- * Structure of files in the zipped report
+ * Structure of files in the zipped report.
+ * <p/>
+ * Two layouts are supported. By default the data of each component is stored in a dedicated file,
+ * for example issues-42.pb. In the segmented layout, the data of all the components of a domain are
+ * appended to a single segment file, for example issues-segment.pb, and located through an index
+ * file, for example issues-segment.idx. Source files are never segmented.
  */
 public class FileStructure {
 
@@ -52,6 +57,8 @@ public class FileStructure {
     }
   }
 
+  public static final String METADATA_FILENAME = "metadata.pb";
+
   private final File dir;
 
   public FileStructure(File dir) {
@@ -62,11 +69,38 @@ public class FileStructure {
   }
 
   public File metadataFile() {
-    return new File(dir, "metadata.pb");
+    return new File(dir, METADATA_FILENAME);
   }
 
   public File fileFor(Domain domain, int componentRef) {
-    return new File(dir, domain.filePrefix + componentRef + domain.fileSuffix);
+    return new File(dir, filenameFor(domain, componentRef));
+  }
+
+  File file(String filename) {
+    return new File(dir, filename);
+  }
+
+  /**
+   * Name of file, relative to the root of report. It's also the name of the entry in the zipped report.
+   */
+  public static String filenameFor(Domain domain, int componentRef) {
+    return domain.filePrefix + componentRef + domain.fileSuffix;
+  }
+
+  public File segmentFile(Domain domain) {
+    return new File(dir, segmentFilename(domain));
+  }
+
+  public File segmentIndexFile(Domain domain) {
+    return new File(dir, segmentIndexFilename(domain));
+  }
+
+  public static String segmentFilename(Domain domain) {
+    return domain.filePrefix + "segment" + domain.fileSuffix;
+  }
+
+  public static String segmentIndexFilename(Domain domain) {
+    return domain.filePrefix + "segment.idx";
   }
 
 }
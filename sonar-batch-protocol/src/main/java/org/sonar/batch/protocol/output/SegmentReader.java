@@ -0,0 +1,136 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.protocol.output;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.CheckForNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Random access to the data of the components of a domain, as written by {@link SegmentWriter}.
+ * The index is loaded in memory, then data is read with positional reads on the segment file. It's thread-safe.
+ */
+class SegmentReader implements Closeable {
+
+  private final File segmentFile;
+  private final boolean deleteOnClose;
+  private final RandomAccessFile randomAccessFile;
+  private final FileChannel channel;
+  private final Map<Integer, Position> positions = new HashMap<>();
+
+  /**
+   * @param deleteOnClose true if segment file is temporary, for example when extracted from a zipped report
+   */
+  SegmentReader(InputStream indexStream, File segmentFile, boolean deleteOnClose) {
+    this.segmentFile = segmentFile;
+    this.deleteOnClose = deleteOnClose;
+    loadIndex(indexStream);
+    try {
+      this.randomAccessFile = new RandomAccessFile(segmentFile, "r");
+      this.channel = randomAccessFile.getChannel();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to open segment " + segmentFile, e);
+    }
+  }
+
+  private void loadIndex(InputStream indexStream) {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(indexStream));
+    try {
+      while (true) {
+        int componentRef;
+        try {
+          componentRef = input.readInt();
+        } catch (EOFException e) {
+          // end of index
+          break;
+        }
+        // if the data of a component is written twice, the last one wins
+        positions.put(componentRef, new Position(input.readLong(), input.readInt()));
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read index of segment " + segmentFile, e);
+    } finally {
+      IOUtils.closeQuietly(input);
+    }
+  }
+
+  boolean contains(int componentRef) {
+    return positions.containsKey(componentRef);
+  }
+
+  @CheckForNull
+  byte[] read(int componentRef) {
+    Position position = positions.get(componentRef);
+    if (position == null) {
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(position.length);
+    try {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position.offset + buffer.position()) < 0) {
+          throw new IllegalStateException(String.format("Segment %s is truncated, component #%d can not be read", segmentFile, componentRef));
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Unable to read component #%d in segment %s", componentRef, segmentFile), e);
+    }
+    return buffer.array();
+  }
+
+  @CheckForNull
+  InputStream open(int componentRef) {
+    byte[] bytes = read(componentRef);
+    return bytes == null ? null : new ByteArrayInputStream(bytes);
+  }
+
+  @Override
+  public void close() {
+    IOUtils.closeQuietly(channel);
+    IOUtils.closeQuietly(randomAccessFile);
+    if (deleteOnClose) {
+      FileUtils.deleteQuietly(segmentFile);
+    }
+  }
+
+  private static class Position {
+    private final long offset;
+    private final int length;
+
+    Position(long offset, int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.protocol.output;
+
+import com.google.protobuf.Message;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Appends the data of all the components of a domain to a single segment file. The location of the data
+ * of each component is stored in an index file, as fixed-size records (int component ref, long offset, int length).
+ *
+ * @see SegmentReader
+ */
+class SegmentWriter implements Closeable {
+
+  private final File segmentFile;
+  private final CountingOutputStream segment;
+  private final DataOutputStream index;
+  private final Set<Integer> componentRefs = new HashSet<>();
+
+  SegmentWriter(File segmentFile, File indexFile) {
+    this.segmentFile = segmentFile;
+    try {
+      this.segment = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(segmentFile)));
+      this.index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to create segment " + segmentFile, e);
+    }
+  }
+
+  void append(int componentRef, Message message) {
+    long offset = segment.getByteCount();
+    try {
+      message.writeTo(segment);
+      writeIndex(componentRef, offset);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to append protocol buffer data to segment " + segmentFile, e);
+    }
+  }
+
+  void appendDelimited(int componentRef, Iterable<? extends Message> messages) {
+    long offset = segment.getByteCount();
+    try {
+      for (Message message : messages) {
+        message.writeDelimitedTo(segment);
+      }
+      writeIndex(componentRef, offset);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to append protocol buffer data to segment " + segmentFile, e);
+    }
+  }
+
+  boolean contains(int componentRef) {
+    return componentRefs.contains(componentRef);
+  }
+
+  private void writeIndex(int componentRef, long offset) throws IOException {
+    index.writeInt(componentRef);
+    index.writeLong(offset);
+    index.writeInt((int) (segment.getByteCount() - offset));
+    componentRefs.add(componentRef);
+  }
+
+  @Override
+  public void close() {
+    IOUtils.closeQuietly(segment);
+    IOUtils.closeQuietly(index);
+  }
+}
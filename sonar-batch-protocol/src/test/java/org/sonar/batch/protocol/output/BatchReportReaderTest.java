@@ -21,6 +21,7 @@ package org.sonar.batch.protocol.output;
 
 import com.google.common.collect.Lists;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -28,10 +29,15 @@ import org.junit.rules.TemporaryFolder;
 import org.sonar.batch.protocol.Constants;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 public class BatchReportReaderTest {
 
@@ -370,4 +376,121 @@ public class BatchReportReaderTest {
     assertThat(sut.readCoverageDetails(UNKNOWN_COMPONENT_REF)).isNull();
   }
 
+  @Test
+  public void read_zipped_report() throws Exception {
+    BatchReportWriter writer = new BatchReportWriter(dir);
+    writer.writeMetadata(BatchReport.Metadata.newBuilder()
+      .setProjectKey("PROJECT_A")
+      .setRootComponentRef(1)
+      .build());
+    writer.writeComponent(BatchReport.Component.newBuilder()
+      .setRef(1)
+      .setPath("src/main/java/Foo.java").build());
+    writer.writeComponentMeasures(1, Arrays.asList(BatchReport.Measure.newBuilder().setStringValue("value_a").build()));
+    writer.writeTests(1, Arrays.asList(BatchReport.Test.newBuilder().setMsg("message").build()));
+    FileUtils.writeLines(writer.getFileStructure().fileFor(FileStructure.Domain.SOURCE, 1), Lists.newArrayList("line1", "line2"));
+
+    try (BatchReportReader zipReader = new BatchReportReader(new ZipFile(zip(dir)), temp.newFolder())) {
+      assertThat(zipReader.readMetadata().getProjectKey()).isEqualTo("PROJECT_A");
+      assertThat(zipReader.readComponent(1).getPath()).isEqualTo("src/main/java/Foo.java");
+      assertThat(zipReader.readComponentMeasures(1)).hasSize(1);
+      assertThat(zipReader.readComponentMeasures(UNKNOWN_COMPONENT_REF)).isEmpty();
+      assertThat(zipReader.openTests(UNKNOWN_COMPONENT_REF)).isNull();
+
+      try (InputStream inputStream = zipReader.openTests(1)) {
+        assertThat(BatchReport.Test.PARSER.parseDelimitedFrom(inputStream).getMsg()).isEqualTo("message");
+      }
+      try (InputStream inputStream = zipReader.openFileSource(1)) {
+        assertThat(IOUtils.readLines(inputStream)).containsExactly("line1", "line2");
+      }
+    }
+  }
+
+  @Test
+  public void files_are_not_available_when_reading_zipped_report() throws Exception {
+    new BatchReportWriter(dir).writeTests(1, Arrays.asList(BatchReport.Test.newBuilder().setMsg("message").build()));
+
+    try (BatchReportReader zipReader = new BatchReportReader(new ZipFile(zip(dir)), temp.newFolder())) {
+      zipReader.readTests(1);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("Streams must be used instead");
+    }
+  }
+
+  @Test
+  public void open_streams_of_extracted_report() throws Exception {
+    new BatchReportWriter(dir).writeTests(1, Arrays.asList(BatchReport.Test.newBuilder().setMsg("message").build()));
+
+    try (InputStream inputStream = sut.openTests(1)) {
+      assertThat(BatchReport.Test.PARSER.parseDelimitedFrom(inputStream).getMsg()).isEqualTo("message");
+    }
+    assertThat(sut.openCoverageDetails(1)).isNull();
+  }
+
+  @Test
+  public void read_segmented_report() throws Exception {
+    writeSegmentedReport();
+
+    assertThat(sut.readComponent(1).getPath()).isEqualTo("src/main/java/Foo.java");
+    assertThat(sut.readComponent(2).getPath()).isEqualTo("src/main/java/Bar.java");
+    assertThat(sut.readComponentMeasures(2)).hasSize(1);
+    assertThat(sut.readComponentMeasures(1)).isEmpty();
+    assertThat(sut.hasSyntaxHighlighting(1)).isFalse();
+    try (InputStream inputStream = sut.openTests(1)) {
+      assertThat(BatchReport.Test.PARSER.parseDelimitedFrom(inputStream).getMsg()).isEqualTo("message1");
+      assertThat(BatchReport.Test.PARSER.parseDelimitedFrom(inputStream).getMsg()).isEqualTo("message2");
+      assertThat(BatchReport.Test.PARSER.parseDelimitedFrom(inputStream)).isNull();
+    }
+    assertThat(sut.openTests(2)).isNull();
+
+    try {
+      sut.readTests(1);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageContaining("Streams must be used instead");
+    }
+    sut.close();
+  }
+
+  @Test
+  public void read_zipped_segmented_report() throws Exception {
+    writeSegmentedReport();
+    File workDir = temp.newFolder();
+
+    try (BatchReportReader zipReader = new BatchReportReader(new ZipFile(zip(dir)), workDir)) {
+      assertThat(zipReader.readComponent(2).getPath()).isEqualTo("src/main/java/Bar.java");
+      assertThat(zipReader.readComponentMeasures(2)).hasSize(1);
+      try (InputStream inputStream = zipReader.openTests(1)) {
+        assertThat(BatchReport.Test.PARSER.parseDelimitedFrom(inputStream).getMsg()).isEqualTo("message1");
+      }
+      // segments are extracted into the working directory
+      assertThat(workDir.list()).isNotEmpty();
+    }
+    assertThat(workDir.list()).isEmpty();
+  }
+
+  private void writeSegmentedReport() {
+    BatchReportWriter writer = new BatchReportWriter(dir, true);
+    writer.writeComponent(BatchReport.Component.newBuilder().setRef(1).setPath("src/main/java/Foo.java").build());
+    writer.writeComponent(BatchReport.Component.newBuilder().setRef(2).setPath("src/main/java/Bar.java").build());
+    writer.writeComponentMeasures(2, Arrays.asList(BatchReport.Measure.newBuilder().setStringValue("value_a").build()));
+    writer.writeTests(1, Arrays.asList(
+      BatchReport.Test.newBuilder().setMsg("message1").build(),
+      BatchReport.Test.newBuilder().setMsg("message2").build()));
+    writer.close();
+  }
+
+  private File zip(File dir) throws IOException {
+    File zip = temp.newFile();
+    try (ZipOutputStream out = new ZipOutputStream(FileUtils.openOutputStream(zip))) {
+      for (File file : dir.listFiles()) {
+        out.putNextEntry(new ZipEntry(file.getName()));
+        FileUtils.copyFile(file, out);
+        out.closeEntry();
+      }
+    }
+    return zip;
+  }
+
 }
@@ -316,4 +316,24 @@ public class BatchReportWriterTest {
 
     assertThat(sut.hasComponentData(FileStructure.Domain.COVERAGE_DETAILS, 1)).isTrue();
   }
+
+  @Test
+  public void write_segmented_report() {
+    sut = new BatchReportWriter(dir, true);
+    assertThat(sut.hasComponentData(FileStructure.Domain.COMPONENT, 1)).isFalse();
+
+    sut.writeComponent(BatchReport.Component.newBuilder().setRef(1).setPath("src/Foo.java").build());
+    sut.writeComponent(BatchReport.Component.newBuilder().setRef(2).setPath("src/Bar.java").build());
+    sut.writeTests(1, Arrays.asList(BatchReport.Test.newBuilder().setName("test").build()));
+    sut.close();
+
+    assertThat(sut.hasComponentData(FileStructure.Domain.COMPONENT, 1)).isTrue();
+    assertThat(sut.hasComponentData(FileStructure.Domain.COMPONENT, 3)).isFalse();
+    assertThat(sut.getFileStructure().fileFor(FileStructure.Domain.COMPONENT, 1)).doesNotExist();
+    assertThat(sut.getFileStructure().segmentFile(FileStructure.Domain.COMPONENT)).isFile();
+    // 2 index records of 16 bytes
+    assertThat(sut.getFileStructure().segmentIndexFile(FileStructure.Domain.COMPONENT).length()).isEqualTo(32L);
+    assertThat(sut.getFileStructure().segmentIndexFile(FileStructure.Domain.TESTS)).isFile();
+    assertThat(sut.getFileStructure().segmentFile(FileStructure.Domain.ISSUES)).doesNotExist();
+  }
 }
@@ -22,6 +22,8 @@ package org.sonar.batch.bootstrap;
 import com.google.common.base.Predicates;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.apache.commons.lang.ClassUtils;
 import org.sonar.api.batch.CheckProject;
 import org.sonar.api.batch.DependedUpon;
@@ -35,6 +37,7 @@ import org.sonar.core.platform.ComponentContainer;
 import org.sonar.api.resources.Project;
 import org.sonar.api.utils.AnnotationUtils;
 import org.sonar.api.utils.dag.DirectAcyclicGraph;
+import org.sonar.api.utils.dag.Node;
 import org.sonar.batch.postjob.PostJobOptimizer;
 import org.sonar.batch.postjob.PostJobWrapper;
 import org.sonar.batch.sensor.DefaultSensorContext;
@@ -51,6 +54,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @since 2.6
@@ -139,6 +144,48 @@ public class BatchExtensionDictionnary {
   }
 
   public <T> Collection<T> sort(Collection<T> extensions) {
+    List sortedList = newDag(extensions).sort();
+
+    return Collections2.filter(sortedList, Predicates.in(extensions));
+  }
+
+  /**
+   * For each extension, the extensions that must be executed before it, because of annotations {@link DependsUpon},
+   * {@link DependedUpon} and {@link Phase}. The graph is not walked through the returned extensions, so their own
+   * dependencies are not necessarily repeated.
+   *
+   * @since 5.2
+   */
+  public <T> Map<T, Set<T>> dependencies(Collection<T> extensions) {
+    DirectAcyclicGraph dag = newDag(extensions);
+    Set<T> selected = Sets.newIdentityHashSet();
+    selected.addAll(extensions);
+
+    Map<T, Set<T>> result = Maps.newIdentityHashMap();
+    for (T extension : extensions) {
+      Set<T> dependencies = Sets.newIdentityHashSet();
+      Set<Node> visited = Sets.newIdentityHashSet();
+      collectDependencies(dag.add(extension), selected, visited, dependencies);
+      result.put(extension, dependencies);
+    }
+    return result;
+  }
+
+  private static <T> void collectDependencies(Node node, Set<T> selected, Set<Node> visited, Set<T> dependencies) {
+    for (Node dependency : node.getDependencies()) {
+      if (visited.add(dependency)) {
+        Object object = dependency.getObject();
+        if (selected.contains(object)) {
+          dependencies.add((T) object);
+        } else {
+          // intermediate node, like a phase or a metric
+          collectDependencies(dependency, selected, visited, dependencies);
+        }
+      }
+    }
+  }
+
+  private <T> DirectAcyclicGraph newDag(Collection<T> extensions) {
     DirectAcyclicGraph dag = new DirectAcyclicGraph();
 
     for (T extension : extensions) {
@@ -151,9 +198,7 @@ public class BatchExtensionDictionnary {
       }
       completePhaseDependencies(dag, extension);
     }
-    List sortedList = dag.sort();
-
-    return Collections2.filter(sortedList, Predicates.in(extensions));
+    return dag;
   }
 
   /**
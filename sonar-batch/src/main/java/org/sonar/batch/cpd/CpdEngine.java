@@ -22,10 +22,22 @@ package org.sonar.batch.cpd;
 import org.slf4j.Logger;
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.config.Settings;
 
 @BatchSide
 public abstract class CpdEngine {
 
+  /**
+   * Number of threads used to detect duplications. By default it is the number of available processors.
+   */
+  public static final String THREADS_PROPERTY = "sonar.cpd.threads";
+
+  /**
+   * Algorithm used to detect duplications: "suffixtree" (default) or "hashjoin". Both detect the same duplications, but
+   * "hashjoin" does not build a suffix tree for each file, which is faster on files with many repeated blocks.
+   */
+  public static final String ALGORITHM_PROPERTY = "sonar.cpd.algorithm";
+
   abstract boolean isLanguageSupported(String language);
 
   abstract void analyse(String language, SensorContext context);
@@ -42,6 +54,18 @@ public abstract class CpdEngine {
     }
   }
 
+  static int threads(Settings settings) {
+    int threads = settings.getInt(THREADS_PROPERTY);
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    return threads;
+  }
+
+  static DetectionAlgorithm algorithm(Settings settings) {
+    return DetectionAlgorithm.fromKey(settings.getString(ALGORITHM_PROPERTY));
+  }
+
   @Override
   public String toString() {
     return getClass().getSimpleName();
@@ -21,7 +21,6 @@ package org.sonar.batch.cpd;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,7 +33,6 @@ import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.config.Settings;
 import org.sonar.api.resources.Project;
-import org.sonar.api.utils.SonarException;
 import org.sonar.batch.cpd.index.IndexFactory;
 import org.sonar.batch.cpd.index.SonarDuplicationsIndex;
 import org.sonar.duplications.DuplicationPredicates;
@@ -44,23 +42,12 @@ import org.sonar.duplications.internal.pmd.TokenizerBridge;
 
 import javax.annotation.Nullable;
 
-import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 public class DefaultCpdEngine extends CpdEngine {
 
   private static final Logger LOG = LoggerFactory.getLogger(DefaultCpdEngine.class);
 
-  /**
-   * Limit of time to analyse one file (in seconds).
-   */
-  private static final int TIMEOUT = 5 * 60;
-
   private final IndexFactory indexFactory;
   private final CpdMappings mappings;
   private final FileSystem fs;
@@ -114,40 +101,36 @@ public class DefaultCpdEngine extends CpdEngine {
 
   private void runCpdAnalysis(String languageKey, SensorContext context, List<InputFile> sourceFiles, SonarDuplicationsIndex index) {
     Predicate<CloneGroup> minimumTokensPredicate = DuplicationPredicates.numberOfUnitsNotLessThan(getMinimumTokens(languageKey));
+    JavaCpdEngine.detect(index, context, sourceFiles, threads(settings), algorithm(settings), minimumTokensPredicate);
+  }
 
-    ExecutorService executorService = Executors.newSingleThreadExecutor();
-    try {
-      for (InputFile inputFile : sourceFiles) {
-        LOG.debug("Detection of duplications for {}", inputFile);
+  private void populateIndex(String languageKey, List<InputFile> sourceFiles, final CpdMapping mapping, SonarDuplicationsIndex index) {
+    final String encoding = fs.encoding().name();
+    final int blockSize = getBlockSize(languageKey);
+    final ThreadLocal<TokenizerBridge> bridges = new ThreadLocal<TokenizerBridge>() {
+      @Override
+      protected TokenizerBridge initialValue() {
+        return new TokenizerBridge(mapping.getTokenizer(), encoding, blockSize);
+      }
+    };
+    JavaCpdEngine.populateIndex(index, sourceFiles, getTokenizerThreads(languageKey), new JavaCpdEngine.FileChunker() {
+      @Override
+      public List<Block> chunk(InputFile inputFile) {
         String resourceEffectiveKey = ((DefaultInputFile) inputFile).key();
-        Collection<Block> fileBlocks = index.getByInputFile(inputFile, resourceEffectiveKey);
-
-        Iterable<CloneGroup> filtered;
-        try {
-          List<CloneGroup> duplications = executorService.submit(new JavaCpdEngine.Task(index, fileBlocks)).get(TIMEOUT, TimeUnit.SECONDS);
-          filtered = Iterables.filter(duplications, minimumTokensPredicate);
-        } catch (TimeoutException e) {
-          filtered = null;
-          LOG.warn("Timeout during detection of duplications for " + inputFile, e);
-        } catch (InterruptedException | ExecutionException e) {
-          throw new SonarException("Fail during detection of duplication for " + inputFile, e);
-        }
-
-        JavaCpdEngine.save(context, inputFile, filtered);
+        return bridges.get().chunk(resourceEffectiveKey, inputFile.file());
       }
-    } finally {
-      executorService.shutdown();
-    }
+    });
   }
 
-  private void populateIndex(String languageKey, List<InputFile> sourceFiles, CpdMapping mapping, SonarDuplicationsIndex index) {
-    TokenizerBridge bridge = new TokenizerBridge(mapping.getTokenizer(), fs.encoding().name(), getBlockSize(languageKey));
-    for (InputFile inputFile : sourceFiles) {
-      LOG.debug("Populating index from {}", inputFile);
-      String resourceEffectiveKey = ((DefaultInputFile) inputFile).key();
-      List<Block> blocks2 = bridge.chunk(resourceEffectiveKey, inputFile.file());
-      index.insert(inputFile, blocks2);
-    }
+  /**
+   * Tokenizers of plugins are not required to be thread-safe, so files are tokenized by a single thread,
+   * unless the property sonar.cpd.{language}.concurrentTokenizers is set to true. It must be set only if
+   * {@link CpdMapping#getTokenizer()} returns a new instance on each call, or a thread-safe tokenizer. Each
+   * thread then uses its own result of {@link CpdMapping#getTokenizer()}.
+   */
+  @VisibleForTesting
+  int getTokenizerThreads(String languageKey) {
+    return settings.getBoolean("sonar.cpd." + languageKey + ".concurrentTokenizers") ? threads(settings) : 1;
   }
 
   @VisibleForTesting
@@ -0,0 +1,78 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.cpd;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.detector.hashjoin.HashJoinCloneDetectionAlgorithm;
+import org.sonar.duplications.detector.suffixtree.SuffixTreeCloneDetectionAlgorithm;
+import org.sonar.duplications.index.CloneGroup;
+import org.sonar.duplications.index.CloneIndex;
+
+import javax.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Algorithms available to detect the duplications of a file, selected by {@link CpdEngine#ALGORITHM_PROPERTY}.
+ * Both detect the same clone groups.
+ */
+enum DetectionAlgorithm {
+
+  SUFFIX_TREE("suffixtree") {
+    @Override
+    List<CloneGroup> detect(CloneIndex index, Collection<Block> fileBlocks) {
+      return SuffixTreeCloneDetectionAlgorithm.detect(index, fileBlocks);
+    }
+  },
+
+  HASH_JOIN("hashjoin") {
+    @Override
+    List<CloneGroup> detect(CloneIndex index, Collection<Block> fileBlocks) {
+      return HashJoinCloneDetectionAlgorithm.detect(index, fileBlocks);
+    }
+  };
+
+  private final String key;
+
+  DetectionAlgorithm(String key) {
+    this.key = key;
+  }
+
+  abstract List<CloneGroup> detect(CloneIndex index, Collection<Block> fileBlocks);
+
+  static DetectionAlgorithm fromKey(@Nullable String key) {
+    if (StringUtils.isBlank(key)) {
+      return SUFFIX_TREE;
+    }
+    for (DetectionAlgorithm algorithm : values()) {
+      if (algorithm.key.equals(key.trim())) {
+        return algorithm;
+      }
+    }
+    throw new IllegalArgumentException(String.format("The property '%s' must be one of 'suffixtree' or 'hashjoin': %s", CpdEngine.ALGORITHM_PROPERTY, key));
+  }
+
+  @Override
+  public String toString() {
+    return key;
+  }
+}
@@ -20,8 +20,12 @@
 
 package org.sonar.batch.cpd;
 
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,9 +46,7 @@ import org.sonar.batch.cpd.index.IndexFactory;
 import org.sonar.batch.cpd.index.SonarDuplicationsIndex;
 import org.sonar.duplications.block.Block;
 import org.sonar.duplications.block.BlockChunker;
-import org.sonar.duplications.detector.suffixtree.SuffixTreeCloneDetectionAlgorithm;
 import org.sonar.duplications.index.CloneGroup;
-import org.sonar.duplications.index.CloneIndex;
 import org.sonar.duplications.index.ClonePart;
 import org.sonar.duplications.java.JavaStatementBuilder;
 import org.sonar.duplications.java.JavaTokenProducer;
@@ -58,7 +60,9 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -66,6 +70,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -118,18 +123,142 @@ public class JavaCpdEngine extends CpdEngine {
       return;
     }
     SonarDuplicationsIndex index = createIndex(project, languageKey, sourceFiles);
-    detect(index, context, sourceFiles);
+    detect(index, context, sourceFiles, threads(settings), algorithm(settings), Predicates.<CloneGroup>alwaysTrue());
   }
 
-  private SonarDuplicationsIndex createIndex(@Nullable Project project, String language, Iterable<InputFile> sourceFiles) {
-    final SonarDuplicationsIndex index = indexFactory.create(project, language);
+  private SonarDuplicationsIndex createIndex(@Nullable Project project, String language, List<InputFile> sourceFiles) {
+    SonarDuplicationsIndex index = indexFactory.create(project, language);
+    populateIndex(index, sourceFiles, threads(settings), new JavaFileChunker());
+    return index;
+  }
 
-    TokenChunker tokenChunker = JavaTokenProducer.build();
-    StatementChunker statementChunker = JavaStatementBuilder.build();
-    BlockChunker blockChunker = new BlockChunker(BLOCK_SIZE);
+  /**
+   * Chunks the files into blocks on a pool of {@code threads} threads. The blocks are inserted by the calling thread in the
+   * order of {@code sourceFiles}.
+   */
+  static void populateIndex(SonarDuplicationsIndex index, List<InputFile> sourceFiles, int threads, final FileChunker chunker) {
+    int poolSize = Math.max(1, Math.min(threads, sourceFiles.size()));
+    ExecutorService executorService = newExecutorService("cpd-index-%d", poolSize);
+    try {
+      Deque<FileResult<List<Block>>> pending = new ArrayDeque<>();
+      for (final InputFile inputFile : sourceFiles) {
+        LOG.debug("Populating index from {}", inputFile);
+        pending.add(new FileResult<>(inputFile, executorService.submit(new Callable<List<Block>>() {
+          @Override
+          public List<Block> call() {
+            return chunker.chunk(inputFile);
+          }
+        })));
+        if (pending.size() >= 2 * poolSize) {
+          insertNext(index, pending);
+        }
+      }
+      while (!pending.isEmpty()) {
+        insertNext(index, pending);
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
 
-    for (InputFile inputFile : sourceFiles) {
-      LOG.debug("Populating index from {}", inputFile);
+  private static void insertNext(SonarDuplicationsIndex index, Deque<FileResult<List<Block>>> pending) {
+    FileResult<List<Block>> next = pending.remove();
+    List<Block> blocks;
+    try {
+      blocks = next.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SonarException("Fail to populate index from " + next.inputFile, e);
+    } catch (ExecutionException e) {
+      // keep the exception raised by the chunker
+      throw Throwables.propagate(e.getCause());
+    }
+    index.insert(next.inputFile, blocks);
+  }
+
+  /**
+   * Detects the duplications of each file on a pool of {@code threads} threads. The duplications are saved by the calling
+   * thread in the order of {@code sourceFiles}, so that the results do not depend on the scheduling of threads.
+   */
+  static void detect(SonarDuplicationsIndex index, SensorContext context, List<InputFile> sourceFiles, int threads, DetectionAlgorithm algorithm,
+    Predicate<CloneGroup> filter) {
+    int poolSize = index.supportsConcurrentDetection() ? Math.max(1, Math.min(threads, sourceFiles.size())) : 1;
+    LOG.debug("Detection of duplications with algorithm {}", algorithm);
+    ExecutorService executorService = newExecutorService("cpd-%d", poolSize);
+    try {
+      // bounds the number of results kept in memory while the first files are still being processed
+      Deque<FileResult<List<CloneGroup>>> pending = new ArrayDeque<>();
+      for (InputFile inputFile : sourceFiles) {
+        LOG.debug("Detection of duplications for {}", inputFile);
+        pending.add(new FileResult<>(inputFile, executorService.submit(new Task(index, inputFile, algorithm))));
+        if (pending.size() >= 2 * poolSize) {
+          saveNext(context, pending, filter);
+        }
+      }
+      while (!pending.isEmpty()) {
+        saveNext(context, pending, filter);
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+    String crossProjectProfiling = index.crossProjectProfilingMessage();
+    if (crossProjectProfiling != null) {
+      LOG.info(crossProjectProfiling);
+    }
+  }
+
+  private static void saveNext(SensorContext context, Deque<FileResult<List<CloneGroup>>> pending, Predicate<CloneGroup> filter) {
+    FileResult<List<CloneGroup>> detection = pending.remove();
+    InputFile inputFile = detection.inputFile;
+    Iterable<CloneGroup> filtered;
+    try {
+      filtered = Iterables.filter(detection.result.get(TIMEOUT, TimeUnit.SECONDS), filter);
+    } catch (TimeoutException e) {
+      filtered = null;
+      detection.result.cancel(true);
+      LOG.warn("Timeout during detection of duplications for " + inputFile, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SonarException("Fail during detection of duplication for " + inputFile, e);
+    } catch (ExecutionException e) {
+      throw new SonarException("Fail during detection of duplication for " + inputFile, e);
+    }
+    save(context, inputFile, filtered);
+  }
+
+  private static ExecutorService newExecutorService(String nameFormat, int threads) {
+    return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+      .setNameFormat(nameFormat)
+      .setDaemon(true)
+      .build());
+  }
+
+  /**
+   * Converts a file into blocks. Called concurrently by the threads populating the index.
+   */
+  interface FileChunker {
+    List<Block> chunk(InputFile inputFile);
+  }
+
+  private class JavaFileChunker implements FileChunker {
+    private final BlockChunker blockChunker = new BlockChunker(BLOCK_SIZE);
+
+    // token and statement chunkers are not thread-safe
+    private final ThreadLocal<TokenChunker> tokenChunkers = new ThreadLocal<TokenChunker>() {
+      @Override
+      protected TokenChunker initialValue() {
+        return JavaTokenProducer.build();
+      }
+    };
+    private final ThreadLocal<StatementChunker> statementChunkers = new ThreadLocal<StatementChunker>() {
+      @Override
+      protected StatementChunker initialValue() {
+        return JavaStatementBuilder.build();
+      }
+    };
+
+    @Override
+    public List<Block> chunk(InputFile inputFile) {
       String resourceEffectiveKey = ((DefaultInputFile) inputFile).key();
 
       List<Statement> statements;
@@ -137,64 +266,47 @@ public class JavaCpdEngine extends CpdEngine {
       Reader reader = null;
       try {
         reader = new InputStreamReader(new FileInputStream(inputFile.file()), fs.encoding());
-        statements = statementChunker.chunk(tokenChunker.chunk(reader));
+        statements = statementChunkers.get().chunk(tokenChunkers.get().chunk(reader));
       } catch (FileNotFoundException e) {
         throw new SonarException("Cannot find file " + inputFile.file(), e);
       } finally {
         IOUtils.closeQuietly(reader);
       }
 
-      List<Block> blocks = blockChunker.chunk(resourceEffectiveKey, statements);
-      index.insert(inputFile, blocks);
+      return blockChunker.chunk(resourceEffectiveKey, statements);
     }
-
-    return index;
   }
 
-  private void detect(SonarDuplicationsIndex index, org.sonar.api.batch.sensor.SensorContext context, List<InputFile> sourceFiles) {
-    ExecutorService executorService = Executors.newSingleThreadExecutor();
-    try {
-      for (InputFile inputFile : sourceFiles) {
-        LOG.debug("Detection of duplications for {}", inputFile);
-        String resourceEffectiveKey = ((DefaultInputFile) inputFile).key();
-
-        Collection<Block> fileBlocks = index.getByInputFile(inputFile, resourceEffectiveKey);
-
-        List<CloneGroup> clones;
-        try {
-          clones = executorService.submit(new Task(index, fileBlocks)).get(TIMEOUT, TimeUnit.SECONDS);
-        } catch (TimeoutException e) {
-          clones = null;
-          LOG.warn("Timeout during detection of duplications for " + inputFile, e);
-        } catch (InterruptedException e) {
-          throw new SonarException("Fail during detection of duplication for " + inputFile, e);
-        } catch (ExecutionException e) {
-          throw new SonarException("Fail during detection of duplication for " + inputFile, e);
-        }
+  private static class FileResult<T> {
+    private final InputFile inputFile;
+    private final Future<T> result;
 
-        save(context, inputFile, clones);
-      }
-    } finally {
-      executorService.shutdown();
+    FileResult(InputFile inputFile, Future<T> result) {
+      this.inputFile = inputFile;
+      this.result = result;
     }
   }
 
   static class Task implements Callable<List<CloneGroup>> {
-    private final CloneIndex index;
-    private final Collection<Block> fileBlocks;
+    private final SonarDuplicationsIndex index;
+    private final InputFile inputFile;
+    private final DetectionAlgorithm algorithm;
 
-    public Task(CloneIndex index, Collection<Block> fileBlocks) {
+    public Task(SonarDuplicationsIndex index, InputFile inputFile, DetectionAlgorithm algorithm) {
       this.index = index;
-      this.fileBlocks = fileBlocks;
+      this.inputFile = inputFile;
+      this.algorithm = algorithm;
     }
 
     @Override
     public List<CloneGroup> call() {
-      return SuffixTreeCloneDetectionAlgorithm.detect(index, fileBlocks);
+      String resourceEffectiveKey = ((DefaultInputFile) inputFile).key();
+      Collection<Block> fileBlocks = index.getByInputFile(inputFile, resourceEffectiveKey);
+      return algorithm.detect(index, fileBlocks);
     }
   }
 
-  static void save(org.sonar.api.batch.sensor.SensorContext context, InputFile inputFile, @Nullable Iterable<CloneGroup> duplications) {
+  static void save(SensorContext context, InputFile inputFile, @Nullable Iterable<CloneGroup> duplications) {
     if (duplications == null || Iterables.isEmpty(duplications)) {
       return;
     }
@@ -203,7 +315,7 @@ public class JavaCpdEngine extends CpdEngine {
     saveDuplications(context, inputFile, duplications);
   }
 
-  private static void saveMeasures(org.sonar.api.batch.sensor.SensorContext context, InputFile inputFile, int duplicatedLines, int duplicatedBlocks) {
+  private static void saveMeasures(SensorContext context, InputFile inputFile, int duplicatedLines, int duplicatedBlocks) {
     // Save
     ((DefaultMeasure<Integer>) context.<Integer>newMeasure()
       .forMetric(CoreMetrics.DUPLICATED_FILES)
@@ -225,7 +337,7 @@ public class JavaCpdEngine extends CpdEngine {
       .save();
   }
 
-  private static void saveDuplications(org.sonar.api.batch.sensor.SensorContext context, InputFile inputFile, Iterable<CloneGroup> duplications) {
+  private static void saveDuplications(SensorContext context, InputFile inputFile, Iterable<CloneGroup> duplications) {
     int cloneGroupCount = 0;
     for (CloneGroup duplication : duplications) {
       cloneGroupCount++;
@@ -252,7 +364,7 @@ public class JavaCpdEngine extends CpdEngine {
     }
   }
 
-  private static void computeBlockAndLineCount(org.sonar.api.batch.sensor.SensorContext context, InputFile inputFile, Iterable<CloneGroup> duplications) {
+  private static void computeBlockAndLineCount(SensorContext context, InputFile inputFile, Iterable<CloneGroup> duplications) {
     int duplicatedBlocks = 0;
     Set<Integer> duplicatedLines = new HashSet<>();
     for (CloneGroup clone : duplications) {
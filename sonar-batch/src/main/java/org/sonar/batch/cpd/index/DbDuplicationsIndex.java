@@ -21,12 +21,15 @@ package org.sonar.batch.cpd.index;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.api.database.DatabaseSession;
 import org.sonar.api.database.model.Snapshot;
 import org.sonar.api.resources.Project;
 import org.sonar.batch.index.BatchComponentCache;
+import org.sonar.batch.scan.ScanLock;
 import org.sonar.core.duplication.DuplicationDao;
 import org.sonar.core.duplication.DuplicationUnitDto;
 import org.sonar.duplications.block.Block;
@@ -39,12 +42,20 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Blocks of the other projects, stored in database.
+ * <p/>
+ * By default the candidates are loaded for each file, with one query per file. In preload mode, the blocks of all the
+ * projects of the language are streamed once, and only the blocks with a hash of the current project are kept in memory.
+ * The index can then be queried concurrently.
+ */
 public class DbDuplicationsIndex {
 
   private static final String RESOURCE_ID = "resourceId";
   private static final String LAST = "last";
+  private static final int HASH_HEX_LENGTH = 16;
 
-  private final Map<ByteArray, Collection<Block>> cache = Maps.newHashMap();
+  private Map<ByteArray, Collection<Block>> cache = Maps.newHashMap();
 
   private final int currentProjectSnapshotId;
   private final Integer lastSnapshotId;
@@ -52,12 +63,31 @@ public class DbDuplicationsIndex {
   private final DuplicationDao dao;
   private final DatabaseSession session;
   private final BatchComponentCache resourceCache;
+  private final boolean preload;
+  private final ScanLock scanLock;
+
+  /**
+   * Hashes of the blocks of the current project, when preload mode is enabled
+   */
+  private final LongHashSet projectHashes = new LongHashSet();
+  private volatile boolean preloaded = false;
+
+  private int queries = 0;
+  private long loadedUnits = 0;
+  private long queryTime = 0;
 
   public DbDuplicationsIndex(Project currentProject, DuplicationDao dao,
-    String language, DatabaseSession session, BatchComponentCache resourceCache) {
+    String language, DatabaseSession session, BatchComponentCache resourceCache, ScanLock scanLock) {
+    this(currentProject, dao, language, session, resourceCache, scanLock, false);
+  }
+
+  public DbDuplicationsIndex(Project currentProject, DuplicationDao dao,
+    String language, DatabaseSession session, BatchComponentCache resourceCache, ScanLock scanLock, boolean preload) {
     this.dao = dao;
     this.session = session;
     this.resourceCache = resourceCache;
+    this.preload = preload;
+    this.scanLock = scanLock;
     Snapshot lastSnapshot = getLastSnapshot(currentProject.getId());
     this.currentProjectSnapshotId = resourceCache.get(currentProject.getEffectiveKey()).snapshotId();
     this.lastSnapshotId = lastSnapshot == null ? null : lastSnapshot.getId();
@@ -65,6 +95,13 @@ public class DbDuplicationsIndex {
   }
 
   private Snapshot getLastSnapshot(int resourceId) {
+    // the session is shared by the modules scanned concurrently
+    synchronized (scanLock) {
+      return selectLastSnapshot(resourceId);
+    }
+  }
+
+  private Snapshot selectLastSnapshot(int resourceId) {
     String hql = "SELECT s FROM " + Snapshot.class.getSimpleName() + " s WHERE s.last=:last AND s.resourceId=:resourceId";
     Query query = session.createQuery(hql);
     query.setParameter(LAST, true);
@@ -76,34 +113,91 @@ public class DbDuplicationsIndex {
     return resourceCache.get(((DefaultInputFile) inputFile).key()).snapshotId();
   }
 
+  public boolean isPreload() {
+    return preload;
+  }
+
   public void prepareCache(InputFile inputFile) {
+    if (preload) {
+      if (!preloaded) {
+        preload();
+      }
+      return;
+    }
     int resourceSnapshotId = getSnapshotIdFor(inputFile);
+    long start = System.currentTimeMillis();
     List<DuplicationUnitDto> units = dao.selectCandidates(resourceSnapshotId, lastSnapshotId, languageKey);
+    queries++;
+    queryTime += System.currentTimeMillis() - start;
+    loadedUnits += units.size();
     cache.clear();
-    // TODO Godin: maybe remove conversion of units to blocks?
     for (DuplicationUnitDto unit : units) {
-      String hash = unit.getHash();
-      String resourceKey = unit.getResourceKey();
-      int indexInFile = unit.getIndexInFile();
-      int startLine = unit.getStartLine();
-      int endLine = unit.getEndLine();
-
-      // TODO Godin: in fact we could work directly with id instead of key - this will allow to decrease memory consumption
-      Block block = Block.builder()
-        .setResourceId(resourceKey)
-        .setBlockHash(new ByteArray(hash))
-        .setIndexInFile(indexInFile)
-        .setLines(startLine, endLine)
-        .build();
-
-      // Group blocks by hash
-      Collection<Block> sameHash = cache.get(block.getBlockHash());
-      if (sameHash == null) {
-        sameHash = Lists.newArrayList();
-        cache.put(block.getBlockHash(), sameHash);
+      addToCache(unit, cache);
+    }
+  }
+
+  /**
+   * Loads the candidates of all the files, once all the blocks of the project are inserted.
+   */
+  private synchronized void preload() {
+    if (preloaded) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    final Map<ByteArray, Collection<Block>> candidates = Maps.newHashMap();
+    dao.selectCandidatesOfLanguage(lastSnapshotId, languageKey, new ResultHandler() {
+      @Override
+      public void handleResult(ResultContext context) {
+        DuplicationUnitDto unit = (DuplicationUnitDto) context.getResultObject();
+        loadedUnits++;
+        String hash = unit.getHash();
+        // blocks of the project have 8-byte hashes, other hashes can't match
+        if (hash.length() == HASH_HEX_LENGTH && projectHashes.contains(parseHash(hash))) {
+          addToCache(unit, candidates);
+        }
       }
-      sameHash.add(block);
+    });
+    queries++;
+    queryTime += System.currentTimeMillis() - start;
+    cache = candidates;
+    preloaded = true;
+  }
+
+  private static void addToCache(DuplicationUnitDto unit, Map<ByteArray, Collection<Block>> cache) {
+    // TODO Godin: in fact we could work directly with id instead of key - this will allow to decrease memory consumption
+    Block block = Block.builder()
+      .setResourceId(unit.getResourceKey())
+      .setBlockHash(new ByteArray(unit.getHash()))
+      .setIndexInFile(unit.getIndexInFile())
+      .setLines(unit.getStartLine(), unit.getEndLine())
+      .build();
+
+    // Group blocks by hash
+    Collection<Block> sameHash = cache.get(block.getBlockHash());
+    if (sameHash == null) {
+      sameHash = Lists.newArrayList();
+      cache.put(block.getBlockHash(), sameHash);
+    }
+    sameHash.add(block);
+  }
+
+  /**
+   * Parses the hexadecimal representation of an 8-byte hash, as done by {@link ByteArray#ByteArray(String)}
+   */
+  static long parseHash(String hex) {
+    long result = 0;
+    for (int i = 0; i < hex.length(); i++) {
+      result = (result << 4) | Character.digit(hex.charAt(i), 16);
+    }
+    return result;
+  }
+
+  static long toLong(ByteArray hash) {
+    long result = 0;
+    for (byte b : hash.getBytes()) {
+      result = (result << 8) | (b & 0xFF);
     }
+    return result;
   }
 
   public Collection<Block> getByHash(ByteArray hash) {
@@ -129,9 +223,16 @@ public class DbDuplicationsIndex {
         block.getStartLine(),
         block.getEndLine());
       units.add(unit);
+      if (preload) {
+        projectHashes.add(toLong(block.getBlockHash()));
+      }
     }
 
     dao.insert(units);
   }
 
+  public String profilingMessage() {
+    return String.format("Cross-project duplications | preload=%s | queries=%d | loadedUnits=%d | queryTime=%dms", preload, queries, loadedUnits, queryTime);
+  }
+
 }
@@ -30,6 +30,7 @@ import org.sonar.api.database.DatabaseSession;
 import org.sonar.api.resources.Project;
 import org.sonar.batch.bootstrap.DefaultAnalysisMode;
 import org.sonar.batch.index.BatchComponentCache;
+import org.sonar.batch.scan.ScanLock;
 import org.sonar.core.duplication.DuplicationDao;
 
 import javax.annotation.Nullable;
@@ -37,6 +38,13 @@ import javax.annotation.Nullable;
 @BatchSide
 public class IndexFactory {
 
+  /**
+   * Whether the cross-project candidates are loaded with a single query for the whole project, instead of one query
+   * per file. Disabled by default, as all the blocks of the language, whatever the project, are then streamed from
+   * the database. Recommended only for large projects.
+   */
+  public static final String PRELOAD_PROPERTY = "sonar.cpd.cross_project.preload";
+
   private static final Logger LOG = LoggerFactory.getLogger(IndexFactory.class);
 
   private final Settings settings;
@@ -44,25 +52,29 @@ public class IndexFactory {
   private final DefaultAnalysisMode mode;
   private final DatabaseSession session;
   private final BatchComponentCache resourceCache;
+  private final ScanLock scanLock;
 
-  public IndexFactory(DefaultAnalysisMode mode, Settings settings, @Nullable DuplicationDao dao, @Nullable DatabaseSession session, BatchComponentCache resourceCache) {
+  public IndexFactory(DefaultAnalysisMode mode, Settings settings, @Nullable DuplicationDao dao, @Nullable DatabaseSession session, BatchComponentCache resourceCache,
+    @Nullable ScanLock scanLock) {
     this.mode = mode;
     this.settings = settings;
     this.dao = dao;
     this.session = session;
     this.resourceCache = resourceCache;
+    this.scanLock = scanLock;
   }
 
   /**
    * Used by new sensor mode
    */
   public IndexFactory(DefaultAnalysisMode mode, Settings settings, BatchComponentCache resourceCache) {
-    this(mode, settings, null, null, resourceCache);
+    this(mode, settings, null, null, resourceCache, null);
   }
 
   public SonarDuplicationsIndex create(@Nullable Project project, String languageKey) {
-    if (verifyCrossProject(project, LOG) && dao != null && session != null) {
-      return new SonarDuplicationsIndex(new DbDuplicationsIndex(project, dao, languageKey, session, resourceCache));
+    if (verifyCrossProject(project, LOG) && dao != null && session != null && scanLock != null) {
+      boolean preload = settings.getBoolean(PRELOAD_PROPERTY);
+      return new SonarDuplicationsIndex(new DbDuplicationsIndex(project, dao, languageKey, session, resourceCache, scanLock, preload));
     }
     return new SonarDuplicationsIndex();
   }
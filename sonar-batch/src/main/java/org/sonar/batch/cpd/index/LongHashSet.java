@@ -0,0 +1,90 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.cpd.index;
+
+/**
+ * Set of primitive longs, with open addressing and linear probing. It uses about 16 bytes per element, instead of
+ * about 60 bytes for a {@link java.util.HashSet} of {@link Long}.
+ */
+class LongHashSet {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] values;
+  private boolean[] used;
+  private int size;
+  private int shift;
+
+  LongHashSet() {
+    init(MIN_CAPACITY);
+  }
+
+  /**
+   * @return true if the set did not already contain the value
+   */
+  boolean add(long value) {
+    int slot = slot(value);
+    if (used[slot]) {
+      return false;
+    }
+    values[slot] = value;
+    used[slot] = true;
+    size++;
+    if (size * 2 > values.length) {
+      long[] oldValues = values;
+      boolean[] oldUsed = used;
+      init(oldValues.length << 1);
+      for (int i = 0; i < oldValues.length; i++) {
+        if (oldUsed[i]) {
+          int newSlot = slot(oldValues[i]);
+          values[newSlot] = oldValues[i];
+          used[newSlot] = true;
+        }
+      }
+    }
+    return true;
+  }
+
+  boolean contains(long value) {
+    return used[slot(value)];
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the slot of the value, or the free slot where it should be added
+   */
+  private int slot(long value) {
+    int mask = values.length - 1;
+    int slot = (int) ((value * 0x9E3779B97F4A7C15L) >>> shift);
+    while (used[slot] && values[slot] != value) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void init(int capacity) {
+    values = new long[capacity];
+    used = new boolean[capacity];
+    shift = 64 - Integer.numberOfTrailingZeros(capacity);
+  }
+}
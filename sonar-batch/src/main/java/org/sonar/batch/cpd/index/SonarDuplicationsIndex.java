@@ -25,14 +25,16 @@ import org.sonar.duplications.block.Block;
 import org.sonar.duplications.block.ByteArray;
 import org.sonar.duplications.index.AbstractCloneIndex;
 import org.sonar.duplications.index.CloneIndex;
-import org.sonar.duplications.index.PackedMemoryCloneIndex;
+import org.sonar.duplications.index.HashTableCloneIndex;
+
+import javax.annotation.CheckForNull;
 
 import java.util.Collection;
 import java.util.List;
 
 public class SonarDuplicationsIndex extends AbstractCloneIndex {
 
-  private final CloneIndex mem = new PackedMemoryCloneIndex();
+  private final CloneIndex mem = new HashTableCloneIndex();
   private final DbDuplicationsIndex db;
 
   public SonarDuplicationsIndex() {
@@ -52,6 +54,22 @@ public class SonarDuplicationsIndex extends AbstractCloneIndex {
     }
   }
 
+  /**
+   * Unless they are preloaded, the candidates loaded from database by {@link #getByInputFile(InputFile, String)} are
+   * shared by all the lookups, so files can not be processed concurrently.
+   */
+  public boolean supportsConcurrentDetection() {
+    return db == null || db.isPreload();
+  }
+
+  /**
+   * @return statistics of the queries of cross-project candidates, or null if cross-project detection is disabled
+   */
+  @CheckForNull
+  public String crossProjectProfilingMessage() {
+    return db == null ? null : db.profilingMessage();
+  }
+
   public Collection<Block> getByInputFile(InputFile inputFile, String resourceKey) {
     if (db != null) {
       db.prepareCache(inputFile);
@@ -27,6 +27,7 @@ import org.sonar.api.batch.DecoratorContext;
 import org.sonar.api.batch.DependedUpon;
 import org.sonar.api.batch.DependsUpon;
 import org.sonar.api.batch.RequiresDB;
+import org.sonar.api.batch.SequentialDecorator;
 import org.sonar.api.batch.rule.Rule;
 import org.sonar.api.batch.rule.Rules;
 import org.sonar.api.component.ResourcePerspectives;
@@ -63,6 +64,7 @@ import static com.google.common.collect.Maps.newHashMap;
  */
 @DependsUpon(DecoratorBarriers.ISSUES_TRACKED)
 @RequiresDB
+@SequentialDecorator
 public final class DebtDecorator implements Decorator {
 
   private final ResourcePerspectives perspectives;
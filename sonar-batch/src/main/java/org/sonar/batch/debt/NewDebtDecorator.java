@@ -27,6 +27,7 @@ import org.sonar.api.batch.DecoratorContext;
 import org.sonar.api.batch.DependedUpon;
 import org.sonar.api.batch.DependsUpon;
 import org.sonar.api.batch.RequiresDB;
+import org.sonar.api.batch.SequentialDecorator;
 import org.sonar.api.component.ResourcePerspectives;
 import org.sonar.api.issue.Issuable;
 import org.sonar.api.issue.Issue;
@@ -52,6 +53,7 @@ import static com.google.common.collect.Lists.newArrayList;
  */
 @RequiresDB
 @DependsUpon(DecoratorBarriers.ISSUES_TRACKED)
+@SequentialDecorator
 public final class NewDebtDecorator implements Decorator {
 
   private final ResourcePerspectives perspectives;
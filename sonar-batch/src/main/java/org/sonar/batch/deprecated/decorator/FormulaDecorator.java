@@ -35,6 +35,7 @@ import java.util.Set;
  * A pre-implementation of a decorator using a simple calculation formula
  * @since 1.11
  */
+@SequentialDecorator
 public final class FormulaDecorator implements Decorator {
 
   private Metric metric;
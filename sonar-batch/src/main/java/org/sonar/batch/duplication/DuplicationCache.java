@@ -21,6 +21,7 @@ package org.sonar.batch.duplication;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.batch.sensor.duplication.internal.DefaultDuplication;
 import org.sonar.batch.index.Cache;
@@ -49,11 +50,12 @@ public class DuplicationCache {
     });
   }
 
-  public Iterable<DefaultDuplication> byComponent(String effectiveKey) {
-    return cache.values(effectiveKey);
+  public synchronized Iterable<DefaultDuplication> byComponent(String effectiveKey) {
+    // loaded eagerly, as the cache can be modified concurrently by other modules
+    return Lists.newArrayList(cache.values(effectiveKey));
   }
 
-  public DuplicationCache put(String effectiveKey, DefaultDuplication duplication) {
+  public synchronized DuplicationCache put(String effectiveKey, DefaultDuplication duplication) {
     cache.put(effectiveKey, sequence, duplication);
     sequence++;
     return this;
@@ -37,9 +37,9 @@ public class EventBus {
   }
 
   /**
-   * Fires the given event.
+   * Fires the given event. Events can be fired from several threads, handlers are notified of one event at a time.
    */
-  public void fireEvent(BatchEvent event) {
+  public synchronized void fireEvent(BatchEvent event) {
     doFireEvent(event);
   }
 
@@ -21,6 +21,7 @@ package org.sonar.batch.index;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import java.util.Collection;
 import java.util.Map;
@@ -32,6 +33,9 @@ import org.sonar.api.batch.fs.internal.DefaultInputDir;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.api.resources.Resource;
 
+/**
+ * Components of the project. Components can be added and read concurrently, as decorators are executed on several threads.
+ */
 @BatchSide
 public class BatchComponentCache {
   // components by key
@@ -40,22 +44,22 @@ public class BatchComponentCache {
   private BatchComponent root;
 
   @CheckForNull
-  public BatchComponent get(String componentKey) {
+  public synchronized BatchComponent get(String componentKey) {
     return components.get(componentKey);
   }
 
-  public BatchComponent get(Resource resource) {
+  public synchronized BatchComponent get(Resource resource) {
     return components.get(resource.getEffectiveKey());
   }
 
-  public BatchComponent get(InputPath inputPath) {
+  public synchronized BatchComponent get(InputPath inputPath) {
     if (inputPath instanceof DefaultInputFile) {
       return components.get(((DefaultInputFile) inputPath).key());
     }
     return components.get(((DefaultInputDir) inputPath).key());
   }
 
-  public BatchComponent add(Resource resource, @Nullable Resource parentResource) {
+  public synchronized BatchComponent add(Resource resource, @Nullable Resource parentResource) {
     String componentKey = resource.getEffectiveKey();
     Preconditions.checkState(!Strings.isNullOrEmpty(componentKey), "Missing resource effective key");
     BatchComponent parent = parentResource != null ? get(parentResource.getEffectiveKey()) : null;
@@ -68,11 +72,14 @@ public class BatchComponentCache {
     return batchResource;
   }
 
-  public Collection<BatchComponent> all() {
-    return components.values();
+  /**
+   * Copy of the components, as components can be added concurrently by the modules
+   */
+  public synchronized Collection<BatchComponent> all() {
+    return Lists.newArrayList(components.values());
   }
 
-  public BatchComponent getRoot() {
+  public synchronized BatchComponent getRoot() {
     return root;
   }
 }
@@ -351,6 +351,50 @@ public class Cache<V> {
   // LAZY ITERATORS AND ITERABLES
   //
 
+  /**
+   * Lazy-loading iterable whose creation of iterators and iterations are synchronized on the given lock. It allows
+   * to iterate a cache that is concurrently updated by owners synchronizing on the same lock.
+   */
+  public static <T> Iterable<T> synchronizedIterable(final Object lock, final Iterable<T> iterable) {
+    return new Iterable<T>() {
+      @Override
+      public Iterator<T> iterator() {
+        synchronized (lock) {
+          return new SynchronizedIterator<>(lock, iterable.iterator());
+        }
+      }
+    };
+  }
+
+  private static class SynchronizedIterator<T> implements Iterator<T> {
+    private final Object lock;
+    private final Iterator<T> iterator;
+
+    private SynchronizedIterator(Object lock, Iterator<T> iterator) {
+      this.lock = lock;
+      this.iterator = iterator;
+    }
+
+    @Override
+    public boolean hasNext() {
+      synchronized (lock) {
+        return iterator.hasNext();
+      }
+    }
+
+    @Override
+    public T next() {
+      synchronized (lock) {
+        return iterator.next();
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Removing an item is not supported");
+    }
+  }
+
   private static class ValueIterable<T> implements Iterable<T> {
     private final Exchange originExchange;
     private final Object[] keys;
@@ -19,8 +19,10 @@
  */
 package org.sonar.batch.index;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
+import com.persistit.BufferPool;
 import com.persistit.Exchange;
 import com.persistit.Persistit;
 import com.persistit.Value;
@@ -30,34 +32,73 @@ import com.persistit.encoding.ValueCoder;
 import com.persistit.exception.PersistitException;
 import com.persistit.logging.Slf4jAdapter;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 import org.picocontainer.Startable;
 import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.utils.TempFolder;
+import org.sonar.batch.bootstrap.BootstrapProperties;
+
+import javax.annotation.Nullable;
 
 import java.io.File;
 import java.util.Properties;
 import java.util.Set;
 
 /**
- * Factory of caches
+ * Factory of caches.
+ * <p/>
+ * The size of the Persistit buffer pool is defined in MB by the property {@link #MEMORY_PROPERTY}, or as a ratio of the
+ * maximum heap size by the property {@link #HEAP_RATIO_PROPERTY}, for example 0.1. The buffers are allocated eagerly,
+ * so by default the pool keeps its minimal size of {@link #MIN_BUFFERS} pages. Pages that do not fit in the pool are evicted
+ * to the temporary directory.
  *
  * @since 3.6
  */
 @BatchSide
 public class Caches implements Startable {
 
+  public static final String MEMORY_PROPERTY = "sonar.batch.cache.memory";
+  public static final String HEAP_RATIO_PROPERTY = "sonar.batch.cache.heapRatio";
+  static final int PAGE_SIZE = 8192;
+  static final int MIN_BUFFERS = 10;
+
   private final Set<String> cacheNames = Sets.newHashSet();
   private File tempDir;
   private Persistit persistit;
   private Volume volume;
   private final TempFolder tempFolder;
+  private final int bufferCount;
+
+  public Caches(TempFolder tempFolder, BootstrapProperties bootstrapProps) {
+    this(tempFolder, bootstrapProps, Runtime.getRuntime().maxMemory());
+  }
 
-  public Caches(TempFolder tempFolder) {
+  @VisibleForTesting
+  Caches(TempFolder tempFolder, BootstrapProperties bootstrapProps, long maxHeap) {
     this.tempFolder = tempFolder;
+    this.bufferCount = bufferCount(bootstrapProps.property(MEMORY_PROPERTY), bootstrapProps.property(HEAP_RATIO_PROPERTY), maxHeap);
     initPersistit();
   }
 
+  static int bufferCount(@Nullable String memoryInMb, @Nullable String heapRatio, long maxHeap) {
+    long bytes = 0L;
+    if (StringUtils.isNotBlank(memoryInMb)) {
+      try {
+        bytes = Long.parseLong(memoryInMb.trim()) * 1024L * 1024L;
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException(String.format("The property '%s' must be a number of MB: %s", MEMORY_PROPERTY, memoryInMb), e);
+      }
+    } else if (StringUtils.isNotBlank(heapRatio)) {
+      try {
+        bytes = (long) (maxHeap * Double.parseDouble(heapRatio.trim()));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException(String.format("The property '%s' must be a ratio of the maximum heap size: %s", HEAP_RATIO_PROPERTY, heapRatio), e);
+      }
+    }
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_BUFFERS, bytes / PAGE_SIZE));
+  }
+
   private void initPersistit() {
     try {
       tempDir = tempFolder.newDir("caches");
@@ -67,7 +108,7 @@ public class Caches implements Startable {
       props.setProperty("datapath", tempDir.getAbsolutePath());
       props.setProperty("logpath", "${datapath}/log");
       props.setProperty("logfile", "${logpath}/persistit_${timestamp}.log");
-      props.setProperty("buffer.count.8192", "10");
+      props.setProperty("buffer.count." + PAGE_SIZE, String.valueOf(bufferCount));
       props.setProperty("journalpath", "${datapath}/journal");
       props.setProperty("tmpvoldir", "${datapath}");
       props.setProperty("volume.1", "${datapath}/persistit,create,pageSize:8192,initialPages:10,extensionPages:100,maximumPages:25000");
@@ -120,6 +161,21 @@ public class Caches implements Startable {
     cacheNames.clear();
   }
 
+  int bufferCount() {
+    return bufferCount;
+  }
+
+  /**
+   * Usage of the buffer pool since startup: pages found in memory (hits), pages read from disk (misses) and pages
+   * written to disk to free buffers (evictions).
+   */
+  public String profilingMessage() {
+    Preconditions.checkState(persistit != null, "Caches are not initialized");
+    BufferPool pool = persistit.getBufferPool(PAGE_SIZE);
+    return String.format("Caches | buffers=%d | bufferMemory=%dMB | hits=%d | misses=%d | evictions=%d | hitRatio=%.2f",
+      bufferCount, (long) bufferCount * PAGE_SIZE / 1024 / 1024, pool.getHitCount(), pool.getMissCount(), pool.getEvictCount(), pool.getHitRatio());
+  }
+
   File tempDir() {
     return tempDir;
   }
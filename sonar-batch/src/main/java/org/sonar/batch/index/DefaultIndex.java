@@ -21,6 +21,7 @@ package org.sonar.batch.index;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
@@ -58,11 +59,13 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * Resources and measures can be read and added concurrently, as decorators are executed on several threads.
+ */
 public class DefaultIndex extends SonarIndex {
 
   private static final Logger LOG = LoggerFactory.getLogger(DefaultIndex.class);
@@ -94,11 +97,17 @@ public class DefaultIndex extends SonarIndex {
   private final BatchComponentCache resourceCache;
   private final MetricFinder metricFinder;
   private final MeasureCache measureCache;
-  // caches
   private Project currentProject;
+  private ModuleIssues moduleIssues;
+  // when modules are scanned concurrently, the current module is bound to each thread, see bindCurrentProject(Project)
+  private ThreadLocal<Project> threadProjects;
+  private final Map<Project, ModuleIssues> moduleIssuesByProject = Maps.newConcurrentMap();
+  // caches
+  // projects, modules and libraries
   private Map<Resource, Bucket> buckets = Maps.newLinkedHashMap();
+  // other resources, by module. Their keys are relative to the module, so they are not shared by the modules scanned concurrently.
+  private Map<Project, Map<Resource, Bucket>> bucketsByModule = Maps.newHashMap();
   private DefaultProjectTree projectTree;
-  private ModuleIssues moduleIssues;
 
   public DefaultIndex(BatchComponentCache resourceCache, DefaultProjectTree projectTree, MetricFinder metricFinder, MeasureCache measureCache) {
     this.resourceCache = resourceCache;
@@ -126,7 +135,20 @@ public class DefaultIndex extends SonarIndex {
   }
 
   private void addBucket(Resource resource, Bucket bucket) {
-    buckets.put(resource, bucket);
+    bucketsOf(resource).put(resource, bucket);
+  }
+
+  private Map<Resource, Bucket> bucketsOf(Resource resource) {
+    if (ResourceUtils.isSet(resource)) {
+      return buckets;
+    }
+    Project module = getProject();
+    Map<Resource, Bucket> result = bucketsByModule.get(module);
+    if (result == null) {
+      result = Maps.newLinkedHashMap();
+      bucketsByModule.put(module, result);
+    }
+    return result;
   }
 
   private void addModule(Project parent, Project module) {
@@ -143,41 +165,83 @@ public class DefaultIndex extends SonarIndex {
 
   @Override
   public Project getProject() {
+    if (threadProjects != null) {
+      Project project = threadProjects.get();
+      if (project != null) {
+        return project;
+      }
+    }
     return currentProject;
   }
 
+  private ModuleIssues getModuleIssues() {
+    if (threadProjects != null) {
+      Project project = threadProjects.get();
+      if (project != null) {
+        return moduleIssuesByProject.get(project);
+      }
+    }
+    return moduleIssues;
+  }
+
+  /**
+   * Must be called before the scan of modules when they are scanned concurrently. The current module is then bound to
+   * the thread that scans it, see {@link #setCurrentProject(Project, ModuleIssues)} and {@link #bindCurrentProject(Project)}.
+   */
+  public void enableConcurrentModules() {
+    threadProjects = new ThreadLocal<>();
+  }
+
   public void setCurrentProject(Project project, ModuleIssues moduleIssues) {
-    this.currentProject = project;
+    if (threadProjects != null) {
+      moduleIssuesByProject.put(project, moduleIssues);
+      threadProjects.set(project);
+    } else {
+      this.currentProject = project;
 
-    // the following components depend on the current module, so they need to be reloaded.
-    this.moduleIssues = moduleIssues;
+      // the following components depend on the current module, so they need to be reloaded.
+      this.moduleIssues = moduleIssues;
+    }
   }
 
   /**
-   * Keep only project stuff
+   * Binds the current thread to a module, which must have been set by {@link #setCurrentProject(Project, ModuleIssues)}.
+   * Tasks executed on other threads during the scan of a module, for example sensors and decorators, call it with
+   * the module and with null once done. It does nothing when modules are scanned one at a time.
    */
-  public void clear() {
-    Iterator<Map.Entry<Resource, Bucket>> it = buckets.entrySet().iterator();
-    while (it.hasNext()) {
-      Map.Entry<Resource, Bucket> entry = it.next();
-      Resource resource = entry.getKey();
-      if (!ResourceUtils.isSet(resource)) {
-        entry.getValue().clear();
-        it.remove();
+  public void bindCurrentProject(@Nullable Project module) {
+    if (threadProjects != null) {
+      if (module == null) {
+        threadProjects.remove();
+      } else {
+        threadProjects.set(module);
       }
+    }
+  }
 
+  /**
+   * Keep only project stuff. Resources of the other modules, which may be still being scanned, are kept.
+   */
+  public synchronized void clear() {
+    Project module = getProject();
+    moduleIssuesByProject.remove(module);
+    Map<Resource, Bucket> moduleBuckets = bucketsByModule.remove(module);
+    if (moduleBuckets != null) {
+      for (Bucket bucket : moduleBuckets.values()) {
+        bucket.clear();
+      }
     }
   }
 
   @CheckForNull
   @Override
-  public Measure getMeasure(Resource resource, org.sonar.api.batch.measure.Metric<?> metric) {
+  public synchronized Measure getMeasure(Resource resource, org.sonar.api.batch.measure.Metric<?> metric) {
     return getMeasures(resource, MeasuresFilters.metric(metric));
   }
 
   @CheckForNull
   @Override
-  public <M> M getMeasures(Resource resource, MeasuresFilter<M> filter) {
+  public synchronized <M> M getMeasures(Resource resource, MeasuresFilter<M> filter) {
     // Reload resource so that effective key is populated
     Resource indexedResource = getResource(resource);
     if (indexedResource == null) {
@@ -200,7 +264,7 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public Measure addMeasure(Resource resource, Measure measure) {
+  public synchronized Measure addMeasure(Resource resource, Measure measure) {
     Bucket bucket = getBucket(resource);
     if (bucket != null) {
       if (DEPRECATED_METRICS_KEYS.contains(measure.getMetricKey())) {
@@ -229,8 +293,12 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public Set<Resource> getResources() {
-    return buckets.keySet();
+  public synchronized Set<Resource> getResources() {
+    Set<Resource> resources = Sets.newLinkedHashSet(buckets.keySet());
+    for (Map<Resource, Bucket> moduleBuckets : bucketsByModule.values()) {
+      resources.addAll(moduleBuckets.keySet());
+    }
+    return resources;
   }
 
   //
@@ -242,10 +310,10 @@ public class DefaultIndex extends SonarIndex {
   //
 
   @Override
-  public void addViolation(Violation violation, boolean force) {
+  public synchronized void addViolation(Violation violation, boolean force) {
     Resource resource = violation.getResource();
     if (resource == null) {
-      violation.setResource(currentProject);
+      violation.setResource(getProject());
     } else if (!Scopes.isHigherThanOrEquals(resource, Scopes.FILE)) {
       throw new IllegalArgumentException("Violations are only supported on files, directories and project");
     }
@@ -268,7 +336,7 @@ public class DefaultIndex extends SonarIndex {
     violation.setSeverity(null);
 
     violation.setResource(bucket.getResource());
-    moduleIssues.initAndAddViolation(violation);
+    getModuleIssues().initAndAddViolation(violation);
   }
 
   @Override
@@ -276,7 +344,7 @@ public class DefaultIndex extends SonarIndex {
     Resource resource = getResource(reference);
     if (resource instanceof File) {
       File file = (File) resource;
-      Project module = currentProject;
+      Project module = getProject();
       ProjectDefinition def = projectTree.getProjectDefinition(module);
       try {
         return FileUtils.readFileToString(new java.io.File(def.getBaseDir(), file.getPath()));
@@ -291,14 +359,14 @@ public class DefaultIndex extends SonarIndex {
    * Does nothing if the resource is already registered.
    */
   @Override
-  public Resource addResource(Resource resource) {
+  public synchronized Resource addResource(Resource resource) {
     Bucket bucket = doIndex(resource);
     return bucket != null ? bucket.getResource() : null;
   }
 
   @Override
   @CheckForNull
-  public <R extends Resource> R getResource(@Nullable R reference) {
+  public synchronized <R extends Resource> R getResource(@Nullable R reference) {
     Bucket bucket = getBucket(reference);
     if (bucket != null) {
       return (R) bucket.getResource();
@@ -307,7 +375,7 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public List<Resource> getChildren(Resource resource) {
+  public synchronized List<Resource> getChildren(Resource resource) {
     List<Resource> children = Lists.newLinkedList();
     Bucket bucket = getBucket(resource);
     if (bucket != null) {
@@ -319,7 +387,7 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public Resource getParent(Resource resource) {
+  public synchronized Resource getParent(Resource resource) {
     Bucket bucket = getBucket(resource);
     if (bucket != null && bucket.getParent() != null) {
       return bucket.getParent().getResource();
@@ -328,7 +396,7 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public boolean index(Resource resource) {
+  public synchronized boolean index(Resource resource) {
     Bucket bucket = doIndex(resource);
     return bucket != null;
   }
@@ -341,7 +409,7 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public boolean index(Resource resource, Resource parentReference) {
+  public synchronized boolean index(Resource resource, Resource parentReference) {
     Bucket bucket = doIndex(resource, parentReference);
     return bucket != null;
   }
@@ -360,7 +428,7 @@ public class DefaultIndex extends SonarIndex {
     Resource parent = null;
     if (!ResourceUtils.isLibrary(resource)) {
       // a library has no parent
-      parent = (Resource) ObjectUtils.defaultIfNull(parentReference, currentProject);
+      parent = (Resource) ObjectUtils.defaultIfNull(parentReference, getProject());
     }
 
     Bucket parentBucket = getBucket(parent);
@@ -372,7 +440,7 @@ public class DefaultIndex extends SonarIndex {
     if (ResourceUtils.isProject(resource) || /* For technical projects */ResourceUtils.isRootProject(resource)) {
       resource.setEffectiveKey(resource.getKey());
     } else {
-      resource.setEffectiveKey(ComponentKeys.createEffectiveKey(currentProject, resource));
+      resource.setEffectiveKey(ComponentKeys.createEffectiveKey(getProject(), resource));
     }
     bucket = new Bucket(resource).setParent(parentBucket);
     addBucket(resource, bucket);
@@ -389,7 +457,7 @@ public class DefaultIndex extends SonarIndex {
   }
 
   @Override
-  public boolean isIndexed(@Nullable Resource reference, boolean acceptExcluded) {
+  public synchronized boolean isIndexed(@Nullable Resource reference, boolean acceptExcluded) {
     return getBucket(reference) != null;
   }
 
@@ -398,7 +466,7 @@ public class DefaultIndex extends SonarIndex {
       return null;
     }
     if (StringUtils.isNotBlank(reference.getKey())) {
-      return buckets.get(reference);
+      return bucketsOf(reference).get(reference);
     }
     String relativePathFromSourceDir = null;
     boolean isTest = false;
@@ -19,6 +19,7 @@
  */
 package org.sonar.batch.issue;
 
+import com.google.common.collect.Lists;
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.issue.internal.DefaultIssue;
 import org.sonar.batch.index.Cache;
@@ -27,7 +28,7 @@ import org.sonar.batch.index.Caches;
 import java.util.Collection;
 
 /**
- * Shared issues among all project modules
+ * Shared issues among all project modules. It can be used concurrently, as decorators are executed on several threads.
  */
 @BatchSide
 public class IssueCache {
@@ -39,24 +40,26 @@ public class IssueCache {
     cache = caches.createCache("issues");
   }
 
-  public Iterable<DefaultIssue> byComponent(String componentKey) {
-    return cache.values(componentKey);
+  public synchronized Iterable<DefaultIssue> byComponent(String componentKey) {
+    // issues are loaded before the lock is released
+    return Lists.newArrayList(cache.values(componentKey));
   }
 
   public Iterable<DefaultIssue> all() {
-    return cache.values();
+    // lazy-loaded, so the iteration itself is synchronized
+    return Cache.synchronizedIterable(this, cache.values());
   }
 
-  public Collection<Object> componentKeys() {
+  public synchronized Collection<Object> componentKeys() {
     return cache.keySet();
   }
 
-  public IssueCache put(DefaultIssue issue) {
+  public synchronized IssueCache put(DefaultIssue issue) {
     cache.put(issue.componentKey(), issue.key(), issue);
     return this;
   }
 
-  public void clear(String componentKey) {
+  public synchronized void clear(String componentKey) {
     cache.clear(componentKey);
   }
 }
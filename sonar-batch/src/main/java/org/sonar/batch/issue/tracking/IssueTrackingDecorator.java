@@ -31,6 +31,7 @@ import org.sonar.api.batch.DecoratorContext;
 import org.sonar.api.batch.DependedUpon;
 import org.sonar.api.batch.DependsUpon;
 import org.sonar.api.batch.RequiresDB;
+import org.sonar.api.batch.SequentialDecorator;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.api.component.ResourcePerspectives;
@@ -60,6 +61,7 @@ import java.util.Collection;
 @DependsUpon(DecoratorBarriers.ISSUES_ADDED)
 @DependedUpon(DecoratorBarriers.ISSUES_TRACKED)
 @RequiresDB
+@SequentialDecorator
 public class IssueTrackingDecorator implements Decorator {
 
   private static final Logger LOG = LoggerFactory.getLogger(IssueTrackingDecorator.class);
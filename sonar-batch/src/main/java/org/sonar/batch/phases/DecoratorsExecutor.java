@@ -20,43 +20,73 @@
 package org.sonar.batch.phases;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.batch.AnalysisMode;
 import org.sonar.api.batch.Decorator;
 import org.sonar.api.batch.DecoratorContext;
-import org.sonar.api.batch.SonarIndex;
+import org.sonar.api.batch.SequentialDecorator;
+import org.sonar.api.config.Settings;
 import org.sonar.api.measures.MetricFinder;
 import org.sonar.api.resources.Project;
 import org.sonar.api.resources.Resource;
+import org.sonar.api.utils.AnnotationUtils;
 import org.sonar.api.utils.MessageException;
 import org.sonar.api.utils.SonarException;
 import org.sonar.batch.bootstrap.BatchExtensionDictionnary;
 import org.sonar.batch.deprecated.decorator.DecoratorsSelector;
 import org.sonar.batch.deprecated.decorator.DefaultDecoratorContext;
 import org.sonar.batch.events.EventBus;
+import org.sonar.batch.index.DefaultIndex;
+import org.sonar.batch.scan.ScanLock;
 import org.sonar.batch.scan.measure.MeasureCache;
 import org.sonar.batch.sensor.coverage.CoverageExclusions;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
 
 @BatchSide
 public class DecoratorsExecutor {
 
+  /**
+   * Number of threads used to decorate resources. By default decorators are executed by a single thread, as
+   * decorators of plugins are not required to be thread-safe. It must be set only if all the decorators that are not
+   * annotated with {@link SequentialDecorator} are thread-safe. Zero or a negative value means the number of available
+   * processors.
+   */
+  public static final String THREADS_PROPERTY = "sonar.decorators.threads";
+
   private final DecoratorsSelector decoratorsSelector;
-  private final SonarIndex index;
+  private final DefaultIndex index;
   private final EventBus eventBus;
   private final Project project;
   private final CoverageExclusions coverageFilter;
   private final MeasureCache measureCache;
   private final MetricFinder metricFinder;
   private final AnalysisMode analysisMode;
+  private final Settings settings;
+  private final ScanLock scanLock;
+
+  /**
+   * Decorators that are executed under the {@link ScanLock}, which is shared by the modules scanned concurrently. All
+   * the decorators are executed under the lock, unless they are executed concurrently. Then only the decorators
+   * annotated with {@link SequentialDecorator} are.
+   */
+  private Set<Decorator> sequentialDecorators = Collections.emptySet();
+  private boolean concurrent = false;
 
-  public DecoratorsExecutor(BatchExtensionDictionnary batchExtDictionnary, Project project, SonarIndex index, EventBus eventBus, CoverageExclusions coverageFilter,
-    MeasureCache measureCache, MetricFinder metricFinder, AnalysisMode analysisMode) {
+  public DecoratorsExecutor(BatchExtensionDictionnary batchExtDictionnary, Project project, DefaultIndex index, EventBus eventBus, CoverageExclusions coverageFilter,
+    MeasureCache measureCache, MetricFinder metricFinder, AnalysisMode analysisMode, Settings settings, ScanLock scanLock) {
     this.measureCache = measureCache;
     this.metricFinder = metricFinder;
     this.analysisMode = analysisMode;
+    this.settings = settings;
+    this.scanLock = scanLock;
     this.decoratorsSelector = new DecoratorsSelector(batchExtDictionnary);
     this.index = index;
     this.eventBus = eventBus;
@@ -70,11 +100,46 @@ public class DecoratorsExecutor {
       return;
     }
     Collection<Decorator> decorators = decoratorsSelector.select(project);
+    sequentialDecorators = sequentialDecorators(decorators);
     eventBus.fireEvent(new DecoratorsPhaseEvent(Lists.newArrayList(decorators), true));
-    ((DefaultDecoratorContext) decorateResource(project, decorators, true)).end();
+    int threads = threads();
+    concurrent = threads > 1;
+    if (threads > 1) {
+      ForkJoinPool pool = new ForkJoinPool(threads, new DecoratorThreadFactory(), null, false);
+      try {
+        pool.invoke(new DecorateTask(project, decorators, true)).end();
+      } finally {
+        pool.shutdownNow();
+        // the current thread may have executed tasks of other modules while waiting
+        index.bindCurrentProject(project);
+      }
+    } else {
+      ((DefaultDecoratorContext) decorateResource(project, decorators, true)).end();
+    }
     eventBus.fireEvent(new DecoratorsPhaseEvent(Lists.newArrayList(decorators), false));
   }
 
+  private int threads() {
+    if (!settings.hasKey(THREADS_PROPERTY)) {
+      return 1;
+    }
+    int threads = settings.getInt(THREADS_PROPERTY);
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    return threads;
+  }
+
+  private static Set<Decorator> sequentialDecorators(Collection<Decorator> decorators) {
+    Set<Decorator> result = Sets.newIdentityHashSet();
+    for (Decorator decorator : decorators) {
+      if (AnnotationUtils.getAnnotation(decorator, SequentialDecorator.class) != null) {
+        result.add(decorator);
+      }
+    }
+    return result;
+  }
+
   DecoratorContext decorateResource(Resource resource, Collection<Decorator> decorators, boolean executeDecorators) {
     List<DecoratorContext> childrenContexts = Lists.newArrayList();
     for (Resource child : index.getChildren(resource)) {
@@ -82,7 +147,10 @@ public class DecoratorsExecutor {
       DefaultDecoratorContext childContext = (DefaultDecoratorContext) decorateResource(child, decorators, !isModule);
       childrenContexts.add(childContext.end());
     }
+    return decorate(resource, childrenContexts, decorators, executeDecorators);
+  }
 
+  private DefaultDecoratorContext decorate(Resource resource, List<DecoratorContext> childrenContexts, Collection<Decorator> decorators, boolean executeDecorators) {
     DefaultDecoratorContext context = new DefaultDecoratorContext(resource, index, childrenContexts, measureCache, metricFinder, coverageFilter);
     context.init();
     if (executeDecorators) {
@@ -94,6 +162,16 @@ public class DecoratorsExecutor {
   }
 
   void executeDecorator(Decorator decorator, DefaultDecoratorContext context, Resource resource) {
+    if (!concurrent || sequentialDecorators.contains(decorator)) {
+      synchronized (scanLock) {
+        doExecuteDecorator(decorator, context, resource);
+      }
+    } else {
+      doExecuteDecorator(decorator, context, resource);
+    }
+  }
+
+  private void doExecuteDecorator(Decorator decorator, DefaultDecoratorContext context, Resource resource) {
     try {
       eventBus.fireEvent(new DecoratorExecutionEvent(decorator, true));
       decorator.decorate(resource, context);
@@ -108,4 +186,48 @@ public class DecoratorsExecutor {
     }
   }
 
+  /**
+   * Decorates the children of a resource concurrently, then the resource itself. Subtrees do not
+   * depend on each other, only a resource needs the contexts of its children.
+   */
+  private class DecorateTask extends RecursiveTask<DefaultDecoratorContext> {
+    private final Resource resource;
+    private final Collection<Decorator> decorators;
+    private final boolean executeDecorators;
+
+    DecorateTask(Resource resource, Collection<Decorator> decorators, boolean executeDecorators) {
+      this.resource = resource;
+      this.decorators = decorators;
+      this.executeDecorators = executeDecorators;
+    }
+
+    @Override
+    protected DefaultDecoratorContext compute() {
+      // threads of the pool are dedicated to the current module
+      index.bindCurrentProject(project);
+      List<DecorateTask> children = Lists.newArrayList();
+      for (Resource child : index.getChildren(resource)) {
+        boolean isModule = child instanceof Project;
+        children.add(new DecorateTask(child, decorators, !isModule));
+      }
+      invokeAll(children);
+
+      // contexts of children are ended in the same order as in sequential execution
+      List<DecoratorContext> childrenContexts = Lists.newArrayList();
+      for (DecorateTask child : children) {
+        childrenContexts.add(child.join().end());
+      }
+      return decorate(resource, childrenContexts, decorators, executeDecorators);
+    }
+  }
+
+  private static class DecoratorThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+    @Override
+    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("decorator-" + thread.getPoolIndex());
+      return thread;
+    }
+  }
+
 }
@@ -29,6 +29,7 @@ import org.sonar.batch.issue.ignore.scanner.IssueExclusionsLoader;
 import org.sonar.batch.issue.tracking.LocalIssueTracking;
 import org.sonar.batch.report.ReportPublisher;
 import org.sonar.batch.rule.QProfileVerifier;
+import org.sonar.batch.scan.ScanLock;
 import org.sonar.batch.scan.filesystem.DefaultModuleFileSystem;
 import org.sonar.batch.scan.filesystem.FileSystemLogger;
 import org.sonar.batch.scan.report.IssuesReports;
@@ -52,13 +53,14 @@ public final class PhaseExecutor {
   private final IssuesReports issuesReport;
   private final DefaultAnalysisMode analysisMode;
   private final LocalIssueTracking localIssueTracking;
+  private final ScanLock scanLock;
 
   public PhaseExecutor(DecoratorsExecutor decoratorsExecutor,
     InitializersExecutor initializersExecutor, PostJobsExecutor postJobsExecutor, SensorsExecutor sensorsExecutor,
     SensorContext sensorContext, DefaultIndex index,
     EventBus eventBus, ReportPublisher reportPublisher, ProjectInitializer pi,
     PersistersExecutor persistersExecutor, FileSystemLogger fsLogger, IssuesReports jsonReport, DefaultModuleFileSystem fs, QProfileVerifier profileVerifier,
-    IssueExclusionsLoader issueExclusionsLoader, DefaultAnalysisMode analysisMode, LocalIssueTracking localIssueTracking) {
+    IssueExclusionsLoader issueExclusionsLoader, DefaultAnalysisMode analysisMode, LocalIssueTracking localIssueTracking, ScanLock scanLock) {
     this.decoratorsExecutor = decoratorsExecutor;
     this.postJobsExecutor = postJobsExecutor;
     this.initializersExecutor = initializersExecutor;
@@ -76,26 +78,30 @@ public final class PhaseExecutor {
     this.issueExclusionsLoader = issueExclusionsLoader;
     this.analysisMode = analysisMode;
     this.localIssueTracking = localIssueTracking;
+    this.scanLock = scanLock;
   }
 
   /**
    * Executed on each module
    */
   public void execute(Project module) {
-    pi.execute(module);
+    // modules can be scanned concurrently, but components are indexed and persisted one module at a time
+    synchronized (scanLock) {
+      pi.execute(module);
 
-    eventBus.fireEvent(new ProjectAnalysisEvent(module, true));
+      eventBus.fireEvent(new ProjectAnalysisEvent(module, true));
 
-    executeInitializersPhase();
+      executeInitializersPhase();
 
-    // Index and lock the filesystem
-    indexFs();
+      // Index and lock the filesystem
+      indexFs();
 
-    // Log detected languages and their profiles after FS is indexed and languages detected
-    profileVerifier.execute();
+      // Log detected languages and their profiles after FS is indexed and languages detected
+      profileVerifier.execute();
 
-    // Initialize issue exclusions
-    initIssueExclusions();
+      // Initialize issue exclusions
+      initIssueExclusions();
+    }
 
     sensorsExecutor.execute(sensorContext);
 
@@ -23,6 +23,7 @@ import com.google.common.collect.Lists;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.SystemUtils;
 import org.sonar.api.batch.Decorator;
+import org.sonar.api.batch.Sensor;
 import org.sonar.api.batch.events.DecoratorExecutionHandler;
 import org.sonar.api.batch.events.DecoratorsPhaseHandler;
 import org.sonar.api.batch.events.SensorExecutionHandler;
@@ -30,31 +31,43 @@ import org.sonar.api.batch.events.SensorsPhaseHandler;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.api.utils.log.Profiler;
+import org.sonar.batch.index.Caches;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class PhasesTimeProfiler implements SensorExecutionHandler, DecoratorExecutionHandler, DecoratorsPhaseHandler, SensorsPhaseHandler {
 
   private static final Logger LOG = Loggers.get(PhasesTimeProfiler.class);
 
-  private Profiler profiler = Profiler.create(LOG);
+  private SensorsProfiler sensorsProfiler = new SensorsProfiler();
   private DecoratorsProfiler decoratorsProfiler = new DecoratorsProfiler();
+  private final Caches caches;
+
+  public PhasesTimeProfiler(Caches caches) {
+    this.caches = caches;
+  }
 
   @Override
   public void onSensorsPhase(SensorsPhaseEvent event) {
     if (event.isStart()) {
       LOG.debug("Sensors : {}", StringUtils.join(event.getSensors(), " -> "));
+    } else {
+      logCaches();
     }
   }
 
   @Override
   public void onSensorExecution(SensorExecutionEvent event) {
     if (event.isStart()) {
-      profiler.startInfo("Sensor " + event.getSensor());
+      sensorsProfiler.start(event.getSensor());
     } else {
-      profiler.stopInfo();
+      sensorsProfiler.stop();
     }
   }
 
@@ -76,24 +89,66 @@ public class PhasesTimeProfiler implements SensorExecutionHandler, DecoratorExec
       }
     } else {
       decoratorsProfiler.log();
+      logCaches();
+    }
+  }
+
+  private void logCaches() {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(caches.profilingMessage());
+    }
+  }
+
+  /**
+   * Logs the wall-clock and CPU times of each sensor. Sensors can be executed on several threads.
+   */
+  static class SensorsProfiler {
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final Map<Thread, Profiler> profilers = new HashMap<>();
+    private final Map<Thread, Long> startCpuTimes = new HashMap<>();
+
+    void start(Sensor sensor) {
+      Profiler profiler = Profiler.create(LOG);
+      profilers.put(Thread.currentThread(), profiler);
+      startCpuTimes.put(Thread.currentThread(), cpuTime());
+      profiler.startInfo("Sensor " + sensor);
+    }
+
+    void stop() {
+      Profiler profiler = profilers.remove(Thread.currentThread());
+      long startCpuTime = startCpuTimes.remove(Thread.currentThread());
+      if (startCpuTime >= 0L) {
+        profiler.addContext("cpu", TimeUnit.NANOSECONDS.toMillis(cpuTime() - startCpuTime) + "ms");
+      }
+      profiler.stopInfo();
+    }
+
+    /**
+     * @return the CPU time of the current thread in nanoseconds, or -1 if it is not supported by the JVM
+     */
+    private long cpuTime() {
+      return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : -1L;
     }
   }
 
   static class DecoratorsProfiler {
     List<Decorator> decorators = Lists.newArrayList();
     Map<Decorator, Long> durations = new IdentityHashMap<>();
-    long startTime;
-    Decorator currentDecorator;
+    // decorators are executed on several threads
+    Map<Thread, Long> startTimes = new HashMap<>();
+    Map<Thread, Decorator> currentDecorators = new HashMap<>();
 
     DecoratorsProfiler() {
     }
 
     void start(Decorator decorator) {
-      this.startTime = System.currentTimeMillis();
-      this.currentDecorator = decorator;
+      startTimes.put(Thread.currentThread(), System.currentTimeMillis());
+      currentDecorators.put(Thread.currentThread(), decorator);
     }
 
     void stop() {
+      long startTime = startTimes.remove(Thread.currentThread());
+      Decorator currentDecorator = currentDecorators.remove(Thread.currentThread());
       final Long cumulatedDuration;
       if (durations.containsKey(currentDecorator)) {
         cumulatedDuration = durations.get(currentDecorator);
@@ -19,43 +19,180 @@
  */
 package org.sonar.batch.phases;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.batch.Sensor;
 import org.sonar.api.batch.SensorContext;
+import org.sonar.api.config.Settings;
 import org.sonar.api.resources.Project;
 import org.sonar.batch.bootstrap.BatchExtensionDictionnary;
 import org.sonar.batch.events.EventBus;
+import org.sonar.batch.index.DefaultIndex;
+import org.sonar.batch.scan.ScanLock;
+import org.sonar.batch.sensor.SensorWrapper;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @BatchSide
 public class SensorsExecutor {
 
+  /**
+   * Number of threads used to execute the sensors declared as thread-safe. By default it is the number of available processors.
+   */
+  public static final String THREADS_PROPERTY = "sonar.sensors.threads";
+
   private EventBus eventBus;
   private Project module;
   private BatchExtensionDictionnary selector;
+  private Settings settings;
+  private DefaultIndex index;
+  private ScanLock scanLock;
 
-  public SensorsExecutor(BatchExtensionDictionnary selector, Project project, EventBus eventBus) {
+  public SensorsExecutor(BatchExtensionDictionnary selector, Project project, EventBus eventBus, Settings settings, DefaultIndex index, ScanLock scanLock) {
     this.selector = selector;
     this.eventBus = eventBus;
     this.module = project;
+    this.settings = settings;
+    this.index = index;
+    this.scanLock = scanLock;
   }
 
   public void execute(SensorContext context) {
     Collection<Sensor> sensors = selector.select(Sensor.class, module, true, null);
     eventBus.fireEvent(new SensorsPhaseEvent(Lists.newArrayList(sensors), true));
 
-    for (Sensor sensor : sensors) {
-      executeSensor(context, sensor);
+    int threads = threads();
+    if (threads > 1 && hasThreadSafeSensor(sensors)) {
+      executeConcurrently(context, sensors, threads);
+    } else {
+      for (Sensor sensor : sensors) {
+        executeSensor(context, sensor);
+      }
     }
 
     eventBus.fireEvent(new SensorsPhaseEvent(Lists.newArrayList(sensors), false));
   }
 
+  /**
+   * Thread-safe sensors are executed on a pool as soon as the sensors they depend upon are done. The other sensors
+   * are executed on the current thread, once all the previous sensors are done.
+   */
+  private void executeConcurrently(SensorContext context, Collection<Sensor> sensors, int threads) {
+    Map<Sensor, Set<Sensor>> dependencies = selector.dependencies(sensors);
+    Map<Sensor, Future<Void>> executions = Maps.newIdentityHashMap();
+    ExecutorService executorService = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+      .setNameFormat("sensor-%d")
+      .setDaemon(true)
+      .build());
+    try {
+      // Sensors are submitted in topological order, so a task only waits for tasks submitted before it.
+      // As the queue of the pool is FIFO, the oldest pending task is always running and the pool can not be exhausted
+      // by waiting tasks.
+      for (Sensor sensor : sensors) {
+        if (isThreadSafe(sensor)) {
+          List<Future<Void>> required = Lists.newArrayList();
+          for (Sensor dependency : dependencies.get(sensor)) {
+            Future<Void> execution = executions.get(dependency);
+            // sensors that are not thread-safe are already done
+            if (execution != null) {
+              required.add(execution);
+            }
+          }
+          executions.put(sensor, executorService.submit(new SensorTask(context, sensor, required)));
+        } else {
+          waitFor(executions.values());
+          executeSensor(context, sensor);
+        }
+      }
+      waitFor(executions.values());
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
   private void executeSensor(SensorContext context, Sensor sensor) {
+    if (isThreadSafe(sensor)) {
+      doExecuteSensor(context, sensor);
+    } else {
+      // sensors of other modules can be executed concurrently, see ProjectScanContainer
+      synchronized (scanLock) {
+        doExecuteSensor(context, sensor);
+      }
+    }
+  }
+
+  private void doExecuteSensor(SensorContext context, Sensor sensor) {
     eventBus.fireEvent(new SensorExecutionEvent(sensor, true));
     sensor.analyse(module, context);
     eventBus.fireEvent(new SensorExecutionEvent(sensor, false));
   }
+
+  private int threads() {
+    int threads = settings.getInt(THREADS_PROPERTY);
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    return threads;
+  }
+
+  private static boolean hasThreadSafeSensor(Collection<Sensor> sensors) {
+    for (Sensor sensor : sensors) {
+      if (isThreadSafe(sensor)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isThreadSafe(Sensor sensor) {
+    return sensor instanceof SensorWrapper && ((SensorWrapper) sensor).isThreadSafe();
+  }
+
+  private static void waitFor(Collection<Future<Void>> futures) {
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted during the execution of sensors", e);
+      }
+    }
+  }
+
+  private class SensorTask implements Callable<Void> {
+    private final SensorContext context;
+    private final Sensor sensor;
+    private final List<Future<Void>> dependencies;
+
+    SensorTask(SensorContext context, Sensor sensor, List<Future<Void>> dependencies) {
+      this.context = context;
+      this.sensor = sensor;
+      this.dependencies = dependencies;
+    }
+
+    @Override
+    public Void call() {
+      index.bindCurrentProject(module);
+      try {
+        waitFor(dependencies);
+        executeSensor(context, sensor);
+        return null;
+      } finally {
+        index.bindCurrentProject(null);
+      }
+    }
+  }
 }
@@ -259,18 +259,21 @@ public class PhasesSumUpTimeProfiler implements ProjectAnalysisHandler, SensorEx
   class DecoratorsProfiler {
     private List<Decorator> decorators = Lists.newArrayList();
     private Map<Decorator, Long> durations = new IdentityHashMap<>();
-    private long startTime;
-    private Decorator currentDecorator;
+    // decorators are executed on several threads
+    private Map<Thread, Long> startTimes = new HashMap<>();
+    private Map<Thread, Decorator> currentDecorators = new HashMap<>();
 
     DecoratorsProfiler() {
     }
 
     void start(Decorator decorator) {
-      this.startTime = system.now();
-      this.currentDecorator = decorator;
+      startTimes.put(Thread.currentThread(), system.now());
+      currentDecorators.put(Thread.currentThread(), decorator);
     }
 
     void stop() {
+      long startTime = startTimes.remove(Thread.currentThread());
+      Decorator currentDecorator = currentDecorators.remove(Thread.currentThread());
       final Long cumulatedDuration;
       if (durations.containsKey(currentDecorator)) {
         cumulatedDuration = durations.get(currentDecorator);
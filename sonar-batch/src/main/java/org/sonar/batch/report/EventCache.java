@@ -58,14 +58,14 @@ public class EventCache {
     addEvent(componentBatchId, eventBuilder.build());
   }
 
-  private void addEvent(int componentBatchId, Event e) {
+  private synchronized void addEvent(int componentBatchId, Event e) {
     if (!eventsByComponentBatchId.containsKey(componentBatchId)) {
       eventsByComponentBatchId.put(componentBatchId, new ArrayList<Event>());
     }
     eventsByComponentBatchId.get(componentBatchId).add(e);
   }
 
-  public List<Event> getEvents(int componentBatchId) {
+  public synchronized List<Event> getEvents(int componentBatchId) {
     if (eventsByComponentBatchId.containsKey(componentBatchId)) {
       return eventsByComponentBatchId.get(componentBatchId);
     }
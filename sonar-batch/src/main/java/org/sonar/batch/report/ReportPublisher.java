@@ -21,7 +21,10 @@ package org.sonar.batch.report;
 
 import com.github.kevinsawicki.http.HttpRequest;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.picocontainer.Startable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,29 +33,44 @@ import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.bootstrap.ProjectReactor;
 import org.sonar.api.config.Settings;
 import org.sonar.api.platform.Server;
-import org.sonar.api.utils.TempFolder;
 import org.sonar.api.utils.ZipUtils;
 import org.sonar.batch.bootstrap.DefaultAnalysisMode;
 import org.sonar.batch.bootstrap.ServerClient;
 import org.sonar.batch.protocol.output.BatchReportWriter;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @BatchSide
 public class ReportPublisher implements Startable {
 
   private static final Logger LOG = LoggerFactory.getLogger(ReportPublisher.class);
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int PIPE_SIZE = 64 * 1024;
   public static final String KEEP_REPORT_PROP_KEY = "sonar.batch.keepReport";
+  /**
+   * Write the report in the segmented layout, see {@link org.sonar.batch.protocol.output.FileStructure}
+   */
+  public static final String SEGMENTED_REPORT_PROP_KEY = "sonar.batch.segmentedReport";
 
   private final ServerClient serverClient;
   private final Server server;
   private final Settings settings;
   private final ProjectReactor projectReactor;
   private final DefaultAnalysisMode analysisMode;
-  private final TempFolder temp;
 
   private ReportPublisherStep[] publishers;
 
@@ -60,20 +78,19 @@ public class ReportPublisher implements Startable {
   private BatchReportWriter writer;
 
   public ReportPublisher(Settings settings, ServerClient serverClient, Server server,
-    ProjectReactor projectReactor, DefaultAnalysisMode analysisMode, TempFolder temp, ReportPublisherStep[] publishers) {
+    ProjectReactor projectReactor, DefaultAnalysisMode analysisMode, ReportPublisherStep[] publishers) {
     this.serverClient = serverClient;
     this.server = server;
     this.projectReactor = projectReactor;
     this.settings = settings;
     this.analysisMode = analysisMode;
-    this.temp = temp;
     this.publishers = publishers;
   }
 
   @Override
   public void start() {
     reportDir = new File(projectReactor.getRoot().getWorkDir(), "batch-report");
-    writer = new BatchReportWriter(reportDir);
+    writer = new BatchReportWriter(reportDir, settings.getBoolean(SEGMENTED_REPORT_PROP_KEY));
   }
 
   @Override
@@ -96,36 +113,30 @@ public class ReportPublisher implements Startable {
   public void execute() {
     // If this is a preview analysis then we should not upload reports
     if (!analysisMode.isPreview()) {
-      File report = prepareReport();
+      prepareReport();
       if (!analysisMode.isMediumTest()) {
-        uploadMultiPartReport(report);
+        uploadMultiPartReport();
       }
     }
     logSuccess(LoggerFactory.getLogger(getClass()));
   }
 
-  private File prepareReport() {
-    try {
-      long startTime = System.currentTimeMillis();
-      for (ReportPublisherStep publisher : publishers) {
-        publisher.publish(writer);
-      }
-      long stopTime = System.currentTimeMillis();
-      LOG.info("Analysis reports generated in " + (stopTime - startTime) + "ms, dir size=" + FileUtils.byteCountToDisplaySize(FileUtils.sizeOfDirectory(reportDir)));
-
-      startTime = System.currentTimeMillis();
-      File reportZip = temp.newFile("batch-report", ".zip");
-      ZipUtils.zipDir(reportDir, reportZip);
-      stopTime = System.currentTimeMillis();
-      LOG.info("Analysis reports compressed in " + (stopTime - startTime) + "ms, zip size=" + FileUtils.byteCountToDisplaySize(FileUtils.sizeOf(reportZip)));
-      return reportZip;
-    } catch (IOException e) {
-      throw new IllegalStateException("Unable to prepare batch report", e);
+  private void prepareReport() {
+    long startTime = System.currentTimeMillis();
+    for (ReportPublisherStep publisher : publishers) {
+      publisher.publish(writer);
     }
+    writer.close();
+    long stopTime = System.currentTimeMillis();
+    LOG.info("Analysis reports generated in " + (stopTime - startTime) + "ms, dir size=" + FileUtils.byteCountToDisplaySize(FileUtils.sizeOfDirectory(reportDir)));
   }
 
+  /**
+   * The report is compressed on another thread while it is being sent with chunked transfer encoding. So the zip
+   * file is never written to disk, and the upload starts as soon as the first entries are compressed.
+   */
   @VisibleForTesting
-  void uploadMultiPartReport(File report) {
+  void uploadMultiPartReport() {
     LOG.debug("Publish results");
     long startTime = System.currentTimeMillis();
     URL url;
@@ -140,7 +151,8 @@ public class ReportPublisher implements Startable {
     request.trustAllHosts();
     request.header("User-Agent", String.format("SonarQube %s", server.getVersion()));
     request.basic(serverClient.getLogin(), serverClient.getPassword());
-    request.part("report", null, "application/octet-stream", report);
+    request.chunk(CHUNK_SIZE);
+    long zipSize = sendCompressedReport(request);
     if (!request.ok()) {
       int responseCode = request.code();
       if (responseCode == 401) {
@@ -152,8 +164,104 @@ public class ReportPublisher implements Startable {
       }
       throw new IllegalStateException(String.format("Fail to execute request [code=%s, url=%s]: %s", responseCode, url, request.body()));
     }
-    long stopTime = System.currentTimeMillis();
-    LOG.info("Analysis reports sent to server in " + (stopTime - startTime) + "ms");
+    long duration = Math.max(1L, System.currentTimeMillis() - startTime);
+    LOG.info("Analysis reports sent to server in " + duration + "ms, throughput=" + FileUtils.byteCountToDisplaySize(zipSize * 1000L / duration) + "/s");
+  }
+
+  /**
+   * @return the size of the compressed report
+   */
+  private long sendCompressedReport(HttpRequest request) {
+    ExecutorService executorService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+      .setNameFormat("report-zip-%d")
+      .setDaemon(true)
+      .build());
+    PipedInputStream compressed = new PipedInputStream(PIPE_SIZE);
+    try {
+      Future<Long> compression = executorService.submit(new CompressionTask(reportDir, new PipedOutputStream(compressed)));
+      request.part("report", null, "application/octet-stream", new CompressedReportStream(compressed, compression));
+      return compression.get();
+    } catch (IOException | ExecutionException e) {
+      throw new IllegalStateException("Unable to compress batch report", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted during compression of batch report", e);
+    } finally {
+      // unblocks the compression if the upload failed
+      IOUtils.closeQuietly(compressed);
+      executorService.shutdownNow();
+    }
+  }
+
+  /**
+   * Compresses the report directory into a pipe. The pipe is closed when done, even on failure.
+   */
+  private static class CompressionTask implements Callable<Long> {
+    private final File dir;
+    private final OutputStream pipe;
+
+    CompressionTask(File dir, OutputStream pipe) {
+      this.dir = dir;
+      this.pipe = pipe;
+    }
+
+    @Override
+    public Long call() throws IOException {
+      long startTime = System.currentTimeMillis();
+      CountingOutputStream counting = new CountingOutputStream(pipe);
+      try {
+        OutputStream out = new BufferedOutputStream(counting, PIPE_SIZE);
+        ZipUtils.zipDir(dir, out);
+        out.flush();
+      } finally {
+        IOUtils.closeQuietly(counting);
+      }
+      long stopTime = System.currentTimeMillis();
+      LOG.info("Analysis reports compressed in " + (stopTime - startTime) + "ms, zip size=" + FileUtils.byteCountToDisplaySize(counting.getByteCount()));
+      return counting.getByteCount();
+    }
+  }
+
+  /**
+   * Reads the compressed report from the pipe. As the pipe is closed even if compression fails, the end of
+   * stream is reported only if compression succeeded, so that a truncated report is never submitted.
+   */
+  private static class CompressedReportStream extends FilterInputStream {
+    private final Future<Long> compression;
+
+    CompressedReportStream(InputStream pipe, Future<Long> compression) {
+      super(pipe);
+      this.compression = compression;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int result = super.read();
+      if (result == -1) {
+        checkCompression();
+      }
+      return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int result = super.read(b, off, len);
+      if (result == -1) {
+        checkCompression();
+      }
+      return result;
+    }
+
+    private void checkCompression() throws IOException {
+      try {
+        compression.get();
+      } catch (ExecutionException e) {
+        throw new IOException("Fail to compress batch report", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted during compression of batch report", e);
+      }
+    }
   }
 
   @VisibleForTesting
@@ -25,6 +25,7 @@ import org.sonar.api.batch.Decorator;
 import org.sonar.api.batch.DecoratorContext;
 import org.sonar.api.batch.DependsUpon;
 import org.sonar.api.batch.RequiresDB;
+import org.sonar.api.batch.SequentialDecorator;
 import org.sonar.api.batch.TimeMachine;
 import org.sonar.api.batch.TimeMachineQuery;
 import org.sonar.api.measures.CoreMetrics;
@@ -47,6 +48,7 @@ import java.util.List;
 import java.util.Map;
 
 @RequiresDB
+@SequentialDecorator
 public class QProfileEventsDecorator implements Decorator {
 
   private final TimeMachine timeMachine;
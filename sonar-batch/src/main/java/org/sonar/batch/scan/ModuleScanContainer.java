@@ -204,15 +204,37 @@ public class ModuleScanContainer extends ComponentContainer {
     });
   }
 
+  /**
+   * Modules can be scanned concurrently, so the components are created, started and stopped under the {@link ScanLock}.
+   * Phases are executed outside the lock.
+   */
+  @Override
+  public void execute() {
+    ScanLock lock = getComponentByType(ScanLock.class);
+    boolean threw = true;
+    try {
+      synchronized (lock) {
+        startComponents();
+      }
+      getComponentByType(PhaseExecutor.class).execute(module);
+
+      // Free memory since module settings are no more used
+      module.setSettings(null);
+      threw = false;
+    } finally {
+      synchronized (lock) {
+        stopComponents(threw);
+      }
+    }
+  }
+
   @Override
   protected void doAfterStart() {
     DefaultIndex index = getComponentByType(DefaultIndex.class);
     index.setCurrentProject(module, getComponentByType(ModuleIssues.class));
 
-    getComponentByType(PhaseExecutor.class).execute(module);
-
-    // Free memory since module settings are no more used
-    module.setSettings(null);
+    // components of the phases are instantiated under the lock, as some of them load data from the database
+    getComponentByType(PhaseExecutor.class);
   }
 
 }
@@ -20,6 +20,9 @@
 package org.sonar.batch.scan;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.InstantiationStrategy;
 import org.sonar.api.batch.bootstrap.ProjectBootstrapper;
@@ -86,8 +89,27 @@ import org.sonar.core.resource.DefaultResourcePermissions;
 import org.sonar.core.technicaldebt.DefaultTechnicalDebtModel;
 import org.sonar.core.user.DefaultUserFinder;
 
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
 public class ProjectScanContainer extends ComponentContainer {
 
+  private static final Logger LOG = LoggerFactory.getLogger(ProjectScanContainer.class);
+
+  /**
+   * Number of threads used to scan sibling modules concurrently. By default modules are scanned one at a time.
+   * <p/>
+   * Most of the scan of a module is serialized by the {@link ScanLock}: the start of its components, its initialization,
+   * the indexing of its files, the sensors that are not thread-safe and, unless {@link org.sonar.batch.phases.DecoratorsExecutor#THREADS_PROPERTY}
+   * is set, the decorators. Only the execution of the sensors declared thread-safe by their
+   * {@link org.sonar.api.batch.sensor.SensorDescriptor} and of the concurrent decorators overlaps between modules. The speedup is then bounded by the share of
+   * these sensors in the scan. It is noticeable on projects with many modules of similar size, and is negligible when
+   * the scan is dominated by sensors of the old API.
+   */
+  public static final String MODULE_THREADS_PROPERTY = "sonar.modules.threads";
+
   private final DefaultAnalysisMode analysisMode;
   private final Object[] components;
   private final AnalysisProperties props;
@@ -148,6 +170,7 @@ public class ProjectScanContainer extends ComponentContainer {
       CodeColorizers.class,
       MetricProvider.class,
       ProjectConfigurator.class,
+      ScanLock.class,
       DefaultIndex.class,
       DefaultFileLinesContextFactory.class,
       Caches.class,
@@ -239,12 +262,34 @@ public class ProjectScanContainer extends ComponentContainer {
   @Override
   protected void doAfterStart() {
     DefaultProjectTree tree = getComponentByType(DefaultProjectTree.class);
-    scanRecursively(tree.getRootProject());
+    int threads = moduleThreads();
+    if (threads > 1) {
+      getComponentByType(DefaultIndex.class).enableConcurrentModules();
+      ForkJoinPool pool = new ForkJoinPool(threads, new ModuleThreadFactory(), null, false);
+      try {
+        pool.invoke(new ScanTask(tree.getRootProject()));
+      } finally {
+        pool.shutdownNow();
+      }
+    } else {
+      scanRecursively(tree.getRootProject());
+    }
     if (analysisMode.isMediumTest()) {
       getComponentByType(ScanTaskObservers.class).notifyEndOfScanTask();
     }
   }
 
+  private int moduleThreads() {
+    Settings settings = getComponentByType(Settings.class);
+    int threads = settings.getInt(MODULE_THREADS_PROPERTY);
+    if (threads > 1 && settings.getBoolean(CoreProperties.PROFILING_LOG_PROPERTY)) {
+      // profiling of phases is done module by module
+      LOG.warn("Modules are scanned one at a time when profiling is enabled");
+      return 1;
+    }
+    return threads;
+  }
+
   private void scanRecursively(Project module) {
     for (Project subModules : module.getModules()) {
       scanRecursively(subModules);
@@ -254,7 +299,42 @@ public class ProjectScanContainer extends ComponentContainer {
 
   @VisibleForTesting
   void scan(Project module) {
-    new ModuleScanContainer(this, module).execute();
+    ModuleScanContainer moduleContainer;
+    // registration of child containers is not thread-safe
+    synchronized (getComponentByType(ScanLock.class)) {
+      moduleContainer = new ModuleScanContainer(this, module);
+    }
+    moduleContainer.execute();
+  }
+
+  /**
+   * Scans the sub-modules concurrently, then the module itself.
+   */
+  private class ScanTask extends RecursiveAction {
+    private final Project module;
+
+    ScanTask(Project module) {
+      this.module = module;
+    }
+
+    @Override
+    protected void compute() {
+      List<ScanTask> subTasks = Lists.newArrayList();
+      for (Project subModule : module.getModules()) {
+        subTasks.add(new ScanTask(subModule));
+      }
+      invokeAll(subTasks);
+      scan(module);
+    }
+  }
+
+  private static class ModuleThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+    @Override
+    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("module-" + thread.getPoolIndex());
+      return thread;
+    }
   }
 
   static class BatchExtensionFilter implements ExtensionMatcher {
@@ -0,0 +1,39 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.scan;
+
+import org.sonar.api.batch.BatchSide;
+
+/**
+ * Lock shared by the modules of a project that are scanned concurrently, see {@link ProjectScanContainer#MODULE_THREADS_PROPERTY}.
+ * It is a component of the project container, so that distinct scans executed in the same JVM do not share it.
+ * The database session of the batch is not thread-safe, nor are most of the extensions of plugins, so this lock is held by:
+ * <ul>
+ *   <li>the creation, the start and the stop of the components of a module</li>
+ *   <li>the initialization of a module, including the indexing and the persistence of its components</li>
+ *   <li>the sensors that are not thread-safe</li>
+ *   <li>the decorators, unless they are executed concurrently and are not annotated with {@link org.sonar.api.batch.SequentialDecorator}</li>
+ *   <li>the thread-safe components that use the database session</li>
+ * </ul>
+ * Components synchronize on the instance itself.
+ */
+@BatchSide
+public class ScanLock {
+}
@@ -46,7 +46,7 @@ public class InputPathCache {
   private final Map<String, SortedMap<String, InputFile>> inputFileCache = new LinkedHashMap<>();
   private final Map<String, SortedMap<String, InputDir>> inputDirCache = new LinkedHashMap<>();
 
-  public Iterable<InputFile> allFiles() {
+  public synchronized Iterable<InputFile> allFiles() {
     return Iterables.concat(Iterables.transform(inputFileCache.values(), new Function<Map<String, InputFile>, Collection<InputFile>>() {
       @Override
       public Collection<InputFile> apply(Map<String, InputFile> input) {
@@ -55,7 +55,7 @@ public class InputPathCache {
     }));
   }
 
-  public Iterable<InputDir> allDirs() {
+  public synchronized Iterable<InputDir> allDirs() {
     return Iterables.concat(Iterables.transform(inputDirCache.values(), new Function<Map<String, InputDir>, Collection<InputDir>>() {
       @Override
       public Collection<InputDir> apply(Map<String, InputDir> input) {
@@ -64,41 +64,41 @@ public class InputPathCache {
     }));
   }
 
-  public Iterable<InputFile> filesByModule(String moduleKey) {
+  public synchronized Iterable<InputFile> filesByModule(String moduleKey) {
     if (inputFileCache.containsKey(moduleKey)) {
       return inputFileCache.get(moduleKey).values();
     }
     return Collections.emptyList();
   }
 
-  public Iterable<InputDir> dirsByModule(String moduleKey) {
+  public synchronized Iterable<InputDir> dirsByModule(String moduleKey) {
     if (inputDirCache.containsKey(moduleKey)) {
       return inputDirCache.get(moduleKey).values();
     }
     return Collections.emptyList();
   }
 
-  public InputPathCache removeModule(String moduleKey) {
+  public synchronized InputPathCache removeModule(String moduleKey) {
     inputFileCache.remove(moduleKey);
     inputDirCache.remove(moduleKey);
     return this;
   }
 
-  public InputPathCache remove(String moduleKey, InputFile inputFile) {
+  public synchronized InputPathCache remove(String moduleKey, InputFile inputFile) {
     if (inputFileCache.containsKey(moduleKey)) {
       inputFileCache.get(moduleKey).remove(inputFile.relativePath());
     }
     return this;
   }
 
-  public InputPathCache remove(String moduleKey, InputDir inputDir) {
+  public synchronized InputPathCache remove(String moduleKey, InputDir inputDir) {
     if (inputDirCache.containsKey(moduleKey)) {
       inputDirCache.get(moduleKey).remove(inputDir.relativePath());
     }
     return this;
   }
 
-  public InputPathCache put(String moduleKey, InputFile inputFile) {
+  public synchronized InputPathCache put(String moduleKey, InputFile inputFile) {
     if (!inputFileCache.containsKey(moduleKey)) {
       inputFileCache.put(moduleKey, new TreeMap<String, InputFile>());
     }
@@ -106,7 +106,7 @@ public class InputPathCache {
     return this;
   }
 
-  public InputPathCache put(String moduleKey, InputDir inputDir) {
+  public synchronized InputPathCache put(String moduleKey, InputDir inputDir) {
     if (!inputDirCache.containsKey(moduleKey)) {
       inputDirCache.put(moduleKey, new TreeMap<String, InputDir>());
     }
@@ -115,7 +115,7 @@ public class InputPathCache {
   }
 
   @CheckForNull
-  public InputFile getFile(String moduleKey, String relativePath) {
+  public synchronized InputFile getFile(String moduleKey, String relativePath) {
     if (inputFileCache.containsKey(moduleKey)) {
       return inputFileCache.get(moduleKey).get(relativePath);
     }
@@ -123,7 +123,7 @@ public class InputPathCache {
   }
 
   @CheckForNull
-  public InputDir getDir(String moduleKey, String relativePath) {
+  public synchronized InputDir getDir(String moduleKey, String relativePath) {
     if (inputDirCache.containsKey(moduleKey)) {
       return inputDirCache.get(moduleKey).get(relativePath);
     }
@@ -131,7 +131,7 @@ public class InputPathCache {
   }
 
   @CheckForNull
-  public InputPath getInputPath(BatchComponent component) {
+  public synchronized InputPath getInputPath(BatchComponent component) {
     if (component.isFile()) {
       return getFile(component.parent().parent().resource().getEffectiveKey(), component.resource().getPath());
     } else if (component.isDir()) {
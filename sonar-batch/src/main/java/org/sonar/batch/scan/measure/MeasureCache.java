@@ -20,6 +20,7 @@
 package org.sonar.batch.scan.measure;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.batch.measure.MetricFinder;
 import org.sonar.api.measures.Measure;
@@ -33,6 +34,7 @@ import org.sonar.batch.index.Caches;
 
 /**
  * Cache of all measures. This cache is shared amongst all project modules.
+ * It can be used concurrently, as decorators are executed on several threads.
  */
 @BatchSide
 public class MeasureCache {
@@ -50,33 +52,35 @@ public class MeasureCache {
   }
 
   public Iterable<Entry<Measure>> entries() {
-    return cache.entries();
+    // lazy-loaded, so the iteration itself is synchronized
+    return Cache.synchronizedIterable(this, cache.entries());
   }
 
   public Iterable<Measure> all() {
-    return cache.values();
+    return Cache.synchronizedIterable(this, cache.values());
   }
 
-  public Iterable<Measure> byResource(Resource r) {
-    return cache.values(r.getEffectiveKey());
+  public synchronized Iterable<Measure> byResource(Resource r) {
+    // values are loaded before the lock is released
+    return Lists.newArrayList(cache.values(r.getEffectiveKey()));
   }
 
   public Iterable<Measure> byMetric(Resource r, String metricKey) {
     return byMetric(r.getEffectiveKey(), metricKey);
   }
 
-  public Iterable<Measure> byMetric(String resourceKey, String metricKey) {
-    return cache.values(resourceKey, metricKey);
+  public synchronized Iterable<Measure> byMetric(String resourceKey, String metricKey) {
+    return Lists.newArrayList(cache.values(resourceKey, metricKey));
   }
 
-  public MeasureCache put(Resource resource, Measure measure) {
+  public synchronized MeasureCache put(Resource resource, Measure measure) {
     Preconditions.checkNotNull(resource.getEffectiveKey());
     Preconditions.checkNotNull(measure.getMetricKey());
     cache.put(resource.getEffectiveKey(), measure.getMetricKey(), computeMeasureKey(measure), measure);
     return this;
   }
 
-  public boolean contains(Resource resource, Measure measure) {
+  public synchronized boolean contains(Resource resource, Measure measure) {
     Preconditions.checkNotNull(resource.getEffectiveKey());
     Preconditions.checkNotNull(measure.getMetricKey());
     return cache.containsKey(resource.getEffectiveKey(), measure.getMetricKey(), computeMeasureKey(measure));
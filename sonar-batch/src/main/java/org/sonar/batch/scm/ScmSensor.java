@@ -63,7 +63,8 @@ public final class ScmSensor implements Sensor {
   @Override
   public void describe(SensorDescriptor descriptor) {
     descriptor.name("SCM Sensor")
-      .disabledInPreview();
+      .disabledInPreview()
+      .threadSafe();
   }
 
   @Override
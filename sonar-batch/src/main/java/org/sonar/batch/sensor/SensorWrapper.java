@@ -21,11 +21,15 @@ package org.sonar.batch.sensor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.DependedUpon;
+import org.sonar.api.batch.DependsUpon;
 import org.sonar.api.batch.sensor.Sensor;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.internal.DefaultSensorDescriptor;
 import org.sonar.api.resources.Project;
 
+import java.util.Collection;
+
 public class SensorWrapper implements org.sonar.api.batch.Sensor {
 
   private static final Logger LOG = LoggerFactory.getLogger(SensorWrapper.class);
@@ -47,6 +51,23 @@ public class SensorWrapper implements org.sonar.api.batch.Sensor {
     return wrappedSensor;
   }
 
+  @DependsUpon
+  public Collection<String> dependsUpon() {
+    return descriptor.dependsOn();
+  }
+
+  @DependedUpon
+  public Collection<String> dependedUpon() {
+    return descriptor.provides();
+  }
+
+  /**
+   * @see org.sonar.api.batch.sensor.SensorDescriptor#threadSafe()
+   */
+  public boolean isThreadSafe() {
+    return descriptor.isThreadSafe();
+  }
+
   @Override
   public boolean shouldExecuteOnProject(Project project) {
     return optimizer.shouldExecute(descriptor);
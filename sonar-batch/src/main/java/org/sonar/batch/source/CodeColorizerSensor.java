@@ -26,7 +26,8 @@ import org.sonar.api.batch.sensor.Sensor;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.SensorDescriptor;
 import org.sonar.batch.index.BatchComponentCache;
-import org.sonar.batch.protocol.output.BatchReportReader;
+import org.sonar.batch.protocol.output.BatchReportWriter;
+import org.sonar.batch.protocol.output.FileStructure;
 import org.sonar.batch.report.ReportPublisher;
 import org.sonar.colorizer.CodeColorizer;
 
@@ -49,17 +50,19 @@ public final class CodeColorizerSensor implements Sensor {
   @Override
   public void describe(SensorDescriptor descriptor) {
     descriptor.name("Code Colorizer Sensor")
-      .disabledInPreview();
+      .disabledInPreview()
+      .threadSafe();
   }
 
   @Override
   public void execute(final SensorContext context) {
     FileSystem fs = context.fileSystem();
+    // the writer knows the highlighting already stored, whatever the layout of report
+    BatchReportWriter writer = reportPublisher.getWriter();
     for (InputFile f : fs.inputFiles(fs.predicates().all())) {
-      BatchReportReader reader = new BatchReportReader(reportPublisher.getReportDir());
       int batchId = resourceCache.get(f).batchId();
       String language = f.language();
-      if (reader.hasSyntaxHighlighting(batchId) || language == null) {
+      if (writer.hasComponentData(FileStructure.Domain.SYNTAX_HIGHLIGHTINGS, batchId) || language == null) {
         continue;
       }
       codeColorizers.toSyntaxHighlighting(f.file(), fs.encoding(), language, context.newHighlighting().onFile(f));
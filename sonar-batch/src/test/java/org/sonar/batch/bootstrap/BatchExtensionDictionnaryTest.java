@@ -41,6 +41,8 @@ import org.sonar.core.platform.ComponentContainer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.hasItem;
@@ -303,6 +305,38 @@ public class BatchExtensionDictionnaryTest {
     assertThat(extensions.get(2)).isEqualTo(post);
   }
 
+  @Test
+  public void doNotRepeatTransitiveDependencies() {
+    BatchExtension a = new MethodDependentOf(null);
+    BatchExtension b = new MethodDependentOf(a);
+    BatchExtension c = new MethodDependentOf(b);
+    BatchExtension d = new MethodDependentOf(null);
+
+    BatchExtensionDictionnary selector = newSelector();
+    Map<BatchExtension, Set<BatchExtension>> dependencies = selector.dependencies(Arrays.asList(c, b, a, d));
+
+    assertThat(dependencies.get(a)).isEmpty();
+    assertThat(dependencies.get(b)).containsOnly(a);
+    assertThat(dependencies.get(c)).containsOnly(b);
+    assertThat(dependencies.get(d)).isEmpty();
+  }
+
+  @Test
+  public void dependenciesThroughKeysAndPhases() {
+    BatchExtension pre = new PreSensor();
+    BatchExtension generates = new GeneratesSomething("flag");
+    BatchExtension dependsUpon = new ClassDependsUpon();
+    BatchExtension post = new PostSensor();
+
+    BatchExtensionDictionnary selector = newSelector();
+    Map<BatchExtension, Set<BatchExtension>> dependencies = selector.dependencies(Arrays.asList(post, dependsUpon, generates, pre));
+
+    assertThat(dependencies.get(pre)).isEmpty();
+    assertThat(dependencies.get(generates)).containsOnly(pre);
+    assertThat(dependencies.get(dependsUpon)).containsOnly(pre, generates);
+    assertThat(dependencies.get(post)).containsOnly(pre, generates, dependsUpon);
+  }
+
   @Test
   public void buildStatusCheckersAreExecutedAfterOtherPostJobs() {
     BuildBreaker checker = new BuildBreaker() {
@@ -58,6 +58,53 @@ public class DefaultCpdEngineTest {
     verify(logger, times(1)).info(message);
   }
 
+  @Test
+  public void defaultThreads() {
+    assertThat(CpdEngine.threads(settings)).isEqualTo(Runtime.getRuntime().availableProcessors());
+  }
+
+  @Test
+  public void threads() {
+    settings.setProperty(CpdEngine.THREADS_PROPERTY, "3");
+
+    assertThat(CpdEngine.threads(settings)).isEqualTo(3);
+  }
+
+  @Test
+  public void tokenizeWithSingleThreadByDefault() {
+    settings.setProperty(CpdEngine.THREADS_PROPERTY, "3");
+
+    assertThat(engine.getTokenizerThreads("xoo")).isEqualTo(1);
+  }
+
+  @Test
+  public void tokenizeConcurrentlyIfEnabled() {
+    settings.setProperty(CpdEngine.THREADS_PROPERTY, "3");
+    settings.setProperty("sonar.cpd.xoo.concurrentTokenizers", "true");
+
+    assertThat(engine.getTokenizerThreads("xoo")).isEqualTo(3);
+    assertThat(engine.getTokenizerThreads("other")).isEqualTo(1);
+  }
+
+  @Test
+  public void defaultAlgorithm() {
+    assertThat(CpdEngine.algorithm(settings)).isEqualTo(DetectionAlgorithm.SUFFIX_TREE);
+  }
+
+  @Test
+  public void algorithm() {
+    settings.setProperty(CpdEngine.ALGORITHM_PROPERTY, "hashjoin");
+
+    assertThat(CpdEngine.algorithm(settings)).isEqualTo(DetectionAlgorithm.HASH_JOIN);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownAlgorithm() {
+    settings.setProperty(CpdEngine.ALGORITHM_PROPERTY, "other");
+
+    CpdEngine.algorithm(settings);
+  }
+
   @Test
   public void shouldReturnDefaultBlockSize() {
     assertThat(DefaultCpdEngine.getDefaultBlockSize("cobol")).isEqualTo(30);
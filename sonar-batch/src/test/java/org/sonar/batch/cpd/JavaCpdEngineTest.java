@@ -19,12 +19,16 @@
  */
 package org.sonar.batch.cpd;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.duplication.NewDuplication;
@@ -33,6 +37,9 @@ import org.sonar.api.batch.sensor.internal.SensorStorage;
 import org.sonar.api.batch.sensor.measure.Measure;
 import org.sonar.api.batch.sensor.measure.internal.DefaultMeasure;
 import org.sonar.api.measures.CoreMetrics;
+import org.sonar.batch.cpd.index.SonarDuplicationsIndex;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
 import org.sonar.duplications.index.CloneGroup;
 import org.sonar.duplications.index.ClonePart;
 
@@ -40,7 +47,11 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -145,6 +156,30 @@ public class JavaCpdEngineTest {
       .isDuplicatedBy("key3", 15, 214));
   }
 
+  @Test
+  public void populate_index_in_order_of_files() throws Exception {
+    List<InputFile> files = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      files.add(new DefaultInputFile("foo", "src/main/java/Foo" + i + ".java"));
+    }
+    SonarDuplicationsIndex index = mock(SonarDuplicationsIndex.class);
+
+    JavaCpdEngine.populateIndex(index, files, 3, new JavaCpdEngine.FileChunker() {
+      @Override
+      public List<Block> chunk(InputFile inputFile) {
+        String key = ((DefaultInputFile) inputFile).key();
+        // first files are the slowest
+        Uninterruptibles.sleepUninterruptibly(10 - Integer.parseInt(key.substring(key.length() - 6, key.length() - 5)), TimeUnit.MILLISECONDS);
+        return Arrays.asList(Block.builder().setResourceId(key).setBlockHash(new ByteArray(1L)).setIndexInFile(0).setLines(1, 10).build());
+      }
+    });
+
+    InOrder inOrder = inOrder(index);
+    for (InputFile file : files) {
+      inOrder.verify(index).insert(eq(file), anyCollectionOf(Block.class));
+    }
+  }
+
   private CloneGroup newCloneGroup(ClonePart... parts) {
     return CloneGroup.builder().setLength(0).setOrigin(parts[0]).setParts(Arrays.asList(parts)).build();
   }
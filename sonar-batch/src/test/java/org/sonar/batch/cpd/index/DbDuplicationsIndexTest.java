@@ -0,0 +1,147 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.cpd.index;
+
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sonar.api.batch.fs.internal.DefaultInputFile;
+import org.sonar.api.database.DatabaseSession;
+import org.sonar.api.resources.Project;
+import org.sonar.batch.index.BatchComponent;
+import org.sonar.batch.index.BatchComponentCache;
+import org.sonar.batch.scan.ScanLock;
+import org.sonar.core.duplication.DuplicationDao;
+import org.sonar.core.duplication.DuplicationUnitDto;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DbDuplicationsIndexTest {
+
+  static final ByteArray PROJECT_HASH = new ByteArray(0x0123456789abcdefL);
+
+  DuplicationDao dao = mock(DuplicationDao.class);
+  DatabaseSession session = mock(DatabaseSession.class);
+  BatchComponentCache resourceCache = mock(BatchComponentCache.class);
+  Project project = (Project) new Project("foo").setId(1);
+  DefaultInputFile inputFile = new DefaultInputFile("foo", "src/Foo.java");
+
+  @Before
+  public void setUp() {
+    BatchComponent component = mock(BatchComponent.class);
+    when(component.snapshotId()).thenReturn(10);
+    when(resourceCache.get(anyString())).thenReturn(component);
+  }
+
+  @Test
+  public void load_candidates_of_each_file() {
+    DbDuplicationsIndex index = new DbDuplicationsIndex(project, dao, "java", session, resourceCache, new ScanLock());
+    when(dao.selectCandidates(10, null, "java")).thenReturn(Arrays.asList(unit("bar", PROJECT_HASH.toString())));
+
+    index.insert(inputFile, Arrays.asList(block(PROJECT_HASH)));
+    index.prepareCache(inputFile);
+    index.prepareCache(inputFile);
+
+    assertThat(index.getByHash(PROJECT_HASH)).hasSize(1);
+    verify(dao, times(2)).selectCandidates(10, null, "java");
+    verify(dao, never()).selectCandidatesOfLanguage(anyInt(), anyString(), any(ResultHandler.class));
+    assertThat(index.profilingMessage()).startsWith("Cross-project duplications | preload=false | queries=2 | loadedUnits=2 |");
+  }
+
+  @Test
+  public void preload_candidates_matching_hashes_of_project() {
+    DbDuplicationsIndex index = new DbDuplicationsIndex(project, dao, "java", session, resourceCache, new ScanLock(), true);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        ResultHandler handler = (ResultHandler) invocation.getArguments()[2];
+        handler.handleResult(context(unit("bar", PROJECT_HASH.toString())));
+        handler.handleResult(context(unit("baz", new ByteArray(42L).toString())));
+        // hashes of other sizes never match
+        handler.handleResult(context(unit("qux", "aa")));
+        return null;
+      }
+    }).when(dao).selectCandidatesOfLanguage(eq((Integer) null), eq("java"), any(ResultHandler.class));
+
+    index.insert(inputFile, Arrays.asList(block(PROJECT_HASH)));
+    index.prepareCache(inputFile);
+    index.prepareCache(inputFile);
+
+    assertThat(index.getByHash(PROJECT_HASH)).hasSize(1);
+    Block candidate = index.getByHash(PROJECT_HASH).iterator().next();
+    assertThat(candidate.getResourceId()).isEqualTo("bar");
+    assertThat(candidate.getBlockHash()).isEqualTo(PROJECT_HASH);
+    assertThat(index.getByHash(new ByteArray(42L))).isEmpty();
+    verify(dao, times(1)).selectCandidatesOfLanguage(eq((Integer) null), eq("java"), any(ResultHandler.class));
+    verify(dao, never()).selectCandidates(anyInt(), anyInt(), anyString());
+    assertThat(index.profilingMessage()).startsWith("Cross-project duplications | preload=true | queries=1 | loadedUnits=3 |");
+  }
+
+  @Test
+  public void parse_hash() {
+    assertThat(DbDuplicationsIndex.parseHash(PROJECT_HASH.toString())).isEqualTo(0x0123456789abcdefL);
+    assertThat(DbDuplicationsIndex.parseHash(new ByteArray(-1L).toString())).isEqualTo(-1L);
+    assertThat(DbDuplicationsIndex.toLong(PROJECT_HASH)).isEqualTo(0x0123456789abcdefL);
+    assertThat(DbDuplicationsIndex.toLong(new ByteArray(-1L))).isEqualTo(-1L);
+  }
+
+  @Test
+  public void no_candidates() {
+    DbDuplicationsIndex index = new DbDuplicationsIndex(project, dao, "java", session, resourceCache, new ScanLock(), true);
+    index.insert(inputFile, Collections.<Block>emptyList());
+    index.prepareCache(inputFile);
+
+    assertThat(index.getByHash(PROJECT_HASH)).isEmpty();
+  }
+
+  private static Block block(ByteArray hash) {
+    return Block.builder().setResourceId("foo:src/Foo.java").setBlockHash(hash).setIndexInFile(0).setLines(1, 10).build();
+  }
+
+  private static DuplicationUnitDto unit(String resourceKey, String hash) {
+    DuplicationUnitDto unit = new DuplicationUnitDto(1, 2, hash, 0, 1, 10);
+    unit.setResourceKey(resourceKey);
+    return unit;
+  }
+
+  private static ResultContext context(Object result) {
+    ResultContext context = mock(ResultContext.class);
+    when(context.getResultObject()).thenReturn(result);
+    return context;
+  }
+}
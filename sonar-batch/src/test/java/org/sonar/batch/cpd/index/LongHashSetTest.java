@@ -0,0 +1,56 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.cpd.index;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LongHashSetTest {
+
+  LongHashSet set = new LongHashSet();
+
+  @Test
+  public void add_and_contain() {
+    assertThat(set.add(0L)).isTrue();
+    assertThat(set.add(-1L)).isTrue();
+    assertThat(set.add(Long.MAX_VALUE)).isTrue();
+    assertThat(set.add(0L)).isFalse();
+
+    assertThat(set.size()).isEqualTo(3);
+    assertThat(set.contains(0L)).isTrue();
+    assertThat(set.contains(-1L)).isTrue();
+    assertThat(set.contains(Long.MAX_VALUE)).isTrue();
+    assertThat(set.contains(1L)).isFalse();
+  }
+
+  @Test
+  public void grow() {
+    for (long i = 0; i < 100000; i++) {
+      set.add(i * 31);
+    }
+
+    assertThat(set.size()).isEqualTo(100000);
+    for (long i = 0; i < 100000; i++) {
+      assertThat(set.contains(i * 31)).isTrue();
+      assertThat(set.contains(i * 31 + 1)).isFalse();
+    }
+  }
+}
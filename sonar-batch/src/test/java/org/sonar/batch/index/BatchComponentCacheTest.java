@@ -23,6 +23,8 @@ import org.junit.Test;
 import org.sonar.api.resources.File;
 import org.sonar.api.resources.Resource;
 
+import java.util.Collection;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 
@@ -50,4 +52,16 @@ public class BatchComponentCacheTest {
       assertThat(e).hasMessage("Missing resource effective key");
     }
   }
+
+  @Test
+  public void all_is_a_copy_of_components() {
+    BatchComponentCache cache = new BatchComponentCache();
+    cache.add(File.create("org/struts/Action.java").setEffectiveKey("struts:src/org/struts/Action.java"), null);
+    Collection<BatchComponent> all = cache.all();
+
+    cache.add(File.create("org/struts/Form.java").setEffectiveKey("struts:src/org/struts/Form.java"), null);
+
+    assertThat(all).hasSize(1);
+    assertThat(cache.all()).hasSize(2);
+  }
 }
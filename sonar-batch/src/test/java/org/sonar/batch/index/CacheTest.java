@@ -27,6 +27,8 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.sonar.batch.index.Cache.Entry;
 
+import java.util.Iterator;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class CacheTest {
@@ -267,4 +269,23 @@ public class CacheTest {
     cache.clear("foo", "bar", "baz");
     cache.clear();
   }
+
+  @Test
+  public void iterate_synchronized_on_lock() {
+    final Cache<String> cache = caches.createCache("capitals");
+    cache.put("france", "paris");
+    cache.put("italy", "rome");
+    final Object lock = new Object();
+
+    Iterable<String> values = Cache.synchronizedIterable(lock, new Iterable<String>() {
+      @Override
+      public Iterator<String> iterator() {
+        assertThat(Thread.holdsLock(lock)).isTrue();
+        return cache.values().iterator();
+      }
+    });
+
+    assertThat(values).containsOnly("paris", "rome");
+    assertThat(Thread.holdsLock(lock)).isFalse();
+  }
 }
@@ -44,7 +44,7 @@ public class CachesTest {
   public static Caches createCacheOnTemp(TemporaryFolder temp) {
     try {
       BootstrapProperties bootstrapProps = new BootstrapProperties(ImmutableMap.of(CoreProperties.WORKING_DIRECTORY, temp.newFolder().getAbsolutePath()));
-      return new Caches(new TempFolderProvider().provide(bootstrapProps));
+      return new Caches(new TempFolderProvider().provide(bootstrapProps), bootstrapProps);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -95,6 +95,73 @@ public class CachesTest {
     }
   }
 
+  @Test
+  public void buffer_pool_has_minimum_size_by_default() {
+    assertThat(Caches.bufferCount(null, null, 1024L * 1024 * 1024)).isEqualTo(Caches.MIN_BUFFERS);
+    assertThat(Caches.bufferCount("", "", 1024L * 1024 * 1024)).isEqualTo(Caches.MIN_BUFFERS);
+  }
+
+  @Test
+  public void size_buffer_pool_from_heap_ratio() {
+    assertThat(Caches.bufferCount(null, "0.1", 100L * 1024 * 1024)).isEqualTo(1280);
+    assertThat(Caches.bufferCount("", " 0.1 ", 100L * 1024 * 1024)).isEqualTo(1280);
+  }
+
+  @Test
+  public void size_buffer_pool_from_property() {
+    assertThat(Caches.bufferCount("16", null, 100L * 1024 * 1024)).isEqualTo(2048);
+    assertThat(Caches.bufferCount(" 1 ", null, 100L * 1024 * 1024)).isEqualTo(128);
+    // memory has priority over heap ratio
+    assertThat(Caches.bufferCount("1", "0.1", 100L * 1024 * 1024)).isEqualTo(128);
+  }
+
+  @Test
+  public void buffer_pool_has_minimum_size() {
+    assertThat(Caches.bufferCount("0", null, 100L * 1024 * 1024)).isEqualTo(Caches.MIN_BUFFERS);
+    assertThat(Caches.bufferCount(null, "0.1", 1024L)).isEqualTo(Caches.MIN_BUFFERS);
+  }
+
+  @Test
+  public void fail_if_memory_property_is_not_a_number() {
+    try {
+      Caches.bufferCount("10MB", null, 100L * 1024 * 1024);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("The property 'sonar.batch.cache.memory' must be a number of MB: 10MB");
+    }
+  }
+
+  @Test
+  public void fail_if_heap_ratio_property_is_not_a_number() {
+    try {
+      Caches.bufferCount(null, "10%", 100L * 1024 * 1024);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("The property 'sonar.batch.cache.heapRatio' must be a ratio of the maximum heap size: 10%");
+    }
+  }
+
+  @Test
+  public void configure_buffer_pool() throws Exception {
+    caches.stop();
+    BootstrapProperties bootstrapProps = new BootstrapProperties(ImmutableMap.of(
+      CoreProperties.WORKING_DIRECTORY, temp.newFolder().getAbsolutePath(),
+      Caches.MEMORY_PROPERTY, "2"));
+    caches = new Caches(new TempFolderProvider().provide(bootstrapProps), bootstrapProps);
+
+    assertThat(caches.bufferCount()).isEqualTo(256);
+    assertThat(caches.persistit().getBufferPool(Caches.PAGE_SIZE).getBufferCount()).isEqualTo(256);
+  }
+
+  @Test
+  public void profiling_message() {
+    Cache<String> cache = caches.createCache("foo");
+    cache.put("key", "value");
+    cache.get("key");
+
+    assertThat(caches.profilingMessage()).startsWith("Caches | buffers=" + caches.bufferCount() + " | bufferMemory=").contains("| hits=").contains("| evictions=");
+  }
+
   static class Element implements Serializable {
 
   }
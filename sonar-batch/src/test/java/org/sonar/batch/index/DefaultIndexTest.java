@@ -41,6 +41,8 @@ import org.sonar.batch.issue.ModuleIssues;
 import org.sonar.batch.scan.measure.MeasureCache;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -164,4 +166,85 @@ public class DefaultIndexTest {
     assertThat(index.getResource(moduleB1).getPath()).isEqualTo("moduleB1");
   }
 
+  @Test
+  public void shouldClearOnlyResourcesOfCurrentModule() {
+    Directory rootDir = Directory.create("src/root");
+    assertThat(index.index(rootDir)).isTrue();
+
+    index.setCurrentProject(moduleA, mock(ModuleIssues.class));
+    Directory dirA = Directory.create("src/a");
+    File fileA = File.create("src/a/A.java", null, false);
+    assertThat(index.index(dirA)).isTrue();
+    assertThat(index.index(fileA, dirA)).isTrue();
+
+    index.clear();
+
+    assertThat(index.isIndexed(File.create("src/a/A.java", null, false), true)).isFalse();
+    assertThat(index.isIndexed(Directory.create("src/a"), true)).isFalse();
+    assertThat(index.isIndexed(moduleA, true)).isTrue();
+
+    index.setCurrentProject(project, mock(ModuleIssues.class));
+    assertThat(index.isIndexed(Directory.create("src/root"), true)).isTrue();
+  }
+
+  @Test
+  public void sameKeyInSeveralModules() {
+    index.setCurrentProject(moduleA, mock(ModuleIssues.class));
+    assertThat(index.index(Directory.create("src/main"))).isTrue();
+
+    index.setCurrentProject(moduleB, mock(ModuleIssues.class));
+    assertThat(index.isIndexed(Directory.create("src/main"), true)).isFalse();
+    assertThat(index.index(Directory.create("src/main"))).isTrue();
+    assertThat(index.getParent(Directory.create("src/main"))).isEqualTo(moduleB);
+  }
+
+  @Test
+  public void currentModuleIsSharedByThreadsWhenModulesAreScannedSequentially() throws Exception {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        index.setCurrentProject(moduleA, mock(ModuleIssues.class));
+      }
+    };
+    thread.start();
+    thread.join();
+
+    assertThat(index.getProject()).isEqualTo(moduleA);
+  }
+
+  @Test
+  public void currentModuleIsBoundToThreadWhenModulesAreScannedConcurrently() throws Exception {
+    index.enableConcurrentModules();
+    final List<Project> modules = new ArrayList<>();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        index.setCurrentProject(moduleA, mock(ModuleIssues.class));
+        Thread task = new Thread() {
+          @Override
+          public void run() {
+            // threads do not inherit the module
+            modules.add(index.getProject());
+            index.bindCurrentProject(moduleA);
+            modules.add(index.getProject());
+            index.bindCurrentProject(null);
+            modules.add(index.getProject());
+          }
+        };
+        task.start();
+        try {
+          task.join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        modules.add(index.getProject());
+      }
+    };
+    thread.start();
+    thread.join();
+
+    assertThat(modules).containsExactly(project, moduleA, project, moduleA);
+    assertThat(index.getProject()).isEqualTo(project);
+  }
+
 }
@@ -23,8 +23,11 @@ import org.junit.Test;
 import org.sonar.api.batch.AnalysisMode;
 import org.sonar.api.batch.Decorator;
 import org.sonar.api.batch.DecoratorContext;
-import org.sonar.api.batch.SonarIndex;
+import org.sonar.api.batch.SequentialDecorator;
+import org.sonar.api.config.Settings;
+import org.sonar.api.measures.Measure;
 import org.sonar.api.measures.MetricFinder;
+import org.sonar.api.resources.Directory;
 import org.sonar.api.resources.File;
 import org.sonar.api.resources.Project;
 import org.sonar.api.resources.Resource;
@@ -32,14 +35,26 @@ import org.sonar.api.utils.SonarException;
 import org.sonar.batch.bootstrap.BatchExtensionDictionnary;
 import org.sonar.batch.deprecated.decorator.DefaultDecoratorContext;
 import org.sonar.batch.events.EventBus;
+import org.sonar.batch.index.DefaultIndex;
+import org.sonar.batch.scan.ScanLock;
 import org.sonar.batch.scan.measure.MeasureCache;
 import org.sonar.batch.sensor.coverage.CoverageExclusions;
+import org.sonar.core.platform.ComponentContainer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class DecoratorsExecutorTest {
 
@@ -66,8 +81,8 @@ public class DecoratorsExecutorTest {
     Decorator decorator = mock(Decorator.class);
     doThrow(new SonarException()).when(decorator).decorate(any(Resource.class), any(DecoratorContext.class));
 
-    DecoratorsExecutor executor = new DecoratorsExecutor(mock(BatchExtensionDictionnary.class), new Project("key"), mock(SonarIndex.class),
-      mock(EventBus.class), mock(CoverageExclusions.class), mock(MeasureCache.class), mock(MetricFinder.class), mock(AnalysisMode.class));
+    DecoratorsExecutor executor = new DecoratorsExecutor(mock(BatchExtensionDictionnary.class), new Project("key"), mock(DefaultIndex.class),
+      mock(EventBus.class), mock(CoverageExclusions.class), mock(MeasureCache.class), mock(MetricFinder.class), mock(AnalysisMode.class), new Settings(), new ScanLock());
     try {
       executor.executeDecorator(decorator, mock(DefaultDecoratorContext.class), File.create("src/org/foo/Bar.java", null, false));
       fail("Exception has not been thrown");
@@ -77,6 +92,114 @@ public class DecoratorsExecutorTest {
     }
   }
 
+  @Test
+  public void decorate_children_before_parents() {
+    RecordingDecorator decorator = new RecordingDecorator();
+    Project project = new Project("key");
+    DefaultIndex index = newIndex(project);
+
+    newExecutor(project, index, 4, decorator).execute();
+
+    assertThat(decorator.decorated).hasSize(7);
+    for (Resource resource : decorator.decorated) {
+      for (Resource child : index.getChildren(resource)) {
+        assertThat(decorator.decorated.indexOf(child)).isLessThan(decorator.decorated.indexOf(resource));
+      }
+    }
+    assertThat(decorator.decorated.get(6)).isEqualTo(project);
+  }
+
+  @Test
+  public void decorate_on_a_single_thread() {
+    RecordingDecorator decorator = new RecordingDecorator();
+    Project project = new Project("key");
+
+    newExecutor(project, newIndex(project), 1, decorator).execute();
+
+    assertThat(decorator.threads).containsOnly(Thread.currentThread().getName());
+    assertThat(decorator.decorated).containsExactly(File.create("src/a/A1.java"), File.create("src/a/A2.java"), Directory.create("src/a"),
+      File.create("src/b/B1.java"), File.create("src/b/B2.java"), Directory.create("src/b"), project);
+  }
+
+  @Test
+  public void sequential_decorators_are_not_executed_concurrently() {
+    SequentialRecordingDecorator decorator = new SequentialRecordingDecorator();
+    Project project = new Project("key");
+
+    newExecutor(project, newIndex(project), 4, decorator).execute();
+
+    assertThat(decorator.decorated).hasSize(7);
+    assertThat(decorator.maxConcurrentExecutions.get()).isEqualTo(1);
+  }
+
+  private static DefaultIndex newIndex(Project project) {
+    DefaultIndex index = mock(DefaultIndex.class);
+    when(index.getChildren(project)).thenReturn(Arrays.<Resource>asList(Directory.create("src/a"), Directory.create("src/b")));
+    when(index.getChildren(Directory.create("src/a"))).thenReturn(Arrays.<Resource>asList(File.create("src/a/A1.java"), File.create("src/a/A2.java")));
+    when(index.getChildren(Directory.create("src/b"))).thenReturn(Arrays.<Resource>asList(File.create("src/b/B1.java"), File.create("src/b/B2.java")));
+    return index;
+  }
+
+  @Test
+  public void decorate_on_a_single_thread_by_default() {
+    RecordingDecorator decorator = new RecordingDecorator();
+    Project project = new Project("key");
+
+    newExecutor(project, newIndex(project), new Settings(), decorator).execute();
+
+    assertThat(decorator.threads).containsOnly(Thread.currentThread().getName());
+    assertThat(decorator.decorated).hasSize(7);
+  }
+
+  private static DecoratorsExecutor newExecutor(Project project, DefaultIndex index, int threads, Decorator decorator) {
+    Settings settings = new Settings();
+    settings.setProperty(DecoratorsExecutor.THREADS_PROPERTY, threads);
+    return newExecutor(project, index, settings, decorator);
+  }
+
+  private static DecoratorsExecutor newExecutor(Project project, DefaultIndex index, Settings settings, Decorator decorator) {
+    ComponentContainer container = new ComponentContainer();
+    container.addSingleton(decorator);
+    BatchExtensionDictionnary dictionnary = new BatchExtensionDictionnary(container, null, null, null, null);
+    MeasureCache measureCache = mock(MeasureCache.class);
+    when(measureCache.byResource(any(Resource.class))).thenReturn(Collections.<Measure>emptyList());
+    return new DecoratorsExecutor(dictionnary, project, index, mock(EventBus.class), mock(CoverageExclusions.class), measureCache, mock(MetricFinder.class),
+      mock(AnalysisMode.class), settings, new ScanLock());
+  }
+
+  public static class RecordingDecorator implements Decorator {
+    final List<Resource> decorated = Collections.synchronizedList(new ArrayList<Resource>());
+    final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+
+    public void decorate(Resource resource, DecoratorContext context) {
+      decorated.add(resource);
+      threads.add(Thread.currentThread().getName());
+    }
+
+    public boolean shouldExecuteOnProject(Project project) {
+      return true;
+    }
+  }
+
+  @SequentialDecorator
+  public static class SequentialRecordingDecorator extends RecordingDecorator {
+    final AtomicInteger concurrentExecutions = new AtomicInteger();
+    final AtomicInteger maxConcurrentExecutions = new AtomicInteger();
+
+    @Override
+    public void decorate(Resource resource, DecoratorContext context) {
+      int executions = concurrentExecutions.incrementAndGet();
+      maxConcurrentExecutions.set(Math.max(maxConcurrentExecutions.get(), executions));
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      super.decorate(resource, context);
+      concurrentExecutions.decrementAndGet();
+    }
+  }
+
   static class Decorator1 implements Decorator {
     public void decorate(Resource resource, DecoratorContext context) {
     }
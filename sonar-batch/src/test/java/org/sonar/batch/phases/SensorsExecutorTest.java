@@ -0,0 +1,171 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.batch.phases;
+
+import org.junit.Test;
+import org.sonar.api.batch.sensor.Sensor;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.batch.sensor.SensorDescriptor;
+import org.sonar.api.batch.sensor.internal.DefaultSensorDescriptor;
+import org.sonar.api.config.Settings;
+import org.sonar.api.resources.Project;
+import org.sonar.batch.bootstrap.BatchExtensionDictionnary;
+import org.sonar.batch.events.EventBus;
+import org.sonar.batch.index.DefaultIndex;
+import org.sonar.batch.scan.ScanLock;
+import org.sonar.batch.sensor.DefaultSensorContext;
+import org.sonar.batch.sensor.SensorOptimizer;
+import org.sonar.core.platform.ComponentContainer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SensorsExecutorTest {
+
+  private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+  private final Map<String, String> threads = new ConcurrentHashMap<>();
+
+  @Test
+  public void thread_safe_sensors_are_executed_after_their_dependencies() {
+    RecordingSensor a = new RecordingSensor("A").provides("x").threadSafe();
+    RecordingSensor b = new RecordingSensor("B").dependsOn("x").threadSafe();
+    RecordingSensor c = new RecordingSensor("C").threadSafe();
+
+    newExecutor(4, b, c, a).execute(null);
+
+    assertThat(events).hasSize(6);
+    assertThat(events.indexOf("end A")).isLessThan(events.indexOf("start B"));
+    assertThat(threads.get("A")).startsWith("sensor-");
+    assertThat(threads.get("B")).startsWith("sensor-");
+    assertThat(threads.get("C")).startsWith("sensor-");
+  }
+
+  @Test
+  public void sensors_not_thread_safe_wait_for_previous_sensors() {
+    RecordingSensor a = new RecordingSensor("A").provides("x").threadSafe();
+    RecordingSensor b = new RecordingSensor("B").dependsOn("x").provides("y");
+    RecordingSensor c = new RecordingSensor("C").dependsOn("y").threadSafe();
+
+    newExecutor(4, c, b, a).execute(null);
+
+    assertThat(events).containsExactly("start A", "end A", "start B", "end B", "start C", "end C");
+    assertThat(threads.get("A")).startsWith("sensor-");
+    assertThat(threads.get("B")).isEqualTo(Thread.currentThread().getName());
+    assertThat(threads.get("C")).startsWith("sensor-");
+  }
+
+  @Test
+  public void execute_on_current_thread_when_single_thread() {
+    RecordingSensor a = new RecordingSensor("A").provides("x").threadSafe();
+    RecordingSensor b = new RecordingSensor("B").dependsOn("x").threadSafe();
+
+    newExecutor(1, b, a).execute(null);
+
+    assertThat(events).containsExactly("start A", "end A", "start B", "end B");
+    assertThat(threads.get("A")).isEqualTo(Thread.currentThread().getName());
+    assertThat(threads.get("B")).isEqualTo(Thread.currentThread().getName());
+  }
+
+  @Test
+  public void propagate_failure_of_concurrent_sensor() {
+    RecordingSensor a = new RecordingSensor("A").threadSafe();
+    RecordingSensor b = new RecordingSensor("B").threadSafe();
+    b.failure = new IllegalStateException("fail");
+
+    try {
+      newExecutor(4, a, b).execute(null);
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("fail");
+    }
+  }
+
+  private static SensorsExecutor newExecutor(int threads, Sensor... sensors) {
+    ComponentContainer container = new ComponentContainer();
+    for (Sensor sensor : sensors) {
+      container.addSingleton(sensor);
+    }
+    SensorOptimizer optimizer = mock(SensorOptimizer.class);
+    when(optimizer.shouldExecute(any(DefaultSensorDescriptor.class))).thenReturn(true);
+    BatchExtensionDictionnary dictionnary = new BatchExtensionDictionnary(container, mock(DefaultSensorContext.class), optimizer, null, null);
+    Settings settings = new Settings();
+    settings.setProperty(SensorsExecutor.THREADS_PROPERTY, threads);
+    return new SensorsExecutor(dictionnary, new Project("key"), mock(EventBus.class), settings, mock(DefaultIndex.class), new ScanLock());
+  }
+
+  private class RecordingSensor implements Sensor {
+    private final String name;
+    private String[] dependsOn = new String[0];
+    private String[] provides = new String[0];
+    private boolean threadSafe = false;
+    private RuntimeException failure;
+
+    RecordingSensor(String name) {
+      this.name = name;
+    }
+
+    RecordingSensor dependsOn(String... keys) {
+      this.dependsOn = keys;
+      return this;
+    }
+
+    RecordingSensor provides(String... keys) {
+      this.provides = keys;
+      return this;
+    }
+
+    RecordingSensor threadSafe() {
+      this.threadSafe = true;
+      return this;
+    }
+
+    @Override
+    public void describe(SensorDescriptor descriptor) {
+      descriptor.name(name).dependsOn(dependsOn).provides(provides);
+      if (threadSafe) {
+        descriptor.threadSafe();
+      }
+    }
+
+    @Override
+    public void execute(SensorContext context) {
+      events.add("start " + name);
+      threads.put(name, Thread.currentThread().getName());
+      if (failure != null) {
+        throw failure;
+      }
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      events.add("end " + name);
+    }
+  }
+}
@@ -19,26 +19,47 @@
  */
 package org.sonar.batch.report;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.bootstrap.ProjectDefinition;
 import org.sonar.api.batch.bootstrap.ProjectReactor;
 import org.sonar.api.config.Settings;
 import org.sonar.api.platform.Server;
-import org.sonar.api.utils.TempFolder;
 import org.sonar.batch.bootstrap.DefaultAnalysisMode;
 import org.sonar.batch.bootstrap.ServerClient;
 import org.sonar.batch.index.BatchComponentCache;
 import org.sonar.jpa.test.AbstractDbUnitTestCase;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ReportPublisherTest extends AbstractDbUnitTestCase {
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   private DefaultAnalysisMode mode;
 
   BatchComponentCache resourceCache = mock(BatchComponentCache.class);
@@ -56,7 +77,7 @@ public class ReportPublisherTest extends AbstractDbUnitTestCase {
   public void should_log_successful_analysis() {
     Settings settings = new Settings();
     settings.setProperty(CoreProperties.SERVER_BASE_URL, "http://myserver/");
-    ReportPublisher job = new ReportPublisher(settings, mock(ServerClient.class), mock(Server.class), reactor, mode, mock(TempFolder.class), new ReportPublisherStep[0]);
+    ReportPublisher job = new ReportPublisher(settings, mock(ServerClient.class), mock(Server.class), reactor, mode, new ReportPublisherStep[0]);
 
     Logger logger = mock(Logger.class);
     job.logSuccess(logger);
@@ -69,7 +90,7 @@ public class ReportPublisherTest extends AbstractDbUnitTestCase {
   public void should_log_successful_preview_analysis() {
     Settings settings = new Settings();
     when(mode.isPreview()).thenReturn(true);
-    ReportPublisher job = new ReportPublisher(settings, mock(ServerClient.class), mock(Server.class), reactor, mode, mock(TempFolder.class), new ReportPublisherStep[0]);
+    ReportPublisher job = new ReportPublisher(settings, mock(ServerClient.class), mock(Server.class), reactor, mode, new ReportPublisherStep[0]);
 
     Logger logger = mock(Logger.class);
     job.logSuccess(logger);
@@ -77,4 +98,78 @@ public class ReportPublisherTest extends AbstractDbUnitTestCase {
     verify(logger).info("ANALYSIS SUCCESSFUL");
   }
 
+  @Test
+  public void should_upload_compressed_report_with_chunked_transfer_encoding() throws Exception {
+    ReportServer server = new ReportServer();
+    server.start();
+    try {
+      reactor = mock(ProjectReactor.class);
+      when(reactor.getRoot()).thenReturn(ProjectDefinition.create().setKey("struts").setWorkDir(temp.newFolder()));
+      ServerClient serverClient = mock(ServerClient.class);
+      when(serverClient.getURL()).thenReturn("http://localhost:" + server.getPort());
+      Server sonarServer = mock(Server.class);
+      when(sonarServer.getVersion()).thenReturn("5.2");
+      ReportPublisher job = new ReportPublisher(new Settings(), serverClient, sonarServer, reactor, mode, new ReportPublisherStep[0]);
+      job.start();
+      FileUtils.write(new File(job.getReportDir(), "metadata.pb"), "foo");
+
+      job.uploadMultiPartReport();
+
+      assertThat(server.transferEncoding).isEqualTo("chunked");
+      assertThat(server.uri).isEqualTo("/api/computation/submit_report?projectKey=struts");
+      Map<String, String> entries = unzipPart(server.body);
+      assertThat(entries).containsEntry("metadata.pb", "foo");
+    } finally {
+      server.stop();
+    }
+  }
+
+  /**
+   * Reads the zip entries of the multipart body. Data after the zip, like the closing boundary, is ignored.
+   */
+  private static Map<String, String> unzipPart(byte[] body) throws IOException {
+    int start = 0;
+    while (body[start] != 'P' || body[start + 1] != 'K' || body[start + 2] != 3 || body[start + 3] != 4) {
+      start++;
+    }
+    Map<String, String> entries = new HashMap<>();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(body, start, body.length - start))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        entries.put(entry.getName(), IOUtils.toString(zip));
+      }
+    }
+    return entries;
+  }
+
+  private static class ReportServer {
+    private org.eclipse.jetty.server.Server server;
+    private String transferEncoding;
+    private String uri;
+    private byte[] body;
+
+    void start() throws Exception {
+      server = new org.eclipse.jetty.server.Server(0);
+      server.setHandler(new AbstractHandler() {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+          transferEncoding = request.getHeader("Transfer-Encoding");
+          uri = request.getRequestURI() + "?" + request.getQueryString();
+          body = IOUtils.toByteArray(request.getInputStream());
+          response.setStatus(HttpServletResponse.SC_OK);
+          baseRequest.setHandled(true);
+        }
+      });
+      server.start();
+    }
+
+    int getPort() {
+      return server.getConnectors()[0].getLocalPort();
+    }
+
+    void stop() throws Exception {
+      server.stop();
+    }
+  }
+
 }
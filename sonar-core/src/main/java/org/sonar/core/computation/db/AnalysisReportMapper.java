@@ -32,6 +32,8 @@ public interface AnalysisReportMapper {
 
   void resetAllToPendingStatus(@Param("updatedAt") long updatedAt);
 
+  void resetToPendingStatus(@Param("id") long id, @Param("updatedAt") long updatedAt);
+
   void truncate();
 
   void insert(AnalysisReportDto reportDto);
@@ -144,6 +144,16 @@ public class CorePropertyDefinitions {
         .subCategory(CoreProperties.SUBCATEGORY_DUPLICATIONS)
         .type(PropertyType.BOOLEAN)
         .build(),
+      PropertyDefinition.builder("sonar.cpd.cross_project.preload")
+        .defaultValue("false")
+        .name("Preload cross project duplication candidates")
+        .description("Load the candidates of cross project duplication detection with a single query for the whole project, "
+          + "instead of one query per file. Recommended only for large projects.")
+        .hidden()
+        .category(CoreProperties.CATEGORY_GENERAL)
+        .subCategory(CoreProperties.SUBCATEGORY_DUPLICATIONS)
+        .type(PropertyType.BOOLEAN)
+        .build(),
       PropertyDefinition.builder(CoreProperties.CPD_SKIP_PROPERTY)
         .defaultValue("false")
         .name("Skip")
@@ -19,14 +19,19 @@
  */
 package org.sonar.core.duplication;
 
+import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.SqlSession;
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.server.ServerSide;
 import org.sonar.core.persistence.DbSession;
 import org.sonar.core.persistence.MyBatis;
 
+import javax.annotation.Nullable;
+
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @BatchSide
 @ServerSide
@@ -48,6 +53,24 @@ public class DuplicationDao {
     }
   }
 
+  /**
+   * Streams the blocks of the last analyses of all the projects of the given language, except the blocks of the
+   * project snapshot {@code lastSnapshotId}. Unlike {@link #selectCandidates(int, Integer, String)}, blocks are not
+   * filtered by the hashes of a file, so a single query is needed for a whole project.
+   * Results are {@link DuplicationUnitDto}s.
+   */
+  public void selectCandidatesOfLanguage(@Nullable Integer lastSnapshotId, String language, ResultHandler handler) {
+    SqlSession session = mybatis.openSession(false);
+    try {
+      Map<String, Object> params = new HashMap<>();
+      params.put("last_project_snapshot_id", lastSnapshotId);
+      params.put("language", language);
+      session.select("org.sonar.core.duplication.DuplicationMapper.selectCandidatesOfLanguage", params, handler);
+    } finally {
+      MyBatis.closeQuietly(session);
+    }
+  }
+
   /**
    * Insert rows in the table DUPLICATIONS_INDEX.
    * Note that generated ids are not returned.
@@ -43,7 +43,8 @@ import com.google.common.collect.Iterables;
 @ServerSide
 public class ComponentContainer {
 
-  // no need for multiple children
+  // only the last created child is referenced. Several children can co-exist, for example
+  // when analysis reports are processed concurrently by the compute engine.
   ComponentContainer parent, child;
   MutablePicoContainer pico;
   PropertyDefinitions propertyDefinitions;
@@ -133,7 +134,7 @@ public class ComponentContainer {
     } finally {
       removeChild();
       if (parent != null) {
-        parent.removeChild();
+        parent.removeChild(this);
       }
     }
     return this;
@@ -224,7 +225,7 @@ public class ComponentContainer {
     return pico.getComponents(tClass);
   }
 
-  public ComponentContainer removeChild() {
+  public synchronized ComponentContainer removeChild() {
     if (child != null) {
       pico.removeChildContainer(child.pico);
       child = null;
@@ -232,7 +233,18 @@ public class ComponentContainer {
     return this;
   }
 
-  public ComponentContainer createChild() {
+  /**
+   * Removes the given child container, even if it is not the last created one.
+   */
+  public synchronized ComponentContainer removeChild(ComponentContainer childToBeRemoved) {
+    pico.removeChildContainer(childToBeRemoved.pico);
+    if (child == childToBeRemoved) {
+      child = null;
+    }
+    return this;
+  }
+
+  public synchronized ComponentContainer createChild() {
     return new ComponentContainer(this);
   }
 
@@ -19,10 +19,13 @@
  */
 package org.sonar.core.duplication;
 
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
 import org.junit.Before;
 import org.junit.Test;
 import org.sonar.core.persistence.AbstractDaoTestCase;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -57,6 +60,33 @@ public class DuplicationDaoTest extends AbstractDaoTestCase {
     assertThat(blocks.size(), is(2));
   }
 
+  @Test
+  public void select_candidates_of_language() {
+    setupData("shouldGetByHash");
+
+    final List<DuplicationUnitDto> blocks = new ArrayList<>();
+    ResultHandler handler = new ResultHandler() {
+      @Override
+      public void handleResult(ResultContext context) {
+        blocks.add((DuplicationUnitDto) context.getResultObject());
+      }
+    };
+    dao.selectCandidatesOfLanguage(7, "java", handler);
+    assertThat(blocks.size(), is(1));
+
+    DuplicationUnitDto block = blocks.get(0);
+    assertThat("block resourceId", block.getResourceKey(), is("bar-last"));
+    assertThat("block hash", block.getHash(), is("aa"));
+    assertThat("block index in file", block.getIndexInFile(), is(0));
+    assertThat("block start line", block.getStartLine(), is(1));
+    assertThat("block end line", block.getEndLine(), is(2));
+
+    // check null for lastSnapshotId
+    blocks.clear();
+    dao.selectCandidatesOfLanguage(null, "java", handler);
+    assertThat(blocks.size(), is(2));
+  }
+
   @Test
   public void shouldInsert() {
     setupData("shouldInsert");
@@ -138,6 +138,26 @@ public class ComponentContainerTest {
     assertThat(parent.getChild()).isNull();
   }
 
+  @Test
+  public void stop_one_of_several_children() {
+    ComponentContainer parent = new ComponentContainer();
+    parent.startComponents();
+
+    ComponentContainer child1 = parent.createChild();
+    child1.addSingleton(StartableComponent.class);
+    child1.startComponents();
+    ComponentContainer child2 = parent.createChild();
+    child2.addSingleton(StartableComponent.class);
+    child2.startComponents();
+
+    child1.stopComponents();
+    assertThat(parent.getChild()).isSameAs(child2);
+    assertThat(child2.getComponentByType(StartableComponent.class).stopped).isFalse();
+
+    child2.stopComponents();
+    assertThat(parent.getChild()).isNull();
+  }
+
   @Test
   public void shouldForwardStartAndStopToDescendants() {
     ComponentContainer grandParent = new ComponentContainer();
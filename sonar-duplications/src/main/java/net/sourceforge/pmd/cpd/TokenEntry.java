@@ -30,12 +30,18 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
+ * Identifiers of images and indexes of tokens are maintained per thread, so that files can be tokenized concurrently.
+ *
  * @since 2.2
  */
 public class TokenEntry implements Comparable<TokenEntry> {
 
-  private static final Map<String, Integer> TOKENS = new HashMap<>();
-  private static int tokenCount = 0;
+  private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+    @Override
+    protected State initialValue() {
+      return new State();
+    }
+  };
 
   /**
    * Shared instance of end-of-file token.
@@ -64,15 +70,16 @@ public class TokenEntry implements Comparable<TokenEntry> {
    * @param beginLine number of line
    */
   public TokenEntry(String image, String tokenSrcID, int beginLine) {
-    Integer i = TOKENS.get(image);
+    State state = STATE.get();
+    Integer i = state.tokens.get(image);
     if (i == null) {
-      i = TOKENS.size() + 1;
-      TOKENS.put(image, i);
+      i = state.tokens.size() + 1;
+      state.tokens.put(image, i);
     }
     this.identifier = i.intValue();
     this.tokenSrcID = tokenSrcID;
     this.beginLine = beginLine;
-    this.index = tokenCount++;
+    this.index = state.tokenCount++;
     this.value = image;
   }
 
@@ -90,13 +97,14 @@ public class TokenEntry implements Comparable<TokenEntry> {
    * End-of-file token.
    */
   public static TokenEntry getEOF() {
-    tokenCount++;
+    STATE.get().tokenCount++;
     return EOF;
   }
 
   public static void clearImages() {
-    TOKENS.clear();
-    tokenCount = 0;
+    State state = STATE.get();
+    state.tokens.clear();
+    state.tokenCount = 0;
   }
 
   public String getTokenSrcID() {
@@ -142,4 +150,9 @@ public class TokenEntry implements Comparable<TokenEntry> {
   public String toString() {
     return ToStringBuilder.reflectionToString(this);
   }
+
+  private static class State {
+    private final Map<String, Integer> tokens = new HashMap<>();
+    private int tokenCount = 0;
+  }
 }
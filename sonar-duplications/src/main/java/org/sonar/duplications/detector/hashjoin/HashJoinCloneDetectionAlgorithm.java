@@ -0,0 +1,515 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.duplications.detector.hashjoin;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
+import org.sonar.duplications.detector.ContainsInComparator;
+import org.sonar.duplications.index.CloneGroup;
+import org.sonar.duplications.index.CloneIndex;
+import org.sonar.duplications.index.ClonePart;
+
+import javax.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Detects the same clone groups as {@link org.sonar.duplications.detector.suffixtree.SuffixTreeCloneDetectionAlgorithm},
+ * without building a suffix tree.
+ * <p>
+ * As for the suffix tree, the text is made of the blocks of the file followed by each sequence of consecutive blocks
+ * retrieved from index. Positions of this text are joined on the hashes of blocks, and the length of the sequence
+ * shared by a position of the file with another position is deduced from the one of the next positions, so that matches
+ * are merged along diagonals in a single pass from the end of the file. A clone group is a sequence starting in the file,
+ * whose occurrences are not all followed by the same block, which is exactly an inner node of the suffix tree.
+ * </p>
+ * <p>
+ * Groups which are not left-maximal are discarded before their construction, because they are always covered by the group
+ * starting one block before. The remaining groups are filtered as in
+ * {@link org.sonar.duplications.detector.suffixtree.DuplicationsCollector}, but on primitive representations, so that only
+ * the reported groups are built.
+ * </p>
+ * <p>
+ * Running time is proportional to the number of pairs of positions with the same hash, and does not depend on the length
+ * of clones, except for the construction of the groups.
+ * </p>
+ */
+public final class HashJoinCloneDetectionAlgorithm {
+
+  private static final int SEPARATOR = -1;
+
+  private final String originResourceId;
+  private final List<Block> originBlocks;
+
+  /**
+   * Blocks of the text, with {@code null} at the end of each sequence.
+   */
+  private final List<Block> blocks = Lists.newArrayList();
+  private final List<Integer> resourceIndexes = Lists.newArrayList();
+  private int[] symbols;
+  private int[] resources;
+
+  /**
+   * Positions of the text sorted by symbol, the positions of symbol {@code s} being between
+   * {@code occurrenceStarts[s]} (inclusive) and {@code occurrenceStarts[s + 1]} (exclusive).
+   */
+  private int[] occurrences;
+  private int[] occurrenceStarts;
+
+  /**
+   * Whether indexes of blocks of the file are consecutive, which is required to discard groups that are not left-maximal.
+   */
+  private boolean consecutiveOrigin = true;
+
+  /**
+   * Performs detection and returns list of clone groups between file (which represented as a collection of blocks) and index.
+   * Note that this method ignores blocks for this file, that will be retrieved from index.
+   * Groups are sorted by decreasing length.
+   */
+  public static List<CloneGroup> detect(CloneIndex cloneIndex, Collection<Block> fileBlocks) {
+    if (fileBlocks.isEmpty()) {
+      return Collections.emptyList();
+    }
+    HashJoinCloneDetectionAlgorithm algorithm = new HashJoinCloneDetectionAlgorithm(fileBlocks);
+    if (!algorithm.join(cloneIndex)) {
+      return Collections.emptyList();
+    }
+    return algorithm.findClones();
+  }
+
+  private HashJoinCloneDetectionAlgorithm(Collection<Block> fileBlocks) {
+    this.originResourceId = fileBlocks.iterator().next().getResourceId();
+    this.originBlocks = Lists.newArrayList(fileBlocks);
+    Collections.sort(originBlocks, BLOCK_COMPARATOR);
+  }
+
+  /**
+   * Builds the text and sorts its positions by hash.
+   *
+   * @return false if there is no duplication
+   */
+  private boolean join(CloneIndex index) {
+    Map<ByteArray, Integer> symbolsByHash = Maps.newHashMap();
+    for (Block block : originBlocks) {
+      if (!symbolsByHash.containsKey(block.getBlockHash())) {
+        symbolsByHash.put(block.getBlockHash(), symbolsByHash.size());
+      }
+    }
+
+    Map<String, List<Block>> fromIndex = Maps.newHashMap();
+    for (ByteArray hash : symbolsByHash.keySet()) {
+      for (Block blockFromIndex : index.getBySequenceHash(hash)) {
+        // skip blocks for this file if they come from index
+        String resourceId = blockFromIndex.getResourceId();
+        if (!originResourceId.equals(resourceId)) {
+          List<Block> list = fromIndex.get(resourceId);
+          if (list == null) {
+            list = Lists.newArrayList();
+            fromIndex.put(resourceId, list);
+          }
+          list.add(blockFromIndex);
+        }
+      }
+    }
+
+    if (fromIndex.isEmpty() && symbolsByHash.size() == originBlocks.size()) {
+      // optimization for the case when there is no duplications
+      return false;
+    }
+
+    addSequence(originBlocks, 0);
+    for (int i = 1; i < originBlocks.size(); i++) {
+      consecutiveOrigin &= originBlocks.get(i).getIndexInFile() == originBlocks.get(i - 1).getIndexInFile() + 1;
+    }
+    int resource = 1;
+    for (List<Block> list : fromIndex.values()) {
+      Collections.sort(list, BLOCK_COMPARATOR);
+      int i = 0;
+      while (i < list.size()) {
+        int j = i + 1;
+        while ((j < list.size()) && (list.get(j).getIndexInFile() == list.get(j - 1).getIndexInFile() + 1)) {
+          j++;
+        }
+        addSequence(list.subList(i, j), resource);
+        i = j;
+      }
+      resource++;
+    }
+
+    symbols = new int[blocks.size()];
+    resources = new int[blocks.size()];
+    occurrenceStarts = new int[symbolsByHash.size() + 1];
+    for (int position = 0; position < symbols.length; position++) {
+      Block block = blocks.get(position);
+      symbols[position] = block == null ? SEPARATOR : symbolsByHash.get(block.getBlockHash());
+      resources[position] = resourceIndexes.get(position);
+      if (block != null) {
+        occurrenceStarts[symbols[position] + 1]++;
+      }
+    }
+    for (int symbol = 0; symbol < symbolsByHash.size(); symbol++) {
+      occurrenceStarts[symbol + 1] += occurrenceStarts[symbol];
+    }
+    occurrences = new int[occurrenceStarts[symbolsByHash.size()]];
+    int[] next = Arrays.copyOf(occurrenceStarts, symbolsByHash.size());
+    for (int position = 0; position < symbols.length; position++) {
+      if (symbols[position] != SEPARATOR) {
+        occurrences[next[symbols[position]]++] = position;
+      }
+    }
+    return true;
+  }
+
+  private void addSequence(List<Block> sequence, int resource) {
+    for (Block block : sequence) {
+      blocks.add(block);
+      resourceIndexes.add(resource);
+    }
+    blocks.add(null);
+    resourceIndexes.add(resource);
+  }
+
+  private List<CloneGroup> findClones() {
+    List<Candidate> candidates = Lists.newArrayList();
+    Row next = null;
+    for (int position = originBlocks.size() - 1; position >= 0; position--) {
+      Row row = new Row(position, next);
+      if (next != null) {
+        next.collectCandidates(consecutiveOrigin ? row : null, candidates);
+      }
+      next = row;
+    }
+    next.collectCandidates(null, candidates);
+
+    Collections.sort(candidates, LONGEST_FIRST);
+    ReportedCandidates reported = new ReportedCandidates();
+    List<CloneGroup> result = Lists.newArrayList();
+    for (Candidate candidate : candidates) {
+      candidate.computeParts();
+      if (reported.cover(candidate)) {
+        candidate.releaseParts();
+      } else {
+        reported.add(candidate);
+        result.add(candidate.toCloneGroup());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Same as {@link org.sonar.duplications.utils.SortedListsUtils#contains(List, List, Comparator)} with
+   * {@link ContainsInComparator}, on parts encoded by {@link Candidate#computeParts()}. As every part of first is
+   * contained in a part of second, both have the same resources if they have the same number of resources.
+   */
+  private static boolean containsIn(Candidate first, Candidate second) {
+    if (first.length > second.length || first.resourceCount != second.resourceCount) {
+      return false;
+    }
+    long[] container = second.parts;
+    int c = 0;
+    for (long part : first.parts) {
+      while (true) {
+        if (c == container.length) {
+          return false;
+        }
+        int containerResource = resource(container[c]);
+        int resource = resource(part);
+        if (containerResource < resource) {
+          c++;
+        } else if (containerResource > resource || unitStart(container[c]) > unitStart(part)) {
+          return false;
+        } else if (unitStart(part) + first.length <= unitStart(container[c]) + second.length) {
+          // part is contained, next part can be contained in the same one
+          break;
+        } else {
+          c++;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static int resource(long part) {
+    return (int) (part >>> 32);
+  }
+
+  private static int unitStart(long part) {
+    return (int) part;
+  }
+
+  /**
+   * @return index of the first value greater than or equal to the specified one
+   */
+  private static int lowerBound(int[] values, int value) {
+    int low = 0;
+    int high = values.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (values[mid] < value) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Lengths of the sequences shared by a position of the file with the positions having the same hash.
+   */
+  private final class Row {
+    private final int position;
+    private final int from;
+    private final int[] lengths;
+
+    /**
+     * Lengths for the other positions, sorted on demand.
+     */
+    private int[] sortedLengths;
+
+    /**
+     * The sequences of the file, which are shared with a previous position of the file, are reported from that position.
+     */
+    private int maxLengthBefore;
+    private int maxLength;
+
+    Row(int position, @Nullable Row next) {
+      this.position = position;
+      int symbol = symbols[position];
+      this.from = occurrenceStarts[symbol];
+      this.lengths = new int[occurrenceStarts[symbol + 1] - from];
+
+      int nextSymbol = symbols[position + 1];
+      if (nextSymbol == SEPARATOR) {
+        Arrays.fill(lengths, 1);
+      } else {
+        int nextFrom = occurrenceStarts[nextSymbol];
+        int nextTo = occurrenceStarts[nextSymbol + 1];
+        int j = nextFrom;
+        for (int k = 0; k < lengths.length; k++) {
+          int following = occurrences[from + k] + 1;
+          while (j < nextTo && occurrences[j] < following) {
+            j++;
+          }
+          lengths[k] = j < nextTo && occurrences[j] == following ? 1 + next.lengths[j - nextFrom] : 1;
+        }
+      }
+
+      for (int k = 0; k < lengths.length; k++) {
+        int other = occurrences[from + k];
+        if (other < position) {
+          maxLengthBefore = Math.max(maxLengthBefore, lengths[k]);
+        }
+        if (other != position) {
+          maxLength = Math.max(maxLength, lengths[k]);
+        }
+      }
+    }
+
+    /**
+     * Adds a candidate for each length at which some of the shared sequences stop.
+     *
+     * @param previous row of the previous position, if the group starting one block before can be checked
+     */
+    void collectCandidates(@Nullable Row previous, List<Candidate> candidates) {
+      if (maxLength <= maxLengthBefore) {
+        return;
+      }
+      int[] sorted = sortedLengths();
+      int end = sorted.length;
+      while (end > 0) {
+        int length = sorted[end - 1];
+        if (length <= maxLengthBefore) {
+          break;
+        }
+        int start = lowerBound(sorted, length);
+        int count = sorted.length - start;
+        // if all occurrences are preceded by the same block, then the group is covered by the one starting one block before
+        if (previous == null || previous.countAtLeast(length + 1) != count) {
+          candidates.add(new Candidate(this, length));
+        }
+        end = start;
+      }
+    }
+
+    int countAtLeast(int length) {
+      int[] sorted = sortedLengths();
+      return sorted.length - lowerBound(sorted, length);
+    }
+
+    private int[] sortedLengths() {
+      if (sortedLengths == null) {
+        sortedLengths = new int[lengths.length - 1];
+        int i = 0;
+        for (int k = 0; k < lengths.length; k++) {
+          if (occurrences[from + k] != position) {
+            sortedLengths[i] = lengths[k];
+            i++;
+          }
+        }
+        Arrays.sort(sortedLengths);
+      }
+      return sortedLengths;
+    }
+  }
+
+  private final class Candidate {
+    private final Row row;
+    private final int length;
+
+    /**
+     * Parts encoded as {@code (resource << 32) | unitStart}. Resources are numbered and sequences of a resource are added
+     * to the text in the order of their positions, so parts are sorted when taken in the order of positions.
+     */
+    private long[] parts;
+    private int resourceCount;
+
+    Candidate(Row row, int length) {
+      this.row = row;
+      this.length = length;
+    }
+
+    void computeParts() {
+      int count = 0;
+      for (int k = 0; k < row.lengths.length; k++) {
+        if (isPart(k)) {
+          count++;
+        }
+      }
+      parts = new long[count];
+      int i = 0;
+      for (int k = 0; k < row.lengths.length; k++) {
+        if (isPart(k)) {
+          int position = occurrences[row.from + k];
+          parts[i] = ((long) resources[position] << 32) | blocks.get(position).getIndexInFile();
+          if (i > 0 && resource(parts[i]) != resource(parts[i - 1])) {
+            resourceCount++;
+          }
+          i++;
+        }
+      }
+      resourceCount++;
+    }
+
+    void releaseParts() {
+      parts = null;
+    }
+
+    private boolean isPart(int k) {
+      return row.lengths[k] >= length || occurrences[row.from + k] == row.position;
+    }
+
+    /**
+     * Origin is the first occurrence in the file, as previous ones would have started a longer group.
+     */
+    CloneGroup toCloneGroup() {
+      ClonePart origin = clonePart(row.position);
+      List<ClonePart> cloneParts = Lists.newArrayListWithCapacity(parts.length);
+      for (int k = 0; k < row.lengths.length; k++) {
+        if (isPart(k)) {
+          int position = occurrences[row.from + k];
+          cloneParts.add(position == row.position ? origin : clonePart(position));
+        }
+      }
+      Collections.sort(cloneParts, ContainsInComparator.CLONEPART_COMPARATOR);
+
+      Block firstBlock = blocks.get(row.position);
+      Block lastBlock = blocks.get(row.position + length - 1);
+      return CloneGroup.builder()
+        .setLength(length)
+        .setLengthInUnits(lastBlock.getEndUnit() - firstBlock.getStartUnit() + 1)
+        .setOrigin(origin)
+        .setParts(cloneParts)
+        .build();
+    }
+
+    private ClonePart clonePart(int position) {
+      Block firstBlock = blocks.get(position);
+      Block lastBlock = blocks.get(position + length - 1);
+      return new ClonePart(firstBlock.getResourceId(), firstBlock.getIndexInFile(), firstBlock.getStartLine(), lastBlock.getEndLine());
+    }
+  }
+
+  /**
+   * Reported candidates are longer or as long as the current one, so only them can cover it. A candidate which covers
+   * the current one has a part containing its first part, i.e. a part of the same resource starting at most
+   * {@code maxLength - length} units before. Reported candidates are indexed by their parts, so that only these ones
+   * are checked.
+   */
+  private static final class ReportedCandidates {
+    private final NavigableMap<Long, List<Candidate>> candidatesByPart = Maps.newTreeMap();
+    private int maxLength;
+
+    void add(Candidate candidate) {
+      maxLength = Math.max(maxLength, candidate.length);
+      for (long part : candidate.parts) {
+        List<Candidate> list = candidatesByPart.get(part);
+        if (list == null) {
+          list = Lists.newArrayList();
+          candidatesByPart.put(part, list);
+        }
+        list.add(candidate);
+      }
+    }
+
+    boolean cover(Candidate current) {
+      if (candidatesByPart.isEmpty()) {
+        return false;
+      }
+      long firstPart = current.parts[0];
+      // parts of the same resource, as unit starts are not negative
+      long fromPart = firstPart - Math.min(unitStart(firstPart), maxLength - current.length);
+      for (List<Candidate> list : candidatesByPart.subMap(fromPart, true, firstPart, true).values()) {
+        for (Candidate earlier : list) {
+          if (containsIn(current, earlier)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final Comparator<Candidate> LONGEST_FIRST = new Comparator<Candidate>() {
+    @Override
+    public int compare(Candidate o1, Candidate o2) {
+      if (o1.length != o2.length) {
+        return o2.length - o1.length;
+      }
+      return o1.row.position - o2.row.position;
+    }
+  };
+
+  private static final Comparator<Block> BLOCK_COMPARATOR = new Comparator<Block>() {
+    @Override
+    public int compare(Block o1, Block o2) {
+      return o1.getIndexInFile() - o2.getIndexInFile();
+    }
+  };
+
+}
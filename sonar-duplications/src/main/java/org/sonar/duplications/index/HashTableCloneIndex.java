@@ -0,0 +1,328 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.duplications.index;
+
+import com.google.common.collect.Lists;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides an index of blocks with 8-byte hashes, optimized for lookups by hash.
+ * <p>
+ * Blocks are stored in flat primitive arrays. Blocks with the same hash and blocks of the same resource are linked
+ * together, and the first block of each hash is found through an open-addressing hash table with linear probing.
+ * So lookups do not require sorting, and {@link #visitBySequenceHash(ByteArray, BlockVisitor)} and
+ * {@link #visitByResourceId(String, BlockVisitor)} do not allocate any object.
+ * </p>
+ * <p>
+ * Blocks are returned in order of insertion. Queries can be executed concurrently, but not during insertions.
+ * </p>
+ */
+public class HashTableCloneIndex extends AbstractCloneIndex {
+
+  /**
+   * Receives the blocks found by a query.
+   */
+  public interface BlockVisitor {
+    void visit(long hash, String resourceId, int indexInFile, int startLine, int endLine, int startUnit, int endUnit);
+  }
+
+  private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+  private static final int HASH_BYTES = 8;
+  private static final int NONE = -1;
+
+  /**
+   * Current number of blocks in index.
+   */
+  private int size;
+
+  private long[] hashes;
+  private int[] resources;
+  private int[] indexesInFile;
+  private int[] startLines;
+  private int[] endLines;
+  private int[] startUnits;
+  private int[] endUnits;
+  private int[] nextWithSameHash;
+  private int[] nextWithSameResource;
+
+  /**
+   * Hash table of the distinct hashes. A slot is empty when its first block is {@link #NONE}.
+   */
+  private long[] slotHashes;
+  private int[] slotFirstBlocks;
+  private int[] slotLastBlocks;
+  private int slotShift;
+  private int usedSlots;
+
+  private final Map<String, ResourceBlocks> blocksByResourceId = new HashMap<>();
+  private final List<ResourceBlocks> resourceBlocks = Lists.newArrayList();
+
+  public HashTableCloneIndex() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  /**
+   * @param initialCapacity the initial number of blocks
+   */
+  public HashTableCloneIndex(int initialCapacity) {
+    int capacity = Math.max(1, initialCapacity);
+    this.hashes = new long[capacity];
+    this.resources = new int[capacity];
+    this.indexesInFile = new int[capacity];
+    this.startLines = new int[capacity];
+    this.endLines = new int[capacity];
+    this.startUnits = new int[capacity];
+    this.endUnits = new int[capacity];
+    this.nextWithSameHash = new int[capacity];
+    this.nextWithSameResource = new int[capacity];
+    // keeps the load factor of the table under 0.5
+    initSlots(Integer.highestOneBit(capacity) << 2);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * <strong>Note that this implementation allows insertion of two blocks with same index for one resource.</strong>
+   * </p>
+   */
+  @Override
+  public void insert(Block block) {
+    long hash = toLong(block.getBlockHash());
+    ensureCapacity();
+
+    int id = size;
+    hashes[id] = hash;
+    indexesInFile[id] = block.getIndexInFile();
+    startLines[id] = block.getStartLine();
+    endLines[id] = block.getEndLine();
+    startUnits[id] = block.getStartUnit();
+    endUnits[id] = block.getEndUnit();
+    nextWithSameHash[id] = NONE;
+    nextWithSameResource[id] = NONE;
+
+    ResourceBlocks resource = blocksByResourceId.get(block.getResourceId());
+    if (resource == null) {
+      resource = new ResourceBlocks(resourceBlocks.size(), block.getResourceId());
+      blocksByResourceId.put(resource.resourceId, resource);
+      resourceBlocks.add(resource);
+    }
+    resources[id] = resource.index;
+    if (resource.first == NONE) {
+      resource.first = id;
+    } else {
+      nextWithSameResource[resource.last] = id;
+    }
+    resource.last = id;
+
+    int slot = slot(hash);
+    if (slotFirstBlocks[slot] == NONE) {
+      slotHashes[slot] = hash;
+      slotFirstBlocks[slot] = id;
+      usedSlots++;
+    } else {
+      nextWithSameHash[slotLastBlocks[slot]] = id;
+    }
+    slotLastBlocks[slot] = id;
+    size++;
+
+    if (usedSlots * 2 > slotHashes.length) {
+      rehash();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Collection<Block> getBySequenceHash(ByteArray sequenceHash) {
+    BlocksCollector collector = new BlocksCollector(sequenceHash);
+    visitBySequenceHash(sequenceHash, collector);
+    return collector.blocks;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Collection<Block> getByResourceId(String resourceId) {
+    BlocksCollector collector = new BlocksCollector(null);
+    visitByResourceId(resourceId, collector);
+    return collector.blocks;
+  }
+
+  /**
+   * Visits the blocks with the specified hash, without allocating objects.
+   *
+   * @return the number of visited blocks
+   */
+  public int visitBySequenceHash(ByteArray sequenceHash, BlockVisitor visitor) {
+    int slot = slot(toLong(sequenceHash));
+    int count = 0;
+    for (int id = slotFirstBlocks[slot]; id != NONE; id = nextWithSameHash[id]) {
+      visit(id, visitor);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Visits the blocks of the specified resource, without allocating objects.
+   *
+   * @return the number of visited blocks
+   */
+  public int visitByResourceId(String resourceId, BlockVisitor visitor) {
+    ResourceBlocks resource = blocksByResourceId.get(resourceId);
+    if (resource == null) {
+      return 0;
+    }
+    int count = 0;
+    for (int id = resource.first; id != NONE; id = nextWithSameResource[id]) {
+      visit(id, visitor);
+      count++;
+    }
+    return count;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private void visit(int id, BlockVisitor visitor) {
+    visitor.visit(hashes[id], resourceBlocks.get(resources[id]).resourceId, indexesInFile[id], startLines[id], endLines[id], startUnits[id], endUnits[id]);
+  }
+
+  /**
+   * @return the slot of the hash, or the empty slot where it should be added
+   */
+  private int slot(long hash) {
+    int mask = slotHashes.length - 1;
+    // Fibonacci hashing spreads the bits of hashes computed by polynomial rolling
+    int slot = (int) ((hash * 0x9E3779B97F4A7C15L) >>> slotShift);
+    while (slotFirstBlocks[slot] != NONE && slotHashes[slot] != hash) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void initSlots(int capacity) {
+    slotHashes = new long[capacity];
+    slotFirstBlocks = new int[capacity];
+    slotLastBlocks = new int[capacity];
+    Arrays.fill(slotFirstBlocks, NONE);
+    slotShift = 64 - Integer.numberOfTrailingZeros(capacity);
+    usedSlots = 0;
+  }
+
+  /**
+   * Doubles the size of the hash table. Links between blocks do not change.
+   */
+  private void rehash() {
+    long[] oldHashes = slotHashes;
+    int[] oldFirstBlocks = slotFirstBlocks;
+    int[] oldLastBlocks = slotLastBlocks;
+    initSlots(oldHashes.length << 1);
+    for (int i = 0; i < oldHashes.length; i++) {
+      if (oldFirstBlocks[i] != NONE) {
+        int slot = slot(oldHashes[i]);
+        slotHashes[slot] = oldHashes[i];
+        slotFirstBlocks[slot] = oldFirstBlocks[i];
+        slotLastBlocks[slot] = oldLastBlocks[i];
+        usedSlots++;
+      }
+    }
+  }
+
+  /**
+   * Increases the capacity, if necessary.
+   */
+  private void ensureCapacity() {
+    if (size < hashes.length) {
+      return;
+    }
+    int newCapacity = (hashes.length * 3) / 2 + 1;
+    hashes = Arrays.copyOf(hashes, newCapacity);
+    resources = Arrays.copyOf(resources, newCapacity);
+    indexesInFile = Arrays.copyOf(indexesInFile, newCapacity);
+    startLines = Arrays.copyOf(startLines, newCapacity);
+    endLines = Arrays.copyOf(endLines, newCapacity);
+    startUnits = Arrays.copyOf(startUnits, newCapacity);
+    endUnits = Arrays.copyOf(endUnits, newCapacity);
+    nextWithSameHash = Arrays.copyOf(nextWithSameHash, newCapacity);
+    nextWithSameResource = Arrays.copyOf(nextWithSameResource, newCapacity);
+  }
+
+  private static long toLong(ByteArray hash) {
+    // no copy of the bytes
+    byte[] bytes = hash.getBytes();
+    if (bytes.length != HASH_BYTES) {
+      throw new IllegalArgumentException("Expected " + HASH_BYTES + " bytes in hash, but got " + bytes.length);
+    }
+    long result = 0;
+    for (byte b : bytes) {
+      result = (result << 8) | (b & 0xFF);
+    }
+    return result;
+  }
+
+  private static class ResourceBlocks {
+    private final int index;
+    private final String resourceId;
+    private int first = NONE;
+    private int last = NONE;
+
+    ResourceBlocks(int index, String resourceId) {
+      this.index = index;
+      this.resourceId = resourceId;
+    }
+  }
+
+  /**
+   * Converts the visited blocks to {@link Block}s, for the methods of {@link CloneIndex}.
+   */
+  private static class BlocksCollector implements BlockVisitor {
+    private final ByteArray sequenceHash;
+    private final Block.Builder blockBuilder = Block.builder();
+    private final List<Block> blocks = Lists.newArrayList();
+
+    BlocksCollector(ByteArray sequenceHash) {
+      this.sequenceHash = sequenceHash;
+    }
+
+    @Override
+    public void visit(long hash, String resourceId, int indexInFile, int startLine, int endLine, int startUnit, int endUnit) {
+      blocks.add(blockBuilder
+        .setResourceId(resourceId)
+        // blocks found by hash share the hash of the query
+        .setBlockHash(sequenceHash != null ? sequenceHash : new ByteArray(hash))
+        .setIndexInFile(indexInFile)
+        .setLines(startLine, endLine)
+        .setUnit(startUnit, endUnit)
+        .build());
+    }
+  }
+
+}
@@ -44,6 +44,28 @@ public class TokenEntryTest {
     assertThat(entry.getBeginLine(), equalTo(2));
   }
 
+  @Test
+  public void identifiers_and_indexes_are_maintained_per_thread() throws Exception {
+    TokenEntry first = new TokenEntry("token1", "src1", 1);
+    final TokenEntry[] otherThread = new TokenEntry[1];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        otherThread[0] = new TokenEntry("token2", "src2", 1);
+      }
+    };
+    thread.start();
+    thread.join();
+    TokenEntry second = new TokenEntry("token2", "src1", 1);
+
+    assertThat(first.getIdentifier(), equalTo(1));
+    assertThat(first.getIndex(), equalTo(0));
+    assertThat(otherThread[0].getIdentifier(), equalTo(1));
+    assertThat(otherThread[0].getIndex(), equalTo(0));
+    assertThat(second.getIdentifier(), equalTo(2));
+    assertThat(second.getIndex(), equalTo(1));
+  }
+
   @Test
   public void testGetEOF() {
     assertThat(TokenEntry.getEOF(), sameInstance(TokenEntry.getEOF()));
@@ -0,0 +1,138 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.duplications.detector.hashjoin;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
+import org.sonar.duplications.detector.suffixtree.SuffixTreeCloneDetectionAlgorithm;
+import org.sonar.duplications.detector.suffixtree.SuffixTreeCloneDetectionAlgorithmTest;
+import org.sonar.duplications.index.CloneGroup;
+import org.sonar.duplications.index.CloneIndex;
+import org.sonar.duplications.index.MemoryCloneIndex;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the tests of the suffix tree, as both algorithms must detect the same clone groups.
+ */
+public class HashJoinCloneDetectionAlgorithmTest extends SuffixTreeCloneDetectionAlgorithmTest {
+
+  @Test
+  public void same_clone_groups_as_suffix_tree() {
+    Random random = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      // small alphabets produce many overlapping and nested clones
+      int alphabet = 1 + random.nextInt(6);
+      CloneIndex index = new MemoryCloneIndex();
+      int resources = random.nextInt(5);
+      for (int r = 0; r < resources; r++) {
+        for (Block block : randomBlocks(random, "r" + r, alphabet + 2)) {
+          index.insert(block);
+        }
+      }
+      List<Block> fileBlocks = randomBlocks(random, "x", alphabet);
+      if (random.nextBoolean()) {
+        for (Block block : fileBlocks) {
+          index.insert(block);
+        }
+      }
+      Collections.shuffle(fileBlocks, random);
+
+      List<CloneGroup> expected = SuffixTreeCloneDetectionAlgorithm.detect(index, fileBlocks);
+      List<CloneGroup> result = HashJoinCloneDetectionAlgorithm.detect(index, fileBlocks);
+
+      assertEquals(fileBlocks.toString(), expected.size(), result.size());
+      assertEquals(fileBlocks.toString(), Sets.newHashSet(expected), Sets.newHashSet(result));
+    }
+  }
+
+  @Test
+  public void longest_clone_groups_first() {
+    CloneIndex index = createIndex(
+      newBlocks("y", "2 3 4 5"),
+      newBlocks("z", "3 4"));
+    List<CloneGroup> result = detect(index, newBlocks("x", "1 2 3 4 5 6"));
+
+    assertEquals(2, result.size());
+    assertEquals(4, result.get(0).getCloneUnitLength());
+    assertEquals(2, result.get(1).getCloneUnitLength());
+  }
+
+  @Test
+  public void length_in_units_of_origin() {
+    Block[] fileBlocks = newBlocks("x", "1 2 1 2");
+    for (int i = 0; i < fileBlocks.length; i++) {
+      fileBlocks[i] = Block.builder()
+        .setResourceId("x")
+        .setBlockHash(fileBlocks[i].getBlockHash())
+        .setIndexInFile(i)
+        .setLines(i, i + LINES_PER_BLOCK)
+        .setUnit(10 * i, 10 * i + 14)
+        .build();
+    }
+    List<CloneGroup> result = detect(createIndex(), fileBlocks);
+
+    assertEquals(1, result.size());
+    assertEquals(25, result.get(0).getLengthInUnits());
+    assertEquals(0, result.get(0).getOriginPart().getUnitStart());
+  }
+
+  @Test
+  public void many_clone_groups() {
+    // the file shares each pair of its blocks with a distinct sequence of the other resource
+    int groups = 5000;
+    CloneIndex index = new MemoryCloneIndex();
+    List<Block> fileBlocks = Lists.newArrayList();
+    for (int i = 0; i < 2 * groups; i++) {
+      fileBlocks.add(newBlock("x", new ByteArray((long) i), i));
+      index.insert(newBlock("y", new ByteArray((long) i), i + i / 2));
+    }
+    List<CloneGroup> result = HashJoinCloneDetectionAlgorithm.detect(index, fileBlocks);
+
+    assertEquals(groups, result.size());
+    for (CloneGroup group : result) {
+      assertEquals(2, group.getCloneUnitLength());
+      assertEquals(2, group.getCloneParts().size());
+    }
+  }
+
+  private static List<Block> randomBlocks(Random random, String resourceId, int alphabet) {
+    List<Block> blocks = Lists.newArrayList();
+    int size = 1 + random.nextInt(25);
+    for (int i = 0; i < size; i++) {
+      blocks.add(newBlock(resourceId, new ByteArray((long) random.nextInt(alphabet)), i));
+    }
+    return blocks;
+  }
+
+  @Override
+  protected List<CloneGroup> detect(CloneIndex index, Block[] fileBlocks) {
+    return HashJoinCloneDetectionAlgorithm.detect(index, Arrays.asList(fileBlocks));
+  }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * SonarQube, open source software quality management tool.
+ * Copyright (C) 2008-2014 SonarSource
+ * mailto:contact AT sonarsource DOT com
+ *
+ * SonarQube is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * SonarQube is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.duplications.index;
+
+import org.junit.Test;
+import org.sonar.duplications.block.Block;
+import org.sonar.duplications.block.ByteArray;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HashTableCloneIndexTest {
+
+  HashTableCloneIndex index = new HashTableCloneIndex();
+
+  @Test
+  public void get_by_hash_and_by_resource() {
+    index.insert(newBlock("a", 1, 0));
+    index.insert(newBlock("a", 2, 1));
+    index.insert(newBlock("b", 1, 0));
+    index.insert(newBlock("c", 1, 0));
+    index.insert(newBlock("d", 1, 0));
+    index.insert(newBlock("e", 1, 0));
+    index.insert(newBlock("e", 2, 1));
+    index.insert(newBlock("e", 3, 2));
+
+    assertThat(index.size()).isEqualTo(8);
+    assertThat(index.getBySequenceHash(new ByteArray(1L))).hasSize(5);
+    assertThat(index.getBySequenceHash(new ByteArray(2L))).hasSize(2);
+    assertThat(index.getBySequenceHash(new ByteArray(3L))).hasSize(1);
+    assertThat(index.getBySequenceHash(new ByteArray(4L))).isEmpty();
+    assertThat(index.getByResourceId("a")).containsExactly(newBlock("a", 1, 0), newBlock("a", 2, 1));
+    assertThat(index.getByResourceId("b")).hasSize(1);
+    assertThat(index.getByResourceId("e")).hasSize(3);
+    assertThat(index.getByResourceId("does not exist")).isEmpty();
+  }
+
+  @Test
+  public void blocks_keep_all_fields() {
+    Block block = Block.builder()
+      .setResourceId("a")
+      .setBlockHash(new ByteArray(42L))
+      .setIndexInFile(3)
+      .setLines(10, 20)
+      .setUnit(100, 200)
+      .build();
+    index.insert(block);
+
+    Block found = index.getByResourceId("a").iterator().next();
+    assertThat(found).isEqualTo(block);
+    assertThat(found.getBlockHash()).isEqualTo(new ByteArray(42L));
+    assertThat(found.getStartUnit()).isEqualTo(100);
+    assertThat(found.getEndUnit()).isEqualTo(200);
+  }
+
+  /**
+   * Blocks found by hash share the hash of the query, like in {@link PackedMemoryCloneIndex}.
+   */
+  @Test
+  public void construct_blocks_with_normalized_hash() {
+    index.insert(newBlock("a", 1, 0));
+    index.insert(newBlock("b", 1, 0));
+    ByteArray requestedHash = new ByteArray(1L);
+
+    Collection<Block> blocks = index.getBySequenceHash(requestedHash);
+
+    assertThat(blocks).hasSize(2);
+    for (Block block : blocks) {
+      assertThat(block.getBlockHash()).isSameAs(requestedHash);
+    }
+  }
+
+  @Test
+  public void visit_blocks() {
+    index.insert(newBlock("a", 1, 0));
+    index.insert(newBlock("b", 1, 4));
+    index.insert(newBlock("b", 2, 5));
+    final List<String> visited = new ArrayList<>();
+    HashTableCloneIndex.BlockVisitor visitor = new HashTableCloneIndex.BlockVisitor() {
+      @Override
+      public void visit(long hash, String resourceId, int indexInFile, int startLine, int endLine, int startUnit, int endUnit) {
+        visited.add(resourceId + ":" + hash + ":" + indexInFile);
+      }
+    };
+
+    assertThat(index.visitBySequenceHash(new ByteArray(1L), visitor)).isEqualTo(2);
+    assertThat(index.visitByResourceId("b", visitor)).isEqualTo(2);
+    assertThat(index.visitByResourceId("c", visitor)).isEqualTo(0);
+
+    assertThat(visited).containsExactly("a:1:0", "b:1:4", "b:1:4", "b:2:5");
+  }
+
+  /**
+   * Given: index with initial capacity 1.
+   * Expected: arrays and hash table grow, and blocks can still be found.
+   */
+  @Test
+  public void increase_capacity() {
+    index = new HashTableCloneIndex(1);
+    for (int i = 0; i < 10000; i++) {
+      index.insert(newBlock("resource" + (i % 10), i % 1000, i));
+    }
+
+    assertThat(index.size()).isEqualTo(10000);
+    for (int i = 0; i < 1000; i++) {
+      assertThat(index.getBySequenceHash(new ByteArray((long) i))).hasSize(10);
+    }
+    assertThat(index.getByResourceId("resource3")).hasSize(1000);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void attempt_to_insert_hash_of_incorrect_size() {
+    index.insert(Block.builder().setResourceId("a").setBlockHash(new ByteArray(1)).setIndexInFile(0).setLines(1, 2).build());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void attempt_to_find_hash_of_incorrect_size() {
+    index.getBySequenceHash(new ByteArray(1));
+  }
+
+  private static Block newBlock(String resourceId, long hash, int indexInFile) {
+    return Block.builder()
+      .setResourceId(resourceId)
+      .setBlockHash(new ByteArray(hash))
+      .setIndexInFile(indexInFile)
+      .setLines(1, 2)
+      .build();
+  }
+
+}
@@ -19,12 +19,18 @@
  */
 package org.sonar.duplications.index;
 
+import com.google.common.collect.Lists;
 import org.junit.Before;
 import org.junit.Test;
 import org.sonar.duplications.block.Block;
 import org.sonar.duplications.block.ByteArray;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.sameInstance;
@@ -109,6 +115,36 @@ public class PackedMemoryCloneIndexTest {
     index.getBySequenceHash(new ByteArray(1L));
   }
 
+  /**
+   * Given: index with blocks of several resources.
+   * Expected: concurrent queries return the same results as sequential queries.
+   */
+  @Test
+  public void should_support_concurrent_queries() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      index.insert(newBlock("resource" + (i % 10), i % 100));
+    }
+
+    ExecutorService executorService = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Integer>> results = Lists.newArrayList();
+      for (int i = 0; i < 100; i++) {
+        final int hash = i;
+        results.add(executorService.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() {
+            return index.getBySequenceHash(new ByteArray((long) hash)).size() + index.getByResourceId("resource" + (hash % 10)).size();
+          }
+        }));
+      }
+      for (Future<Integer> result : results) {
+        assertThat(result.get(), is(110));
+      }
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
   private static Block newBlock(String resourceId, long hash) {
     return Block.builder()
         .setResourceId(resourceId)
@@ -30,6 +30,9 @@ import org.sonar.api.resources.Resource;
 public interface Decorator extends CheckProject {
 
   /**
+   * Can be called concurrently on resources of different directories or packages when the property
+   * sonar.decorators.threads is greater than 1, unless the decorator is annotated with {@link SequentialDecorator}.
+   *
    * @param resource resource that is currently decorated, equivalent of <code>context.getResource()</code>
    */
   void decorate(Resource resource, DecoratorContext context);
@@ -23,6 +23,7 @@ import com.google.common.base.Preconditions;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.TextPointer;
 import org.sonar.api.batch.fs.TextRange;
+import org.sonar.api.batch.fs.internal.FileMetadata.LineHashes;
 import org.sonar.api.batch.fs.internal.FileMetadata.Metadata;
 import org.sonar.api.utils.PathUtils;
 
@@ -55,6 +56,7 @@ public class DefaultInputFile implements InputFile, org.sonar.api.resources.Inpu
   private String hash;
   private int nonBlankLines;
   private int[] originalLineOffsets;
+  private LineHashes lineHashes;
 
   public DefaultInputFile(String moduleKey, String relativePath) {
     this.moduleKey = moduleKey;
@@ -203,6 +205,15 @@ public class DefaultInputFile implements InputFile, org.sonar.api.resources.Inpu
     return this;
   }
 
+  /**
+   * Hashes of lines computed with the metadata, or null if the metadata were not computed from the file
+   * or if the number of lines was changed since.
+   */
+  @CheckForNull
+  LineHashes lineHashes() {
+    return lineHashes != null && lineHashes.lines() == lines ? lineHashes : null;
+  }
+
   @Override
   public TextPointer newPointer(int line, int lineOffset) {
     DefaultTextPointer textPointer = new DefaultTextPointer(line, lineOffset);
@@ -264,6 +275,7 @@ public class DefaultInputFile implements InputFile, org.sonar.api.resources.Inpu
     this.setNonBlankLines(metadata.nonBlankLines);
     this.setHash(metadata.hash);
     this.setOriginalLineOffsets(metadata.originalLineOffsets);
+    this.lineHashes = metadata.lineHashes;
     return this;
   }
 
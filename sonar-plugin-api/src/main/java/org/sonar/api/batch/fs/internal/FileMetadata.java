@@ -19,30 +19,33 @@
  */
 package org.sonar.api.batch.fs.internal;
 
-import com.google.common.primitives.Ints;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.ByteOrderMark;
-import org.apache.commons.io.input.BOMInputStream;
 import org.sonar.api.batch.BatchSide;
 import org.sonar.api.CoreProperties;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 
-import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
 import java.security.MessageDigest;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * Computes hash of files. Ends of Lines are ignored, so files with
@@ -56,6 +59,19 @@ public class FileMetadata {
   private static final char LINE_FEED = '\n';
   private static final char CARRIAGE_RETURN = '\r';
 
+  /**
+   * Size of the blocks of bytes read from files, and of the blocks of decoded chars.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Byte order marks removed from the beginning of files, longest first as some of them start with the same bytes.
+   */
+  private static final ByteOrderMark[] BOMS = {ByteOrderMark.UTF_32LE, ByteOrderMark.UTF_32BE, ByteOrderMark.UTF_8, ByteOrderMark.UTF_16LE,
+    ByteOrderMark.UTF_16BE};
+
+  private static final int MD5_LENGTH = 16;
+
   public abstract static class CharHandler {
 
     protected void handleAll(char c) {
@@ -71,15 +87,31 @@ public class FileMetadata {
     }
   }
 
-  private static class LineCounter extends CharHandler {
+  /**
+   * Computes all the metadata of a file, including the hashes of lines, so that the file is read only once.
+   */
+  private static class MetadataComputer extends CharHandler {
+    private final File file;
+    private final Charset encoding;
+    private boolean alreadyLoggedInvalidCharacter = false;
+
     private int lines = 1;
     private int nonBlankLines = 0;
     private boolean blankLine = true;
-    boolean alreadyLoggedInvalidCharacter = false;
-    private final File file;
-    private final Charset encoding;
 
-    LineCounter(File file, Charset encoding) {
+    private final MessageDigest globalMd5Digest = DigestUtils.getMd5Digest();
+    private final LineBuffer line = new LineBuffer();
+
+    private final MessageDigest lineMd5Digest = DigestUtils.getMd5Digest();
+    private final LineBuffer nonWhitespaces = new LineBuffer();
+    private byte[] lineHashes = new byte[64 * MD5_LENGTH];
+    private final BitSet linesWithoutHash = new BitSet();
+
+    private int currentOriginalOffset = 0;
+    private int[] originalLineOffsets = new int[64];
+    private int lastValidOffset = 0;
+
+    MetadataComputer(File file, Charset encoding) {
       this.file = file;
       this.encoding = encoding;
     }
@@ -91,67 +123,64 @@ public class FileMetadata {
           lines, encoding, CoreProperties.ENCODING_PROPERTY);
         alreadyLoggedInvalidCharacter = true;
       }
-    }
-
-    @Override
-    protected void newLine() {
-      lines++;
-      if (!blankLine) {
-        nonBlankLines++;
-      }
-      blankLine = true;
+      currentOriginalOffset++;
     }
 
     @Override
     protected void handleIgnoreEoL(char c) {
+      line.append(c);
       if (!Character.isWhitespace(c)) {
         blankLine = false;
+        nonWhitespaces.append(c);
       }
     }
 
     @Override
-    protected void eof() {
-      if (!blankLine) {
-        nonBlankLines++;
+    protected void newLine() {
+      line.append(LINE_FEED);
+      line.update(globalMd5Digest);
+      line.clear();
+      endOfLine();
+      lines++;
+      if (lines > originalLineOffsets.length) {
+        originalLineOffsets = Arrays.copyOf(originalLineOffsets, 2 * originalLineOffsets.length);
       }
-    }
-
-    public int lines() {
-      return lines;
-    }
-
-    public int nonBlankLines() {
-      return nonBlankLines;
-    }
-
-  }
-
-  private static class FileHashComputer extends CharHandler {
-    private MessageDigest globalMd5Digest = DigestUtils.getMd5Digest();
-    private StringBuilder sb = new StringBuilder();
-
-    @Override
-    protected void handleIgnoreEoL(char c) {
-      sb.append(c);
+      originalLineOffsets[lines - 1] = currentOriginalOffset;
     }
 
     @Override
-    protected void newLine() {
-      sb.append(LINE_FEED);
-      globalMd5Digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
-      sb.setLength(0);
+    protected void eof() {
+      if (line.length() > 0) {
+        line.update(globalMd5Digest);
+      }
+      endOfLine();
+      lastValidOffset = currentOriginalOffset;
     }
 
-    @Override
-    protected void eof() {
-      if (sb.length() > 0) {
-        globalMd5Digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+    private void endOfLine() {
+      if (!blankLine) {
+        nonBlankLines++;
+      }
+      blankLine = true;
+      if (lines * MD5_LENGTH > lineHashes.length) {
+        lineHashes = Arrays.copyOf(lineHashes, 2 * lineHashes.length);
+      }
+      if (nonWhitespaces.length() > 0) {
+        nonWhitespaces.update(lineMd5Digest);
+        try {
+          lineMd5Digest.digest(lineHashes, (lines - 1) * MD5_LENGTH, MD5_LENGTH);
+        } catch (DigestException e) {
+          throw new IllegalStateException("Fail to compute hash of line " + lines + " of " + file, e);
+        }
+        nonWhitespaces.clear();
+      } else {
+        linesWithoutHash.set(lines - 1);
       }
     }
 
-    @CheckForNull
-    public String getHash() {
-      return Hex.encodeHexString(globalMd5Digest.digest());
+    Metadata metadata() {
+      return new Metadata(lines, nonBlankLines, Hex.encodeHexString(globalMd5Digest.digest()), Arrays.copyOf(originalLineOffsets, lines), lastValidOffset,
+        new LineHashes(Arrays.copyOf(lineHashes, lines * MD5_LENGTH), linesWithoutHash));
     }
   }
 
@@ -188,38 +217,95 @@ public class FileMetadata {
 
   }
 
-  private static class LineOffsetCounter extends CharHandler {
-    private int currentOriginalOffset = 0;
-    private List<Integer> originalLineOffsets = new ArrayList<>();
-    private int lastValidOffset = 0;
-
-    public LineOffsetCounter() {
-      originalLineOffsets.add(0);
+  /**
+   * Chars of a line, encoded in UTF-8 into a reused buffer to update digests.
+   */
+  private static class LineBuffer {
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private char[] chars = new char[256];
+    private byte[] bytes = new byte[0];
+    private int length = 0;
+
+    void append(char c) {
+      if (length == chars.length) {
+        chars = Arrays.copyOf(chars, 2 * length);
+      }
+      chars[length] = c;
+      length++;
     }
 
-    @Override
-    protected void handleAll(char c) {
-      currentOriginalOffset++;
+    int length() {
+      return length;
     }
 
-    @Override
-    protected void newLine() {
-      originalLineOffsets.add(currentOriginalOffset);
+    void clear() {
+      length = 0;
     }
 
-    @Override
-    protected void eof() {
-      lastValidOffset = currentOriginalOffset;
+    /**
+     * Same bytes as {@code new String(chars).getBytes(UTF_8)}, as each char is encoded in at most 3 bytes.
+     */
+    void update(MessageDigest digest) {
+      if (bytes.length < 3 * length) {
+        bytes = new byte[3 * chars.length];
+      }
+      ByteBuffer out = ByteBuffer.wrap(bytes);
+      encoder.reset();
+      encoder.encode(CharBuffer.wrap(chars, 0, length), out, true);
+      encoder.flush(out);
+      digest.update(bytes, 0, out.position());
     }
+  }
+
+  /**
+   * Dispatches chars to handlers. Lines end with LF, CR or CR LF.
+   */
+  private static class CharsDispatcher {
+    private final CharHandler[] handlers;
+    private boolean afterCR = false;
 
-    public List<Integer> getOriginalLineOffsets() {
-      return originalLineOffsets;
+    CharsDispatcher(CharHandler... handlers) {
+      this.handlers = handlers;
     }
 
-    public int getLastValidOffset() {
-      return lastValidOffset;
+    void dispatch(char[] chars, int start, int end) {
+      for (int i = start; i < end; i++) {
+        char c = chars[i];
+        if (afterCR) {
+          for (CharHandler handler : handlers) {
+            if (c != CARRIAGE_RETURN && c != LINE_FEED) {
+              handler.handleIgnoreEoL(c);
+            }
+            handler.handleAll(c);
+            handler.newLine();
+          }
+          afterCR = c == CARRIAGE_RETURN;
+        } else if (c == LINE_FEED) {
+          for (CharHandler handler : handlers) {
+            handler.handleAll(c);
+            handler.newLine();
+          }
+        } else if (c == CARRIAGE_RETURN) {
+          afterCR = true;
+          for (CharHandler handler : handlers) {
+            handler.handleAll(c);
+          }
+        } else {
+          for (CharHandler handler : handlers) {
+            handler.handleIgnoreEoL(c);
+            handler.handleAll(c);
+          }
+        }
+      }
     }
 
+    void eof() {
+      for (CharHandler handler : handlers) {
+        handler.eof();
+      }
+    }
   }
 
   /**
@@ -227,76 +313,114 @@ public class FileMetadata {
    * Maximum performance is needed.
    */
   public Metadata readMetadata(File file, Charset encoding) {
-    LineCounter lineCounter = new LineCounter(file, encoding);
-    FileHashComputer fileHashComputer = new FileHashComputer();
-    LineOffsetCounter lineOffsetCounter = new LineOffsetCounter();
-    readFile(file, encoding, lineCounter, fileHashComputer, lineOffsetCounter);
-    return new Metadata(lineCounter.lines(), lineCounter.nonBlankLines(), fileHashComputer.getHash(), lineOffsetCounter.getOriginalLineOffsets(),
-      lineOffsetCounter.getLastValidOffset());
+    MetadataComputer computer = new MetadataComputer(file, encoding);
+    readFile(file, encoding, computer);
+    return computer.metadata();
   }
 
   /**
    * For testing purpose
    */
   public Metadata readMetadata(Reader reader) {
-    LineCounter lineCounter = new LineCounter(new File("fromString"), StandardCharsets.UTF_16);
-    FileHashComputer fileHashComputer = new FileHashComputer();
-    LineOffsetCounter lineOffsetCounter = new LineOffsetCounter();
+    MetadataComputer computer = new MetadataComputer(new File("fromString"), StandardCharsets.UTF_16);
     try {
-      read(reader, lineCounter, fileHashComputer, lineOffsetCounter);
+      read(reader, computer);
     } catch (IOException e) {
       throw new IllegalStateException("Should never occurs", e);
     }
-    return new Metadata(lineCounter.lines(), lineCounter.nonBlankLines(), fileHashComputer.getHash(), lineOffsetCounter.getOriginalLineOffsets(),
-      lineOffsetCounter.getLastValidOffset());
+    return computer.metadata();
   }
 
   public static void readFile(File file, Charset encoding, CharHandler... handlers) {
-    try (BOMInputStream bomIn = new BOMInputStream(new FileInputStream(file),
-      ByteOrderMark.UTF_8, ByteOrderMark.UTF_16LE, ByteOrderMark.UTF_16BE, ByteOrderMark.UTF_32LE, ByteOrderMark.UTF_32BE);
-      Reader reader = new BufferedReader(new InputStreamReader(bomIn, encoding))) {
-      read(reader, handlers);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      read(channel, encoding, handlers);
     } catch (IOException e) {
       throw new IllegalStateException(String.format("Fail to read file '%s' with encoding '%s'", file.getAbsolutePath(), encoding), e);
     }
   }
 
-  private static void read(Reader reader, CharHandler... handlers) throws IOException {
-    char c = (char) 0;
-    int i = reader.read();
-    boolean afterCR = false;
-    while (i != -1) {
-      c = (char) i;
-      if (afterCR) {
-        for (CharHandler handler : handlers) {
-          if (c != CARRIAGE_RETURN && c != LINE_FEED) {
-            handler.handleIgnoreEoL(c);
-          }
-          handler.handleAll(c);
-          handler.newLine();
-        }
-        afterCR = c == CARRIAGE_RETURN;
-      } else if (c == LINE_FEED) {
-        for (CharHandler handler : handlers) {
-          handler.handleAll(c);
-          handler.newLine();
-        }
-      } else if (c == CARRIAGE_RETURN) {
-        afterCR = true;
-        for (CharHandler handler : handlers) {
-          handler.handleAll(c);
-        }
+  /**
+   * Decodes the file by blocks, instead of reading it char by char through a {@link Reader}.
+   */
+  private static void read(FileChannel channel, Charset encoding, CharHandler... handlers) throws IOException {
+    CharsDispatcher dispatcher = new CharsDispatcher(handlers);
+    // same decoding of malformed input as InputStreamReader
+    CharsetDecoder decoder = encoding.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+    CharBuffer out = CharBuffer.allocate(BUFFER_SIZE);
+
+    boolean endOfInput = fill(channel, in);
+    in.flip();
+    skipByteOrderMark(in);
+    while (true) {
+      CoderResult result = decoder.decode(in, out, endOfInput);
+      if (result.isOverflow()) {
+        dispatch(out, dispatcher);
+      } else if (endOfInput) {
+        break;
       } else {
-        for (CharHandler handler : handlers) {
-          handler.handleIgnoreEoL(c);
-          handler.handleAll(c);
-        }
+        in.compact();
+        endOfInput = fill(channel, in);
+        in.flip();
       }
-      i = reader.read();
     }
-    for (CharHandler handler : handlers) {
-      handler.eof();
+    while (decoder.flush(out).isOverflow()) {
+      dispatch(out, dispatcher);
     }
+    dispatch(out, dispatcher);
+    dispatcher.eof();
+  }
+
+  /**
+   * @return true if the end of the file is reached
+   */
+  private static boolean fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) == -1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void skipByteOrderMark(ByteBuffer buffer) {
+    for (ByteOrderMark bom : BOMS) {
+      if (startsWith(buffer, bom)) {
+        buffer.position(buffer.position() + bom.length());
+        return;
+      }
+    }
+  }
+
+  private static boolean startsWith(ByteBuffer buffer, ByteOrderMark bom) {
+    if (buffer.remaining() < bom.length()) {
+      return false;
+    }
+    for (int i = 0; i < bom.length(); i++) {
+      if ((buffer.get(buffer.position() + i) & 0xFF) != bom.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void dispatch(CharBuffer chars, CharsDispatcher dispatcher) {
+    chars.flip();
+    dispatcher.dispatch(chars.array(), chars.arrayOffset() + chars.position(), chars.arrayOffset() + chars.limit());
+    chars.clear();
+  }
+
+  private static void read(Reader reader, CharHandler... handlers) throws IOException {
+    CharsDispatcher dispatcher = new CharsDispatcher(handlers);
+    char[] chars = new char[BUFFER_SIZE];
+    int read = reader.read(chars);
+    while (read != -1) {
+      dispatcher.dispatch(chars, 0, read);
+      read = reader.read(chars);
+    }
+    dispatcher.eof();
   }
 
   public static class Metadata {
@@ -305,13 +429,39 @@ public class FileMetadata {
     final String hash;
     final int[] originalLineOffsets;
     final int lastValidOffset;
+    final LineHashes lineHashes;
 
-    private Metadata(int lines, int nonBlankLines, String hash, List<Integer> originalLineOffsets, int lastValidOffset) {
+    private Metadata(int lines, int nonBlankLines, String hash, int[] originalLineOffsets, int lastValidOffset, LineHashes lineHashes) {
       this.lines = lines;
       this.nonBlankLines = nonBlankLines;
       this.hash = hash;
-      this.originalLineOffsets = Ints.toArray(originalLineOffsets);
+      this.originalLineOffsets = originalLineOffsets;
       this.lastValidOffset = lastValidOffset;
+      this.lineHashes = lineHashes;
+    }
+  }
+
+  /**
+   * MD5 hashes of the lines of a file, computed with its metadata. They are kept in a single array, which
+   * takes 16 bytes per line.
+   */
+  static class LineHashes {
+    private final byte[] hashes;
+    private final BitSet linesWithoutHash;
+
+    LineHashes(byte[] hashes, BitSet linesWithoutHash) {
+      this.hashes = hashes;
+      this.linesWithoutHash = linesWithoutHash;
+    }
+
+    int lines() {
+      return hashes.length / MD5_LENGTH;
+    }
+
+    void consume(LineHashConsumer consumer) {
+      for (int i = 0; i < lines(); i++) {
+        consumer.consume(i + 1, linesWithoutHash.get(i) ? null : Arrays.copyOfRange(hashes, i * MD5_LENGTH, (i + 1) * MD5_LENGTH));
+      }
     }
   }
 
@@ -322,9 +472,15 @@ public class FileMetadata {
   }
 
   /**
-   * Compute a MD5 hash of each line of the file after removing of all blank chars
+   * Compute a MD5 hash of each line of the file after removing of all blank chars.
+   * Hashes computed with the metadata of the file are used if available, so that the file is not read again.
    */
   public static void computeLineHashesForIssueTracking(DefaultInputFile f, LineHashConsumer consumer) {
-    readFile(f.file(), f.charset(), new LineHashComputer(consumer));
+    LineHashes lineHashes = f.lineHashes();
+    if (lineHashes != null) {
+      lineHashes.consume(consumer);
+    } else {
+      readFile(f.file(), f.charset(), new LineHashComputer(consumer));
+    }
   }
 }
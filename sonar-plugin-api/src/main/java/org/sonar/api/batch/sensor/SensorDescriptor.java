@@ -86,4 +86,24 @@ public interface SensorDescriptor {
    */
   SensorDescriptor disabledInPreview();
 
+  /**
+   * Keys of the data this {@link Sensor} needs, for example metric keys. Used by the platform to execute the {@link Sensor}
+   * after the sensors that {@link #provides(String...) provide} them.
+   * @since 5.2
+   */
+  SensorDescriptor dependsOn(String... keys);
+
+  /**
+   * Keys of the data this {@link Sensor} computes, for example metric keys. See {@link #dependsOn(String...)}.
+   * @since 5.2
+   */
+  SensorDescriptor provides(String... keys);
+
+  /**
+   * This {@link Sensor} does not share mutable state with other sensors, so it can be executed concurrently with other
+   * thread-safe sensors. Default is to execute sensors one at a time.
+   * @since 5.2
+   */
+  SensorDescriptor threadSafe();
+
 }
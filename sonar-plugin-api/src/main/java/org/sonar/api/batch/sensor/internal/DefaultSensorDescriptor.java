@@ -35,6 +35,9 @@ public class DefaultSensorDescriptor implements SensorDescriptor {
   private String[] ruleRepositories = new String[0];
   private String[] properties = new String[0];
   private boolean disabledInPreview = false;
+  private String[] dependsOn = new String[0];
+  private String[] provides = new String[0];
+  private boolean threadSafe = false;
 
   public String name() {
     return name;
@@ -61,6 +64,18 @@ public class DefaultSensorDescriptor implements SensorDescriptor {
     return disabledInPreview;
   }
 
+  public Collection<String> dependsOn() {
+    return Arrays.asList(dependsOn);
+  }
+
+  public Collection<String> provides() {
+    return Arrays.asList(provides);
+  }
+
+  public boolean isThreadSafe() {
+    return threadSafe;
+  }
+
   @Override
   public DefaultSensorDescriptor name(String name) {
     this.name = name;
@@ -112,4 +127,22 @@ public class DefaultSensorDescriptor implements SensorDescriptor {
     return this;
   }
 
+  @Override
+  public DefaultSensorDescriptor dependsOn(String... keys) {
+    this.dependsOn = keys;
+    return this;
+  }
+
+  @Override
+  public DefaultSensorDescriptor provides(String... keys) {
+    this.provides = keys;
+    return this;
+  }
+
+  @Override
+  public DefaultSensorDescriptor threadSafe() {
+    this.threadSafe = true;
+    return this;
+  }
+
 }
@@ -162,6 +162,19 @@ public final class ZipUtils {
     }
   }
 
+  /**
+   * Compress the content of a directory into a stream, for example to send it without writing
+   * the zip file to disk. The stream is not closed.
+   *
+   * @since 5.2
+   */
+  public static void zipDir(File dir, OutputStream out) throws IOException {
+    ZipOutputStream zout = new ZipOutputStream(out);
+    doZipDir(dir, zout);
+    zout.finish();
+    zout.flush();
+  }
+
   private static void doZip(String entryName, InputStream in, ZipOutputStream out) throws IOException {
     ZipEntry entry = new ZipEntry(entryName);
     out.putNextEntry(entry);
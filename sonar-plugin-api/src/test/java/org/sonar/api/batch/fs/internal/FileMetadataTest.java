@@ -34,6 +34,8 @@ import javax.annotation.Nullable;
 import java.io.File;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -226,6 +228,50 @@ public class FileMetadataTest {
     });
   }
 
+  @Test
+  public void line_hashes_are_computed_with_metadata() throws Exception {
+    File tempFile = temp.newFile();
+    FileUtils.write(tempFile, " foo\n\nb ar\r\n", StandardCharsets.UTF_8, true);
+
+    DefaultInputFile f = new DefaultInputFile("foo", tempFile.getName());
+    f.setModuleBaseDir(tempFile.getParentFile().toPath());
+    f.setCharset(StandardCharsets.UTF_8);
+    f.initMetadata(new FileMetadata().readMetadata(tempFile, StandardCharsets.UTF_8));
+    // file is not read again
+    FileUtils.forceDelete(tempFile);
+
+    final List<String> hashes = new ArrayList<>();
+    FileMetadata.computeLineHashesForIssueTracking(f, new LineHashConsumer() {
+
+      @Override
+      public void consume(int lineIdx, @Nullable byte[] hash) {
+        hashes.add(lineIdx + ":" + (hash != null ? Hex.encodeHexString(hash) : null));
+      }
+    });
+    assertThat(hashes).containsExactly("1:" + md5Hex("foo"), "2:null", "3:" + md5Hex("bar"), "4:null");
+  }
+
+  @Test
+  public void large_file_is_read_by_blocks() throws Exception {
+    // multi-byte characters and CRLF cross the boundaries of blocks
+    String line = "\u00e9\u20ac\ud83d\ude00 line\r\n";
+    int lines = 20000;
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      sb.append(line);
+    }
+    File tempFile = temp.newFile();
+    FileUtils.write(tempFile, sb.toString(), StandardCharsets.UTF_8, true);
+
+    FileMetadata.Metadata metadata = new FileMetadata().readMetadata(tempFile, StandardCharsets.UTF_8);
+    assertThat(metadata.lines).isEqualTo(lines + 1);
+    assertThat(metadata.nonBlankLines).isEqualTo(lines);
+    assertThat(metadata.hash).isEqualTo(md5Hex(sb.toString().replace("\r\n", "\n")));
+    assertThat(metadata.originalLineOffsets[lines]).isEqualTo(lines * line.length());
+    assertThat(metadata.lastValidOffset).isEqualTo(sb.length());
+    assertThat(logTester.logs(LoggerLevel.WARN)).isEmpty();
+  }
+
   @Test
   public void dont_fail_on_empty_file() throws Exception {
     File tempFile = temp.newFile();
@@ -34,13 +34,28 @@ public class DefaultSensorDescriptorTest {
       .onlyOnLanguage("java")
       .onlyOnFileType(InputFile.Type.MAIN)
       .requireProperty("sonar.foo.reportPath")
-      .createIssuesForRuleRepository("squid-java");
+      .createIssuesForRuleRepository("squid-java")
+      .dependsOn("ncloc")
+      .provides("coverage")
+      .threadSafe();
 
     assertThat(descriptor.name()).isEqualTo("Foo");
     assertThat(descriptor.languages()).containsOnly("java");
     assertThat(descriptor.type()).isEqualTo(InputFile.Type.MAIN);
     assertThat(descriptor.properties()).containsOnly("sonar.foo.reportPath");
     assertThat(descriptor.ruleRepositories()).containsOnly("squid-java");
+    assertThat(descriptor.dependsOn()).containsOnly("ncloc");
+    assertThat(descriptor.provides()).containsOnly("coverage");
+    assertThat(descriptor.isThreadSafe()).isTrue();
+  }
+
+  @Test
+  public void not_thread_safe_by_default() {
+    DefaultSensorDescriptor descriptor = new DefaultSensorDescriptor();
+
+    assertThat(descriptor.dependsOn()).isEmpty();
+    assertThat(descriptor.provides()).isEmpty();
+    assertThat(descriptor.isThreadSafe()).isFalse();
   }
 
 }